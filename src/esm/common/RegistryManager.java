@@ -3,6 +3,7 @@ package esm.common;
 import esm.distribution.instance.RemoteObject;
 import esm.distribution.invocation.AbsoluteObjectReference;
 import esm.distribution.management.Invoker;
+import esm.distribution.management.Requestor;
 
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
@@ -18,6 +19,11 @@ public final class RegistryManager {
 
     private static RegistryProxy registryProxy;
 
+    /**
+     * Indicates if the invocations to the looked up remote objects are prepared in background.
+     */
+    private static volatile boolean prewarmLookups = true;
+
     /**
      * The internal registry skeleton.
      */
@@ -41,6 +47,17 @@ public final class RegistryManager {
         registryProxy.checkConnection();
     }
 
+    /**
+     * Sets if the invocations to the remote objects returned by {@link #lookup(String)} and {@link #lookupAll(String)}
+     * are prepared in background, opening the connections to their servers before the first invocation, see
+     * {@link Requestor#prewarm(AbsoluteObjectReference)}. Enabled by default.
+     *
+     * @param prewarmLookups if the looked up remote objects are prepared
+     */
+    public static void setPrewarmLookups(boolean prewarmLookups) {
+        RegistryManager.prewarmLookups = prewarmLookups;
+    }
+
     /**
      * Bind a {@link RemoteObject} {@link esm.distribution.invocation.Proxy} to this Registry.
      *
@@ -78,7 +95,8 @@ public final class RegistryManager {
     }
 
     /**
-     * Gets a {@link RemoteObject} {@link esm.distribution.invocation.Proxy} from the Registry.
+     * Gets a {@link RemoteObject} {@link esm.distribution.invocation.Proxy} from the Registry. The connection to the
+     * remote object server is opened in background, if enabled.
      *
      * @param remoteObjectIdentifier the string type identifier of the remote object
      * @return the first found remote object
@@ -86,18 +104,25 @@ public final class RegistryManager {
      */
     public static RemoteObject lookup(String remoteObjectIdentifier) throws NoSuchElementException {
         Objects.requireNonNull(registryProxy, "The Registry proxy was not initialized.");
-        return registryProxy.lookup(remoteObjectIdentifier);
+        RemoteObject remoteObject = registryProxy.lookup(remoteObjectIdentifier);
+        prewarm(remoteObject);
+        return remoteObject;
     }
 
     /**
-     * Gets all {@link RemoteObject}s {@link esm.distribution.invocation.Proxy} from the Registry.
+     * Gets all {@link RemoteObject}s {@link esm.distribution.invocation.Proxy} from the Registry. The connections to
+     * the remote objects servers are opened in background, if enabled.
      *
      * @param remoteObjectIdentifier the string type identifier of the remote object
      * @return the found remote objects
      */
     public static ArrayList<RemoteObject> lookupAll(String remoteObjectIdentifier) {
         Objects.requireNonNull(registryProxy, "The Registry proxy was not initialized.");
-        return registryProxy.lookupAll(remoteObjectIdentifier);
+        ArrayList<RemoteObject> remoteObjects = registryProxy.lookupAll(remoteObjectIdentifier);
+        for (RemoteObject remoteObject : remoteObjects) {
+            prewarm(remoteObject);
+        }
+        return remoteObjects;
     }
 
     /**
@@ -110,6 +135,18 @@ public final class RegistryManager {
         return registryProxy.list();
     }
 
+    /**
+     * Prepares the invocations to the looked up remote object in background, if enabled. The connection failures are
+     * ignored, they are reported by the invocations.
+     *
+     * @param remoteObject the looked up remote object
+     */
+    private static void prewarm(RemoteObject remoteObject) {
+        if (prewarmLookups && remoteObject != null) {
+            new Requestor().prewarm(remoteObject.getAbsoluteObjectReference());
+        }
+    }
+
     // Skeleton methods
 
     /**
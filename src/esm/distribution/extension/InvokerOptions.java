@@ -0,0 +1,242 @@
+package esm.distribution.extension;
+
+import esm.infrastructure.TransportFactory.TransportProtocol;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The InvokerOptions sets how the {@link esm.distribution.management.Invoker} receives and processes the remote method
+ * invocations.
+ *
+ * @author Pedro Henrique
+ */
+public class InvokerOptions {
+
+    /**
+     * The Invoker {@link ProcessingMode}.
+     */
+    private ProcessingMode processingMode;
+
+    /**
+     * The number of reactor threads used in the {@link ProcessingMode#REACTOR} mode.
+     */
+    private int reactorThreads;
+
+    /**
+     * The number of threads that process the invocations in the {@link ProcessingMode#REACTOR} mode.
+     */
+    private int workerThreads;
+
+    /**
+     * The additional {@link TransportProtocol}s of the bound ports, that accept connections of the same host.
+     */
+    private Set<TransportProtocol> localTransportProtocols;
+
+    /**
+     * The {@link LocalInvocationMode} of the invocations to the Skeletons bound in the same process.
+     */
+    private LocalInvocationMode localInvocationMode;
+
+    /**
+     * The max number of request bytes in execution, shared by the connections of all bound ports.
+     */
+    private long maxInFlightBytes;
+
+    /**
+     * Creates the InvokerOptions with the {@link ProcessingMode#THREAD_PER_CONNECTION} mode.
+     */
+    public InvokerOptions() {
+        processingMode = ProcessingMode.THREAD_PER_CONNECTION;
+        reactorThreads = Runtime.getRuntime().availableProcessors();
+        workerThreads = Runtime.getRuntime().availableProcessors() * 2;
+        localTransportProtocols = Collections.emptySet();
+        localInvocationMode = LocalInvocationMode.COPY_ARGUMENTS;
+        maxInFlightBytes = Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /**
+     * Creates the InvokerOptions with the received properties.
+     *
+     * @param processingMode the Invoker {@link ProcessingMode}, can not be null
+     * @param reactorThreads the number of reactor threads, shared by all bound ports
+     * @param workerThreads  the number of threads that process the invocations
+     */
+    public InvokerOptions(ProcessingMode processingMode, int reactorThreads, int workerThreads) {
+        this.processingMode = Objects.requireNonNull(processingMode, "The processing mode can not be null.");
+        if (reactorThreads < 1) {
+            throw new IllegalArgumentException("The number of reactor threads can not be less than 1.");
+        }
+        this.reactorThreads = reactorThreads;
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("The number of worker threads can not be less than 1.");
+        }
+        this.workerThreads = workerThreads;
+        localTransportProtocols = Collections.emptySet();
+        localInvocationMode = LocalInvocationMode.COPY_ARGUMENTS;
+        maxInFlightBytes = Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /**
+     * Creates the InvokerOptions with the received properties.
+     *
+     * @param processingMode          the Invoker {@link ProcessingMode}, can not be null
+     * @param reactorThreads          the number of reactor threads, shared by all bound ports
+     * @param workerThreads           the number of threads that process the invocations
+     * @param localTransportProtocols the additional {@link TransportProtocol}s that the bound ports accept from
+     *                                clients of the same host, {@link TransportProtocol#UNIX} or
+     *                                {@link TransportProtocol#SHARED_MEMORY}, can not be null
+     * @param localInvocationMode     the {@link LocalInvocationMode} of the invocations to Skeletons bound in the same
+     *                                process, can not be null
+     */
+    public InvokerOptions(ProcessingMode processingMode, int reactorThreads, int workerThreads,
+                          Set<TransportProtocol> localTransportProtocols, LocalInvocationMode localInvocationMode) {
+        this(processingMode, reactorThreads, workerThreads);
+        this.localInvocationMode
+                = Objects.requireNonNull(localInvocationMode, "The local invocation mode can not be null.");
+        Objects.requireNonNull(localTransportProtocols, "The local transport protocols can not be null.");
+        for (TransportProtocol localTransportProtocol : localTransportProtocols) {
+            if (localTransportProtocol != TransportProtocol.UNIX
+                    && localTransportProtocol != TransportProtocol.SHARED_MEMORY) {
+                throw new IllegalArgumentException("The local transport protocols should be UNIX or SHARED_MEMORY.");
+            }
+        }
+        this.localTransportProtocols = localTransportProtocols.isEmpty()
+                ? Collections.emptySet()
+                : Collections.unmodifiableSet(EnumSet.copyOf(localTransportProtocols));
+    }
+
+    /**
+     * Creates the InvokerOptions with the received properties.
+     *
+     * @param processingMode          the Invoker {@link ProcessingMode}, can not be null
+     * @param reactorThreads          the number of reactor threads, shared by all bound ports
+     * @param workerThreads           the number of threads that process the invocations
+     * @param localTransportProtocols the additional {@link TransportProtocol}s that the bound ports accept from
+     *                                clients of the same host, {@link TransportProtocol#UNIX} or
+     *                                {@link TransportProtocol#SHARED_MEMORY}, can not be null
+     * @param localInvocationMode     the {@link LocalInvocationMode} of the invocations to Skeletons bound in the same
+     *                                process, can not be null
+     * @param maxInFlightBytes        the max number of request bytes in execution, shared by the connections of all
+     *                                bound ports, while reached the connections stop reading requests
+     */
+    public InvokerOptions(ProcessingMode processingMode, int reactorThreads, int workerThreads,
+                          Set<TransportProtocol> localTransportProtocols, LocalInvocationMode localInvocationMode,
+                          long maxInFlightBytes) {
+        this(processingMode, reactorThreads, workerThreads, localTransportProtocols, localInvocationMode);
+        if (maxInFlightBytes < 1) {
+            throw new IllegalArgumentException("The max number of in flight bytes can not be less than 1.");
+        }
+        this.maxInFlightBytes = maxInFlightBytes;
+    }
+
+    /**
+     * Returns the Invoker {@link ProcessingMode} option.
+     *
+     * @return the Invoker processing mode
+     */
+    public ProcessingMode getProcessingMode() {
+        return processingMode;
+    }
+
+    /**
+     * Returns the number of reactor threads used in the {@link ProcessingMode#REACTOR} mode.
+     *
+     * @return the number of reactor threads
+     */
+    public int getReactorThreads() {
+        return reactorThreads;
+    }
+
+    /**
+     * Returns the number of threads that process the invocations in the {@link ProcessingMode#REACTOR} mode.
+     *
+     * @return the number of worker threads
+     */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * Returns if the bound ports also accept connections by Unix domain sockets, the clients in the same host can use
+     * the {@link TransportProtocol#UNIX} protocol.
+     *
+     * @return if the Unix domain sockets are accepted
+     */
+    public boolean isUnixDomainSockets() {
+        return localTransportProtocols.contains(TransportProtocol.UNIX);
+    }
+
+    /**
+     * Returns the additional {@link TransportProtocol}s of the bound ports, each bound port also accepts the clients
+     * of the same host that use one of these protocols.
+     *
+     * @return the unmodifiable set of local transport protocols
+     */
+    public Set<TransportProtocol> getLocalTransportProtocols() {
+        return localTransportProtocols;
+    }
+
+    /**
+     * Returns the {@link LocalInvocationMode} of the invocations to the Skeletons bound in the same process.
+     *
+     * @return the local invocation mode
+     */
+    public LocalInvocationMode getLocalInvocationMode() {
+        return localInvocationMode;
+    }
+
+    /**
+     * Returns the max number of request bytes in execution, shared by the connections of all bound ports. The
+     * connections limited by credit windows stop reading requests while it is reached. The default is a quarter of
+     * the max memory of the process.
+     *
+     * @return the max number of in flight bytes
+     */
+    public long getMaxInFlightBytes() {
+        return maxInFlightBytes;
+    }
+
+    /**
+     * The {@link InvokerOptions} processing mode. Indicates how the connections are received and processed.
+     */
+    public enum ProcessingMode {
+
+        /**
+         * Each port is accepted by a blocking thread, and each connection is processed by its own thread.
+         */
+        THREAD_PER_CONNECTION,
+
+        /**
+         * The connections of all ports are accepted and read without blocking by a fixed number of reactor threads,
+         * the invocations are processed by a fixed number of worker threads.
+         */
+        REACTOR
+    }
+
+    /**
+     * The {@link InvokerOptions} local invocation mode. Indicates how the invocations of Proxies to Skeletons bound in
+     * the same process are dispatched while the Invoker is running.
+     */
+    public enum LocalInvocationMode {
+
+        /**
+         * The invocations are sent through the network, as the invocations to other processes.
+         */
+        NETWORK,
+
+        /**
+         * The invocations are dispatched in the caller thread through the Skeleton interceptor, the invocation and the
+         * result are copied by serialization, so the arguments are passed by value as in the remote invocations.
+         */
+        COPY_ARGUMENTS,
+
+        /**
+         * The invocations are dispatched in the caller thread through the Skeleton interceptor, the arguments and the
+         * result are shared by reference with the Skeleton.
+         */
+        SHARE_ARGUMENTS
+    }
+}
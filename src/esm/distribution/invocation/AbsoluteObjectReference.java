@@ -1,6 +1,7 @@
 package esm.distribution.invocation;
 
 import esm.distribution.messaging.presentation.MethodInvocation;
+import esm.infrastructure.TransportFactory;
 
 import java.io.Serializable;
 import java.net.InetAddress;
@@ -8,7 +9,10 @@ import java.util.Objects;
 
 /**
  * The Absolute Object Reference is used to invoke a remote object, contains a object id, a server {@link InetAddress}
- * and port.
+ * and port, and the name of the transport that reaches the server. The {@link esm.distribution.management.Invoker}
+ * listens the port with a connector of the transport, and the {@link esm.distribution.management.Requestor} connects
+ * with a handler of the same transport. The transport does not identify the object, two references that differ only
+ * in the transport are equal.
  *
  * @author Pedro Henrique
  * @see Skeleton
@@ -33,19 +37,39 @@ public class AbsoluteObjectReference implements Serializable {
     private int serverPort;
 
     /**
-     * Creates the absolute object reference with the data to access the distributed a object.
+     * The transport name.
+     */
+    private String transport;
+
+    /**
+     * Creates the absolute object reference with the data to access the distributed a object, using the
+     * {@link TransportFactory.TransportProtocol#TCP} transport.
      *
      * @param objectId      the object id
      * @param serverAddress the server address
      * @param serverPort    the server port
      */
     public AbsoluteObjectReference(int objectId, InetAddress serverAddress, int serverPort) {
+        this(objectId, serverAddress, serverPort, TransportFactory.TransportProtocol.TCP.getName());
+    }
+
+    /**
+     * Creates the absolute object reference with the data to access the distributed a object.
+     *
+     * @param objectId      the object id
+     * @param serverAddress the server address
+     * @param serverPort    the server port
+     * @param transport     the transport name, a {@link TransportFactory.TransportProtocol} name or the name of a
+     *                      discovered {@link esm.infrastructure.TransportProvider}, can not be null
+     */
+    public AbsoluteObjectReference(int objectId, InetAddress serverAddress, int serverPort, String transport) {
         this.objectId = objectId;
         this.serverAddress = Objects.requireNonNull(serverAddress, "The server address can not be null.");
         if (serverPort < 0 || serverPort > 65535) {
             throw new IllegalArgumentException("The server port should be between 0 and 65535.");
         }
         this.serverPort = serverPort;
+        this.transport = Objects.requireNonNull(transport, "The transport can not be null.");
     }
 
     @Override
@@ -90,4 +114,13 @@ public class AbsoluteObjectReference implements Serializable {
     public int getServerPort() {
         return serverPort;
     }
+
+    /**
+     * Returns the transport name of this {@link AbsoluteObjectReference}.
+     *
+     * @return the transport name
+     */
+    public String getTransport() {
+        return transport;
+    }
 }
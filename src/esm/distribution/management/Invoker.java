@@ -1,23 +1,43 @@
 package esm.distribution.management;
 
+import esm.distribution.extension.InvokerOptions;
 import esm.distribution.extension.SkeletonBlockerInterceptor;
 import esm.distribution.invocation.AbsoluteObjectReference;
 import esm.distribution.invocation.Skeleton;
 import esm.distribution.messaging.presentation.MethodInvocation;
 import esm.distribution.messaging.presentation.MethodResult;
 import esm.distribution.messaging.session.Message;
-import esm.distribution.serialization.Crypto;
 import esm.distribution.serialization.Marshaller;
+import esm.distribution.serialization.MessageCodec;
+import esm.infrastructure.MultiplexedServerRequestHandler;
+import esm.infrastructure.PortProfile;
+import esm.infrastructure.ReactiveServerRequestConnector;
 import esm.infrastructure.ServerRequestConnector;
 import esm.infrastructure.ServerRequestHandler;
-import esm.infrastructure.impl.tcp.TCPServerRequestConnector;
+import esm.infrastructure.TransportFactory;
+import esm.infrastructure.nio.ByteBudget;
+import esm.infrastructure.nio.Reactor;
 import esm.util.Tuple;
+import esm.util.buffer.PooledBuffer;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -48,6 +68,12 @@ public class Invoker {
 
     //
 
+    /**
+     * The time in milliseconds that the stop waits the invocations in execution in the
+     * {@link InvokerOptions.ProcessingMode#REACTOR} mode.
+     */
+    private static final long STOP_GRACE_TIME = 5000;
+
     /**
      * The map with the bound {@link Skeleton}s.
      */
@@ -58,24 +84,109 @@ public class Invoker {
      */
     private Map<Integer, ServerRequestConnector> serverRequestConnectors;
 
+    /**
+     * The {@link PortProfile}s of the ports, the ports without profile use the default one.
+     */
+    private Map<Integer, PortProfile> portProfiles;
+
+    /**
+     * The maps with the {@link ServerRequestConnector}s of the bound ports for each local transport protocol, created
+     * when the Invoker starts with the {@link InvokerOptions#getLocalTransportProtocols()} option.
+     */
+    private Map<TransportFactory.TransportProtocol, Map<Integer, ServerRequestConnector>> localServerRequestConnectors;
+
+    /**
+     * The persistent {@link ServerRequestHandler}s waiting for the next request, disconnected when the Invoker stops.
+     */
+    private Set<ServerRequestHandler> idleServerRequestHandlers;
+
     /**
      * Indicates if this invoker is running.
      */
     private AtomicBoolean invokerRunning;
 
+    /**
+     * The Invoker options.
+     */
+    private InvokerOptions invokerOptions;
+
+    /**
+     * The reactor of the {@link ReactiveServerRequestConnector}s, null if not running in the
+     * {@link InvokerOptions.ProcessingMode#REACTOR} mode.
+     */
+    private Reactor reactor;
+
+    /**
+     * The executor of the {@link RequestProcessor}s of the requests received by a {@link Reactor} or by a
+     * {@link RequestDemultiplexer}, null if not running.
+     */
+    private volatile ExecutorService requestProcessorExecutor;
+
+    /**
+     * The budget of the request bytes in execution, shared by the connections of all started connectors, recreated
+     * when started.
+     */
+    private volatile ByteBudget byteBudget;
+
     /**
      * Creates the receiver without registered {@link Skeleton}s.
      */
     private Invoker() {
         boundSkeletons = new Hashtable<>();
         serverRequestConnectors = new Hashtable<>();
+        portProfiles = new Hashtable<>();
+        localServerRequestConnectors = new EnumMap<>(TransportFactory.TransportProtocol.class);
+        idleServerRequestHandlers = Collections.newSetFromMap(new ConcurrentHashMap<>());
         invokerRunning = new AtomicBoolean(false);
+        invokerOptions = new InvokerOptions();
+        byteBudget = new ByteBudget(invokerOptions.getMaxInFlightBytes());
+    }
+
+    /**
+     * Returns the Invoker options.
+     *
+     * @return the Invoker options
+     */
+    public InvokerOptions getInvokerOptions() {
+        return invokerOptions;
+    }
+
+    /**
+     * Sets the Invoker options, the options can not be changed while the Invoker is running.
+     *
+     * @param invokerOptions the Invoker options, can not be null
+     */
+    public synchronized void setInvokerOptions(InvokerOptions invokerOptions) {
+        Objects.requireNonNull(invokerOptions, "The Invoker options can not be null.");
+        if (invokerRunning.get()) {
+            throw new IllegalStateException("The Invoker options can not be changed while the server is running.");
+        }
+        this.invokerOptions = invokerOptions;
+    }
+
+    /**
+     * Sets the {@link PortProfile} of the port, used by its connector when the first {@link Skeleton} on the port is
+     * bound. The profile can not be changed while the Invoker is running or after the port connector was created.
+     *
+     * @param port        the port
+     * @param portProfile the port profile, can not be null
+     */
+    public synchronized void setPortProfile(int port, PortProfile portProfile) {
+        Objects.requireNonNull(portProfile, "The port profile can not be null.");
+        if (invokerRunning.get()) {
+            throw new IllegalStateException("The port profiles can not be changed while the server is running.");
+        } else if (serverRequestConnectors.containsKey(port)) {
+            throw new IllegalStateException("The port profile can not be changed after a skeleton was bound on it.");
+        }
+        portProfiles.put(port, portProfile);
     }
 
     /**
      * Binds a {@link Skeleton} in this Invoker, when the Invoker starts (calling {@link #start()}), the skeletons will
      * be able to receive remote method invocations. The Skeleton implementations should be thread-safe, because they
-     * can receive multiple invocations at the same time.
+     * can receive multiple invocations at the same time. The port of the Skeleton is listened by a connector of the
+     * transport named in its {@link AbsoluteObjectReference}, the Skeletons bound on the same port should name the same
+     * transport.
      *
      * @param skeleton the skeleton to bind in this Invoker, can not be null
      */
@@ -86,6 +197,14 @@ public class Invoker {
         } else if (boundSkeletons.containsKey(skeleton.getAbsoluteObjectReference())) {
             throw new IllegalArgumentException("A skeleton with the same AbsoluteObjectReference was bound.");
         }
+        AbsoluteObjectReference absoluteObjectReference = skeleton.getAbsoluteObjectReference();
+        TransportFactory.getTransportProvider(absoluteObjectReference.getTransport());
+        for (AbsoluteObjectReference boundAbsoluteObjectReference : boundSkeletons.keySet()) {
+            if (boundAbsoluteObjectReference.getServerPort() == absoluteObjectReference.getServerPort()
+                    && !boundAbsoluteObjectReference.getTransport().equals(absoluteObjectReference.getTransport())) {
+                throw new IllegalArgumentException("A skeleton with other transport was bound on the same port.");
+            }
+        }
         boundSkeletons.put(
                 skeleton.getAbsoluteObjectReference(),
                 new Tuple<>(
@@ -93,15 +212,16 @@ public class Invoker {
                         new SkeletonBlockerInterceptor(skeleton.getIdentifier(), skeleton.getSkeletonOptions())
                 )
         );
-        int skeletonServerPort = skeleton.getAbsoluteObjectReference().getServerPort();
+        int skeletonServerPort = absoluteObjectReference.getServerPort();
         if (!serverRequestConnectors.containsKey(skeletonServerPort)) {
             try {
                 serverRequestConnectors.put(
                         skeletonServerPort,
-                        new TCPServerRequestConnector(
-                                skeleton.getAbsoluteObjectReference().getServerAddress(),
-                                skeleton.getAbsoluteObjectReference().getServerPort()
-
+                        TransportFactory.newServerRequestConnector(
+                                absoluteObjectReference.getTransport(),
+                                absoluteObjectReference.getServerAddress(),
+                                absoluteObjectReference.getServerPort(),
+                                portProfiles.getOrDefault(skeletonServerPort, new PortProfile())
                         )
                 );
             } catch (IOException e) {
@@ -135,31 +255,269 @@ public class Invoker {
         }
         if (!foundSkeletonOnSheSameServerPort) {
             serverRequestConnectors.remove(unboundSkeletonServerPort);
+            for (Map<Integer, ServerRequestConnector> protocolServerRequestConnectors
+                    : localServerRequestConnectors.values()) {
+                ServerRequestConnector localServerRequestConnector
+                        = protocolServerRequestConnectors.remove(unboundSkeletonServerPort);
+                if (localServerRequestConnector != null) {
+                    try {
+                        localServerRequestConnector.close();
+                    } catch (IOException e) {
+                        // The connector is being closed
+                    }
+                }
+            }
         }
     }
 
     /**
-     * Starts this Invoker and the {@link ServerRequestConnector} co-routines.
+     * Starts this Invoker and the {@link ServerRequestConnector} co-routines. In the
+     * {@link InvokerOptions.ProcessingMode#REACTOR} mode, the {@link ReactiveServerRequestConnector}s are registered in
+     * a {@link Reactor}, the other connectors are still accepted by their own threads. With the
+     * {@link InvokerOptions#getLocalTransportProtocols()} option, each bound port is also accepted by a connector of
+     * each local transport protocol. The shards of each connector (see {@link ServerRequestConnector#getShards()}) are
+     * accepted by their own threads or registered separately, spread over the event loops. The connectors share a
+     * {@link ByteBudget} of {@link InvokerOptions#getMaxInFlightBytes()}.
      */
     public synchronized void start() {
         if (invokerRunning.get()) {
             throw new IllegalStateException("The receiver is already running.");
         }
-        invokerRunning.set(true);
+        List<ServerRequestConnector> startedServerRequestConnectors = new ArrayList<>();
         for (ServerRequestConnector serverRequestConnector : serverRequestConnectors.values()) {
-            new Thread(new RequestManager(serverRequestConnector)).start();
+            startedServerRequestConnectors.addAll(serverRequestConnector.getShards());
+        }
+        for (TransportFactory.TransportProtocol localTransportProtocol
+                : invokerOptions.getLocalTransportProtocols()) {
+            for (ServerRequestConnector serverRequestConnector
+                    : openLocalServerRequestConnectors(localTransportProtocol)) {
+                startedServerRequestConnectors.addAll(serverRequestConnector.getShards());
+            }
+        }
+        byteBudget = new ByteBudget(invokerOptions.getMaxInFlightBytes());
+        for (ServerRequestConnector serverRequestConnector : startedServerRequestConnectors) {
+            serverRequestConnector.setByteBudget(byteBudget);
+        }
+        invokerRunning.set(true);
+        if (invokerOptions.getProcessingMode() == InvokerOptions.ProcessingMode.REACTOR) {
+            try {
+                reactor = new Reactor(invokerOptions.getReactorThreads());
+                requestProcessorExecutor = Executors.newFixedThreadPool(invokerOptions.getWorkerThreads());
+                reactor.start();
+                for (ServerRequestConnector serverRequestConnector : startedServerRequestConnectors) {
+                    if (serverRequestConnector instanceof ReactiveServerRequestConnector) {
+                        ((ReactiveServerRequestConnector) serverRequestConnector)
+                                .register(reactor, this::dispatchRequest);
+                    } else {
+                        new Thread(new RequestManager(serverRequestConnector)).start();
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new Error();
+                // IOException can not be treated in the Invoker
+            }
+        } else {
+            requestProcessorExecutor = Executors.newCachedThreadPool();
+            for (ServerRequestConnector serverRequestConnector : startedServerRequestConnectors) {
+                new Thread(new RequestManager(serverRequestConnector)).start();
+            }
         }
     }
 
     /**
-     * Stops this receiver, in a maximum of 100 milliseconds all {@link ServerRequestConnector} co-routines will be
-     * stopped, but the {@link MethodInvocation}s in execution will finish being processed.
+     * Stops this receiver. The persistent connections waiting for new requests are closed, the others are closed
+     * after replying the request in execution.
+     * <p>
+     * In the {@link InvokerOptions.ProcessingMode#THREAD_PER_CONNECTION} mode, this method returns immediately and in a
+     * maximum of 100 milliseconds all {@link ServerRequestConnector} co-routines will be stopped, but the
+     * {@link MethodInvocation}s in execution will finish being processed. In the
+     * {@link InvokerOptions.ProcessingMode#REACTOR} mode, this method waits up to {@link #STOP_GRACE_TIME}
+     * milliseconds (5 seconds) for the {@link MethodInvocation}s in execution before stopping the reactor.
      */
     public synchronized void stop() {
         if (!invokerRunning.get()) {
             throw new IllegalStateException("The receiver is already stopped.");
         }
         invokerRunning.set(false);
+        for (ServerRequestHandler idleServerRequestHandler : idleServerRequestHandlers) {
+            disconnectQuietly(idleServerRequestHandler);
+        }
+        requestProcessorExecutor.shutdown();
+        if (reactor != null) {
+            try {
+                requestProcessorExecutor.awaitTermination(STOP_GRACE_TIME, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            reactor.stop();
+            reactor = null;
+        }
+        requestProcessorExecutor = null;
+    }
+
+    /**
+     * Returns the number of request bytes in execution, counted by the connections that share the {@link ByteBudget}.
+     *
+     * @return the in flight bytes
+     */
+    public long getInFlightBytes() {
+        return byteBudget.getUsedBytes();
+    }
+
+    /**
+     * Returns the max number of request bytes in execution reached since this Invoker was started.
+     *
+     * @return the peak of in flight bytes
+     */
+    public long getPeakInFlightBytes() {
+        return byteBudget.getPeakBytes();
+    }
+
+    /**
+     * Returns the max number of request bytes in execution of the running {@link ByteBudget}.
+     *
+     * @return the max number of in flight bytes
+     */
+    public long getMaxInFlightBytes() {
+        return byteBudget.getMaxBytes();
+    }
+
+    /**
+     * Returns the number of times a connection stopped reading requests because the {@link ByteBudget} was exhausted,
+     * since this Invoker was started.
+     *
+     * @return the paused read count
+     */
+    public long getPausedReadCount() {
+        return byteBudget.getPausedReadCount();
+    }
+
+    /**
+     * Returns if the invocations to the remote object are dispatched in this process, without the network. The
+     * invocations are local if this Invoker is running, the Skeleton of the remote object is bound in this Invoker and
+     * the {@link InvokerOptions#getLocalInvocationMode()} is not {@link InvokerOptions.LocalInvocationMode#NETWORK}.
+     *
+     * @param absoluteObjectReference the reference of the remote object
+     * @return if the invocations to the remote object are local
+     */
+    public boolean isLocalInvocation(AbsoluteObjectReference absoluteObjectReference) {
+        return invokerRunning.get()
+                && invokerOptions.getLocalInvocationMode() != InvokerOptions.LocalInvocationMode.NETWORK
+                && boundSkeletons.containsKey(absoluteObjectReference);
+    }
+
+    /**
+     * Dispatches the {@link MethodInvocation} to the bound {@link Skeleton} in the caller thread, through the
+     * {@link SkeletonBlockerInterceptor}, with the same semantics of the remote invocations. In the
+     * {@link InvokerOptions.LocalInvocationMode#COPY_ARGUMENTS} mode, the invocation and the result are copied by
+     * serialization, without encryption.
+     *
+     * @param methodInvocation the method invocation, can not be null
+     * @return the {@link MethodResult}, or null if a result is not expected
+     */
+    public MethodResult invokeLocally(MethodInvocation methodInvocation) {
+        Objects.requireNonNull(methodInvocation, "The method invocation can not be null.");
+        Tuple<Skeleton, SkeletonBlockerInterceptor> boundSkeleton
+                = boundSkeletons.get(methodInvocation.getAbsoluteObjectReference());
+        if (boundSkeleton == null) {
+            throw new IllegalArgumentException("A skeleton with the same AbsoluteObjectReference was not found.");
+        }
+        boolean copyArguments
+                = invokerOptions.getLocalInvocationMode() != InvokerOptions.LocalInvocationMode.SHARE_ARGUMENTS;
+        MethodResult methodResult = boundSkeleton.getE2().intercept(
+                boundSkeleton.getE1()::processRemoteInvocation,
+                copyArguments ? copy(methodInvocation) : methodInvocation
+        );
+        if (!methodInvocation.isExpectResult()) {
+            return null;
+        }
+        return copyArguments ? copy(methodResult) : methodResult;
+    }
+
+    /**
+     * Copies the object by serialization.
+     *
+     * @param object the object to copy
+     * @param <T>    the object type
+     * @return the copy
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T copy(T object) {
+        PooledBuffer objectData = Marshaller.marshallToBuffer(object);
+        try {
+            return (T) Marshaller.unmarshall(objectData);
+        } finally {
+            objectData.release();
+        }
+    }
+
+    /**
+     * Opens the {@link ServerRequestConnector}s of the local transport protocol for the bound ports not opened yet.
+     *
+     * @param localTransportProtocol the local transport protocol
+     * @return the local transport protocol connectors of all bound ports
+     */
+    private Collection<ServerRequestConnector> openLocalServerRequestConnectors(
+            TransportFactory.TransportProtocol localTransportProtocol) {
+        Map<Integer, ServerRequestConnector> protocolServerRequestConnectors = localServerRequestConnectors
+                .computeIfAbsent(localTransportProtocol, protocol -> new Hashtable<>());
+        for (ServerRequestConnector serverRequestConnector : serverRequestConnectors.values()) {
+            int localPort = serverRequestConnector.getLocalPort();
+            if (!protocolServerRequestConnectors.containsKey(localPort)) {
+                try {
+                    protocolServerRequestConnectors.put(
+                            localPort,
+                            TransportFactory.newServerRequestConnector(
+                                    localTransportProtocol,
+                                    serverRequestConnector.getLocalAddress(),
+                                    localPort
+                            )
+                    );
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    throw new Error();
+                    // IOException can not be treated in the Invoker
+                }
+            }
+        }
+        return protocolServerRequestConnectors.values();
+    }
+
+    /**
+     * Submits the request received by a {@link Reactor} or by a {@link RequestDemultiplexer} to be processed by the
+     * worker threads. If the Invoker is stopping, the request is dropped.
+     *
+     * @param serverRequestHandler the handler of the received request
+     */
+    private void dispatchRequest(ServerRequestHandler serverRequestHandler) {
+        ExecutorService executor = requestProcessorExecutor;
+        if (executor == null) {
+            disconnectQuietly(serverRequestHandler);
+            return;
+        }
+        try {
+            executor.execute(new RequestProcessor(serverRequestHandler));
+        } catch (RejectedExecutionException e) {
+            disconnectQuietly(serverRequestHandler);
+        }
+    }
+
+    /**
+     * Disconnects the {@link ServerRequestHandler} if it is still connected, ignoring the connection errors.
+     *
+     * @param serverRequestHandler the handler to disconnect
+     */
+    private void disconnectQuietly(ServerRequestHandler serverRequestHandler) {
+        synchronized (serverRequestHandler) {
+            if (serverRequestHandler.isConnected()) {
+                try {
+                    serverRequestHandler.disconnect();
+                } catch (IOException e) {
+                    // The connection is being closed
+                }
+            }
+        }
     }
 
     //
@@ -180,7 +538,13 @@ public class Invoker {
                 try {
                     serverRequestConnector.setTimeout(100);
                     ServerRequestHandler serverRequestHandler = serverRequestConnector.accept();
-                    new Thread(new RequestProcessor(serverRequestHandler)).start();
+                    if (serverRequestHandler instanceof MultiplexedServerRequestHandler) {
+                        new Thread(
+                                new RequestDemultiplexer((MultiplexedServerRequestHandler) serverRequestHandler)
+                        ).start();
+                    } else {
+                        new Thread(new RequestProcessor(serverRequestHandler)).start();
+                    }
                 } catch (SocketTimeoutException e) {
                     // Do nothing
                 } catch (IOException e) {
@@ -193,7 +557,53 @@ public class Invoker {
     }
 
     /**
-     * The {@link RequestProcessor} calls the {@link Skeleton}s to process the {@link MethodInvocation}.
+     * The {@link RequestDemultiplexer} receives the requests of a {@link MultiplexedServerRequestHandler} and creates a
+     * {@link RequestProcessor} for each request, so the requests of the connection are processed concurrently, until
+     * the client disconnects or the Invoker stops.
+     */
+    private class RequestDemultiplexer implements Runnable {
+        private MultiplexedServerRequestHandler serverRequestHandler;
+
+        RequestDemultiplexer(MultiplexedServerRequestHandler serverRequestHandler) {
+            this.serverRequestHandler = serverRequestHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    ServerRequestHandler exchangeHandler;
+                    idleServerRequestHandlers.add(serverRequestHandler);
+                    try {
+                        if (!invokerRunning.get()) {
+                            break;
+                        }
+                        exchangeHandler = serverRequestHandler.receiveExchange();
+                    } catch (EOFException e) {
+                        // The client closed the connection
+                        break;
+                    } finally {
+                        idleServerRequestHandlers.remove(serverRequestHandler);
+                    }
+                    dispatchRequest(exchangeHandler);
+                }
+            } catch (IOException e) {
+                if (invokerRunning.get() && serverRequestHandler.isConnected()) {
+                    e.printStackTrace();
+                    throw new Error();
+                    // IOException can not be treated in the Invoker
+                }
+                // The connection was closed by the Invoker stop
+            } finally {
+                disconnectQuietly(serverRequestHandler);
+            }
+        }
+    }
+
+    /**
+     * The {@link RequestProcessor} calls the {@link Skeleton}s to process the {@link MethodInvocation}s. If the
+     * {@link ServerRequestHandler} is persistent, the next requests of the connection are processed until the client
+     * disconnects or the Invoker stops.
      */
     private class RequestProcessor implements Runnable {
         private ServerRequestHandler serverRequestHandler;
@@ -210,22 +620,44 @@ public class Invoker {
              * This method is opposed to the sendRemoteMethodInvocation in the Requestor class
              */
             try {
-                Message requestMessage = (Message) Marshaller.unmarshall(Crypto.decrypt(serverRequestHandler.receive()));
-                MethodInvocation methodInvocation = (MethodInvocation) requestMessage.getBody();
-                Tuple<Skeleton, SkeletonBlockerInterceptor> boundSkeleton
-                        = boundSkeletons.get(methodInvocation.getAbsoluteObjectReference());
-                MethodResult methodResult = boundSkeleton.getE2()
-                        .intercept(boundSkeleton.getE1()::processRemoteInvocation, methodInvocation);
-                if (methodInvocation.isExpectResult()) {
-                    Message replyMessage = new Message(methodResult);
-                    serverRequestHandler.send(Crypto.encrypt(Marshaller.marshall(replyMessage)));
-                } else {
-                    serverRequestHandler.disconnect();
-                }
+                do {
+                    InputStream requestStream;
+                    idleServerRequestHandlers.add(serverRequestHandler);
+                    try {
+                        if (!invokerRunning.get()) {
+                            break;
+                        }
+                        requestStream = serverRequestHandler.receiveStream();
+                    } catch (EOFException e) {
+                        // The client closed the connection
+                        break;
+                    } finally {
+                        idleServerRequestHandlers.remove(serverRequestHandler);
+                    }
+                    Message requestMessage = MessageCodec.decode(requestStream);
+                    MethodInvocation methodInvocation = (MethodInvocation) requestMessage.getBody();
+                    Tuple<Skeleton, SkeletonBlockerInterceptor> boundSkeleton
+                            = boundSkeletons.get(methodInvocation.getAbsoluteObjectReference());
+                    MethodResult methodResult = boundSkeleton.getE2()
+                            .intercept(boundSkeleton.getE1()::processRemoteInvocation, methodInvocation);
+                    if (methodInvocation.isExpectResult()) {
+                        Message replyMessage = new Message(Message.MessageType.JAVA_OBJECT, 0,
+                                requestMessage.getCorrelationId(), methodResult);
+                        MessageCodec.encode(replyMessage, requestMessage.isCompressionAccepted(),
+                                serverRequestHandler.sendStream());
+                    } else if (!serverRequestHandler.isPersistent()) {
+                        serverRequestHandler.disconnect();
+                    }
+                } while (serverRequestHandler.isPersistent() && serverRequestHandler.isConnected());
             } catch (IOException e) {
-                e.printStackTrace();
-                throw new Error();
-                // IOException can not be treated in the Invoker
+                if (invokerRunning.get() && serverRequestHandler.isConnected()) {
+                    e.printStackTrace();
+                    throw new Error();
+                    // IOException can not be treated in the Invoker
+                }
+                // The connection was closed by the Invoker stop
+            } finally {
+                disconnectQuietly(serverRequestHandler);
             }
         }
     }
@@ -1,19 +1,49 @@
 package esm.distribution.management;
 
+import esm.distribution.invocation.AbsoluteObjectReference;
 import esm.distribution.messaging.presentation.MethodInvocation;
 import esm.distribution.messaging.presentation.MethodResult;
 import esm.distribution.messaging.session.Message;
-import esm.distribution.serialization.Crypto;
-import esm.distribution.serialization.Marshaller;
+import esm.distribution.serialization.Compressor;
+import esm.distribution.serialization.MessageCodec;
 import esm.infrastructure.ClientRequestHandler;
-import esm.infrastructure.impl.tcp.TCPClientRequestHandler;
+import esm.infrastructure.ClientRequestHandlerPool;
+import esm.infrastructure.MultiplexedClientRequestHandler;
+import esm.util.Tuple;
+import esm.util.buffer.PooledBuffer;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Requestor gets the {@link MethodInvocation}s and makes a message with it, this message are serialized and sent
- * to a {@link Invoker} in a server.
+ * to a {@link Invoker} in a server, through the transport named in the
+ * {@link esm.distribution.invocation.AbsoluteObjectReference}. The connections are borrowed from the
+ * {@link ClientRequestHandlerPool} and returned to it after the reply is received, so subsequent invocations to the
+ * same server reuse the connection. The {@link MultiplexedClientRequestHandler}s are shared, the concurrent
+ * invocations to the same server are sent through the same connection, so they are only discarded when their
+ * connection is closed. Multiple invocations can be pipelined with {@link #sendRemoteMethodInvocations(List)}, and
+ * the invocations can be sent without blocking with {@link #sendRemoteMethodInvocationAsync(MethodInvocation)}. The
+ * messages are marshalled, encrypted and sent in {@link PooledBuffer}s, the synchronous invocations sent by
+ * {@link MultiplexedClientRequestHandler}s are marshalled and encrypted while they are sent, and their replies while
+ * they are received, so the large messages are not buffered whole. The messages are compressed by the
+ * {@link Compressor} when it is enabled and the server of the connection accepts compressed messages. Each reply must
+ * carry the correlation identifier of its request in the message header.
  *
  * @author Pedro Henrique
  * @see MethodInvocation
@@ -23,9 +53,14 @@ import java.util.Objects;
 public class Requestor {
 
     /**
-     * The {@link ClientRequestHandler} used in the communication.
+     * The last correlation identifier of the request messages, the replies carry the identifier of their requests.
      */
-    private ClientRequestHandler clientRequestHandler;
+    private static final AtomicLong correlationIds = new AtomicLong();
+
+    /**
+     * Indicates if the message encoding was exercised by {@link #prewarm(AbsoluteObjectReference)}.
+     */
+    private static final AtomicBoolean codecPrewarmed = new AtomicBoolean();
 
     /**
      * Creates the Requestor instance.
@@ -34,7 +69,11 @@ public class Requestor {
     }
 
     /**
-     * Send a {@link MethodInvocation} to the {@link Invoker} in a server.
+     * Send a {@link MethodInvocation} to the {@link Invoker} in a server. The idle pooled connections found closed
+     * before the invocation is written are discarded by the {@link ClientRequestHandlerPool} and a new connection is
+     * used. If the connection fails after the invocation started to be written, the invocation is not sent again,
+     * because it could already be executed, the {@link IOException} is thrown as in the other invocation methods. If
+     * the Skeleton is bound in the Invoker of this process, the invocation is dispatched locally.
      *
      * @param methodInvocation the method invocation, can not be null
      * @return the {@link MethodResult}, or null if a result is not expected
@@ -42,19 +81,382 @@ public class Requestor {
      */
     public MethodResult sendRemoteMethodInvocation(MethodInvocation methodInvocation) throws IOException {
         Objects.requireNonNull(methodInvocation, "The method invocation can not be null.");
-        clientRequestHandler = new TCPClientRequestHandler(
-                methodInvocation.getAbsoluteObjectReference().getServerAddress(),
-                methodInvocation.getAbsoluteObjectReference().getServerPort()
+        Invoker invoker = Invoker.getInstance();
+        if (invoker.isLocalInvocation(methodInvocation.getAbsoluteObjectReference())) {
+            return invoker.invokeLocally(methodInvocation);
+        }
+        ClientRequestHandlerPool clientRequestHandlerPool = ClientRequestHandlerPool.getInstance();
+        String transport = methodInvocation.getAbsoluteObjectReference().getTransport();
+        InetAddress serverAddress = methodInvocation.getAbsoluteObjectReference().getServerAddress();
+        int serverPort = methodInvocation.getAbsoluteObjectReference().getServerPort();
+        ClientRequestHandler clientRequestHandler
+                = clientRequestHandlerPool.acquire(transport, serverAddress, serverPort);
+        if (clientRequestHandler == null) {
+            clientRequestHandler = clientRequestHandlerPool.connect(transport, serverAddress, serverPort);
+        }
+        try {
+            return exchange(clientRequestHandler, methodInvocation);
+        } catch (IOException e) {
+            discardFailed(clientRequestHandler);
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a {@link MethodInvocation} to the {@link Invoker} in a server without waiting the reply. With a
+     * {@link MultiplexedClientRequestHandler} no thread blocks waiting the reply, the returned future is completed by
+     * the connection when the reply arrives, other handlers are used synchronously. Only the connection to a server
+     * not connected yet blocks the caller. If the connection fails, it is discarded and the future is completed
+     * exceptionally with the {@link IOException}, the invocation is not sent again. The local invocations are
+     * dispatched in the caller thread and return a completed future.
+     *
+     * @param methodInvocation the method invocation, can not be null
+     * @return the future of the {@link MethodResult}, completed with null if a result is not expected
+     * @throws IOException if the connection fails, reset or was refused while sending the invocation
+     */
+    public CompletableFuture<MethodResult> sendRemoteMethodInvocationAsync(MethodInvocation methodInvocation)
+            throws IOException {
+        Objects.requireNonNull(methodInvocation, "The method invocation can not be null.");
+        Invoker invoker = Invoker.getInstance();
+        if (invoker.isLocalInvocation(methodInvocation.getAbsoluteObjectReference())) {
+            return CompletableFuture.completedFuture(invoker.invokeLocally(methodInvocation));
+        }
+        ClientRequestHandlerPool clientRequestHandlerPool = ClientRequestHandlerPool.getInstance();
+        String transport = methodInvocation.getAbsoluteObjectReference().getTransport();
+        InetAddress serverAddress = methodInvocation.getAbsoluteObjectReference().getServerAddress();
+        int serverPort = methodInvocation.getAbsoluteObjectReference().getServerPort();
+        ClientRequestHandler clientRequestHandler
+                = clientRequestHandlerPool.acquire(transport, serverAddress, serverPort);
+        if (clientRequestHandler == null) {
+            clientRequestHandler = clientRequestHandlerPool.connect(transport, serverAddress, serverPort);
+        }
+        if (!(clientRequestHandler instanceof MultiplexedClientRequestHandler)) {
+            try {
+                return CompletableFuture.completedFuture(exchange(clientRequestHandler, methodInvocation));
+            } catch (IOException e) {
+                discardFailed(clientRequestHandler);
+                throw e;
+            }
+        }
+        Message requestMessage = newRequestMessage(methodInvocation);
+        PooledBuffer requestData = encodeRequest(clientRequestHandler, requestMessage);
+        MultiplexedClientRequestHandler multiplexedClientRequestHandler
+                = (MultiplexedClientRequestHandler) clientRequestHandler;
+        try {
+            if (!methodInvocation.isExpectResult()) {
+                multiplexedClientRequestHandler.post(requestData);
+                return CompletableFuture.completedFuture(null);
+            }
+            return multiplexedClientRequestHandler.request(requestData).handle((replyData, failure) -> {
+                if (failure != null) {
+                    discardFailed(multiplexedClientRequestHandler);
+                    throw new CompletionException(failure);
+                }
+                try {
+                    return decodeReply(multiplexedClientRequestHandler, requestMessage, replyData);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        } catch (IOException e) {
+            discardFailed(multiplexedClientRequestHandler);
+            throw e;
+        }
+    }
+
+    /**
+     * Sends multiple {@link MethodInvocation}s pipelined, all invocations are written back to back without waiting the
+     * replies, then the {@link MethodResult}s are collected. The invocations to the same server are sent through the
+     * same connection if it is a {@link MultiplexedClientRequestHandler}, otherwise each invocation uses its own
+     * connection. If an invocation fails, the connections used by the invocations are discarded, except the shared
+     * connections still connected, the replies not decoded yet are released, and the invocations are not sent again,
+     * because some of them could already be executed. The local invocations are dispatched in the caller thread when
+     * they are reached.
+     *
+     * @param methodInvocations the method invocations, can not be null or contain null elements
+     * @return the {@link MethodResult}s in the same order of the invocations, null for the invocations that do not
+     * expect result
+     * @throws IOException if the connection fails, reset or was refused
+     */
+    public List<MethodResult> sendRemoteMethodInvocations(List<MethodInvocation> methodInvocations)
+            throws IOException {
+        Objects.requireNonNull(methodInvocations, "The method invocations can not be null.");
+        ClientRequestHandlerPool clientRequestHandlerPool = ClientRequestHandlerPool.getInstance();
+        Invoker invoker = Invoker.getInstance();
+        Map<String, Map<InetSocketAddress, ClientRequestHandler>> multiplexedClientRequestHandlers
+                = new LinkedHashMap<>();
+        List<ClientRequestHandler> clientRequestHandlers = new ArrayList<>();
+        List<MethodResult> localMethodResults = new ArrayList<>(methodInvocations.size());
+        List<ClientRequestHandler> replyHandlers = new ArrayList<>(methodInvocations.size());
+        List<Message> requestMessages = new ArrayList<>(methodInvocations.size());
+        List<CompletableFuture<PooledBuffer>> pendingReplies = new ArrayList<>(methodInvocations.size());
+        try {
+            for (MethodInvocation methodInvocation : methodInvocations) {
+                Objects.requireNonNull(methodInvocation, "The method invocations can not contain null elements.");
+                if (invoker.isLocalInvocation(methodInvocation.getAbsoluteObjectReference())) {
+                    localMethodResults.add(invoker.invokeLocally(methodInvocation));
+                    replyHandlers.add(null);
+                    requestMessages.add(null);
+                    pendingReplies.add(null);
+                    continue;
+                }
+                String transport = methodInvocation.getAbsoluteObjectReference().getTransport();
+                InetAddress serverAddress = methodInvocation.getAbsoluteObjectReference().getServerAddress();
+                int serverPort = methodInvocation.getAbsoluteObjectReference().getServerPort();
+                InetSocketAddress serverSocketAddress = new InetSocketAddress(serverAddress, serverPort);
+                Map<InetSocketAddress, ClientRequestHandler> transportClientRequestHandlers
+                        = multiplexedClientRequestHandlers.computeIfAbsent(transport, key -> new LinkedHashMap<>());
+                ClientRequestHandler clientRequestHandler = transportClientRequestHandlers.get(serverSocketAddress);
+                if (clientRequestHandler == null) {
+                    // The handlers that are not multiplexed exchange one request at a time
+                    clientRequestHandler = clientRequestHandlerPool.acquire(transport, serverAddress, serverPort);
+                    if (clientRequestHandler == null) {
+                        clientRequestHandler = clientRequestHandlerPool.connect(transport, serverAddress, serverPort);
+                    }
+                    clientRequestHandlers.add(clientRequestHandler);
+                    if (clientRequestHandler instanceof MultiplexedClientRequestHandler) {
+                        transportClientRequestHandlers.put(serverSocketAddress, clientRequestHandler);
+                    }
+                }
+                Message requestMessage = newRequestMessage(methodInvocation);
+                PooledBuffer requestData = encodeRequest(clientRequestHandler, requestMessage);
+                CompletableFuture<PooledBuffer> pendingReply = null;
+                if (clientRequestHandler instanceof MultiplexedClientRequestHandler) {
+                    MultiplexedClientRequestHandler multiplexedClientRequestHandler
+                            = (MultiplexedClientRequestHandler) clientRequestHandler;
+                    if (methodInvocation.isExpectResult()) {
+                        pendingReply = multiplexedClientRequestHandler.request(requestData);
+                    } else {
+                        multiplexedClientRequestHandler.post(requestData);
+                    }
+                } else {
+                    clientRequestHandler.sendBuffer(requestData);
+                }
+                localMethodResults.add(null);
+                replyHandlers.add(clientRequestHandler);
+                requestMessages.add(requestMessage);
+                pendingReplies.add(pendingReply);
+            }
+            List<MethodResult> methodResults = new ArrayList<>(methodInvocations.size());
+            for (int i = 0; i < methodInvocations.size(); i++) {
+                MethodResult methodResult = null;
+                if (replyHandlers.get(i) == null) {
+                    methodResult = localMethodResults.get(i);
+                } else if (methodInvocations.get(i).isExpectResult()) {
+                    PooledBuffer replyData = pendingReplies.get(i) != null
+                            ? awaitReply(pendingReplies.set(i, null))
+                            : replyHandlers.get(i).receiveBuffer();
+                    methodResult = decodeReply(replyHandlers.get(i), requestMessages.get(i), replyData);
+                }
+                methodResults.add(methodResult);
+            }
+            for (ClientRequestHandler clientRequestHandler : clientRequestHandlers) {
+                clientRequestHandlerPool.release(clientRequestHandler);
+            }
+            return methodResults;
+        } catch (IOException | RuntimeException e) {
+            for (ClientRequestHandler clientRequestHandler : clientRequestHandlers) {
+                discardFailed(clientRequestHandler);
+            }
+            for (CompletableFuture<PooledBuffer> pendingReply : pendingReplies) {
+                if (pendingReply != null) {
+                    // The replies received after the failure are released too
+                    pendingReply.thenAccept(PooledBuffer::release);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Prepares the invocations to the remote object in background, the connection to its server is opened and pooled
+     * by the {@link ClientRequestHandlerPool}, and the first time, the message encoding is exercised so the cipher key
+     * and the serialization descriptors of the invocations are set up. The first invocation to the server does not
+     * pay the connection and class loading latency. The local objects are not prepared.
+     *
+     * @param absoluteObjectReference the reference of the remote object, can not be null
+     * @return the future completed when the invocations are prepared, or exceptionally with the {@link IOException} if
+     * the connection failed
+     */
+    public CompletableFuture<Void> prewarm(AbsoluteObjectReference absoluteObjectReference) {
+        Objects.requireNonNull(absoluteObjectReference, "The absolute object reference can not be null.");
+        if (Invoker.getInstance().isLocalInvocation(absoluteObjectReference)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> prewarmedConnection = ClientRequestHandlerPool.getInstance().prewarm(
+                absoluteObjectReference.getTransport(), absoluteObjectReference.getServerAddress(),
+                absoluteObjectReference.getServerPort()
         );
-        clientRequestHandler.connect();
-        Message requestMessage = new Message(methodInvocation);
-        clientRequestHandler.send(Crypto.encrypt(Marshaller.marshall(requestMessage)));
-        if (methodInvocation.isExpectResult()) {
-            Message replyMessage = (Message) Marshaller.unmarshall(Crypto.decrypt(clientRequestHandler.receive()));
-            return (MethodResult) replyMessage.getBody();
+        if (!codecPrewarmed.compareAndSet(false, true)) {
+            return prewarmedConnection;
+        }
+        CompletableFuture<Void> prewarmedCodec = CompletableFuture.runAsync(() -> {
+            MethodInvocation methodInvocation = new MethodInvocation("checkConnection", Tuple.emptyArray(), false, null,
+                    null, true, absoluteObjectReference);
+            PooledBuffer requestData = MessageCodec.encode(newRequestMessage(methodInvocation), false);
+            try {
+                MessageCodec.decode(requestData);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            } finally {
+                requestData.release();
+            }
+        });
+        return CompletableFuture.allOf(prewarmedConnection, prewarmedCodec);
+    }
+
+    /**
+     * Sends the {@link MethodInvocation} using the received {@link ClientRequestHandler} and receives the reply if
+     * expected, the handler is returned to the {@link ClientRequestHandlerPool} after the exchange. The requests sent
+     * by {@link MultiplexedClientRequestHandler}s are matched to their replies by correlation identifier, and the
+     * request and reply messages are encoded and decoded while they are transferred.
+     *
+     * @param clientRequestHandler the connected handler
+     * @param methodInvocation     the method invocation
+     * @return the {@link MethodResult}, or null if a result is not expected
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private MethodResult exchange(ClientRequestHandler clientRequestHandler, MethodInvocation methodInvocation)
+            throws IOException {
+        boolean expectResult = methodInvocation.isExpectResult();
+        MethodResult methodResult = null;
+        Message requestMessage = newRequestMessage(methodInvocation);
+        if (clientRequestHandler instanceof MultiplexedClientRequestHandler) {
+            CompletableFuture<InputStream> replyStream = expectResult ? new CompletableFuture<>() : null;
+            encodeRequest(clientRequestHandler, requestMessage,
+                    ((MultiplexedClientRequestHandler) clientRequestHandler).openRequest(replyStream));
+            if (expectResult) {
+                methodResult = decodeReply(clientRequestHandler, requestMessage, awaitReply(replyStream));
+            }
         } else {
-            clientRequestHandler.disconnect();
-            return null;
+            clientRequestHandler.sendBuffer(encodeRequest(clientRequestHandler, requestMessage));
+            if (expectResult) {
+                methodResult = decodeReply(clientRequestHandler, requestMessage, clientRequestHandler.receiveBuffer());
+            }
+        }
+        ClientRequestHandlerPool.getInstance().release(clientRequestHandler);
+        return methodResult;
+    }
+
+    /**
+     * Discards the {@link ClientRequestHandler} after a failed invocation. The {@link MultiplexedClientRequestHandler}s
+     * are shared by the concurrent invocations, a failed invocation does not close the connection of the others, so
+     * they are only discarded when disconnected.
+     *
+     * @param clientRequestHandler the handler of the failed invocation
+     */
+    private static void discardFailed(ClientRequestHandler clientRequestHandler) {
+        if (!(clientRequestHandler instanceof MultiplexedClientRequestHandler) || !clientRequestHandler.isConnected()) {
+            ClientRequestHandlerPool.getInstance().discard(clientRequestHandler);
+        }
+    }
+
+    /**
+     * Encodes the request message, compressed if the server of the connection accepts compressed messages.
+     *
+     * @param clientRequestHandler the handler that sends the request
+     * @param requestMessage       the request message
+     * @return the buffer with the encoded request message
+     */
+    private static PooledBuffer encodeRequest(ClientRequestHandler clientRequestHandler, Message requestMessage) {
+        return MessageCodec.encode(requestMessage,
+                Compressor.getInstance().isCompressionAccepted(clientRequestHandler));
+    }
+
+    /**
+     * Decodes the reply message, the reply buffer is released.
+     *
+     * @param clientRequestHandler the handler that received the reply
+     * @param requestMessage       the request message
+     * @param replyData            the buffer with the encoded reply message
+     * @return the {@link MethodResult} of the reply
+     * @throws IOException if the reply is corrupted or does not match the request
+     */
+    private static MethodResult decodeReply(ClientRequestHandler clientRequestHandler, Message requestMessage,
+                                            PooledBuffer replyData) throws IOException {
+        try {
+            return getResult(clientRequestHandler, requestMessage, MessageCodec.decode(replyData));
+        } finally {
+            replyData.release();
+        }
+    }
+
+    /**
+     * Encodes the request message while it is written, the request stream is closed, completing the request.
+     *
+     * @param clientRequestHandler the handler that sends the request
+     * @param requestMessage       the request message
+     * @param requestStream        the stream of the encoded request message
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private static void encodeRequest(ClientRequestHandler clientRequestHandler, Message requestMessage,
+                                      OutputStream requestStream) throws IOException {
+        MessageCodec.encode(requestMessage, Compressor.getInstance().isCompressionAccepted(clientRequestHandler),
+                requestStream);
+    }
+
+    /**
+     * Decodes the reply message while it is read, the reply stream is closed.
+     *
+     * @param clientRequestHandler the handler that received the reply
+     * @param requestMessage       the request message
+     * @param replyStream          the stream of the encoded reply message
+     * @return the {@link MethodResult} of the reply
+     * @throws IOException if an I/O exception of some sort has occurred, or the reply does not match the request
+     */
+    private static MethodResult decodeReply(ClientRequestHandler clientRequestHandler, Message requestMessage,
+                                            InputStream replyStream) throws IOException {
+        return getResult(clientRequestHandler, requestMessage, MessageCodec.decode(replyStream));
+    }
+
+    /**
+     * Creates the request message of the {@link MethodInvocation}, with a new correlation identifier.
+     *
+     * @param methodInvocation the method invocation
+     * @return the request message
+     */
+    private static Message newRequestMessage(MethodInvocation methodInvocation) {
+        return new Message(Message.MessageType.JAVA_OBJECT, 0, correlationIds.incrementAndGet(), methodInvocation);
+    }
+
+    /**
+     * Returns the {@link MethodResult} of the reply message. If the server advertised that it accepts compressed
+     * messages, the next requests of the connection can be compressed.
+     *
+     * @param clientRequestHandler the handler that received the reply
+     * @param requestMessage       the request message
+     * @param replyMessage         the reply message
+     * @return the {@link MethodResult} of the reply
+     * @throws StreamCorruptedException if the reply correlation identifier does not match the request
+     */
+    private static MethodResult getResult(ClientRequestHandler clientRequestHandler, Message requestMessage,
+                                          Message replyMessage) throws StreamCorruptedException {
+        if (replyMessage.getCorrelationId() != requestMessage.getCorrelationId()) {
+            throw new StreamCorruptedException("The reply correlation id " + replyMessage.getCorrelationId()
+                    + " does not match the request " + requestMessage.getCorrelationId() + ".");
+        }
+        if (replyMessage.isCompressionAccepted()) {
+            Compressor.getInstance().markCompressionAccepted(clientRequestHandler);
+        }
+        return (MethodResult) replyMessage.getBody();
+    }
+
+    /**
+     * Waits the reply of a request sent by a {@link MultiplexedClientRequestHandler}.
+     *
+     * @param pendingReply the future of the reply
+     * @param <T>          the reply type, a buffer or a stream
+     * @return the reply
+     * @throws IOException if the connection failed before the reply was received
+     */
+    private static <T> T awaitReply(CompletableFuture<T> pendingReply) throws IOException {
+        try {
+            return pendingReply.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting the reply.");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
         }
     }
 }
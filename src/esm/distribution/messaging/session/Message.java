@@ -1,42 +1,191 @@
 package esm.distribution.messaging.session;
 
-import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
 
 /**
+ * The session message exchanged between the {@link esm.distribution.management.Requestor} and the
+ * {@link esm.distribution.management.Invoker}. The message is sent as a fixed binary header followed by the body, the
+ * header is written and parsed directly in the buffers, in network byte order:
+ * <pre>
+ * magic (int) | version (byte) | flags (byte) | message type (byte) | reserved (byte) | correlation id (long)
+ * | body length (int)
+ * </pre>
+ * The body length is {@link #UNKNOWN_BODY_LENGTH} when the message is streamed, so the body extends to the end of the
+ * transport message. The body is encoded by the {@link esm.distribution.serialization.MessageCodec}.
+ *
  * @author Pedro Henrique
  */
-public class Message implements Serializable {
+public class Message {
 
-    private final String magic = "phSessionProtocol";
-    private String version = "1.0";
-    private ByteOrder byteOrder = ByteOrder.LITTLE_ENDIAN;
-    private MessageType messageType = MessageType.JAVA_OBJECT;
-    private long messageSize = 0;
+    /**
+     * The magic number of the header, "ESMP".
+     */
+    public static final int MAGIC = 0x45534D50;
+
+    /**
+     * The protocol version.
+     */
+    public static final byte VERSION = 1;
+
+    /**
+     * The size of the header.
+     */
+    public static final int HEADER_SIZE = 20;
+
+    /**
+     * The body length of the streamed messages.
+     */
+    public static final int UNKNOWN_BODY_LENGTH = -1;
+
+    /**
+     * The flag of the messages whose body is compressed.
+     */
+    public static final int FLAG_COMPRESSED = 0x01;
+
+    /**
+     * The flag of the messages whose sender accepts compressed messages.
+     */
+    public static final int FLAG_COMPRESSION_ACCEPTED = 0x02;
+
+    //
+
+    private MessageType messageType;
+    private int flags;
+    private long correlationId;
+    private int bodyLength;
 
     private Object body;
 
     public Message(Object body) {
-        this.body = body;
+        this(MessageType.JAVA_OBJECT, 0, 0, body);
     }
 
-    public Message(String version, ByteOrder byteOrder, MessageType messageType, long messageSize,
-                   Object body) {
-        this.version = version;
-        this.byteOrder = byteOrder;
-        this.messageType = messageType;
-        this.messageSize = messageSize;
+    /**
+     * Creates the message with the received header properties, the body length is set when the message is encoded.
+     *
+     * @param messageType   the type of the body, can not be null
+     * @param flags         the message flags
+     * @param correlationId the correlation identifier, the reply carries the identifier of the request
+     * @param body          the message body
+     */
+    public Message(MessageType messageType, int flags, long correlationId, Object body) {
+        this.messageType = Objects.requireNonNull(messageType, "The message type can not be null.");
+        this.flags = flags;
+        this.correlationId = correlationId;
+        this.bodyLength = UNKNOWN_BODY_LENGTH;
         this.body = body;
     }
 
+    /**
+     * Parses the header at the position of the buffer, the position is moved to the body.
+     *
+     * @param buffer the buffer with the message
+     * @return the message without body, see {@link #setBody(Object)}
+     * @throws StreamCorruptedException if the header is invalid
+     */
+    public static Message readHeader(ByteBuffer buffer) throws StreamCorruptedException {
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new StreamCorruptedException("Incomplete message header: " + buffer.remaining() + " bytes.");
+        }
+        int magic = buffer.getInt();
+        byte version = buffer.get();
+        int flags = buffer.get() & 0xFF;
+        int messageType = buffer.get() & 0xFF;
+        buffer.get();
+        long correlationId = buffer.getLong();
+        int bodyLength = buffer.getInt();
+        if (magic != MAGIC) {
+            throw new StreamCorruptedException("Invalid message magic: " + Integer.toHexString(magic) + ".");
+        } else if (version != VERSION) {
+            throw new StreamCorruptedException("Unsupported message version: " + version + ".");
+        } else if (messageType >= MessageType.VALUES.length) {
+            throw new StreamCorruptedException("Invalid message type: " + messageType + ".");
+        } else if (bodyLength < UNKNOWN_BODY_LENGTH) {
+            throw new StreamCorruptedException("Invalid message body length: " + bodyLength + ".");
+        }
+        Message message = new Message(MessageType.VALUES[messageType], flags, correlationId, null);
+        message.bodyLength = bodyLength;
+        return message;
+    }
+
+    /**
+     * Writes the header at the position of the buffer, with the received body length.
+     *
+     * @param buffer     the buffer of the message
+     * @param bodyLength the body length, or {@link #UNKNOWN_BODY_LENGTH}
+     */
+    public void writeHeader(ByteBuffer buffer, int bodyLength) {
+        this.bodyLength = bodyLength;
+        buffer.putInt(MAGIC).put(VERSION).put((byte) flags).put((byte) messageType.ordinal()).put((byte) 0)
+                .putLong(correlationId).putInt(bodyLength);
+    }
+
     public Object getBody() {
         return body;
     }
 
-    enum ByteOrder {
-        LITTLE_ENDIAN, BIG_ENDIAN
+    public void setBody(Object body) {
+        this.body = body;
+    }
+
+    public MessageType getMessageType() {
+        return messageType;
     }
 
-    enum MessageType {
-        BYTE_ARRAY, JAVA_OBJECT
+    public int getFlags() {
+        return flags;
+    }
+
+    public void setFlags(int flags) {
+        this.flags = flags;
+    }
+
+    public long getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * Returns the length of the encoded body, or {@link #UNKNOWN_BODY_LENGTH} if streamed or not encoded yet.
+     *
+     * @return the body length
+     */
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    public boolean isCompressed() {
+        return (flags & FLAG_COMPRESSED) != 0;
+    }
+
+    /**
+     * Returns if the sender accepts compressed messages, so the messages sent back to it can be compressed.
+     *
+     * @return if the compression is accepted
+     */
+    public boolean isCompressionAccepted() {
+        return (flags & FLAG_COMPRESSION_ACCEPTED) != 0;
+    }
+
+    /**
+     * The type of the message body.
+     */
+    public enum MessageType {
+
+        /**
+         * The body is a byte array, sent without serialization.
+         */
+        BYTE_ARRAY,
+
+        /**
+         * The body is a serialized Java object.
+         */
+        JAVA_OBJECT;
+
+        /**
+         * The types by their ordinal, the value of the header.
+         */
+        private static final MessageType[] VALUES = values();
     }
 }
@@ -0,0 +1,361 @@
+package esm.distribution.serialization;
+
+import esm.distribution.messaging.session.Message;
+import esm.util.buffer.BufferArena;
+import esm.util.buffer.PooledBuffer;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the bodies of the {@link Message}s. When the compression is enabled, the marshalled bodies of the
+ * messages sent to peers that accept compression are deflated if they reach the threshold size, the message header
+ * flags the compressed body, see {@link MessageCodec}. The compression is negotiated per connection, each message
+ * advertises if its sender accepts compressed messages, the replies are compressed if the request accepted it, and the
+ * requests are compressed after a reply of the connection accepted it, see {@link #markCompressionAccepted(Object)}.
+ * The compressed messages are always accepted when received.
+ * <p>
+ * The compressor reports the number of compressed messages, the bytes before and after the compression, and the time
+ * spent compressing and decompressing. This class is a singleton, the instance can be obtained using the method
+ * {@link #getInstance()}.
+ *
+ * @author Pedro Henrique
+ */
+public final class Compressor {
+
+    /**
+     * The instance of this class.
+     */
+    private static Compressor instance;
+
+    /**
+     * Gets the instance of this class.
+     *
+     * @return the instance
+     */
+    public static synchronized Compressor getInstance() {
+        return instance != null ? instance : (instance = new Compressor());
+    }
+
+    //
+
+    /**
+     * The default min size of the marshalled bodies that are compressed.
+     */
+    private static final int DEFAULT_THRESHOLD = 8 * 1024;
+
+    /**
+     * Indicates if the bodies are compressed.
+     */
+    private volatile boolean enabled;
+
+    /**
+     * The min size of the marshalled bodies that are compressed.
+     */
+    private volatile int threshold;
+
+    /**
+     * The compression level of the deflaters.
+     */
+    private volatile int level;
+
+    /**
+     * The connections whose peers accept compressed messages.
+     */
+    private Set<Object> compressionPeers;
+
+    /**
+     * The deflater of each thread, reset after each message.
+     */
+    private ThreadLocal<Deflater> deflaters;
+
+    /**
+     * The inflater of each thread, reset after each message.
+     */
+    private ThreadLocal<Inflater> inflaters;
+
+    /**
+     * The number of compressed messages.
+     */
+    private AtomicLong compressedMessageCount;
+
+    /**
+     * The number of marshalled bytes of the compressed messages before the compression.
+     */
+    private AtomicLong uncompressedBytes;
+
+    /**
+     * The number of bytes of the compressed messages after the compression.
+     */
+    private AtomicLong compressedBytes;
+
+    /**
+     * The time in nanoseconds spent compressing.
+     */
+    private AtomicLong compressionTime;
+
+    /**
+     * The time in nanoseconds spent decompressing.
+     */
+    private AtomicLong decompressionTime;
+
+    /**
+     * Creates the compressor disabled, with threshold of 8 KiB and the default compression level.
+     */
+    private Compressor() {
+        enabled = false;
+        threshold = DEFAULT_THRESHOLD;
+        level = Deflater.DEFAULT_COMPRESSION;
+        compressionPeers = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+        deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+        inflaters = ThreadLocal.withInitial(Inflater::new);
+        compressedMessageCount = new AtomicLong();
+        uncompressedBytes = new AtomicLong();
+        compressedBytes = new AtomicLong();
+        compressionTime = new AtomicLong();
+        decompressionTime = new AtomicLong();
+    }
+
+    /**
+     * Enables or disables the compression of the sent messages and the advertisement of the compression to the peers.
+     *
+     * @param enabled if the bodies are compressed
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Sets the min size of the marshalled bodies that are compressed.
+     *
+     * @param threshold the threshold in bytes, can not be negative
+     */
+    public void setThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("The threshold can not be negative.");
+        }
+        this.threshold = threshold;
+    }
+
+    /**
+     * Sets the compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}, or
+     * {@link Deflater#DEFAULT_COMPRESSION}.
+     *
+     * @param level the compression level
+     */
+    public void setLevel(int level) {
+        if ((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+                && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("The compression level should be between 1 and 9, or -1.");
+        }
+        this.level = level;
+    }
+
+    /**
+     * Returns if the bodies are compressed.
+     *
+     * @return if the compression is enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the min size of the marshalled bodies that are compressed.
+     *
+     * @return the threshold in bytes
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Records that the peer of the connection accepts compressed messages, called when a message received by the
+     * connection advertises it.
+     *
+     * @param connection the connection
+     */
+    public void markCompressionAccepted(Object connection) {
+        compressionPeers.add(connection);
+    }
+
+    /**
+     * Returns if the peer of the connection advertised that it accepts compressed messages.
+     *
+     * @param connection the connection
+     * @return if the messages sent by the connection can be compressed
+     */
+    public boolean isCompressionAccepted(Object connection) {
+        return compressionPeers.contains(connection);
+    }
+
+    /**
+     * Compresses the marshalled body if it reaches the threshold. The compressed body starts with the size of the
+     * marshalled body, followed by the deflated data. The received buffer is not released.
+     *
+     * @param bodyData the buffer with the marshalled body
+     * @return the buffer with the compressed body, ready to be read, or null if the body is smaller than the threshold
+     * or not compressible
+     */
+    public PooledBuffer compress(PooledBuffer bodyData) {
+        if (bodyData.remaining() < threshold) {
+            return null;
+        }
+        long startTime = System.nanoTime();
+        byte[] uncompressedData = bodyData.toByteArray();
+        byte[] compressedData = deflate(uncompressedData);
+        compressionTime.addAndGet(System.nanoTime() - startTime);
+        if (Integer.BYTES + compressedData.length >= uncompressedData.length) {
+            // The body is not compressible
+            return null;
+        }
+        compressedMessageCount.incrementAndGet();
+        uncompressedBytes.addAndGet(uncompressedData.length);
+        compressedBytes.addAndGet(Integer.BYTES + compressedData.length);
+        PooledBuffer compressedBody = BufferArena.getInstance().allocate(Integer.BYTES + compressedData.length);
+        compressedBody.buffer().putInt(uncompressedData.length).put(compressedData).flip();
+        return compressedBody;
+    }
+
+    /**
+     * Decompresses a body compressed by {@link #compress(PooledBuffer)}. The received buffer is not released.
+     *
+     * @param bodyData the buffer with the compressed body
+     * @return the marshalled body
+     * @throws StreamCorruptedException if the compressed body is corrupted
+     */
+    public byte[] decompress(PooledBuffer bodyData) throws StreamCorruptedException {
+        ByteBuffer buffer = bodyData.buffer().duplicate();
+        if (buffer.remaining() < Integer.BYTES) {
+            throw new StreamCorruptedException("Incomplete compressed message: " + buffer.remaining() + " bytes.");
+        }
+        int size = buffer.getInt();
+        byte[] compressedData = new byte[buffer.remaining()];
+        buffer.get(compressedData);
+        long startTime = System.nanoTime();
+        byte[] decompressedData = inflate(compressedData, size);
+        decompressionTime.addAndGet(System.nanoTime() - startTime);
+        return decompressedData;
+    }
+
+    /**
+     * Returns the number of compressed messages.
+     *
+     * @return the compressed message count
+     */
+    public long getCompressedMessageCount() {
+        return compressedMessageCount.get();
+    }
+
+    /**
+     * Returns the number of marshalled bytes of the compressed messages before the compression.
+     *
+     * @return the uncompressed bytes
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    /**
+     * Returns the number of bytes of the compressed messages after the compression.
+     *
+     * @return the compressed bytes
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * Returns the compression ratio of the compressed messages, the uncompressed bytes divided by the compressed
+     * bytes, or 1 if no message was compressed.
+     *
+     * @return the compression ratio
+     */
+    public double getCompressionRatio() {
+        long compressed = compressedBytes.get();
+        return compressed == 0 ? 1 : (double) uncompressedBytes.get() / compressed;
+    }
+
+    /**
+     * Returns the time in nanoseconds spent compressing, including the bodies not compressible.
+     *
+     * @return the compression time
+     */
+    public long getCompressionTime() {
+        return compressionTime.get();
+    }
+
+    /**
+     * Returns the time in nanoseconds spent decompressing.
+     *
+     * @return the decompression time
+     */
+    public long getDecompressionTime() {
+        return decompressionTime.get();
+    }
+
+    /**
+     * Deflates the data with the deflater of the current thread.
+     *
+     * @param data the data to compress
+     * @return the compressed data
+     */
+    private byte[] deflate(byte[] data) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] compressedData = new byte[Math.max(64, data.length / 2)];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressedData.length) {
+                compressedData = Arrays.copyOf(compressedData, compressedData.length * 2);
+            }
+            length += deflater.deflate(compressedData, length, compressedData.length - length);
+        }
+        return length == compressedData.length ? compressedData : Arrays.copyOf(compressedData, length);
+    }
+
+    /**
+     * Inflates the data with the inflater of the current thread.
+     *
+     * @param data the compressed data
+     * @param size the size of the data before the compression
+     * @return the decompressed data
+     * @throws StreamCorruptedException if the compressed data is corrupted or has not the expected size
+     */
+    private byte[] inflate(byte[] data, int size) throws StreamCorruptedException {
+        if (size < 0) {
+            throw new StreamCorruptedException("Invalid message size: " + size + ".");
+        }
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(data);
+        byte[] decompressedData = new byte[size];
+        int length = 0;
+        try {
+            while (length < decompressedData.length && !inflater.finished()) {
+                int inflatedLength = inflater.inflate(decompressedData, length, decompressedData.length - length);
+                if (inflatedLength == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflatedLength;
+            }
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Invalid compressed message: " + e.getMessage() + ".");
+        }
+        if (length != decompressedData.length || !inflater.finished()) {
+            throw new StreamCorruptedException("Invalid compressed message size: " + length + ".");
+        }
+        return decompressedData;
+    }
+}
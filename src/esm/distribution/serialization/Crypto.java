@@ -1,12 +1,21 @@
 package esm.distribution.serialization;
 
+import esm.util.buffer.BufferArena;
+import esm.util.buffer.PooledBuffer;
+
 import javax.crypto.*;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.util.Base64;
 
 /**
+ * Encrypts and decrypts the messaging data. The data can be byte arrays, {@link PooledBuffer}s or streams, the
+ * encrypted bytes are the same in all forms. The streams encrypt and decrypt the data incrementally, while it is
+ * written or read.
+ *
  * @author Pedro Henrique
  */
 public final class Crypto {
@@ -36,9 +45,7 @@ public final class Crypto {
         try {
             Cipher cipher = Cipher.getInstance("AES");
             cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-            byte[] cipherText = cipher.doFinal(data);
-            byte[] encryptedBytes = Base64.getEncoder().encode(cipherText);
-            return encryptedBytes;
+            return cipher.doFinal(data);
         } catch (NoSuchAlgorithmException | NoSuchPaddingException | IllegalBlockSizeException | BadPaddingException
                 | InvalidKeyException e) {
             e.printStackTrace();
@@ -56,12 +63,118 @@ public final class Crypto {
         try {
             Cipher cipher = Cipher.getInstance("AES");
             cipher.init(Cipher.DECRYPT_MODE, secretKey);
-            byte[] decryptedBytes = Base64.getDecoder().decode(data);
-            return cipher.doFinal(decryptedBytes);
+            return cipher.doFinal(data);
         } catch (NoSuchAlgorithmException | NoSuchPaddingException | IllegalBlockSizeException | BadPaddingException
                 | InvalidKeyException e) {
             e.printStackTrace();
             throw new Error();
         }
     }
+
+    /**
+     * Encrypts the readable bytes of the received {@link PooledBuffer} into a new buffer, the received buffer is not
+     * released.
+     *
+     * @param data the buffer to encrypt
+     * @return the buffer with the encrypted data, ready to be read
+     */
+    public static PooledBuffer encrypt(PooledBuffer data) {
+        return doFinal(Cipher.ENCRYPT_MODE, data, 0);
+    }
+
+    /**
+     * Encrypts the readable bytes of the received {@link PooledBuffer} into a new buffer, after the received number of
+     * reserved bytes, so a header can be written before the encrypted data without copying it. The received buffer is
+     * not released.
+     *
+     * @param data          the buffer to encrypt
+     * @param reservedBytes the number of bytes reserved before the encrypted data
+     * @return the buffer with the reserved bytes and the encrypted data, ready to be read from the reserved bytes
+     */
+    public static PooledBuffer encrypt(PooledBuffer data, int reservedBytes) {
+        if (reservedBytes < 0) {
+            throw new IllegalArgumentException("The number of reserved bytes can not be negative.");
+        }
+        return doFinal(Cipher.ENCRYPT_MODE, data, reservedBytes);
+    }
+
+    /**
+     * Decrypts the readable bytes of the received {@link PooledBuffer} into a new buffer, the received buffer is not
+     * released.
+     *
+     * @param data the buffer to decrypt
+     * @return the buffer with the decrypted data, ready to be read
+     */
+    public static PooledBuffer decrypt(PooledBuffer data) {
+        return doFinal(Cipher.DECRYPT_MODE, data, 0);
+    }
+
+    /**
+     * Returns a stream that encrypts the bytes written to it and writes the encrypted bytes to the received stream.
+     * Closing the returned stream writes the last encrypted block and closes the received stream.
+     *
+     * @param outputStream the stream of the encrypted data
+     * @return the stream of the data to encrypt
+     */
+    public static OutputStream encrypt(OutputStream outputStream) {
+        return new CipherOutputStream(outputStream, newCipher(Cipher.ENCRYPT_MODE));
+    }
+
+    /**
+     * Returns a stream that reads and decrypts the bytes of the received stream. Closing the returned stream closes
+     * the received stream.
+     *
+     * @param inputStream the stream of the encrypted data
+     * @return the stream of the decrypted data
+     */
+    public static InputStream decrypt(InputStream inputStream) {
+        return new CipherInputStream(inputStream, newCipher(Cipher.DECRYPT_MODE));
+    }
+
+    /**
+     * Creates a cipher initialized in the received mode.
+     *
+     * @param cipherMode the cipher mode
+     * @return the cipher
+     */
+    private static Cipher newCipher(int cipherMode) {
+        try {
+            Cipher cipher = Cipher.getInstance("AES");
+            cipher.init(cipherMode, secretKey);
+            return cipher;
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException e) {
+            e.printStackTrace();
+            throw new Error();
+        }
+    }
+
+    /**
+     * Encrypts or decrypts the readable bytes of the received {@link PooledBuffer} into a new buffer.
+     *
+     * @param cipherMode    the cipher mode
+     * @param data          the buffer to process
+     * @param reservedBytes the number of bytes reserved before the processed data
+     * @return the buffer with the reserved bytes and the processed data, ready to be read
+     */
+    private static PooledBuffer doFinal(int cipherMode, PooledBuffer data, int reservedBytes) {
+        PooledBuffer processedData = null;
+        try {
+            Cipher cipher = Cipher.getInstance("AES");
+            cipher.init(cipherMode, secretKey);
+            ByteBuffer input = data.buffer().duplicate();
+            processedData = BufferArena.getInstance()
+                    .allocate(reservedBytes + cipher.getOutputSize(input.remaining()));
+            processedData.buffer().position(reservedBytes);
+            cipher.doFinal(input, processedData.buffer());
+            processedData.buffer().flip();
+            return processedData;
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException | IllegalBlockSizeException | BadPaddingException
+                | InvalidKeyException | ShortBufferException e) {
+            if (processedData != null) {
+                processedData.release();
+            }
+            e.printStackTrace();
+            throw new Error();
+        }
+    }
 }
@@ -1,14 +1,25 @@
 package esm.distribution.serialization;
 
+import esm.util.buffer.PooledBuffer;
+import esm.util.buffer.PooledBufferInputStream;
+import esm.util.buffer.PooledBufferOutputStream;
+
 import java.io.*;
 
 /**
- * Class that process objects and byte arrays to be used in the messaging over the network.
+ * Class that process objects and byte arrays to be used in the messaging over the network. The objects can also be
+ * marshalled into and unmarshalled from {@link PooledBuffer}s, without intermediate byte arrays, or streams, so the
+ * objects are processed while the bytes are sent or received.
  *
  * @author Pedro Henrique
  */
 public final class Marshaller {
 
+    /**
+     * The initial capacity of the buffers of the marshalled objects.
+     */
+    private static final int INITIAL_BUFFER_CAPACITY = 1024;
+
     /**
      * Prevents instantiation.
      */
@@ -48,4 +59,68 @@ public final class Marshaller {
             throw new Error();
         }
     }
+
+    /**
+     * Marshalls the received object into a {@link PooledBuffer}.
+     *
+     * @param objData the object to serialize
+     * @return the buffer with the serialized object, ready to be read
+     */
+    public static PooledBuffer marshallToBuffer(Object objData) {
+        PooledBufferOutputStream pooledBufferOutputStream = new PooledBufferOutputStream(INITIAL_BUFFER_CAPACITY);
+        try {
+            ObjectOutputStream objectOutputStream = new ObjectOutputStream(pooledBufferOutputStream);
+            objectOutputStream.writeObject(objData);
+            objectOutputStream.flush();
+            return pooledBufferOutputStream.toPooledBuffer();
+        } catch (IOException e) {
+            pooledBufferOutputStream.close();
+            e.printStackTrace();
+            throw new Error();
+        }
+    }
+
+    /**
+     * Unmarshalls the readable bytes of the received {@link PooledBuffer}, the buffer is not released.
+     *
+     * @param data the buffer to be processed
+     * @return the deserialized object
+     */
+    public static Object unmarshall(PooledBuffer data) {
+        try {
+            return new ObjectInputStream(new PooledBufferInputStream(data)).readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+            throw new Error();
+        }
+    }
+
+    /**
+     * Marshalls the received object into the stream, the stream is flushed but not closed.
+     *
+     * @param objData      the object to serialize
+     * @param outputStream the stream of the serialized object
+     * @throws IOException if an I/O exception of some sort has occurred in the stream
+     */
+    public static void marshall(Object objData, OutputStream outputStream) throws IOException {
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream);
+        objectOutputStream.writeObject(objData);
+        objectOutputStream.flush();
+    }
+
+    /**
+     * Unmarshalls an object from the stream, the stream is not closed.
+     *
+     * @param inputStream the stream of the serialized object
+     * @return the deserialized object
+     * @throws IOException if an I/O exception of some sort has occurred in the stream
+     */
+    public static Object unmarshall(InputStream inputStream) throws IOException {
+        try {
+            return new ObjectInputStream(inputStream).readObject();
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+            throw new Error();
+        }
+    }
 }
@@ -0,0 +1,214 @@
+package esm.distribution.serialization;
+
+import esm.distribution.messaging.session.Message;
+import esm.util.buffer.BufferArena;
+import esm.util.buffer.PooledBuffer;
+import esm.util.buffer.PooledBufferOutputStream;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and decodes the {@link Message}s. The header is written in plain text, so it is parsed straight from the
+ * received buffer and the invalid messages are rejected before the body is decrypted. The body is marshalled,
+ * compressed by the {@link Compressor} if requested and enabled, and encrypted. The messages can be encoded into and
+ * decoded from {@link PooledBuffer}s or streams, the streamed messages have unknown body length, except the compressed
+ * ones, that are buffered to be compressed.
+ *
+ * @author Pedro Henrique
+ */
+public final class MessageCodec {
+
+    /**
+     * The size of the buffer used to copy the encoded messages to the streams.
+     */
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Prevents instantiation.
+     */
+    private MessageCodec() {
+    }
+
+    /**
+     * Encodes the message into a new buffer. If the {@link Compressor} is enabled, the message advertises that the
+     * compression is accepted, and the body is compressed if requested.
+     *
+     * @param message  the message to encode
+     * @param compress if the peer accepts compressed messages
+     * @return the buffer with the encoded message, ready to be read
+     */
+    public static PooledBuffer encode(Message message, boolean compress) {
+        Compressor compressor = Compressor.getInstance();
+        int flags = message.getFlags() & ~(Message.FLAG_COMPRESSED | Message.FLAG_COMPRESSION_ACCEPTED);
+        PooledBuffer bodyData = marshallBody(message);
+        try {
+            if (compressor.isEnabled()) {
+                flags |= Message.FLAG_COMPRESSION_ACCEPTED;
+                PooledBuffer compressedBody = compress ? compressor.compress(bodyData) : null;
+                if (compressedBody != null) {
+                    flags |= Message.FLAG_COMPRESSED;
+                    bodyData.release();
+                    bodyData = compressedBody;
+                }
+            }
+            message.setFlags(flags);
+            PooledBuffer messageData = Crypto.encrypt(bodyData, Message.HEADER_SIZE);
+            ByteBuffer buffer = messageData.buffer();
+            message.writeHeader(buffer, buffer.remaining() - Message.HEADER_SIZE);
+            buffer.position(0);
+            return messageData;
+        } finally {
+            bodyData.release();
+        }
+    }
+
+    /**
+     * Decodes the message of the buffer, the buffer is not released.
+     *
+     * @param messageData the buffer with the encoded message
+     * @return the message
+     * @throws StreamCorruptedException if the header or the compressed body is corrupted
+     */
+    public static Message decode(PooledBuffer messageData) throws StreamCorruptedException {
+        ByteBuffer buffer = messageData.buffer().duplicate();
+        Message message = Message.readHeader(buffer);
+        if (message.getBodyLength() != Message.UNKNOWN_BODY_LENGTH && message.getBodyLength() != buffer.remaining()) {
+            throw new StreamCorruptedException("Invalid message body length: " + message.getBodyLength()
+                    + ", received " + buffer.remaining() + " bytes.");
+        }
+        PooledBuffer decryptedData;
+        int position = messageData.buffer().position();
+        messageData.buffer().position(buffer.position());
+        try {
+            decryptedData = Crypto.decrypt(messageData);
+        } finally {
+            messageData.buffer().position(position);
+        }
+        try {
+            unmarshallBody(message, decryptedData);
+            return message;
+        } finally {
+            decryptedData.release();
+        }
+    }
+
+    /**
+     * Encodes the message while it is written to the stream, the stream is closed, completing the message. The
+     * compressed messages are encoded into a buffer and copied to the stream, the others are written with unknown body
+     * length.
+     *
+     * @param message       the message to encode
+     * @param compress      if the peer accepts compressed messages
+     * @param messageStream the stream of the encoded message
+     * @throws IOException if an I/O exception of some sort has occurred in the stream
+     */
+    public static void encode(Message message, boolean compress, OutputStream messageStream) throws IOException {
+        if (compress && Compressor.getInstance().isEnabled()) {
+            PooledBuffer messageData = encode(message, true);
+            try {
+                ByteBuffer buffer = messageData.buffer();
+                byte[] copyBuffer = new byte[Math.min(COPY_BUFFER_SIZE, buffer.remaining())];
+                while (buffer.hasRemaining()) {
+                    int length = Math.min(copyBuffer.length, buffer.remaining());
+                    buffer.get(copyBuffer, 0, length);
+                    messageStream.write(copyBuffer, 0, length);
+                }
+            } finally {
+                messageData.release();
+            }
+            messageStream.close();
+            return;
+        }
+        int flags = message.getFlags() & ~(Message.FLAG_COMPRESSED | Message.FLAG_COMPRESSION_ACCEPTED);
+        message.setFlags(Compressor.getInstance().isEnabled() ? flags | Message.FLAG_COMPRESSION_ACCEPTED : flags);
+        byte[] header = new byte[Message.HEADER_SIZE];
+        message.writeHeader(ByteBuffer.wrap(header), Message.UNKNOWN_BODY_LENGTH);
+        messageStream.write(header);
+        OutputStream encryptedStream = Crypto.encrypt(messageStream);
+        if (message.getMessageType() == Message.MessageType.JAVA_OBJECT) {
+            Marshaller.marshall(message.getBody(), encryptedStream);
+        } else {
+            encryptedStream.write((byte[]) message.getBody());
+        }
+        encryptedStream.close();
+    }
+
+    /**
+     * Decodes the message while it is read from the stream, the stream is closed. The compressed bodies are read whole
+     * before they are decompressed.
+     *
+     * @param messageStream the stream of the encoded message
+     * @return the message
+     * @throws IOException if an I/O exception of some sort has occurred in the stream or the message is corrupted
+     */
+    public static Message decode(InputStream messageStream) throws IOException {
+        try (InputStream closedStream = messageStream) {
+            byte[] header = new byte[Message.HEADER_SIZE];
+            new DataInputStream(closedStream).readFully(header);
+            Message message = Message.readHeader(ByteBuffer.wrap(header));
+            InputStream decryptedStream = Crypto.decrypt(closedStream);
+            if (message.getMessageType() == Message.MessageType.JAVA_OBJECT && !message.isCompressed()) {
+                message.setBody(Marshaller.unmarshall(decryptedStream));
+                return message;
+            }
+            PooledBufferOutputStream bodyStream = new PooledBufferOutputStream(
+                    message.getBodyLength() > 0 ? message.getBodyLength() : COPY_BUFFER_SIZE);
+            PooledBuffer decryptedData;
+            try {
+                byte[] copyBuffer = new byte[COPY_BUFFER_SIZE];
+                int length;
+                while ((length = decryptedStream.read(copyBuffer)) >= 0) {
+                    bodyStream.write(copyBuffer, 0, length);
+                }
+                decryptedData = bodyStream.toPooledBuffer();
+            } catch (IOException e) {
+                bodyStream.close();
+                throw e;
+            }
+            try {
+                unmarshallBody(message, decryptedData);
+                return message;
+            } finally {
+                decryptedData.release();
+            }
+        }
+    }
+
+    /**
+     * Marshalls the body of the message, or copies it if it is a byte array.
+     *
+     * @param message the message
+     * @return the buffer with the marshalled body, ready to be read
+     */
+    private static PooledBuffer marshallBody(Message message) {
+        return message.getMessageType() == Message.MessageType.JAVA_OBJECT
+                ? Marshaller.marshallToBuffer(message.getBody())
+                : BufferArena.getInstance().copyOf((byte[]) message.getBody());
+    }
+
+    /**
+     * Sets the body of the message from the decrypted body, decompressing and unmarshalling it if needed. The buffer
+     * is not released.
+     *
+     * @param message       the message
+     * @param decryptedData the buffer with the decrypted body
+     * @throws StreamCorruptedException if the compressed body is corrupted
+     */
+    private static void unmarshallBody(Message message, PooledBuffer decryptedData) throws StreamCorruptedException {
+        if (message.isCompressed()) {
+            byte[] bodyData = Compressor.getInstance().decompress(decryptedData);
+            message.setBody(message.getMessageType() == Message.MessageType.JAVA_OBJECT
+                    ? Marshaller.unmarshall(bodyData)
+                    : bodyData);
+        } else {
+            message.setBody(message.getMessageType() == Message.MessageType.JAVA_OBJECT
+                    ? Marshaller.unmarshall(decryptedData)
+                    : decryptedData.toByteArray());
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package esm.infrastructure;
 
+import esm.util.buffer.BufferArena;
+import esm.util.buffer.PooledBuffer;
+
 import java.io.IOException;
 import java.net.InetAddress;
 
@@ -28,6 +31,14 @@ public interface ClientRequestHandler {
      */
     int getServerPort();
 
+    /**
+     * Returns if this ClientRequestHandler is connected. Handlers that are still connected after a reply can be used
+     * to send new requests.
+     *
+     * @return if this handler is connected
+     */
+    boolean isConnected();
+
     /**
      * Connects with a {@link ServerRequestHandler} using a {@link ServerRequestConnector} to establish the connection.
      * Just can be called if this ClientRequestHandler is disconnected and not connected before.
@@ -38,7 +49,7 @@ public interface ClientRequestHandler {
 
     /**
      * Sends the data to the connected {@link ServerRequestHandler}. Just can be called if this ClientRequestHandler is
-     * connected and if the this method was not called before. This method can not be called two times.
+     * connected. Implementations that are not kept connected after a reply can not call this method two times.
      *
      * @param data the bytes to send
      * @throws IOException if an I/O exception of some sort has occurred
@@ -47,13 +58,44 @@ public interface ClientRequestHandler {
 
     /**
      * Receives bytes from a {@link ServerRequestHandler}. Just can be called if this ClientRequestHandler is connected
-     * and send method was called before. This method can not be called two times.
+     * and send method was called before. The replies are received in the same order of the sent requests.
+     * Implementations that are not kept connected after a reply disconnect in this method.
      *
      * @return the received bytes
      * @throws IOException if an I/O exception of some sort has occurred
      */
     byte[] receive() throws IOException;
 
+    /**
+     * Sends the data of the {@link PooledBuffer} to the connected {@link ServerRequestHandler}, with the same rules of
+     * {@link #send(byte[])}. The buffer ownership is transferred to this handler, even if an exception is thrown. The
+     * default implementation copies the data to an array.
+     *
+     * @param data the buffer to send
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    default void sendBuffer(PooledBuffer data) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = data.toByteArray();
+        } finally {
+            data.release();
+        }
+        send(bytes);
+    }
+
+    /**
+     * Receives bytes from a {@link ServerRequestHandler} in a {@link PooledBuffer}, with the same rules of
+     * {@link #receive()}. The buffer ownership is transferred to the caller. The default implementation copies the
+     * received array to a buffer.
+     *
+     * @return the buffer with the received bytes
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    default PooledBuffer receiveBuffer() throws IOException {
+        return BufferArena.getInstance().copyOf(receive());
+    }
+
     /**
      * Disconnects from the {@link ServerRequestHandler}. Just can be called if this ClientRequestHandler is connected.
      * This method can not be called two times.
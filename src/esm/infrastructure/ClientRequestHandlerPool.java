@@ -0,0 +1,653 @@
+package esm.infrastructure;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps alive the connected {@link ClientRequestHandler}s after their requests were replied, so the next requests to
+ * the same server can reuse the connection instead of connecting again. The idle handlers are grouped by the
+ * transport name and the {@link ServerRequestConnector} address and port. The {@link MultiplexedClientRequestHandler}s
+ * are not borrowed, a single connected handler of each server is shared by all callers until it fails or is
+ * discarded. The connections to the servers that will be used soon can be opened in background with
+ * {@link #prewarm(String, InetAddress, int)}, so the first requests do not wait the connection. This class is a
+ * singleton, the instance can be obtained using the method {@link #getInstance()}.
+ * <p>
+ * The pool is divided in stripes, each one with its own lock, idle handlers and shared handlers. Each caller thread
+ * is mapped to a stripe, the threads are spread over the stripes in the order they use the pool. With more than one
+ * stripe, the callers of different stripes do not contend for the pool lock, and each stripe has its own shared
+ * handler to each server, so they do not contend for the connection either. The pool has a single stripe by default,
+ * so each process opens one shared connection to each server, the striping is enabled adding stripes while the pool
+ * is used, see {@link #setStripeCount(int)}.
+ *
+ * @author Pedro Henrique
+ * @see ClientRequestHandler
+ */
+public final class ClientRequestHandlerPool {
+
+    /**
+     * The instance of this class.
+     */
+    private static ClientRequestHandlerPool instance;
+
+    /**
+     * Gets the instance of this class.
+     *
+     * @return the instance
+     */
+    public static synchronized ClientRequestHandlerPool getInstance() {
+        return instance != null ? instance : (instance = new ClientRequestHandlerPool());
+    }
+
+    //
+
+    /**
+     * The default max number of idle handlers kept for each server.
+     */
+    private static final int DEFAULT_MAX_IDLE_HANDLERS = 8;
+
+    /**
+     * The default time in milliseconds that an idle handler is kept alive.
+     */
+    private static final long DEFAULT_KEEP_ALIVE_TIME = 30000;
+
+    /**
+     * The stripes of the pool, replaced by a larger array when stripes are added.
+     */
+    private volatile Stripe[] stripes;
+
+    /**
+     * The next stripe index given to a caller thread.
+     */
+    private AtomicInteger nextStripeIndex;
+
+    /**
+     * The stripe index of each caller thread, the stripe is the index modulo the number of stripes.
+     */
+    private ThreadLocal<Integer> threadStripeIndex;
+
+    /**
+     * The executor of the background connections, created when the first server is prewarmed.
+     */
+    private ExecutorService prewarmExecutor;
+
+    /**
+     * The max number of idle handlers kept for each server in each stripe.
+     */
+    private volatile int maxIdleHandlers;
+
+    /**
+     * The time in milliseconds that an idle handler is kept alive.
+     */
+    private volatile long keepAliveTime;
+
+    /**
+     * The transport protocol of the handlers created to the servers of the TCP transport.
+     */
+    private volatile TransportFactory.TransportProtocol transportProtocol;
+
+    /**
+     * Creates the pool with a single stripe and without idle handlers.
+     */
+    private ClientRequestHandlerPool() {
+        stripes = new Stripe[]{new Stripe()};
+        nextStripeIndex = new AtomicInteger();
+        threadStripeIndex = ThreadLocal.withInitial(nextStripeIndex::getAndIncrement);
+        prewarmExecutor = null;
+        maxIdleHandlers = DEFAULT_MAX_IDLE_HANDLERS;
+        keepAliveTime = DEFAULT_KEEP_ALIVE_TIME;
+        transportProtocol = TransportFactory.TransportProtocol.TCP;
+    }
+
+    /**
+     * Sets the max number of idle handlers kept for each server in each stripe, the handlers released when this number
+     * is reached are disconnected.
+     *
+     * @param maxIdleHandlers the max number of idle handlers, can not be negative
+     */
+    public void setMaxIdleHandlers(int maxIdleHandlers) {
+        if (maxIdleHandlers < 0) {
+            throw new IllegalArgumentException("The max number of idle handlers can not be negative.");
+        }
+        this.maxIdleHandlers = maxIdleHandlers;
+    }
+
+    /**
+     * Sets the time in milliseconds that an idle handler is kept alive, expired handlers are disconnected.
+     *
+     * @param keepAliveTime the keep alive time, can not be negative
+     */
+    public void setKeepAliveTime(long keepAliveTime) {
+        if (keepAliveTime < 0) {
+            throw new IllegalArgumentException("The keep alive time can not be negative.");
+        }
+        this.keepAliveTime = keepAliveTime;
+    }
+
+    /**
+     * Sets the transport protocol of the handlers created to the servers of the
+     * {@link TransportFactory.TransportProtocol#TCP} transport, so the clients in the same host can reach the TCP ports
+     * through the local transports of the server. The handlers already created are not affected. The protocol should
+     * be connection oriented.
+     *
+     * @param transportProtocol the transport protocol, can not be null or
+     *                          {@link TransportFactory.TransportProtocol#UDP}
+     */
+    public void setTransportProtocol(TransportFactory.TransportProtocol transportProtocol) {
+        Objects.requireNonNull(transportProtocol, "The transport protocol can not be null.");
+        if (transportProtocol == TransportFactory.TransportProtocol.UDP) {
+            throw new IllegalArgumentException("The transport protocol should be connection oriented.");
+        }
+        this.transportProtocol = transportProtocol;
+    }
+
+    /**
+     * Sets the number of stripes of the pool, the stripes can only be added. The caller threads are spread again over
+     * all stripes, the handlers of the existing stripes stay pooled. A number of stripes close to the number of
+     * processors lets the callers scale with the cores, at the cost of a shared connection to each server per stripe.
+     *
+     * @param stripeCount the number of stripes, can not be less than the current number
+     */
+    public synchronized void setStripeCount(int stripeCount) {
+        Stripe[] currentStripes = stripes;
+        if (stripeCount < currentStripes.length) {
+            throw new IllegalArgumentException("The number of stripes can not be decreased.");
+        }
+        Stripe[] newStripes = Arrays.copyOf(currentStripes, stripeCount);
+        for (int i = currentStripes.length; i < stripeCount; i++) {
+            newStripes[i] = new Stripe();
+        }
+        stripes = newStripes;
+    }
+
+    /**
+     * Returns the number of stripes of the pool.
+     *
+     * @return the stripe count
+     */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Returns the shared {@link MultiplexedClientRequestHandler} or an idle connected {@link ClientRequestHandler} to
+     * the received server of the {@link TransportFactory.TransportProtocol#TCP} transport, or null if there are no
+     * connected handlers to the server.
+     *
+     * @param serverAddress the server address
+     * @param serverPort    the server port
+     * @return an idle handler or null
+     */
+    public ClientRequestHandler acquire(InetAddress serverAddress, int serverPort) {
+        return acquire(TransportFactory.TransportProtocol.TCP.getName(), serverAddress, serverPort);
+    }
+
+    /**
+     * Returns the shared {@link MultiplexedClientRequestHandler} or an idle connected {@link ClientRequestHandler} to
+     * the received server of the transport in the stripe of the caller thread, or null if there are no connected
+     * handlers to the server. The returned idle handler is removed from the pool until it is released, the shared
+     * handler stays available to other callers.
+     *
+     * @param transport     the transport name, can not be null
+     * @param serverAddress the server address
+     * @param serverPort    the server port
+     * @return an idle handler or null
+     */
+    public ClientRequestHandler acquire(String transport, InetAddress serverAddress, int serverPort) {
+        ServerKey serverKey = new ServerKey(transport, new InetSocketAddress(serverAddress, serverPort));
+        Stripe stripe = currentStripe();
+        long currentTime = System.currentTimeMillis();
+        synchronized (stripe) {
+            MultiplexedClientRequestHandler sharedClientRequestHandler
+                    = stripe.sharedClientRequestHandlers.get(serverKey);
+            if (sharedClientRequestHandler != null && sharedClientRequestHandler.isConnected()) {
+                return sharedClientRequestHandler;
+            }
+        }
+        while (true) {
+            IdleClientRequestHandler idleClientRequestHandler;
+            synchronized (stripe) {
+                Deque<IdleClientRequestHandler> idleHandlers = stripe.idleClientRequestHandlers.get(serverKey);
+                idleClientRequestHandler = idleHandlers != null ? idleHandlers.pollFirst() : null;
+            }
+            if (idleClientRequestHandler == null) {
+                return null;
+            } else if (currentTime - idleClientRequestHandler.releaseTime <= keepAliveTime
+                    && idleClientRequestHandler.clientRequestHandler.isConnected()) {
+                return idleClientRequestHandler.clientRequestHandler;
+            }
+            discard(idleClientRequestHandler.clientRequestHandler);
+        }
+    }
+
+    /**
+     * Creates and connects a new {@link ClientRequestHandler} to the received server of the
+     * {@link TransportFactory.TransportProtocol#TCP} transport.
+     *
+     * @param serverAddress the server address
+     * @param serverPort    the server port
+     * @return a connected handler
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    public ClientRequestHandler connect(InetAddress serverAddress, int serverPort) throws IOException {
+        return connect(TransportFactory.TransportProtocol.TCP.getName(), serverAddress, serverPort);
+    }
+
+    /**
+     * Creates and connects a new {@link ClientRequestHandler} to the received server of the transport, in the stripe
+     * of the caller thread. A connected {@link MultiplexedClientRequestHandler} becomes the shared handler of the
+     * server in the stripe, if other caller connected a shared handler at the same time, the new handler is
+     * disconnected and the shared one is returned.
+     *
+     * @param transport     the transport name, can not be null
+     * @param serverAddress the server address
+     * @param serverPort    the server port
+     * @return a connected handler
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    public ClientRequestHandler connect(String transport, InetAddress serverAddress, int serverPort)
+            throws IOException {
+        return connect(currentStripe(), transport, serverAddress, serverPort);
+    }
+
+    /**
+     * Connects a {@link ClientRequestHandler} to the received server of the transport in background and releases it to
+     * the stripe of the caller thread, so the next request to the server reuses the connection instead of waiting it.
+     * The connection handshake is done in the background too. Nothing is done if the server already has a connected
+     * handler in the stripe or is being prewarmed. The background threads do not prevent the process from exiting.
+     *
+     * @param transport     the transport name, can not be null
+     * @param serverAddress the server address
+     * @param serverPort    the server port
+     * @return the future completed when the handler is connected and pooled, or exceptionally with the
+     * {@link IOException} if the connection failed
+     */
+    public CompletableFuture<Void> prewarm(String transport, InetAddress serverAddress, int serverPort) {
+        ServerKey serverKey = new ServerKey(transport, new InetSocketAddress(serverAddress, serverPort));
+        Stripe stripe = currentStripe();
+        CompletableFuture<Void> prewarming;
+        synchronized (stripe) {
+            if (isPooled(stripe, serverKey)) {
+                return CompletableFuture.completedFuture(null);
+            }
+            prewarming = stripe.prewarmingServers.get(serverKey);
+            if (prewarming != null) {
+                return prewarming;
+            }
+            prewarming = new CompletableFuture<>();
+            stripe.prewarmingServers.put(serverKey, prewarming);
+        }
+        CompletableFuture<Void> prewarmed = prewarming;
+        getPrewarmExecutor().execute(() -> {
+            try {
+                ClientRequestHandler clientRequestHandler = connect(stripe, transport, serverAddress, serverPort);
+                release(stripe, clientRequestHandler);
+                prewarmed.complete(null);
+            } catch (IOException | RuntimeException e) {
+                prewarmed.completeExceptionally(e);
+            } finally {
+                synchronized (stripe) {
+                    stripe.prewarmingServers.remove(serverKey, prewarmed);
+                }
+            }
+        });
+        return prewarmed;
+    }
+
+    /**
+     * Returns the {@link ClientRequestHandler} to the pool, the handler should have no requests waiting for replies.
+     * Disconnected and shared handlers are ignored, handlers not created by this pool are disconnected. The handler
+     * returns to the stripe where it was created.
+     *
+     * @param clientRequestHandler the handler to release, can not be null
+     */
+    public void release(ClientRequestHandler clientRequestHandler) {
+        Objects.requireNonNull(clientRequestHandler, "The client request handler can not be null.");
+        if (!clientRequestHandler.isConnected() || clientRequestHandler instanceof MultiplexedClientRequestHandler) {
+            return;
+        }
+        Stripe stripe = currentStripe();
+        release(stripe.contains(clientRequestHandler) ? stripe : findStripe(clientRequestHandler),
+                clientRequestHandler);
+    }
+
+    /**
+     * Disconnects the {@link ClientRequestHandler} without returning it to the pool, used when the handler fails. If
+     * the handler is a shared handler, it stops being shared.
+     *
+     * @param clientRequestHandler the handler to discard, can not be null
+     */
+    public void discard(ClientRequestHandler clientRequestHandler) {
+        Objects.requireNonNull(clientRequestHandler, "The client request handler can not be null.");
+        Stripe stripe = findStripe(clientRequestHandler);
+        if (stripe != null) {
+            synchronized (stripe) {
+                ServerKey serverKey = stripe.clientRequestHandlerServers.remove(clientRequestHandler);
+                if (serverKey != null && clientRequestHandler instanceof MultiplexedClientRequestHandler) {
+                    stripe.sharedClientRequestHandlers.remove(serverKey, clientRequestHandler);
+                }
+            }
+        }
+        if (clientRequestHandler.isConnected()) {
+            try {
+                clientRequestHandler.disconnect();
+            } catch (IOException e) {
+                // The handler is being discarded
+            }
+        }
+    }
+
+    /**
+     * Disconnects all idle and shared {@link ClientRequestHandler}s of all stripes.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            Map<ServerKey, Deque<IdleClientRequestHandler>> clearedClientRequestHandlers;
+            Map<ServerKey, MultiplexedClientRequestHandler> clearedSharedClientRequestHandlers;
+            synchronized (stripe) {
+                clearedClientRequestHandlers = stripe.idleClientRequestHandlers;
+                clearedSharedClientRequestHandlers = stripe.sharedClientRequestHandlers;
+                stripe.idleClientRequestHandlers = new HashMap<>();
+                stripe.sharedClientRequestHandlers = new HashMap<>();
+            }
+            for (MultiplexedClientRequestHandler sharedClientRequestHandler
+                    : clearedSharedClientRequestHandlers.values()) {
+                discard(sharedClientRequestHandler);
+            }
+            for (Deque<IdleClientRequestHandler> idleHandlers : clearedClientRequestHandlers.values()) {
+                for (IdleClientRequestHandler idleClientRequestHandler : idleHandlers) {
+                    discard(idleClientRequestHandler.clientRequestHandler);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the stripe of the caller thread.
+     *
+     * @return the stripe
+     */
+    private Stripe currentStripe() {
+        Stripe[] currentStripes = stripes;
+        return currentStripes.length == 1
+                ? currentStripes[0]
+                : currentStripes[Math.floorMod(threadStripeIndex.get(), currentStripes.length)];
+    }
+
+    /**
+     * Returns the stripe where the handler was created.
+     *
+     * @param clientRequestHandler the handler
+     * @return the stripe, or null if the handler was not created by this pool or was discarded
+     */
+    private Stripe findStripe(ClientRequestHandler clientRequestHandler) {
+        for (Stripe stripe : stripes) {
+            if (stripe.contains(clientRequestHandler)) {
+                return stripe;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates and connects a new {@link ClientRequestHandler} to the received server of the transport in the stripe.
+     * The callers connecting to the same server in the same stripe wait the first connection, if it is a
+     * {@link MultiplexedClientRequestHandler} it is shared by them, otherwise they connect their own handlers.
+     *
+     * @param stripe        the stripe
+     * @param transport     the transport name, can not be null
+     * @param serverAddress the server address
+     * @param serverPort    the server port
+     * @return a connected handler
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private ClientRequestHandler connect(Stripe stripe, String transport, InetAddress serverAddress, int serverPort)
+            throws IOException {
+        ServerKey serverKey = new ServerKey(transport, new InetSocketAddress(serverAddress, serverPort));
+        CompletableFuture<ClientRequestHandler> connecting;
+        boolean connector;
+        synchronized (stripe) {
+            connecting = stripe.connectingServers.get(serverKey);
+            connector = connecting == null;
+            if (connector) {
+                connecting = new CompletableFuture<>();
+                stripe.connectingServers.put(serverKey, connecting);
+            }
+        }
+        if (!connector) {
+            // Waits the connection being established, a connected shared handler is used by all callers
+            ClientRequestHandler connectedClientRequestHandler;
+            try {
+                connectedClientRequestHandler = connecting.join();
+            } catch (CompletionException | CancellationException e) {
+                connectedClientRequestHandler = null;
+            }
+            if (connectedClientRequestHandler instanceof MultiplexedClientRequestHandler
+                    && connectedClientRequestHandler.isConnected()) {
+                return connectedClientRequestHandler;
+            }
+            return newClientRequestHandler(stripe, serverKey, transport, serverAddress, serverPort);
+        }
+        try {
+            ClientRequestHandler clientRequestHandler
+                    = newClientRequestHandler(stripe, serverKey, transport, serverAddress, serverPort);
+            connecting.complete(clientRequestHandler);
+            return clientRequestHandler;
+        } catch (IOException | RuntimeException e) {
+            connecting.completeExceptionally(e);
+            throw e;
+        } finally {
+            synchronized (stripe) {
+                stripe.connectingServers.remove(serverKey, connecting);
+            }
+        }
+    }
+
+    /**
+     * Creates and connects a new {@link ClientRequestHandler} to the received server of the transport in the stripe.
+     * A connected {@link MultiplexedClientRequestHandler} becomes the shared handler of the server in the stripe,
+     * unless the stripe already has a connected shared handler, that is returned instead.
+     *
+     * @param stripe        the stripe
+     * @param serverKey     the server
+     * @param transport     the transport name
+     * @param serverAddress the server address
+     * @param serverPort    the server port
+     * @return a connected handler
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private ClientRequestHandler newClientRequestHandler(Stripe stripe, ServerKey serverKey, String transport,
+                                                         InetAddress serverAddress, int serverPort)
+            throws IOException {
+        TransportProvider transportProvider = TransportFactory.getTransportProvider(transport);
+        if (transportProvider == TransportFactory.TransportProtocol.TCP) {
+            transportProvider = transportProtocol;
+        }
+        ClientRequestHandler clientRequestHandler
+                = transportProvider.newClientRequestHandler(serverAddress, serverPort);
+        clientRequestHandler.connect();
+        synchronized (stripe) {
+            stripe.clientRequestHandlerServers.put(clientRequestHandler, serverKey);
+        }
+        if (!(clientRequestHandler instanceof MultiplexedClientRequestHandler)) {
+            return clientRequestHandler;
+        }
+        MultiplexedClientRequestHandler sharedClientRequestHandler;
+        synchronized (stripe) {
+            sharedClientRequestHandler = stripe.sharedClientRequestHandlers.get(serverKey);
+            if (sharedClientRequestHandler == null || !sharedClientRequestHandler.isConnected()) {
+                stripe.sharedClientRequestHandlers.put(
+                        serverKey, (MultiplexedClientRequestHandler) clientRequestHandler
+                );
+                return clientRequestHandler;
+            }
+        }
+        discard(clientRequestHandler);
+        return sharedClientRequestHandler;
+    }
+
+    /**
+     * Returns the {@link ClientRequestHandler} to the stripe, the handler is disconnected if the stripe is null or has
+     * not created it.
+     *
+     * @param stripe               the stripe of the handler, or null
+     * @param clientRequestHandler the handler to release
+     */
+    private void release(Stripe stripe, ClientRequestHandler clientRequestHandler) {
+        if (!clientRequestHandler.isConnected() || clientRequestHandler instanceof MultiplexedClientRequestHandler) {
+            return;
+        }
+        ClientRequestHandler evictedClientRequestHandler = null;
+        if (stripe == null) {
+            evictedClientRequestHandler = clientRequestHandler;
+        } else {
+            synchronized (stripe) {
+                ServerKey serverKey = stripe.clientRequestHandlerServers.get(clientRequestHandler);
+                if (serverKey == null) {
+                    evictedClientRequestHandler = clientRequestHandler;
+                } else {
+                    Deque<IdleClientRequestHandler> idleHandlers
+                            = stripe.idleClientRequestHandlers.computeIfAbsent(serverKey, key -> new ArrayDeque<>());
+                    idleHandlers.addFirst(
+                            new IdleClientRequestHandler(clientRequestHandler, System.currentTimeMillis())
+                    );
+                    if (idleHandlers.size() > maxIdleHandlers) {
+                        evictedClientRequestHandler = idleHandlers.pollLast().clientRequestHandler;
+                    }
+                }
+            }
+        }
+        if (evictedClientRequestHandler != null) {
+            discard(evictedClientRequestHandler);
+        }
+    }
+
+    /**
+     * Returns if the server has a connected shared handler or idle handler in the stripe, the expired handlers are
+     * considered, they are discarded when acquired. Should be called holding the stripe lock.
+     *
+     * @param stripe    the stripe
+     * @param serverKey the server
+     * @return if the server has a pooled handler
+     */
+    private boolean isPooled(Stripe stripe, ServerKey serverKey) {
+        MultiplexedClientRequestHandler sharedClientRequestHandler = stripe.sharedClientRequestHandlers.get(serverKey);
+        if (sharedClientRequestHandler != null && sharedClientRequestHandler.isConnected()) {
+            return true;
+        }
+        Deque<IdleClientRequestHandler> idleHandlers = stripe.idleClientRequestHandlers.get(serverKey);
+        IdleClientRequestHandler idleClientRequestHandler = idleHandlers != null ? idleHandlers.peekFirst() : null;
+        return idleClientRequestHandler != null
+                && System.currentTimeMillis() - idleClientRequestHandler.releaseTime <= keepAliveTime
+                && idleClientRequestHandler.clientRequestHandler.isConnected();
+    }
+
+    /**
+     * Returns the executor of the background connections, creating it in the first call.
+     *
+     * @return the prewarm executor
+     */
+    private synchronized ExecutorService getPrewarmExecutor() {
+        if (prewarmExecutor == null) {
+            prewarmExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread prewarmThread = new Thread(runnable, "ClientRequestHandlerPool prewarm");
+                prewarmThread.setDaemon(true);
+                return prewarmThread;
+            });
+        }
+        return prewarmExecutor;
+    }
+
+    /**
+     * A stripe of the pool, its fields are guarded by the stripe lock.
+     */
+    private static class Stripe {
+
+        /**
+         * The idle handlers of each server, the most recently released handlers are in the head of the deque.
+         */
+        private Map<ServerKey, Deque<IdleClientRequestHandler>> idleClientRequestHandlers = new HashMap<>();
+
+        /**
+         * The shared multiplexed handler of each server.
+         */
+        private Map<ServerKey, MultiplexedClientRequestHandler> sharedClientRequestHandlers = new HashMap<>();
+
+        /**
+         * The server of each handler created in this stripe.
+         */
+        private Map<ClientRequestHandler, ServerKey> clientRequestHandlerServers = new WeakHashMap<>();
+
+        /**
+         * The connections being established to each server.
+         */
+        private Map<ServerKey, CompletableFuture<ClientRequestHandler>> connectingServers = new HashMap<>();
+
+        /**
+         * The futures of the servers being connected in background.
+         */
+        private Map<ServerKey, CompletableFuture<Void>> prewarmingServers = new HashMap<>();
+
+        /**
+         * Returns if the handler was created in this stripe and was not discarded.
+         *
+         * @param clientRequestHandler the handler
+         * @return if the stripe has the handler
+         */
+        synchronized boolean contains(ClientRequestHandler clientRequestHandler) {
+            return clientRequestHandlerServers.containsKey(clientRequestHandler);
+        }
+    }
+
+    /**
+     * Holds an idle {@link ClientRequestHandler} and the time it was released.
+     */
+    private static class IdleClientRequestHandler {
+        private ClientRequestHandler clientRequestHandler;
+        private long releaseTime;
+
+        IdleClientRequestHandler(ClientRequestHandler clientRequestHandler, long releaseTime) {
+            this.clientRequestHandler = clientRequestHandler;
+            this.releaseTime = releaseTime;
+        }
+    }
+
+    /**
+     * Identifies a server by the transport name and the socket address.
+     */
+    private static class ServerKey {
+        private String transport;
+        private InetSocketAddress socketAddress;
+
+        ServerKey(String transport, InetSocketAddress socketAddress) {
+            this.transport = Objects.requireNonNull(transport, "The transport can not be null.");
+            this.socketAddress = socketAddress;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ServerKey that = (ServerKey) o;
+            return transport.equals(that.transport) && socketAddress.equals(that.socketAddress);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * transport.hashCode() + socketAddress.hashCode();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package esm.infrastructure;
+
+import esm.util.buffer.ChunkOutputStream;
+import esm.util.buffer.PooledBuffer;
+import esm.util.buffer.PooledBufferInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link ClientRequestHandler} that can be shared by multiple threads, sending many requests through the same
+ * connection without waiting the previous replies. Each request carries a correlation identifier, the replies can
+ * arrive in any order and are matched to the waiting requests by this identifier. The requests and replies are
+ * {@link PooledBuffer}s, the request buffers ownership is transferred to the handler, even if an exception is thrown,
+ * and the reply buffers ownership is transferred to the future consumer.
+ *
+ * @author Pedro Henrique
+ * @see MultiplexedServerRequestHandler
+ */
+public interface MultiplexedClientRequestHandler extends ClientRequestHandler {
+
+    /**
+     * Sends a request to the connected {@link ServerRequestHandler} and returns a future completed with the reply
+     * buffer. Just can be called if this handler is connected, can be called by multiple threads at the same time. If
+     * the connection fails before the reply is received, the future is completed exceptionally with an
+     * {@link IOException}.
+     *
+     * @param data the buffer to send
+     * @return the future of the reply buffer
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    CompletableFuture<PooledBuffer> request(PooledBuffer data) throws IOException;
+
+    /**
+     * Sends a request that is not replied by the connected {@link ServerRequestHandler}. Just can be called if this
+     * handler is connected, can be called by multiple threads at the same time.
+     *
+     * @param data the buffer to send
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    void post(PooledBuffer data) throws IOException;
+
+    /**
+     * Starts a request whose data is written to the returned stream, the request is complete when the stream is
+     * closed. The handlers that send the requests in chunks send each chunk when it is full, and deliver the reply
+     * stream before the whole reply is received, so large messages are processed while they are transferred. The
+     * reply stream should be closed by its consumer. The default implementation sends the whole request with
+     * {@link #request(PooledBuffer)} or {@link #post(PooledBuffer)} when the stream is closed.
+     *
+     * @param replyStream the future completed with the stream of the reply, or null if the request is not replied
+     * @return the stream of the request
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    default OutputStream openRequest(CompletableFuture<InputStream> replyStream) throws IOException {
+        return new ChunkOutputStream(Integer.MAX_VALUE, (data, last) -> {
+            if (replyStream == null) {
+                post(data);
+                return;
+            }
+            request(data).whenComplete((replyData, failure) -> {
+                if (failure != null) {
+                    replyStream.completeExceptionally(failure);
+                } else if (!replyStream.complete(new PooledBufferInputStream(replyData, true))) {
+                    replyData.release();
+                }
+            });
+        });
+    }
+}
@@ -0,0 +1,25 @@
+package esm.infrastructure;
+
+import java.io.IOException;
+
+/**
+ * A persistent {@link ServerRequestHandler} whose connection can carry multiple requests at the same time, sent by a
+ * {@link MultiplexedClientRequestHandler}. Each request is received as a non persistent exchange handler, so the
+ * requests can be processed concurrently and replied in any order.
+ *
+ * @author Pedro Henrique
+ * @see MultiplexedClientRequestHandler
+ */
+public interface MultiplexedServerRequestHandler extends ServerRequestHandler {
+
+    /**
+     * Receives the next request of the connection and returns a non persistent {@link ServerRequestHandler} already
+     * holding the request data. The returned handler sends the reply using the request correlation identifier, or
+     * should be disconnected if no reply is sent, this does not close the connection. Just can be called by a single
+     * thread at a time.
+     *
+     * @return the handler of the received request
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    ServerRequestHandler receiveExchange() throws IOException;
+}
@@ -0,0 +1,268 @@
+package esm.infrastructure;
+
+/**
+ * The PortProfile sets how a {@link ServerRequestConnector} listens its port and configures the accepted connections.
+ * The profile is applied by the connectors that support it, the others ignore it.
+ *
+ * @author Pedro Henrique
+ * @see TransportProvider#newServerRequestConnector(java.net.InetAddress, int, PortProfile)
+ */
+public class PortProfile {
+
+    /**
+     * The max number of pending connections of each listening channel.
+     */
+    private int backlog;
+
+    /**
+     * The size of the socket receive buffers, zero to use the system default.
+     */
+    private int receiveBufferSize;
+
+    /**
+     * The size of the socket send buffers, zero to use the system default.
+     */
+    private int sendBufferSize;
+
+    /**
+     * Indicates if the Nagle's algorithm is disabled in the accepted connections.
+     */
+    private boolean tcpNoDelay;
+
+    /**
+     * The number of listening channels of the port.
+     */
+    private int acceptors;
+
+    /**
+     * The max time in microseconds that a ready reply waits for other replies of the same connection before the
+     * replies are written together, zero to write them in the same event loop turn.
+     */
+    private long flushDelay;
+
+    /**
+     * The max number of requests of each connection received and not finished yet.
+     */
+    private int maxPendingRequests;
+
+    /**
+     * The max number of request bytes of each connection received and not finished yet.
+     */
+    private long maxPendingBytes;
+
+    /**
+     * The max size of the request messages, the connections that send larger messages are closed.
+     */
+    private int maxMessageSize;
+
+    /**
+     * Creates the PortProfile with a single listening channel with backlog of 50, the system default buffer sizes and
+     * the Nagle's algorithm disabled. Each connection can have 1024 pending requests with 16 MiB of data, and the
+     * request messages can have up to 64 MiB.
+     */
+    public PortProfile() {
+        backlog = 50;
+        receiveBufferSize = 0;
+        sendBufferSize = 0;
+        tcpNoDelay = true;
+        acceptors = 1;
+        flushDelay = 0;
+        maxPendingRequests = 1024;
+        maxPendingBytes = 16 * 1024 * 1024;
+        maxMessageSize = 64 * 1024 * 1024;
+    }
+
+    /**
+     * Creates the PortProfile with the received properties, the replies ready in the same event loop turn are written
+     * together, without delay.
+     *
+     * @param backlog           the max number of pending connections of each listening channel, greater than zero
+     * @param receiveBufferSize the size of the socket receive buffers, zero to use the system default
+     * @param sendBufferSize    the size of the socket send buffers, zero to use the system default
+     * @param tcpNoDelay        if the Nagle's algorithm is disabled in the accepted connections
+     * @param acceptors         the number of listening channels of the port, greater than one requires the
+     *                          {@code SO_REUSEPORT} option, if not supported a single channel is used
+     */
+    public PortProfile(int backlog, int receiveBufferSize, int sendBufferSize, boolean tcpNoDelay, int acceptors) {
+        this(backlog, receiveBufferSize, sendBufferSize, tcpNoDelay, acceptors, 0);
+    }
+
+    /**
+     * Creates the PortProfile with the received properties, each connection can have 1024 pending requests with 16 MiB
+     * of data.
+     *
+     * @param backlog           the max number of pending connections of each listening channel, greater than zero
+     * @param receiveBufferSize the size of the socket receive buffers, zero to use the system default
+     * @param sendBufferSize    the size of the socket send buffers, zero to use the system default
+     * @param tcpNoDelay        if the Nagle's algorithm is disabled in the accepted connections
+     * @param acceptors         the number of listening channels of the port, greater than one requires the
+     *                          {@code SO_REUSEPORT} option, if not supported a single channel is used
+     * @param flushDelay        the max time in microseconds that a ready reply waits for other replies of the same
+     *                          connection before the replies are written together, zero to not wait
+     */
+    public PortProfile(int backlog, int receiveBufferSize, int sendBufferSize, boolean tcpNoDelay, int acceptors,
+                       long flushDelay) {
+        this(backlog, receiveBufferSize, sendBufferSize, tcpNoDelay, acceptors, flushDelay, 1024, 16 * 1024 * 1024);
+    }
+
+    /**
+     * Creates the PortProfile with the received properties, the request messages can have up to 64 MiB.
+     *
+     * @param backlog            the max number of pending connections of each listening channel, greater than zero
+     * @param receiveBufferSize  the size of the socket receive buffers, zero to use the system default
+     * @param sendBufferSize     the size of the socket send buffers, zero to use the system default
+     * @param tcpNoDelay         if the Nagle's algorithm is disabled in the accepted connections
+     * @param acceptors          the number of listening channels of the port, greater than one requires the
+     *                           {@code SO_REUSEPORT} option, if not supported a single channel is used
+     * @param flushDelay         the max time in microseconds that a ready reply waits for other replies of the same
+     *                           connection before the replies are written together, zero to not wait
+     * @param maxPendingRequests the max number of requests of each connection received and not finished yet, greater
+     *                           than zero
+     * @param maxPendingBytes    the max number of request bytes of each connection received and not finished yet,
+     *                           greater than zero
+     */
+    public PortProfile(int backlog, int receiveBufferSize, int sendBufferSize, boolean tcpNoDelay, int acceptors,
+                       long flushDelay, int maxPendingRequests, long maxPendingBytes) {
+        this(backlog, receiveBufferSize, sendBufferSize, tcpNoDelay, acceptors, flushDelay, maxPendingRequests,
+                maxPendingBytes, 64 * 1024 * 1024);
+    }
+
+    /**
+     * Creates the PortProfile with the received properties.
+     *
+     * @param backlog            the max number of pending connections of each listening channel, greater than zero
+     * @param receiveBufferSize  the size of the socket receive buffers, zero to use the system default
+     * @param sendBufferSize     the size of the socket send buffers, zero to use the system default
+     * @param tcpNoDelay         if the Nagle's algorithm is disabled in the accepted connections
+     * @param acceptors          the number of listening channels of the port, greater than one requires the
+     *                           {@code SO_REUSEPORT} option, if not supported a single channel is used
+     * @param flushDelay         the max time in microseconds that a ready reply waits for other replies of the same
+     *                           connection before the replies are written together, zero to not wait
+     * @param maxPendingRequests the max number of requests of each connection received and not finished yet, greater
+     *                           than zero
+     * @param maxPendingBytes    the max number of request bytes of each connection received and not finished yet,
+     *                           greater than zero
+     * @param maxMessageSize     the max size of the request messages, greater than zero
+     */
+    public PortProfile(int backlog, int receiveBufferSize, int sendBufferSize, boolean tcpNoDelay, int acceptors,
+                       long flushDelay, int maxPendingRequests, long maxPendingBytes, int maxMessageSize) {
+        if (backlog < 1) {
+            throw new IllegalArgumentException("The backlog can not be less than 1.");
+        }
+        this.backlog = backlog;
+        if (receiveBufferSize < 0) {
+            throw new IllegalArgumentException("The receive buffer size can not be negative.");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+        if (sendBufferSize < 0) {
+            throw new IllegalArgumentException("The send buffer size can not be negative.");
+        }
+        this.sendBufferSize = sendBufferSize;
+        this.tcpNoDelay = tcpNoDelay;
+        if (acceptors < 1) {
+            throw new IllegalArgumentException("The number of acceptors can not be less than 1.");
+        }
+        this.acceptors = acceptors;
+        if (flushDelay < 0) {
+            throw new IllegalArgumentException("The flush delay can not be negative.");
+        }
+        this.flushDelay = flushDelay;
+        if (maxPendingRequests < 1) {
+            throw new IllegalArgumentException("The max number of pending requests can not be less than 1.");
+        }
+        this.maxPendingRequests = maxPendingRequests;
+        if (maxPendingBytes < 1) {
+            throw new IllegalArgumentException("The max number of pending bytes can not be less than 1.");
+        }
+        this.maxPendingBytes = maxPendingBytes;
+        if (maxMessageSize < 1) {
+            throw new IllegalArgumentException("The max message size can not be less than 1.");
+        }
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Returns the max number of pending connections of each listening channel.
+     *
+     * @return the backlog
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Returns the size of the socket receive buffers, zero if the system default is used.
+     *
+     * @return the receive buffer size
+     */
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Returns the size of the socket send buffers, zero if the system default is used.
+     *
+     * @return the send buffer size
+     */
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * Returns if the Nagle's algorithm is disabled in the accepted connections.
+     *
+     * @return if the TCP_NODELAY option is set
+     */
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Returns the number of listening channels of the port, each one accepted by its own thread or event loop.
+     *
+     * @return the number of acceptors
+     */
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    /**
+     * Returns the max time in microseconds that a ready reply waits for other replies of the same connection before
+     * the replies are written together. Applied by the connections handled by a {@link esm.infrastructure.nio.Reactor}.
+     *
+     * @return the flush delay
+     */
+    public long getFlushDelay() {
+        return flushDelay;
+    }
+
+    /**
+     * Returns the max number of requests of each connection received and not finished yet, granted as credits to the
+     * clients, see {@link esm.infrastructure.nio.CreditWindow}.
+     *
+     * @return the max number of pending requests
+     */
+    public int getMaxPendingRequests() {
+        return maxPendingRequests;
+    }
+
+    /**
+     * Returns the max number of request bytes of each connection received and not finished yet, granted as credits to
+     * the clients.
+     *
+     * @return the max number of pending bytes
+     */
+    public long getMaxPendingBytes() {
+        return maxPendingBytes;
+    }
+
+    /**
+     * Returns the max size of the request messages, including the messages sent in chunks. The frames with larger
+     * length are rejected before their data is allocated, and the connection is closed.
+     *
+     * @return the max message size
+     */
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+}
@@ -0,0 +1,29 @@
+package esm.infrastructure;
+
+import esm.infrastructure.nio.Reactor;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * A {@link ServerRequestConnector} that can receive its connections and requests in the event loops of a
+ * {@link Reactor} instead of blocking in the {@link #accept()} method. Each received request is delivered to the
+ * request consumer as a non persistent {@link ServerRequestHandler} already holding the request data, the reply is
+ * written by the reactor without blocking the caller.
+ *
+ * @author Pedro Henrique
+ * @see Reactor
+ */
+public interface ReactiveServerRequestConnector extends ServerRequestConnector {
+
+    /**
+     * Registers this connector in the {@link Reactor}. The connections are accepted and read by the reactor event
+     * loops until the reactor stops, the connector stays open after the reactor stops.
+     *
+     * @param reactor         the running reactor
+     * @param requestConsumer the consumer of the received requests, called by the event loop threads, should not
+     *                        block
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    void register(Reactor reactor, Consumer<ServerRequestHandler> requestConsumer) throws IOException;
+}
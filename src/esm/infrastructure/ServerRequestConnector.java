@@ -1,8 +1,12 @@
 package esm.infrastructure;
 
+import esm.infrastructure.nio.ByteBudget;
+
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.SocketException;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Defines the basic methods to implement the {@link ServerRequestConnector} interface. The ServerRequestConnector
@@ -50,6 +54,27 @@ public interface ServerRequestConnector {
      */
     void setTimeout(int timeout) throws SocketException;
 
+    /**
+     * Returns the connectors that accept the connections of the port of this {@link ServerRequestConnector}, including
+     * this one. Each connector should be accepted by its own thread or registered on its own in a reactor. Closing
+     * this connector closes all of them. The default implementation returns only this connector.
+     *
+     * @return the unmodifiable list of connectors of the port
+     */
+    default List<ServerRequestConnector> getShards() {
+        return Collections.singletonList(this);
+    }
+
+    /**
+     * Sets the {@link ByteBudget} shared by the connections accepted by this connector and by the connectors of other
+     * ports, the connections stop reading requests while it is exhausted. The connectors whose connections are not
+     * limited by credit windows ignore the budget, the default implementation ignores it.
+     *
+     * @param byteBudget the budget of the request bytes in execution, or null to not share a budget
+     */
+    default void setByteBudget(ByteBudget byteBudget) {
+    }
+
     /**
      * Closes this {@link ServerRequestConnector}, after closed, this object can not accept new connections.
      *
@@ -1,6 +1,13 @@
 package esm.infrastructure;
 
+import esm.util.buffer.BufferArena;
+import esm.util.buffer.ChunkOutputStream;
+import esm.util.buffer.PooledBuffer;
+import esm.util.buffer.PooledBufferInputStream;
+
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * Defines the basic methods to implement the {@link ServerRequestHandler} interface. The ServerRequestHandler receives
@@ -14,8 +21,24 @@ import java.io.IOException;
 public interface ServerRequestHandler {
 
     /**
-     * Receives bytes from a {@link ClientRequestHandler}. Just can be called if this ServerRequestHandler is connected
-     * and this method was not called before. This method can not be called two times.
+     * Returns if this ServerRequestHandler is connected.
+     *
+     * @return if this handler is connected
+     */
+    boolean isConnected();
+
+    /**
+     * Returns if this ServerRequestHandler keeps the connection open after an exchange, receiving the next requests of
+     * the same {@link ClientRequestHandler}. Non persistent handlers are disconnected after the reply is sent, and
+     * should be disconnected if no reply is sent.
+     *
+     * @return if this handler is persistent
+     */
+    boolean isPersistent();
+
+    /**
+     * Receives bytes from a {@link ClientRequestHandler}. Just can be called if this ServerRequestHandler is connected.
+     * Non persistent handlers can not call this method two times.
      *
      * @return the received bytes
      * @throws IOException if an I/O exception of some sort has occurred
@@ -24,13 +47,69 @@ public interface ServerRequestHandler {
 
     /**
      * Sends the data to the connected {@link ClientRequestHandler}. Just can be called if this ServerRequestHandler is
-     * connected and if the method received was called before. This method can not be called two times.
+     * connected and if a received request was not replied yet.
      *
      * @param data the bytes to send
      * @throws IOException if an I/O exception of some sort has occurred
      */
     void send(byte[] data) throws IOException;
 
+    /**
+     * Receives bytes from a {@link ClientRequestHandler} in a {@link PooledBuffer}, with the same rules of
+     * {@link #receive()}. The buffer ownership is transferred to the caller. The default implementation copies the
+     * received array to a buffer.
+     *
+     * @return the buffer with the received bytes
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    default PooledBuffer receiveBuffer() throws IOException {
+        return BufferArena.getInstance().copyOf(receive());
+    }
+
+    /**
+     * Sends the data of the {@link PooledBuffer} to the connected {@link ClientRequestHandler}, with the same rules of
+     * {@link #send(byte[])}. The buffer ownership is transferred to this handler, even if an exception is thrown. The
+     * default implementation copies the data to an array.
+     *
+     * @param data the buffer to send
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    default void sendBuffer(PooledBuffer data) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = data.toByteArray();
+        } finally {
+            data.release();
+        }
+        send(bytes);
+    }
+
+    /**
+     * Receives the request from a {@link ClientRequestHandler} as a stream, with the same rules of {@link #receive()}.
+     * The handlers that receive the requests in chunks return the stream before the whole request is received, so the
+     * request can be processed while it arrives. The stream should be closed by the caller. The default implementation
+     * reads the request with {@link #receiveBuffer()}.
+     *
+     * @return the stream of the received bytes
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    default InputStream receiveStream() throws IOException {
+        return new PooledBufferInputStream(receiveBuffer(), true);
+    }
+
+    /**
+     * Returns a stream to send the reply to the connected {@link ClientRequestHandler}, with the same rules of
+     * {@link #send(byte[])}, the reply is complete when the stream is closed. The handlers that send the replies in
+     * chunks send each chunk when it is full, so the reply is sent while it is written. The default implementation
+     * sends the whole reply with {@link #sendBuffer(PooledBuffer)} when the stream is closed.
+     *
+     * @return the stream of the reply
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    default OutputStream sendStream() throws IOException {
+        return new ChunkOutputStream(Integer.MAX_VALUE, (data, last) -> sendBuffer(data));
+    }
+
     /**
      * Disconnects from the {@link ClientRequestHandler}. Just can be called if this ServerRequestHandler is connected.
      * This method can not be called two times.
@@ -1,28 +1,130 @@
 package esm.infrastructure;
 
+import esm.infrastructure.impl.shm.SharedMemoryClientRequestHandler;
+import esm.infrastructure.impl.shm.SharedMemoryServerRequestConnector;
+import esm.infrastructure.impl.tcp.TCPAsyncClientRequestHandler;
 import esm.infrastructure.impl.tcp.TCPClientRequestHandler;
 import esm.infrastructure.impl.tcp.TCPServerRequestConnector;
 import esm.infrastructure.impl.udp.UDPClientRequestHandler;
 import esm.infrastructure.impl.udp.UDPServerRequestConnector;
+import esm.infrastructure.impl.unix.UnixClientRequestHandler;
+import esm.infrastructure.impl.unix.UnixServerRequestConnector;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.ServiceLoader;
+import java.util.Set;
 
 /**
  * Creates and returns {@link ClientRequestHandler}s and {@link ServerRequestConnector}s protocol with the received
  * properties. The {@link ServerRequestHandler}s are only created when a {@link ServerRequestConnector} receives a
- * connection request, is created using the same protocol type of the connector.
+ * connection request, is created using the same protocol type of the connector. The transports can also be selected
+ * by name, the names of the {@link TransportProtocol} values and of the {@link TransportProvider}s discovered with the
+ * {@link ServiceLoader} when this class is initialized.
  *
  * @author Pedro Henrique
+ * @see TransportProvider
  */
 public final class TransportFactory {
 
+    /**
+     * The transport providers by name, the built-in protocols first, the discovered providers can not replace them.
+     */
+    private static final Map<String, TransportProvider> TRANSPORT_PROVIDERS;
+
+    static {
+        Map<String, TransportProvider> transportProviders = new LinkedHashMap<>();
+        for (TransportProtocol transportProtocol : TransportProtocol.values()) {
+            transportProviders.put(transportProtocol.getName(), transportProtocol);
+        }
+        for (TransportProvider transportProvider : ServiceLoader.load(TransportProvider.class)) {
+            transportProviders.putIfAbsent(transportProvider.getName(), transportProvider);
+        }
+        TRANSPORT_PROVIDERS = Collections.unmodifiableMap(transportProviders);
+    }
+
     /**
      * Prevents instantiation.
      */
     private TransportFactory() {
     }
 
+    /**
+     * Returns the names of the available transports, the built-in protocols and the discovered providers.
+     *
+     * @return the unmodifiable set of transport names
+     */
+    public static Set<String> getTransportNames() {
+        return TRANSPORT_PROVIDERS.keySet();
+    }
+
+    /**
+     * Returns the {@link TransportProvider} with the received name.
+     *
+     * @param transport the transport name, can not be null
+     * @return the transport provider
+     */
+    public static TransportProvider getTransportProvider(String transport) {
+        Objects.requireNonNull(transport, "The transport can not be null.");
+        TransportProvider transportProvider = TRANSPORT_PROVIDERS.get(transport);
+        if (transportProvider == null) {
+            throw new IllegalArgumentException("The transport " + transport + " was not found.");
+        }
+        return transportProvider;
+    }
+
+    /**
+     * Returns a new {@link ClientRequestHandler} of the transport with the received name, to the
+     * {@link ServerRequestConnector} {@link InetAddress} and port.
+     *
+     * @param transport     the transport name
+     * @param serverAddress the server address
+     * @param serverPort    the server port
+     * @return the ClientRequestHandler instance
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    public static ClientRequestHandler newClientRequestHandler(String transport, InetAddress serverAddress,
+                                                               int serverPort) throws IOException {
+        return getTransportProvider(transport).newClientRequestHandler(serverAddress, serverPort);
+    }
+
+    /**
+     * Returns a new {@link ServerRequestConnector} of the transport with the received name, listening requests in the
+     * received {@link InetAddress} and port.
+     *
+     * @param transport    the transport name
+     * @param localAddress the local address
+     * @param localPort    the local port
+     * @return the ServerRequestConnector instance
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    public static ServerRequestConnector newServerRequestConnector(String transport, InetAddress localAddress,
+                                                                   int localPort) throws IOException {
+        return getTransportProvider(transport).newServerRequestConnector(localAddress, localPort);
+    }
+
+    /**
+     * Returns a new {@link ServerRequestConnector} of the transport with the received name, listening requests in the
+     * received {@link InetAddress} and port, configured by the {@link PortProfile} if the transport supports it.
+     *
+     * @param transport    the transport name
+     * @param localAddress the local address
+     * @param localPort    the local port
+     * @param portProfile  the port profile, can not be null
+     * @return the ServerRequestConnector instance
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    public static ServerRequestConnector newServerRequestConnector(String transport, InetAddress localAddress,
+                                                                   int localPort, PortProfile portProfile)
+            throws IOException {
+        Objects.requireNonNull(portProfile, "The port profile can not be null.");
+        return getTransportProvider(transport).newServerRequestConnector(localAddress, localPort, portProfile);
+    }
+
     /**
      * Returns a new {@link ClientRequestHandler} implemented with the received transport protocol and the
      * {@link ServerRequestConnector} {@link InetAddress} and port.
@@ -38,8 +140,14 @@ public final class TransportFactory {
         switch (transportProtocol) {
             case TCP:
                 return new TCPClientRequestHandler(serverAddress, serverPort);
+            case TCP_ASYNC:
+                return new TCPAsyncClientRequestHandler(serverAddress, serverPort);
             case UDP:
                 return new UDPClientRequestHandler(serverAddress, serverPort);
+            case UNIX:
+                return new UnixClientRequestHandler(serverAddress, serverPort);
+            case SHARED_MEMORY:
+                return new SharedMemoryClientRequestHandler(serverAddress, serverPort);
         }
         return null;
     }
@@ -55,20 +163,70 @@ public final class TransportFactory {
     public static ServerRequestConnector newServerRequestConnector(TransportProtocol transportProtocol,
                                                                    InetAddress localAddress, int localPort)
             throws IOException {
+        return newServerRequestConnector(transportProtocol, localAddress, localPort, new PortProfile());
+    }
+
+    /**
+     * Returns a new {@link ServerRequestConnector} implemented with the received transport protocol listening requests
+     * in the received {@link InetAddress} and port. The {@link PortProfile} is applied by the TCP connectors, the other
+     * protocols ignore it.
+     *
+     * @param transportProtocol the transport protocol
+     * @param localAddress      the local address
+     * @param localPort         the local port
+     * @param portProfile       the port profile
+     * @return the ServerRequestConnector instance
+     */
+    public static ServerRequestConnector newServerRequestConnector(TransportProtocol transportProtocol,
+                                                                   InetAddress localAddress, int localPort,
+                                                                   PortProfile portProfile) throws IOException {
         switch (transportProtocol) {
             case TCP:
-                return new TCPServerRequestConnector(localAddress, localPort);
+            case TCP_ASYNC:
+                return new TCPServerRequestConnector(localAddress, localPort, portProfile);
             case UDP:
                 return new UDPServerRequestConnector(localAddress, localPort);
+            case UNIX:
+                return new UnixServerRequestConnector(localAddress, localPort);
+            case SHARED_MEMORY:
+                return new SharedMemoryServerRequestConnector(localAddress, localPort);
         }
         return null;
     }
 
     /**
-     * The protocols that can be used to create request handlers and connectors.
+     * The protocols that can be used to create request handlers and connectors. The TCP_ASYNC client handlers are
+     * driven by asynchronous channels and connect to the same connectors of the TCP protocol. The UNIX handlers and
+     * connectors use Unix domain sockets, named by the port, to reach servers in the same host, they require Java 16
+     * or later. The SHARED_MEMORY handlers and connectors exchange the frames through memory-mapped rings, named by
+     * the port, with servers in the same host. Each protocol is the built-in {@link TransportProvider} named by the
+     * protocol name.
      */
-    public enum TransportProtocol {
-        TCP, UDP
+    public enum TransportProtocol implements TransportProvider {
+        TCP, TCP_ASYNC, UDP, UNIX, SHARED_MEMORY;
+
+        @Override
+        public String getName() {
+            return name();
+        }
+
+        @Override
+        public ClientRequestHandler newClientRequestHandler(InetAddress serverAddress, int serverPort)
+                throws IOException {
+            return TransportFactory.newClientRequestHandler(this, serverAddress, serverPort);
+        }
+
+        @Override
+        public ServerRequestConnector newServerRequestConnector(InetAddress localAddress, int localPort)
+                throws IOException {
+            return TransportFactory.newServerRequestConnector(this, localAddress, localPort);
+        }
+
+        @Override
+        public ServerRequestConnector newServerRequestConnector(InetAddress localAddress, int localPort,
+                                                                PortProfile portProfile) throws IOException {
+            return TransportFactory.newServerRequestConnector(this, localAddress, localPort, portProfile);
+        }
     }
 
 }
@@ -0,0 +1,62 @@
+package esm.infrastructure;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * Defines the basic methods to implement the {@link TransportProvider} interface. The TransportProvider creates the
+ * {@link ClientRequestHandler}s and {@link ServerRequestConnector}s of a transport, identified by its name in the
+ * {@link esm.distribution.invocation.AbsoluteObjectReference}s. The built-in transports are the
+ * {@link TransportFactory.TransportProtocol} values, other transports are discovered by the {@link TransportFactory}
+ * with the {@link java.util.ServiceLoader}, listing the implementation classes in the
+ * {@code META-INF/services/esm.infrastructure.TransportProvider} resource. The implementations should have a public
+ * constructor without parameters.
+ *
+ * @author Pedro Henrique
+ * @see TransportFactory
+ */
+public interface TransportProvider {
+
+    /**
+     * Returns the name of the transport, unique among the providers.
+     *
+     * @return the transport name
+     */
+    String getName();
+
+    /**
+     * Returns a new {@link ClientRequestHandler} of this transport, not connected yet, to the received server.
+     *
+     * @param serverAddress the server address
+     * @param serverPort    the server port
+     * @return the ClientRequestHandler instance
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    ClientRequestHandler newClientRequestHandler(InetAddress serverAddress, int serverPort) throws IOException;
+
+    /**
+     * Returns a new {@link ServerRequestConnector} of this transport listening requests in the received address and
+     * port.
+     *
+     * @param localAddress the local address
+     * @param localPort    the local port
+     * @return the ServerRequestConnector instance
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    ServerRequestConnector newServerRequestConnector(InetAddress localAddress, int localPort) throws IOException;
+
+    /**
+     * Returns a new {@link ServerRequestConnector} of this transport listening requests in the received address and
+     * port, configured by the {@link PortProfile}. The default implementation ignores the profile.
+     *
+     * @param localAddress the local address
+     * @param localPort    the local port
+     * @param portProfile  the port profile
+     * @return the ServerRequestConnector instance
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    default ServerRequestConnector newServerRequestConnector(InetAddress localAddress, int localPort,
+                                                             PortProfile portProfile) throws IOException {
+        return newServerRequestConnector(localAddress, localPort);
+    }
+}
@@ -0,0 +1,282 @@
+package esm.infrastructure.impl.shm;
+
+import esm.infrastructure.ClientRequestHandler;
+import esm.infrastructure.nio.FrameDecoder;
+import esm.infrastructure.nio.FrameEncoder;
+import esm.util.buffer.BufferArena;
+import esm.util.buffer.PooledBuffer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Shared memory implementation of the {@link ClientRequestHandler} interface, for servers in the same host. The
+ * handler creates a connection file with a requests ring and a replies ring and announces it in the accept ring of the
+ * server port, then the frames are exchanged through the rings without system calls. Each ring has a single producer
+ * and a single consumer, so the handler is not shared by concurrent threads, the requests are sent and the replies are
+ * received in order. The connection is kept alive after each reply. The server address is not used to connect, the
+ * server should be local.
+ *
+ * @author Pedro Henrique
+ * @see SharedMemoryServerRequestConnector
+ */
+public class SharedMemoryClientRequestHandler implements ClientRequestHandler {
+
+    /**
+     * The lock of the accept rings of this process, the file locks only exclude other processes.
+     */
+    private static final Object ANNOUNCE_LOCK = new Object();
+
+    /**
+     * The ServerRequestConnector address.
+     */
+    private InetAddress serverAddress;
+
+    /**
+     * The ServerRequestConnector port.
+     */
+    private int serverPort;
+
+    /**
+     * The connection file.
+     */
+    private Path connectionFile;
+
+    /**
+     * The ring of the requests, written by this handler.
+     */
+    private SharedMemoryRing requestRing;
+
+    /**
+     * The ring of the replies, read by this handler.
+     */
+    private SharedMemoryRing replyRing;
+
+    /**
+     * The encoder of the request frames.
+     */
+    private FrameEncoder frameEncoder;
+
+    /**
+     * The decoder of the reply frames.
+     */
+    private FrameDecoder frameDecoder;
+
+    /**
+     * The connection state of this ClientRequestHandler.
+     */
+    private volatile boolean connected;
+
+    /**
+     * Indicates if this ClientRequestHandler was connected before.
+     */
+    private boolean connectedBefore;
+
+    /**
+     * Indicates if a reply is being read.
+     */
+    private boolean receiving;
+
+    /**
+     * Creates a new SharedMemoryClientRequestHandler.
+     *
+     * @param serverAddress the server address
+     * @param serverPort    the server port
+     */
+    public SharedMemoryClientRequestHandler(InetAddress serverAddress, int serverPort) {
+        this.serverAddress = Objects.requireNonNull(serverAddress, "The server address can not be null.");
+        if (serverPort < 0 || serverPort > 65535) {
+            throw new IllegalArgumentException("The server port should be between 0 and 65535.");
+        }
+        this.serverPort = serverPort;
+        connected = false;
+        connectedBefore = false;
+        receiving = false;
+    }
+
+    @Override
+    public InetAddress getServerAddress() {
+        return serverAddress;
+    }
+
+    @Override
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public synchronized void connect() throws IOException {
+        if (connected) {
+            throw new IllegalStateException("This ClientRequestHandler is already connected.");
+        } else if (connectedBefore) {
+            throw new IllegalStateException("This ClientRequestHandler was connected before.");
+        }
+        checkListening();
+        connectionFile = SharedMemoryFiles.portDirectory(serverPort).resolve(UUID.randomUUID() + ".shm");
+        try {
+            MappedByteBuffer connectionBuffer
+                    = SharedMemoryFiles.map(connectionFile, SharedMemoryFiles.connectionFileSize());
+            requestRing = SharedMemoryFiles.requestRing(connectionBuffer);
+            replyRing = SharedMemoryFiles.replyRing(connectionBuffer);
+            announce();
+        } catch (NoSuchFileException e) {
+            throw new ConnectException("Connection refused, no server listening the shared memory port.");
+        }
+        frameEncoder = new FrameEncoder();
+        frameDecoder = new FrameDecoder();
+        connected = true;
+    }
+
+    @Override
+    public void send(byte[] data) throws IOException {
+        sendBuffer(BufferArena.getInstance().copyOf(data));
+    }
+
+    @Override
+    public void sendBuffer(PooledBuffer data) throws IOException {
+        Objects.requireNonNull(data, "The data to send can not be null.");
+        try {
+            if (!connected) {
+                throw new IllegalStateException("This ClientRequestHandler is disconnected.");
+            }
+            frameEncoder.write(requestRing, 0, data);
+        } finally {
+            data.release();
+        }
+    }
+
+    @Override
+    public byte[] receive() throws IOException {
+        PooledBuffer replyData = receiveBuffer();
+        try {
+            return replyData.toByteArray();
+        } finally {
+            replyData.release();
+        }
+    }
+
+    @Override
+    public PooledBuffer receiveBuffer() throws IOException {
+        synchronized (this) {
+            if (!connected) {
+                throw new IllegalStateException("This ClientRequestHandler is disconnected.");
+            }
+            receiving = true;
+        }
+        try {
+            while (!frameDecoder.decode()) {
+                if (frameDecoder.readFrom(replyRing) < 0) {
+                    throw new EOFException();
+                }
+            }
+            return frameDecoder.getFrameData();
+        } catch (IOException e) {
+            disconnectQuietly();
+            throw e;
+        } finally {
+            synchronized (this) {
+                receiving = false;
+                if (!connected) {
+                    frameDecoder.close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void disconnect() throws IOException {
+        if (!connected) {
+            throw new IllegalStateException("The ClientRequestHandler is already disconnected.");
+        }
+        connected = false;
+        connectedBefore = true;
+        requestRing.close();
+        replyRing.close();
+        if (!receiving) {
+            frameDecoder.close();
+        }
+        Files.deleteIfExists(connectionFile);
+    }
+
+    /**
+     * Checks if a server holds the lock file of the port.
+     *
+     * @throws IOException if no server is listening the port
+     */
+    private void checkListening() throws IOException {
+        try (FileChannel lockChannel = FileChannel.open(
+                SharedMemoryFiles.lockFile(serverPort), StandardOpenOption.WRITE
+        )) {
+            FileLock serverLock = lockChannel.tryLock();
+            if (serverLock != null) {
+                serverLock.release();
+                throw new ConnectException("Connection refused, no server listening the shared memory port.");
+            }
+        } catch (OverlappingFileLockException e) {
+            // The server is listening in this process
+        } catch (NoSuchFileException e) {
+            throw new ConnectException("Connection refused, no server listening the shared memory port.");
+        }
+    }
+
+    /**
+     * Writes the connection file name in the accept ring of the port, the ring is locked while written.
+     *
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private void announce() throws IOException {
+        byte[] connectionName = connectionFile.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer announcement = ByteBuffer.allocate(Integer.BYTES + connectionName.length);
+        announcement.putInt(connectionName.length).put(connectionName).flip();
+        synchronized (ANNOUNCE_LOCK) {
+            try (FileChannel acceptChannel = FileChannel.open(
+                    SharedMemoryFiles.acceptFile(serverPort), StandardOpenOption.READ, StandardOpenOption.WRITE
+            )) {
+                FileLock acceptLock = acceptChannel.lock();
+                try {
+                    SharedMemoryRing acceptRing = new SharedMemoryRing(
+                            acceptChannel.map(
+                                    FileChannel.MapMode.READ_WRITE, 0,
+                                    SharedMemoryRing.size(SharedMemoryFiles.ACCEPT_RING_CAPACITY)
+                            ),
+                            0, SharedMemoryFiles.ACCEPT_RING_CAPACITY
+                    );
+                    acceptRing.write(announcement);
+                } finally {
+                    acceptLock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Disconnects ignoring the state errors, used when the connection fails.
+     */
+    private synchronized void disconnectQuietly() {
+        if (connected) {
+            connected = false;
+            connectedBefore = true;
+            requestRing.close();
+            replyRing.close();
+        }
+    }
+}
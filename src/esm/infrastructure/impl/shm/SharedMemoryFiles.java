@@ -0,0 +1,112 @@
+package esm.infrastructure.impl.shm;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Names and maps the files of the shared memory transport. Each port has a directory in the temporary directory with
+ * the accept ring, where the clients announce their connection files, and the lock file held by the listening server.
+ * Each connection file has two rings, the requests ring written by the client and the replies ring written by the
+ * server.
+ *
+ * @author Pedro Henrique
+ */
+final class SharedMemoryFiles {
+
+    /**
+     * The data capacity of each connection ring.
+     */
+    static final int CONNECTION_RING_CAPACITY = 1024 * 1024;
+
+    /**
+     * The data capacity of the accept ring.
+     */
+    static final int ACCEPT_RING_CAPACITY = 64 * 1024;
+
+    /**
+     * Prevents instantiation.
+     */
+    private SharedMemoryFiles() {
+    }
+
+    /**
+     * Returns the directory of the port files.
+     *
+     * @param port the port
+     * @return the port directory
+     */
+    static Path portDirectory(int port) {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "esm-shm-" + port);
+    }
+
+    /**
+     * Returns the accept ring file of the port.
+     *
+     * @param port the port
+     * @return the accept file
+     */
+    static Path acceptFile(int port) {
+        return portDirectory(port).resolve("accept.shm");
+    }
+
+    /**
+     * Returns the lock file held by the server listening the port.
+     *
+     * @param port the port
+     * @return the lock file
+     */
+    static Path lockFile(int port) {
+        return portDirectory(port).resolve("server.lock");
+    }
+
+    /**
+     * Returns the size of a connection file.
+     *
+     * @return the connection file size
+     */
+    static int connectionFileSize() {
+        return 2 * SharedMemoryRing.size(CONNECTION_RING_CAPACITY);
+    }
+
+    /**
+     * Maps the file with the received size, the file is created if it does not exist.
+     *
+     * @param file the file to map
+     * @param size the mapped size
+     * @return the mapped file
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(
+                file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+        )) {
+            return fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Returns the requests ring of the mapped connection file.
+     *
+     * @param connectionBuffer the mapped connection file
+     * @return the requests ring
+     */
+    static SharedMemoryRing requestRing(MappedByteBuffer connectionBuffer) {
+        return new SharedMemoryRing(connectionBuffer, 0, CONNECTION_RING_CAPACITY);
+    }
+
+    /**
+     * Returns the replies ring of the mapped connection file.
+     *
+     * @param connectionBuffer the mapped connection file
+     * @return the replies ring
+     */
+    static SharedMemoryRing replyRing(MappedByteBuffer connectionBuffer) {
+        return new SharedMemoryRing(
+                connectionBuffer, SharedMemoryRing.size(CONNECTION_RING_CAPACITY), CONNECTION_RING_CAPACITY
+        );
+    }
+}
@@ -0,0 +1,362 @@
+package esm.infrastructure.impl.shm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single-producer/single-consumer ring of bytes in a memory-mapped file, shared by two processes of the same host.
+ * The producer writes the bytes and publishes the write sequence, the consumer reads the bytes and publishes the read
+ * sequence, the sequences are accessed with ordered and volatile memory operations. The ring has a header with the
+ * write sequence, the read sequence and the closed flag in separate cache lines, followed by the data.
+ * <p>
+ * The ring is a blocking channel, so the frames are written and read by the {@link esm.infrastructure.nio.FrameEncoder}
+ * and the {@link esm.infrastructure.nio.FrameDecoder}. Each process should only write or only read the ring, and a
+ * single thread should write or read it at a time. The waiting threads spin, then yield, then park for increasing
+ * times, the phases are measured in time, so the peer has the same time to reply in any host. The threads only park
+ * after {@link #YIELD_NANOS}, when the peer is probably idle, because the park latency is longer than a round trip.
+ * In single processor hosts the threads do not spin, the spinning thread would only delay the peer.
+ *
+ * @author Pedro Henrique
+ */
+final class SharedMemoryRing implements ReadableByteChannel, GatheringByteChannel {
+
+    /**
+     * The size of the ring header.
+     */
+    static final int HEADER_SIZE = 192;
+
+    /**
+     * The offset of the write sequence in the header.
+     */
+    private static final int WRITE_SEQUENCE_OFFSET = 0;
+
+    /**
+     * The offset of the read sequence in the header.
+     */
+    private static final int READ_SEQUENCE_OFFSET = 64;
+
+    /**
+     * The offset of the closed flag in the header.
+     */
+    private static final int CLOSED_OFFSET = 128;
+
+    /**
+     * The time in nanoseconds the waiting threads busy spin before yielding, zero in single processor hosts.
+     */
+    private static final long SPIN_NANOS
+            = Runtime.getRuntime().availableProcessors() > 1 ? TimeUnit.MICROSECONDS.toNanos(50) : 0;
+
+    /**
+     * The time in nanoseconds the waiting threads spin and yield before parking.
+     */
+    private static final long YIELD_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The min park time in nanoseconds.
+     */
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    /**
+     * The max park time in nanoseconds.
+     */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Reads a long with volatile semantics, (Object, long) to long.
+     */
+    private static final MethodHandle GET_LONG_VOLATILE;
+
+    /**
+     * Writes a long with release semantics, (Object, long, long) to void.
+     */
+    private static final MethodHandle PUT_ORDERED_LONG;
+
+    /**
+     * The offset of the address field of the direct buffers.
+     */
+    private static final long ADDRESS_FIELD_OFFSET;
+
+    static {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            GET_LONG_VOLATILE = lookup.unreflect(unsafeClass.getMethod("getLongVolatile", Object.class, long.class))
+                    .bindTo(unsafe);
+            PUT_ORDERED_LONG = lookup.unreflect(
+                    unsafeClass.getMethod("putOrderedLong", Object.class, long.class, long.class)
+            ).bindTo(unsafe);
+            ADDRESS_FIELD_OFFSET = (long) unsafeClass.getMethod("objectFieldOffset", Field.class)
+                    .invoke(unsafe, Buffer.class.getDeclaredField("address"));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Returns the number of bytes of a ring with the received data capacity.
+     *
+     * @param capacity the data capacity
+     * @return the ring size
+     */
+    static int size(int capacity) {
+        return HEADER_SIZE + capacity;
+    }
+
+    //
+
+    /**
+     * The mapped file, referenced to keep the mapping alive.
+     */
+    private MappedByteBuffer mappedBuffer;
+
+    /**
+     * The address of the ring header.
+     */
+    private long headerAddress;
+
+    /**
+     * The view of the ring data.
+     */
+    private ByteBuffer data;
+
+    /**
+     * The data capacity, a power of two.
+     */
+    private int capacity;
+
+    /**
+     * Indicates if this side of the ring is open.
+     */
+    private volatile boolean open;
+
+    /**
+     * Creates the ring in the region of the mapped file starting at the received offset.
+     *
+     * @param mappedBuffer the mapped file
+     * @param offset       the offset of the ring in the file
+     * @param capacity     the data capacity, a power of two
+     */
+    SharedMemoryRing(MappedByteBuffer mappedBuffer, int offset, int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The ring capacity should be a power of two.");
+        }
+        this.mappedBuffer = mappedBuffer;
+        this.capacity = capacity;
+        ByteBuffer dataRegion = mappedBuffer.duplicate();
+        dataRegion.limit(offset + HEADER_SIZE + capacity).position(offset + HEADER_SIZE);
+        data = dataRegion.slice();
+        try {
+            headerAddress = (long) GET_LONG_VOLATILE.invokeExact((Object) mappedBuffer, ADDRESS_FIELD_OFFSET) + offset;
+        } catch (Throwable e) {
+            throw new IllegalStateException("The mapped buffer address can not be read.", e);
+        }
+        open = true;
+    }
+
+    /**
+     * Reads the available bytes, waits at least one byte.
+     *
+     * @param dst the buffer to receive the bytes
+     * @return the number of read bytes, or -1 if the ring was closed and has no bytes
+     * @throws IOException if the thread was interrupted or this side of the ring is closed
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return read(dst, -1);
+    }
+
+    /**
+     * Reads the available bytes, waits at least one byte until the timeout.
+     *
+     * @param dst          the buffer to receive the bytes
+     * @param timeoutNanos the timeout in nanoseconds, or a negative value to wait forever
+     * @return the number of read bytes, zero if the timeout elapsed, or -1 if the ring was closed and has no bytes
+     * @throws IOException if the thread was interrupted or this side of the ring is closed
+     */
+    int read(ByteBuffer dst, long timeoutNanos) throws IOException {
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        long readSequence = getSequence(READ_SEQUENCE_OFFSET);
+        long available;
+        long deadline = timeoutNanos >= 0 ? System.nanoTime() + timeoutNanos : 0;
+        int attempt = 0;
+        long idleStartTime = 0;
+        while ((available = getSequence(WRITE_SEQUENCE_OFFSET) - readSequence) == 0) {
+            if (isClosed()) {
+                return -1;
+            } else if (timeoutNanos >= 0 && System.nanoTime() - deadline >= 0) {
+                return 0;
+            }
+            if (attempt++ == 0) {
+                idleStartTime = System.nanoTime();
+            }
+            idle(idleStartTime);
+        }
+        int length = (int) Math.min(available, dst.remaining());
+        int index = (int) readSequence & (capacity - 1);
+        int firstLength = Math.min(length, capacity - index);
+        data.limit(index + firstLength).position(index);
+        dst.put(data);
+        if (firstLength < length) {
+            data.limit(length - firstLength).position(0);
+            dst.put(data);
+        }
+        putSequence(READ_SEQUENCE_OFFSET, readSequence + length);
+        return length;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return (int) write(new ByteBuffer[]{src}, 0, 1);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    /**
+     * Writes all bytes of the buffers, waiting the consumer when the ring is full. The written bytes are published
+     * when the ring is full and after the last buffer.
+     *
+     * @param srcs   the buffers with the bytes
+     * @param offset the offset of the first buffer
+     * @param length the number of buffers
+     * @return the number of written bytes
+     * @throws IOException if the ring was closed or the thread was interrupted
+     */
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long firstSequence = getSequence(WRITE_SEQUENCE_OFFSET);
+        long writeSequence = firstSequence;
+        long publishedSequence = writeSequence;
+        long readSequence = getSequence(READ_SEQUENCE_OFFSET);
+        for (int i = offset; i < offset + length; i++) {
+            ByteBuffer src = srcs[i];
+            int attempt = 0;
+            long idleStartTime = 0;
+            while (src.hasRemaining()) {
+                if (isClosed()) {
+                    throw new EOFException("The shared memory ring was closed.");
+                }
+                int free = (int) (capacity - (writeSequence - readSequence));
+                if (free == 0) {
+                    if (publishedSequence != writeSequence) {
+                        putSequence(WRITE_SEQUENCE_OFFSET, writeSequence);
+                        publishedSequence = writeSequence;
+                    }
+                    if (attempt++ == 0) {
+                        idleStartTime = System.nanoTime();
+                    }
+                    idle(idleStartTime);
+                    readSequence = getSequence(READ_SEQUENCE_OFFSET);
+                    continue;
+                }
+                attempt = 0;
+                int index = (int) writeSequence & (capacity - 1);
+                int chunkLength = Math.min(Math.min(free, src.remaining()), capacity - index);
+                int srcLimit = src.limit();
+                src.limit(src.position() + chunkLength);
+                data.limit(index + chunkLength).position(index);
+                data.put(src);
+                src.limit(srcLimit);
+                writeSequence += chunkLength;
+            }
+        }
+        if (publishedSequence != writeSequence) {
+            putSequence(WRITE_SEQUENCE_OFFSET, writeSequence);
+        }
+        return writeSequence - firstSequence;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Closes the ring for both processes, the consumer reads the remaining bytes and then the end of stream, the
+     * producer can not write anymore.
+     */
+    @Override
+    public void close() {
+        open = false;
+        putSequence(CLOSED_OFFSET, 1);
+    }
+
+    /**
+     * Returns if the ring was closed by any of the processes.
+     *
+     * @return if the ring is closed
+     */
+    boolean isClosed() {
+        return getSequence(CLOSED_OFFSET) != 0;
+    }
+
+    /**
+     * Waits according to the time already waited, spinning, yielding or parking. The park time grows with the time
+     * waited after the yield phase, up to {@link #MAX_PARK_NANOS}.
+     *
+     * @param idleStartTime the {@link System#nanoTime()} when the wait started
+     * @throws IOException if the thread was interrupted or this side of the ring was closed
+     */
+    private void idle(long idleStartTime) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        } else if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Interrupted while waiting the shared memory ring.");
+        }
+        long idleTime = System.nanoTime() - idleStartTime;
+        if (idleTime < SPIN_NANOS) {
+            return;
+        } else if (idleTime < YIELD_NANOS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, Math.max(MIN_PARK_NANOS, idleTime - YIELD_NANOS)));
+        }
+    }
+
+    /**
+     * Reads a sequence of the header with volatile semantics.
+     *
+     * @param sequenceOffset the sequence offset in the header
+     * @return the sequence value
+     */
+    private long getSequence(int sequenceOffset) {
+        try {
+            return (long) GET_LONG_VOLATILE.invokeExact((Object) null, headerAddress + sequenceOffset);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes a sequence of the header with release semantics.
+     *
+     * @param sequenceOffset the sequence offset in the header
+     * @param sequence       the sequence value
+     */
+    private void putSequence(int sequenceOffset, long sequence) {
+        try {
+            PUT_ORDERED_LONG.invokeExact((Object) null, headerAddress + sequenceOffset, sequence);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package esm.infrastructure.impl.shm;
+
+import esm.infrastructure.ServerRequestConnector;
+import esm.infrastructure.ServerRequestHandler;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared memory implementation of the {@link ServerRequestConnector} interface, for clients in the same host. The
+ * connector holds the lock file of the port while open and reads the connection files announced by the clients in the
+ * accept ring. Each accepted connection file is mapped by a new {@link SharedMemoryServerRequestHandler} and deleted,
+ * the mapping is kept until both processes release it. The port files are replaced when the connector is created and
+ * deleted when it is closed or when the virtual machine exits.
+ *
+ * @author Pedro Henrique
+ * @see SharedMemoryClientRequestHandler
+ */
+public class SharedMemoryServerRequestConnector implements ServerRequestConnector {
+
+    /**
+     * The max length of an announced connection file name.
+     */
+    private static final int MAX_CONNECTION_NAME_LENGTH = 256;
+
+    /**
+     * The local address.
+     */
+    private InetAddress localAddress;
+
+    /**
+     * The local port.
+     */
+    private int localPort;
+
+    /**
+     * The channel of the lock file.
+     */
+    private FileChannel lockChannel;
+
+    /**
+     * The lock that indicates that this connector is listening the port.
+     */
+    private FileLock serverLock;
+
+    /**
+     * The ring where the clients announce the connection files.
+     */
+    private SharedMemoryRing acceptRing;
+
+    /**
+     * The accept timeout in milliseconds, zero to wait forever.
+     */
+    private volatile int timeout;
+
+    /**
+     * Creates the SharedMemoryServerRequestConnector with the received port.
+     *
+     * @param localAddress the server local address
+     * @param localPort    the server local port
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    public SharedMemoryServerRequestConnector(InetAddress localAddress, int localPort) throws IOException {
+        this.localAddress = Objects.requireNonNull(localAddress, "The local address can not be null.");
+        if (localPort < 0 || localPort > 65535) {
+            throw new IllegalArgumentException("The local port should be between 0 and 65535.");
+        }
+        this.localPort = localPort;
+        Files.createDirectories(SharedMemoryFiles.portDirectory(localPort));
+        SharedMemoryFiles.portDirectory(localPort).toFile().deleteOnExit();
+        SharedMemoryFiles.lockFile(localPort).toFile().deleteOnExit();
+        SharedMemoryFiles.acceptFile(localPort).toFile().deleteOnExit();
+        lockChannel = FileChannel.open(
+                SharedMemoryFiles.lockFile(localPort), StandardOpenOption.CREATE, StandardOpenOption.WRITE
+        );
+        try {
+            serverLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            serverLock = null;
+        }
+        if (serverLock == null) {
+            lockChannel.close();
+            throw new BindException("Address already in use, the shared memory port is locked by other server.");
+        }
+        Files.deleteIfExists(SharedMemoryFiles.acceptFile(localPort));
+        acceptRing = new SharedMemoryRing(
+                SharedMemoryFiles.map(
+                        SharedMemoryFiles.acceptFile(localPort),
+                        SharedMemoryRing.size(SharedMemoryFiles.ACCEPT_RING_CAPACITY)
+                ),
+                0, SharedMemoryFiles.ACCEPT_RING_CAPACITY
+        );
+        timeout = 0;
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    @Override
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    @Override
+    public synchronized ServerRequestHandler accept() throws IOException {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+        int read = acceptRing.read(lengthBuffer, timeout > 0 ? TimeUnit.MILLISECONDS.toNanos(timeout) : -1);
+        if (read == 0) {
+            throw new SocketTimeoutException("Accept timed out.");
+        }
+        readFully(lengthBuffer);
+        lengthBuffer.flip();
+        int nameLength = lengthBuffer.getInt();
+        if (nameLength <= 0 || nameLength > MAX_CONNECTION_NAME_LENGTH) {
+            throw new IOException("The announced connection name length is invalid: " + nameLength + ".");
+        }
+        ByteBuffer nameBuffer = ByteBuffer.allocate(nameLength);
+        readFully(nameBuffer);
+        Path portDirectory = SharedMemoryFiles.portDirectory(localPort);
+        Path connectionFile = portDirectory.resolve(new String(nameBuffer.array(), StandardCharsets.UTF_8));
+        if (!portDirectory.equals(connectionFile.getParent()) || !Files.isRegularFile(connectionFile)) {
+            throw new IOException("The announced connection file is invalid: " + connectionFile + ".");
+        }
+        MappedByteBuffer connectionBuffer = SharedMemoryFiles.map(
+                connectionFile, SharedMemoryFiles.connectionFileSize()
+        );
+        Files.deleteIfExists(connectionFile);
+        return new SharedMemoryServerRequestHandler(connectionBuffer);
+    }
+
+    @Override
+    public void setTimeout(int timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("The timeout can not be negative.");
+        }
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void close() throws IOException {
+        acceptRing.close();
+        try {
+            serverLock.release();
+            lockChannel.close();
+        } finally {
+            Files.deleteIfExists(SharedMemoryFiles.acceptFile(localPort));
+            Files.deleteIfExists(SharedMemoryFiles.lockFile(localPort));
+            try {
+                Files.deleteIfExists(SharedMemoryFiles.portDirectory(localPort));
+            } catch (DirectoryNotEmptyException e) {
+                // Connection files not accepted yet are deleted by the clients
+            }
+        }
+    }
+
+    /**
+     * Reads the accept ring until the buffer is full, the clients write each announcement at once.
+     *
+     * @param buffer the buffer to fill
+     * @throws IOException if the accept ring was closed
+     */
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (acceptRing.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+}
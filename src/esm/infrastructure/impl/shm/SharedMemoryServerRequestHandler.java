@@ -0,0 +1,171 @@
+package esm.infrastructure.impl.shm;
+
+import esm.infrastructure.ServerRequestHandler;
+import esm.infrastructure.nio.FrameDecoder;
+import esm.infrastructure.nio.FrameEncoder;
+import esm.util.buffer.BufferArena;
+import esm.util.buffer.PooledBuffer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.Objects;
+
+/**
+ * Shared memory implementation of the {@link ServerRequestHandler} interface. This handler is persistent, after each
+ * reply it can receive the next request of the same {@link esm.infrastructure.ClientRequestHandler}. The requests are
+ * read from the requests ring of the connection file and the replies are written in the replies ring, in order. When
+ * disconnected by other thread while waiting a request, the waiting thread receives an {@link IOException}. The handler
+ * is disconnected when the connection fails or the client disconnects.
+ *
+ * @author Pedro Henrique
+ * @see SharedMemoryServerRequestConnector
+ */
+public class SharedMemoryServerRequestHandler implements ServerRequestHandler {
+
+    /**
+     * The ring of the requests, read by this handler.
+     */
+    private SharedMemoryRing requestRing;
+
+    /**
+     * The ring of the replies, written by this handler.
+     */
+    private SharedMemoryRing replyRing;
+
+    /**
+     * The decoder of the request frames.
+     */
+    private FrameDecoder frameDecoder;
+
+    /**
+     * The encoder of the reply frames.
+     */
+    private FrameEncoder frameEncoder;
+
+    /**
+     * The connection state of this ServerRequestHandler.
+     */
+    private volatile boolean connected;
+
+    /**
+     * Indicates if this ServerRequestHandler received a request that was not replied yet.
+     */
+    private boolean received;
+
+    /**
+     * Indicates if a request is being read.
+     */
+    private boolean receiving;
+
+    /**
+     * Creates a new SharedMemoryServerRequestHandler with the mapped connection file.
+     *
+     * @param connectionBuffer the mapped connection file
+     */
+    SharedMemoryServerRequestHandler(MappedByteBuffer connectionBuffer) {
+        Objects.requireNonNull(connectionBuffer, "The connection buffer can not be null.");
+        requestRing = SharedMemoryFiles.requestRing(connectionBuffer);
+        replyRing = SharedMemoryFiles.replyRing(connectionBuffer);
+        frameDecoder = new FrameDecoder();
+        frameEncoder = new FrameEncoder();
+        connected = true;
+        received = false;
+        receiving = false;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    @Override
+    public byte[] receive() throws IOException {
+        PooledBuffer requestData = receiveBuffer();
+        try {
+            return requestData.toByteArray();
+        } finally {
+            requestData.release();
+        }
+    }
+
+    @Override
+    public PooledBuffer receiveBuffer() throws IOException {
+        synchronized (this) {
+            if (!connected) {
+                throw new IllegalStateException("This ServerRequestHandler is disconnected.");
+            }
+            receiving = true;
+        }
+        received = false;
+        try {
+            while (!frameDecoder.decode()) {
+                if (frameDecoder.readFrom(requestRing) < 0) {
+                    throw new EOFException();
+                }
+            }
+            received = true;
+            return frameDecoder.getFrameData();
+        } catch (IOException e) {
+            disconnectQuietly();
+            throw e;
+        } finally {
+            synchronized (this) {
+                receiving = false;
+                if (!connected) {
+                    frameDecoder.close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void send(byte[] data) throws IOException {
+        sendBuffer(BufferArena.getInstance().copyOf(data));
+    }
+
+    @Override
+    public void sendBuffer(PooledBuffer data) throws IOException {
+        Objects.requireNonNull(data, "The data to send can not be null.");
+        try {
+            if (!connected) {
+                throw new IllegalStateException("This ServerRequestHandler is disconnected.");
+            } else if (!received) {
+                throw new IllegalStateException("This ServerRequestHandler was not received data yet.");
+            }
+            received = false;
+            frameEncoder.write(replyRing, 0, data);
+        } finally {
+            data.release();
+        }
+    }
+
+    @Override
+    public synchronized void disconnect() throws IOException {
+        if (!connected) {
+            throw new IllegalStateException("The ServerRequestHandler is already disconnected.");
+        }
+        connected = false;
+        requestRing.close();
+        replyRing.close();
+        if (!receiving) {
+            frameDecoder.close();
+        }
+    }
+
+    /**
+     * Disconnects ignoring the state errors, used when the connection fails.
+     */
+    private synchronized void disconnectQuietly() {
+        if (connected) {
+            connected = false;
+            requestRing.close();
+            replyRing.close();
+        }
+    }
+}
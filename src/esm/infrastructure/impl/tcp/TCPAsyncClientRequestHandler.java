@@ -0,0 +1,530 @@
+package esm.infrastructure.impl.tcp;
+
+import esm.infrastructure.ClientRequestHandler;
+import esm.infrastructure.MultiplexedClientRequestHandler;
+import esm.infrastructure.nio.CreditWindow;
+import esm.infrastructure.nio.FrameEncoder;
+import esm.util.buffer.BufferArena;
+import esm.util.buffer.PooledBuffer;
+import esm.util.buffer.PooledBufferOutputStream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StreamCorruptedException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous TCP implementation of the {@link ClientRequestHandler} interface, driven by an
+ * {@link AsynchronousSocketChannel}. The requests are written and the replies are read by completion handlers, so no
+ * thread blocks waiting for the replies of the multiplexed requests. The frames are the same of the
+ * {@link TCPClientRequestHandler}, so this handler connects to the {@link TCPServerRequestConnector}. The frames are
+ * written from and the replies are read into {@link PooledBuffer}s. The handler asks the server credits when
+ * connected, the request frames without credit in the {@link CreditWindow} are held, in order, until the replies and
+ * the credit frames return credits, so the sending threads are not blocked. The requests are sent in single frames,
+ * the replies sent in chunks are assembled before delivered.
+ *
+ * @author Pedro Henrique
+ */
+public class TCPAsyncClientRequestHandler implements MultiplexedClientRequestHandler {
+
+    /**
+     * The ServerRequestConnector address.
+     */
+    private InetAddress serverAddress;
+
+    /**
+     * The ServerRequestConnector port.
+     */
+    private int serverPort;
+
+    /**
+     * The connected channel.
+     */
+    private AsynchronousSocketChannel connectedChannel;
+
+    /**
+     * The connection state of this ClientRequestHandler.
+     */
+    private volatile boolean connected;
+
+    /**
+     * Indicates if this ClientRequestHandler was connected before.
+     */
+    private boolean connectedBefore;
+
+    /**
+     * The next request correlation identifier.
+     */
+    private AtomicLong nextCorrelationId;
+
+    /**
+     * The requests waiting for replies, mapped by the correlation identifier.
+     */
+    private Map<Long, CompletableFuture<PooledBuffer>> pendingReplies;
+
+    /**
+     * The requests sent by each thread with {@link #sendBuffer(PooledBuffer)} and not received yet.
+     */
+    private ThreadLocal<Deque<CompletableFuture<PooledBuffer>>> sentRequests;
+
+    /**
+     * The frames waiting to be written, the channel accepts a single write at a time.
+     */
+    private Queue<PooledBuffer> pendingWrites;
+
+    /**
+     * Indicates if a write is in progress in the channel.
+     */
+    private AtomicBoolean writing;
+
+    /**
+     * The sizes of the requests waiting for replies, returned to the credits when replied.
+     */
+    private Map<Long, Integer> pendingRequestSizes;
+
+    /**
+     * The credits granted by the server.
+     */
+    private CreditWindow creditWindow;
+
+    /**
+     * The frames waiting for credits, guarded by the credit window.
+     */
+    private Queue<PooledBuffer> creditlessWrites;
+
+    /**
+     * The buffer of the reply frame header.
+     */
+    private ByteBuffer headerBuffer;
+
+    /**
+     * The replies whose last chunk was not received yet, mapped by the correlation identifier, used by the reading
+     * completion handlers only.
+     */
+    private Map<Long, PooledBufferOutputStream> assembledReplies;
+
+    /**
+     * Creates a new TCPAsyncClientRequestHandler.
+     *
+     * @param serverAddress the server address
+     * @param serverPort    the server port
+     */
+    public TCPAsyncClientRequestHandler(InetAddress serverAddress, int serverPort) {
+        this.serverAddress = Objects.requireNonNull(serverAddress, "The server address can not be null.");
+        if (serverPort < 0 || serverPort > 65535) {
+            throw new IllegalArgumentException("The server port should be between 0 and 65535.");
+        }
+        this.serverPort = serverPort;
+        connected = false;
+        connectedBefore = false;
+        nextCorrelationId = new AtomicLong();
+        pendingReplies = new ConcurrentHashMap<>();
+        sentRequests = ThreadLocal.withInitial(ArrayDeque::new);
+        pendingWrites = new ConcurrentLinkedQueue<>();
+        writing = new AtomicBoolean(false);
+        pendingRequestSizes = new ConcurrentHashMap<>();
+        creditWindow = new CreditWindow();
+        creditlessWrites = new ArrayDeque<>();
+        headerBuffer = ByteBuffer.allocate(FrameEncoder.HEADER_SIZE);
+        assembledReplies = new HashMap<>();
+    }
+
+    @Override
+    public InetAddress getServerAddress() {
+        return serverAddress;
+    }
+
+    @Override
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public synchronized void connect() throws IOException {
+        if (connected) {
+            throw new IllegalStateException("This ClientRequestHandler is already connected.");
+        } else if (connectedBefore) {
+            throw new IllegalStateException("This ClientRequestHandler was connected before.");
+        }
+        connectedChannel = AsynchronousSocketChannel.open();
+        try {
+            connectedChannel.connect(new InetSocketAddress(serverAddress, serverPort)).get();
+        } catch (InterruptedException e) {
+            connectedChannel.close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting.");
+        } catch (ExecutionException e) {
+            connectedChannel.close();
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        connectedChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        connected = true;
+        readHeader();
+        PooledBuffer creditRequest = CreditWindow.creditRequest();
+        try {
+            pendingWrites.add(FrameEncoder.encode(CreditWindow.CREDIT_CORRELATION_ID, creditRequest));
+        } finally {
+            creditRequest.release();
+        }
+        writeNext();
+    }
+
+    /**
+     * Sends the data to the server, the reply is received by the same thread calling {@link #receive()}, the requests
+     * sent by each thread are received in the same order.
+     *
+     * @param data the bytes to send
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    @Override
+    public void send(byte[] data) throws IOException {
+        sendBuffer(BufferArena.getInstance().copyOf(data));
+    }
+
+    /**
+     * Sends the data to the server, the reply is received by the same thread calling {@link #receiveBuffer()}, the
+     * requests sent by each thread are received in the same order.
+     *
+     * @param data the buffer to send
+     */
+    @Override
+    public void sendBuffer(PooledBuffer data) {
+        sentRequests.get().addLast(request(data));
+    }
+
+    /**
+     * Receives the reply of the oldest request sent by the current thread with {@link #send(byte[])}.
+     *
+     * @return the received bytes
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    @Override
+    public byte[] receive() throws IOException {
+        PooledBuffer replyData = receiveBuffer();
+        try {
+            return replyData.toByteArray();
+        } finally {
+            replyData.release();
+        }
+    }
+
+    /**
+     * Receives the reply of the oldest request sent by the current thread with {@link #sendBuffer(PooledBuffer)}.
+     *
+     * @return the buffer with the received bytes
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    @Override
+    public PooledBuffer receiveBuffer() throws IOException {
+        CompletableFuture<PooledBuffer> sentRequest = sentRequests.get().pollFirst();
+        if (sentRequest == null) {
+            throw new IllegalStateException("This thread did not send a request to this ClientRequestHandler.");
+        }
+        try {
+            return sentRequest.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting the reply.");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<PooledBuffer> request(PooledBuffer data) {
+        Objects.requireNonNull(data, "The data to send can not be null.");
+        try {
+            if (!connected) {
+                throw new IllegalStateException("This ClientRequestHandler is disconnected.");
+            }
+            long correlationId = nextCorrelationId.incrementAndGet();
+            CompletableFuture<PooledBuffer> pendingReply = new CompletableFuture<>();
+            pendingRequestSizes.put(correlationId, data.buffer().remaining());
+            pendingReplies.put(correlationId, pendingReply);
+            if (!connected && pendingReplies.remove(correlationId) != null) {
+                // The connection failed while the request was being registered
+                pendingRequestSizes.remove(correlationId);
+                pendingReply.completeExceptionally(new IOException("The connection was closed."));
+                return pendingReply;
+            }
+            write(correlationId, data);
+            return pendingReply;
+        } finally {
+            data.release();
+        }
+    }
+
+    @Override
+    public void post(PooledBuffer data) {
+        Objects.requireNonNull(data, "The data to send can not be null.");
+        try {
+            if (!connected) {
+                throw new IllegalStateException("This ClientRequestHandler is disconnected.");
+            }
+            write(nextCorrelationId.incrementAndGet(), data);
+        } finally {
+            data.release();
+        }
+    }
+
+    @Override
+    public synchronized void disconnect() throws IOException {
+        if (!connected) {
+            throw new IllegalStateException("The ClientRequestHandler is already disconnected.");
+        }
+        connectedBefore = true;
+        fail(new IOException("The ClientRequestHandler was disconnected."));
+    }
+
+    /**
+     * Queues a request frame encoded in a pooled buffer and starts writing if no write is in progress. If the request
+     * has no credit, the frame waits the credits after the frames already waiting. The data buffer is not released.
+     *
+     * @param correlationId the request correlation identifier
+     * @param data          the request data
+     */
+    private void write(long correlationId, PooledBuffer data) {
+        PooledBuffer frame = FrameEncoder.encode(correlationId, data);
+        synchronized (creditWindow) {
+            if (creditlessWrites.isEmpty() && creditWindow.tryAcquire(data.buffer().remaining())) {
+                pendingWrites.add(frame);
+            } else {
+                creditlessWrites.add(frame);
+            }
+        }
+        if (!connected) {
+            // The connection failed while the frame was being queued
+            releasePendingWrites();
+            return;
+        }
+        writeNext();
+    }
+
+    /**
+     * Writes the next queued frame if no write is in progress, the write completion writes the following frames.
+     */
+    private void writeNext() {
+        while (!pendingWrites.isEmpty() && writing.compareAndSet(false, true)) {
+            PooledBuffer frame = pendingWrites.poll();
+            if (frame == null) {
+                // Other thread wrote the frame
+                writing.set(false);
+                continue;
+            }
+            connectedChannel.write(frame.buffer(), frame, new CompletionHandler<Integer, PooledBuffer>() {
+                @Override
+                public void completed(Integer result, PooledBuffer frame) {
+                    if (frame.buffer().hasRemaining()) {
+                        connectedChannel.write(frame.buffer(), frame, this);
+                        return;
+                    }
+                    frame.release();
+                    writing.set(false);
+                    writeNext();
+                }
+
+                @Override
+                public void failed(Throwable exc, PooledBuffer frame) {
+                    frame.release();
+                    fail(exc instanceof IOException ? (IOException) exc : new IOException(exc));
+                }
+            });
+            return;
+        }
+    }
+
+    /**
+     * Reads the header of the next reply frame.
+     */
+    private void readHeader() {
+        headerBuffer.clear();
+        connectedChannel.read(headerBuffer, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer result, Void attachment) {
+                if (result < 0) {
+                    failRead(new EOFException());
+                } else if (headerBuffer.hasRemaining()) {
+                    connectedChannel.read(headerBuffer, null, this);
+                } else {
+                    headerBuffer.flip();
+                    int length = headerBuffer.getInt();
+                    boolean last = (length & FrameEncoder.CHUNK_FLAG) == 0;
+                    length &= ~FrameEncoder.CHUNK_FLAG;
+                    if (!last && length > FrameEncoder.CHUNK_SIZE) {
+                        failRead(new StreamCorruptedException("Invalid frame length: " + length + "."));
+                        return;
+                    }
+                    readData(headerBuffer.getLong(), last, BufferArena.getInstance().allocate(length));
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                failRead(exc instanceof IOException ? (IOException) exc : new IOException(exc));
+            }
+        });
+    }
+
+    /**
+     * Reads the data of the reply frame, then completes the waiting request and reads the next header.
+     *
+     * @param correlationId the reply correlation identifier
+     * @param last          if the frame is the last chunk of the reply
+     * @param data          the buffer of the reply data
+     */
+    private void readData(long correlationId, boolean last, PooledBuffer data) {
+        if (!data.buffer().hasRemaining()) {
+            data.buffer().flip();
+            complete(correlationId, last, data);
+            readHeader();
+            return;
+        }
+        connectedChannel.read(data.buffer(), null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer result, Void attachment) {
+                if (result < 0) {
+                    data.release();
+                    failRead(new EOFException());
+                } else {
+                    readData(correlationId, last, data);
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                data.release();
+                failRead(exc instanceof IOException ? (IOException) exc : new IOException(exc));
+            }
+        });
+    }
+
+    /**
+     * Completes the request waiting the received reply, if no request is waiting, the reply is released. The reply
+     * chunks are assembled until the last one. The credit frames and the first chunk of the replies return credits,
+     * the frames waiting them are queued to be written.
+     *
+     * @param correlationId the reply correlation identifier
+     * @param last          if the frame is the last chunk of the reply
+     * @param data          the reply data
+     */
+    private void complete(long correlationId, boolean last, PooledBuffer data) {
+        if (correlationId == CreditWindow.CREDIT_CORRELATION_ID) {
+            try {
+                creditWindow.receive(data);
+            } catch (IOException e) {
+                fail(e);
+                return;
+            } finally {
+                data.release();
+            }
+        } else {
+            PooledBufferOutputStream assembledReply = assembledReplies.get(correlationId);
+            if (assembledReply == null) {
+                Integer requestSize = pendingRequestSizes.remove(correlationId);
+                if (requestSize != null) {
+                    creditWindow.release(requestSize);
+                }
+                if (!last) {
+                    assembledReply = new PooledBufferOutputStream(2 * FrameEncoder.CHUNK_SIZE);
+                    assembledReplies.put(correlationId, assembledReply);
+                }
+            }
+            if (assembledReply != null) {
+                try {
+                    assembledReply.write(data);
+                } finally {
+                    data.release();
+                }
+                data = last ? assembledReplies.remove(correlationId).toPooledBuffer() : null;
+            }
+            if (data != null) {
+                CompletableFuture<PooledBuffer> pendingReply = pendingReplies.remove(correlationId);
+                if (pendingReply != null) {
+                    pendingReply.complete(data);
+                } else {
+                    data.release();
+                }
+            }
+        }
+        synchronized (creditWindow) {
+            while (!creditlessWrites.isEmpty() && creditWindow.tryAcquire(
+                    creditlessWrites.peek().buffer().remaining() - FrameEncoder.HEADER_SIZE)) {
+                pendingWrites.add(creditlessWrites.poll());
+            }
+        }
+        writeNext();
+    }
+
+    /**
+     * Releases the replies being assembled and fails the connection, called by the reading completion handlers.
+     *
+     * @param failure the connection failure
+     */
+    private void failRead(IOException failure) {
+        for (PooledBufferOutputStream assembledReply : assembledReplies.values()) {
+            assembledReply.close();
+        }
+        assembledReplies.clear();
+        fail(failure);
+    }
+
+    /**
+     * Closes the connection and completes exceptionally the requests still waiting for replies.
+     *
+     * @param failure the connection failure
+     */
+    private void fail(IOException failure) {
+        connected = false;
+        creditWindow.close();
+        try {
+            connectedChannel.close();
+        } catch (IOException e) {
+            // The connection is being closed
+        }
+        releasePendingWrites();
+        for (Long correlationId : pendingReplies.keySet()) {
+            CompletableFuture<PooledBuffer> pendingReply = pendingReplies.remove(correlationId);
+            if (pendingReply != null) {
+                pendingReply.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Releases the frames that will not be written because the connection was closed.
+     */
+    private void releasePendingWrites() {
+        PooledBuffer pendingWrite;
+        while ((pendingWrite = pendingWrites.poll()) != null) {
+            pendingWrite.release();
+        }
+        synchronized (creditWindow) {
+            while ((pendingWrite = creditlessWrites.poll()) != null) {
+                pendingWrite.release();
+            }
+        }
+    }
+}
@@ -1,21 +1,55 @@
 package esm.infrastructure.impl.tcp;
 
 import esm.infrastructure.ClientRequestHandler;
+import esm.infrastructure.MultiplexedClientRequestHandler;
+import esm.infrastructure.nio.CreditWindow;
+import esm.infrastructure.nio.FrameDecoder;
+import esm.infrastructure.nio.FrameEncoder;
+import esm.util.buffer.BufferArena;
+import esm.util.buffer.ChunkInputStream;
+import esm.util.buffer.ChunkOutputStream;
+import esm.util.buffer.PooledBuffer;
+import esm.util.buffer.PooledBufferInputStream;
+import esm.util.buffer.PooledBufferOutputStream;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * TCP implementation of the {@link ClientRequestHandler} interface.
+ * TCP implementation of the {@link ClientRequestHandler} interface. The connection is kept alive after each reply, so
+ * the same handler can send multiple requests to the server. The handler is multiplexed, each request frame carries a
+ * correlation identifier and the replies are read by a reader thread and delivered to the waiting requests, so
+ * multiple threads can share the same connection. The frames are written and read by a {@link FrameEncoder} and a
+ * {@link FrameDecoder} in a blocking {@link SocketChannel}, the request and reply data are kept in
+ * {@link PooledBuffer}s. The handler asks the server credits when connected, the requests wait in the sending thread
+ * until the {@link CreditWindow} has credit for them.
+ * <p>
+ * The requests written with {@link #openRequest(CompletableFuture)} are sent in chunks of
+ * {@link FrameEncoder#CHUNK_SIZE} bytes while they are written, the first chunk waits the credit of its size. Their
+ * replies are delivered when the first chunk arrives, the reader adds the next chunks to the reply stream without
+ * waiting, the chunks not read yet are kept beyond the stream capacity, so a caller that reads its reply slowly does
+ * not delay the replies of the other callers. The replies in chunks of the requests sent with buffers are assembled
+ * before delivered.
  *
  * @author Pedro Henrique
  */
-public class TCPClientRequestHandler implements ClientRequestHandler {
+public class TCPClientRequestHandler implements MultiplexedClientRequestHandler {
 
     /**
      * The ServerRequestConnector address.
@@ -28,34 +62,54 @@ public class TCPClientRequestHandler implements ClientRequestHandler {
     private int serverPort;
 
     /**
-     * The connected socket.
+     * The connected channel.
      */
-    private Socket connectedSocket;
+    private SocketChannel connectedChannel;
 
     /**
-     * The socket input stream.
+     * The encoder of the request frames.
      */
-    private DataInputStream dataInputStream;
+    private FrameEncoder frameEncoder;
 
     /**
-     * The socket output stream.
+     * The connection state of this ClientRequestHandler.
      */
-    private DataOutputStream dataOutputStream;
+    private volatile boolean connected;
 
     /**
-     * The connection state of this ClientRequestHandler.
+     * Indicates if this ClientRequestHandler was connected before.
      */
-    private boolean connected;
+    private boolean connectedBefore;
 
     /**
-     * Indicates if this ClientRequestHandler already was sent bytes.
+     * The next request correlation identifier.
      */
-    private boolean sent;
+    private AtomicLong nextCorrelationId;
 
     /**
-     * Indicates if this ClientRequestHandler was connected before.
+     * The requests waiting for replies, mapped by the correlation identifier.
      */
-    private boolean connectedBefore;
+    private Map<Long, CompletableFuture<PooledBuffer>> pendingReplies;
+
+    /**
+     * The requests sent by each thread with {@link #sendBuffer(PooledBuffer)} and not received yet.
+     */
+    private ThreadLocal<Deque<CompletableFuture<PooledBuffer>>> sentRequests;
+
+    /**
+     * The sizes of the requests waiting for replies, returned to the credits when replied.
+     */
+    private Map<Long, Integer> pendingRequestSizes;
+
+    /**
+     * The credits granted by the server.
+     */
+    private volatile CreditWindow creditWindow;
+
+    /**
+     * The requests waiting for reply streams, mapped by the correlation identifier.
+     */
+    private Map<Long, CompletableFuture<InputStream>> pendingStreams;
 
     /**
      * Creates a new TCPClientRequestHandler.
@@ -69,10 +123,13 @@ public class TCPClientRequestHandler implements ClientRequestHandler {
             throw new IllegalArgumentException("The server port should be between 0 and 65535.");
         }
         this.serverPort = serverPort;
-        connectedSocket = new Socket();
         connected = false;
-        sent = false;
         connectedBefore = false;
+        nextCorrelationId = new AtomicLong();
+        pendingReplies = new ConcurrentHashMap<>();
+        sentRequests = ThreadLocal.withInitial(ArrayDeque::new);
+        pendingRequestSizes = new ConcurrentHashMap<>();
+        pendingStreams = new ConcurrentHashMap<>();
     }
 
 
@@ -87,54 +144,343 @@ public class TCPClientRequestHandler implements ClientRequestHandler {
     }
 
     @Override
-    public void connect() throws IOException {
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public synchronized void connect() throws IOException {
         if (connected) {
             throw new IllegalStateException("This ClientRequestHandler is already connected.");
         } else if (connectedBefore) {
             throw new IllegalStateException("This ClientRequestHandler was connected before.");
         }
+        connectedChannel = openChannel();
+        frameEncoder = new FrameEncoder();
+        creditWindow = new CreditWindow();
+        PooledBuffer creditRequest = CreditWindow.creditRequest();
+        try {
+            frameEncoder.write(connectedChannel, CreditWindow.CREDIT_CORRELATION_ID, creditRequest);
+        } catch (IOException e) {
+            connectedChannel.close();
+            throw e;
+        } finally {
+            creditRequest.release();
+        }
         connected = true;
-        connectedSocket.connect(new InetSocketAddress(serverAddress, serverPort));
-        dataInputStream = new DataInputStream(connectedSocket.getInputStream());
-        dataOutputStream = new DataOutputStream(connectedSocket.getOutputStream());
+        Thread replyReader = new Thread(this::readReplies, "esm-tcp-reader-" + serverAddress + ":" + serverPort);
+        replyReader.setDaemon(true);
+        replyReader.start();
     }
 
+    /**
+     * Sends the data to the server, the reply is received by the same thread calling {@link #receive()}, the requests
+     * sent by each thread are received in the same order.
+     *
+     * @param data the bytes to send
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
     @Override
     public void send(byte[] data) throws IOException {
-        if (!connected) {
-            throw new IllegalStateException("This ClientRequestHandler is disconnected.");
-        } else if (sent) {
-            throw new IllegalStateException("This ClientRequestHandler already was sent data.");
+        sendBuffer(BufferArena.getInstance().copyOf(data));
+    }
+
+    /**
+     * Sends the data to the server, the reply is received by the same thread calling {@link #receiveBuffer()}, the
+     * requests sent by each thread are received in the same order.
+     *
+     * @param data the buffer to send
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    @Override
+    public void sendBuffer(PooledBuffer data) throws IOException {
+        sentRequests.get().addLast(request(data));
+    }
+
+    /**
+     * Receives the reply of the oldest request sent by the current thread with {@link #send(byte[])}.
+     *
+     * @return the received bytes
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    @Override
+    public byte[] receive() throws IOException {
+        PooledBuffer replyData = receiveBuffer();
+        try {
+            return replyData.toByteArray();
+        } finally {
+            replyData.release();
+        }
+    }
+
+    /**
+     * Receives the reply of the oldest request sent by the current thread with {@link #sendBuffer(PooledBuffer)}.
+     *
+     * @return the buffer with the received bytes
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    @Override
+    public PooledBuffer receiveBuffer() throws IOException {
+        CompletableFuture<PooledBuffer> sentRequest = sentRequests.get().pollFirst();
+        if (sentRequest == null) {
+            throw new IllegalStateException("This thread did not send a request to this ClientRequestHandler.");
+        }
+        try {
+            return sentRequest.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting the reply.");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
         }
+    }
+
+    @Override
+    public CompletableFuture<PooledBuffer> request(PooledBuffer data) throws IOException {
         Objects.requireNonNull(data, "The data to send can not be null.");
-        sent = true;
-        dataOutputStream.writeInt(data.length);
-        dataOutputStream.write(data, 0, data.length);
-        dataOutputStream.flush();
+        try {
+            if (!connected) {
+                throw new IllegalStateException("This ClientRequestHandler is disconnected.");
+            }
+            int requestSize = data.buffer().remaining();
+            creditWindow.acquire(requestSize);
+            long correlationId = nextCorrelationId.incrementAndGet();
+            CompletableFuture<PooledBuffer> pendingReply = new CompletableFuture<>();
+            pendingRequestSizes.put(correlationId, requestSize);
+            pendingReplies.put(correlationId, pendingReply);
+            if (!connected && pendingReplies.remove(correlationId) != null) {
+                // The connection failed while the request was being registered
+                pendingRequestSizes.remove(correlationId);
+                pendingReply.completeExceptionally(new IOException("The connection was closed."));
+                return pendingReply;
+            }
+            try {
+                frameEncoder.write(connectedChannel, correlationId, data);
+            } catch (IOException e) {
+                pendingReplies.remove(correlationId);
+                pendingRequestSizes.remove(correlationId);
+                throw e;
+            }
+            return pendingReply;
+        } finally {
+            data.release();
+        }
     }
 
     @Override
-    public byte[] receive() throws IOException {
+    public void post(PooledBuffer data) throws IOException {
+        Objects.requireNonNull(data, "The data to send can not be null.");
+        try {
+            if (!connected) {
+                throw new IllegalStateException("This ClientRequestHandler is disconnected.");
+            }
+            creditWindow.acquire(data.buffer().remaining());
+            frameEncoder.write(connectedChannel, nextCorrelationId.incrementAndGet(), data);
+        } finally {
+            data.release();
+        }
+    }
+
+    @Override
+    public OutputStream openRequest(CompletableFuture<InputStream> replyStream) {
         if (!connected) {
             throw new IllegalStateException("This ClientRequestHandler is disconnected.");
-        } else if (!sent) {
-            throw new IllegalStateException("This ClientRequestHandler was not sent data yet.");
         }
-        byte[] data = new byte[dataInputStream.readInt()];
-        dataInputStream.read(data, 0, data.length);
-        disconnect();
-        return data;
+        return new ChunkOutputStream(FrameEncoder.CHUNK_SIZE, new ChunkOutputStream.ChunkSink() {
+
+            /**
+             * The request correlation identifier, zero until the first chunk is written.
+             */
+            private long correlationId = 0;
+
+            @Override
+            public void write(PooledBuffer chunk, boolean last) throws IOException {
+                try {
+                    if (correlationId == 0) {
+                        correlationId = start(chunk.buffer().remaining(), replyStream);
+                    }
+                    frameEncoder.writeChunk(connectedChannel, correlationId, chunk, last);
+                } catch (IOException e) {
+                    if (replyStream != null) {
+                        pendingStreams.remove(correlationId);
+                        pendingRequestSizes.remove(correlationId);
+                        replyStream.completeExceptionally(e);
+                    }
+                    throw e;
+                } finally {
+                    chunk.release();
+                }
+            }
+        });
     }
 
     @Override
-    public void disconnect() throws IOException {
+    public synchronized void disconnect() throws IOException {
         if (!connected) {
             throw new IllegalStateException("The ClientRequestHandler is already disconnected.");
         }
         connected = false;
         connectedBefore = true;
-        dataOutputStream.close();
-        dataInputStream.close();
-        connectedSocket.close();
+        creditWindow.close();
+        connectedChannel.close();
+    }
+
+    /**
+     * Starts a request written in chunks, waiting the credit of its first chunk and registering the reply stream.
+     *
+     * @param firstChunkSize the size of the first chunk
+     * @param replyStream    the future of the reply stream, or null if the request is not replied
+     * @return the request correlation identifier
+     * @throws IOException if the connection was closed
+     */
+    private long start(int firstChunkSize, CompletableFuture<InputStream> replyStream) throws IOException {
+        if (!connected) {
+            throw new IOException("The connection was closed.");
+        }
+        creditWindow.acquire(firstChunkSize);
+        long correlationId = nextCorrelationId.incrementAndGet();
+        if (replyStream != null) {
+            pendingRequestSizes.put(correlationId, firstChunkSize);
+            pendingStreams.put(correlationId, replyStream);
+            if (!connected && pendingStreams.remove(correlationId) != null) {
+                // The connection failed while the request was being registered
+                pendingRequestSizes.remove(correlationId);
+                throw new IOException("The connection was closed.");
+            }
+        }
+        return correlationId;
+    }
+
+    /**
+     * Opens the blocking channel connected to the server. Subclasses can connect the same frames through other stream
+     * channels.
+     *
+     * @return the connected channel
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    protected SocketChannel openChannel() throws IOException {
+        SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress(serverAddress, serverPort));
+        socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        return socketChannel;
+    }
+
+    /**
+     * Reads the reply frames and completes the waiting requests until the connection is closed or the reader fails,
+     * then the requests still waiting are completed exceptionally. The credit frames are delivered to the credit
+     * window. The reply chunks are spilled to the reply streams, the reader never waits a caller, or assembled for the
+     * requests waiting buffers.
+     */
+    private void readReplies() {
+        FrameDecoder frameDecoder = new FrameDecoder();
+        Map<Long, ChunkInputStream> receivingStreams = new HashMap<>();
+        Map<Long, PooledBufferOutputStream> assembledReplies = new HashMap<>();
+        IOException failure;
+        try {
+            while (true) {
+                while (!frameDecoder.decode()) {
+                    if (frameDecoder.readFrom(connectedChannel) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                long correlationId = frameDecoder.getFrameCorrelationId();
+                if (correlationId == CreditWindow.CREDIT_CORRELATION_ID) {
+                    PooledBuffer credit = frameDecoder.getFrameData();
+                    try {
+                        creditWindow.receive(credit);
+                    } finally {
+                        credit.release();
+                    }
+                    continue;
+                }
+                boolean last = frameDecoder.isFrameLast();
+                ChunkInputStream receivingStream = receivingStreams.get(correlationId);
+                if (receivingStream != null) {
+                    receivingStream.spill(frameDecoder.getFrameData());
+                    if (last) {
+                        receivingStreams.remove(correlationId).finish();
+                    }
+                    continue;
+                }
+                PooledBufferOutputStream assembledReply = assembledReplies.get(correlationId);
+                if (assembledReply == null) {
+                    Integer requestSize = pendingRequestSizes.remove(correlationId);
+                    if (requestSize != null) {
+                        creditWindow.release(requestSize);
+                    }
+                    CompletableFuture<InputStream> pendingStream = pendingStreams.remove(correlationId);
+                    if (pendingStream != null) {
+                        InputStream replyStream;
+                        if (last) {
+                            replyStream = new PooledBufferInputStream(frameDecoder.getFrameData(), true);
+                        } else {
+                            receivingStream = new ChunkInputStream(TCPExchangeHandler.STREAM_CAPACITY);
+                            receivingStream.spill(frameDecoder.getFrameData());
+                            receivingStreams.put(correlationId, receivingStream);
+                            replyStream = receivingStream;
+                        }
+                        if (!pendingStream.complete(replyStream)) {
+                            replyStream.close();
+                        }
+                        continue;
+                    }
+                    if (last) {
+                        CompletableFuture<PooledBuffer> pendingReply = pendingReplies.remove(correlationId);
+                        if (pendingReply != null) {
+                            pendingReply.complete(frameDecoder.getFrameData());
+                        }
+                        continue;
+                    }
+                    assembledReply = new PooledBufferOutputStream(2 * FrameEncoder.CHUNK_SIZE);
+                    assembledReplies.put(correlationId, assembledReply);
+                }
+                PooledBuffer chunk = frameDecoder.getFrameData();
+                try {
+                    assembledReply.write(chunk);
+                } finally {
+                    chunk.release();
+                }
+                if (last) {
+                    assembledReplies.remove(correlationId);
+                    CompletableFuture<PooledBuffer> pendingReply = pendingReplies.remove(correlationId);
+                    if (pendingReply != null) {
+                        pendingReply.complete(assembledReply.toPooledBuffer());
+                    } else {
+                        assembledReply.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            failure = connected ? e : new IOException("The ClientRequestHandler was disconnected.", e);
+        } catch (Throwable e) {
+            // The reader can not stop without failing the waiting requests, they would wait forever
+            failure = new IOException("The reply reader failed.", e);
+        } finally {
+            frameDecoder.close();
+        }
+        connected = false;
+        creditWindow.close();
+        try {
+            connectedChannel.close();
+        } catch (IOException e) {
+            // The connection is being closed
+        }
+        for (ChunkInputStream receivingStream : receivingStreams.values()) {
+            receivingStream.fail(failure);
+        }
+        for (PooledBufferOutputStream assembledReply : assembledReplies.values()) {
+            assembledReply.close();
+        }
+        for (Long correlationId : pendingReplies.keySet()) {
+            CompletableFuture<PooledBuffer> pendingReply = pendingReplies.remove(correlationId);
+            if (pendingReply != null) {
+                pendingReply.completeExceptionally(failure);
+            }
+        }
+        for (Long correlationId : pendingStreams.keySet()) {
+            CompletableFuture<InputStream> pendingStream = pendingStreams.remove(correlationId);
+            if (pendingStream != null) {
+                pendingStream.completeExceptionally(failure);
+            }
+        }
     }
 }
@@ -0,0 +1,285 @@
+package esm.infrastructure.impl.tcp;
+
+import esm.infrastructure.ServerRequestHandler;
+import esm.infrastructure.nio.FrameEncoder;
+import esm.util.buffer.BufferArena;
+import esm.util.buffer.ChunkInputStream;
+import esm.util.buffer.ChunkOutputStream;
+import esm.util.buffer.PooledBuffer;
+import esm.util.buffer.PooledBufferInputStream;
+import esm.util.buffer.PooledBufferOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * The {@link ServerRequestHandler} of a single request received by a multiplexed TCP connection. The handler is not
+ * persistent, after the reply is sent or the handler is disconnected, the connection continues receiving the next
+ * requests of the client without being closed. The reply carries the correlation identifier of the request. The
+ * request data is held in a {@link PooledBuffer} until received, or released when the handler is disconnected.
+ * <p>
+ * The requests sent in chunks are delivered when the first chunk is received, the next chunks are read from a
+ * {@link ChunkInputStream} while they arrive. The replies written with {@link #sendStream()} are sent in chunks of
+ * {@link FrameEncoder#CHUNK_SIZE} bytes, so the large messages are not buffered whole.
+ *
+ * @author Pedro Henrique
+ */
+class TCPExchangeHandler implements ServerRequestHandler {
+
+    /**
+     * The max number of bytes of the request chunks received and not read yet.
+     */
+    static final int STREAM_CAPACITY = 4 * FrameEncoder.CHUNK_SIZE;
+
+    //
+
+    /**
+     * The connection where the request was received.
+     */
+    private Connection connection;
+
+    /**
+     * The request correlation identifier.
+     */
+    private long correlationId;
+
+    /**
+     * The request data size, returned to the connection credits when the exchange finishes.
+     */
+    private int requestSize;
+
+    /**
+     * The request data, null after received or if the request is received in chunks.
+     */
+    private PooledBuffer data;
+
+    /**
+     * The stream of the request chunks, null after received or if the request is received in a single frame.
+     */
+    private ChunkInputStream stream;
+
+    /**
+     * The connection state of this ServerRequestHandler.
+     */
+    private boolean connected;
+
+    /**
+     * Indicates if this ServerRequestHandler already was received bytes.
+     */
+    private boolean received;
+
+    /**
+     * Creates the handler with the connection and the received request.
+     *
+     * @param connection    the connection where the request was received
+     * @param correlationId the request correlation identifier
+     * @param data          the request data
+     */
+    TCPExchangeHandler(Connection connection, long correlationId, PooledBuffer data) {
+        this.connection = connection;
+        this.correlationId = correlationId;
+        this.data = data;
+        stream = null;
+        requestSize = data.buffer().remaining();
+        connected = true;
+        received = false;
+    }
+
+    /**
+     * Creates the handler with the connection and the request received in chunks, the first chunk was already added
+     * to the stream.
+     *
+     * @param connection    the connection where the request was received
+     * @param correlationId the request correlation identifier
+     * @param stream        the stream of the request chunks
+     * @param requestSize   the size of the first chunk, counted by the connection credits
+     */
+    TCPExchangeHandler(Connection connection, long correlationId, ChunkInputStream stream, int requestSize) {
+        this.connection = connection;
+        this.correlationId = correlationId;
+        this.stream = stream;
+        this.requestSize = requestSize;
+        data = null;
+        connected = true;
+        received = false;
+    }
+
+    /**
+     * Returns the request data size.
+     *
+     * @return the request size
+     */
+    int getRequestSize() {
+        return requestSize;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return false;
+    }
+
+    @Override
+    public byte[] receive() throws IOException {
+        PooledBuffer receivedData = receiveBuffer();
+        try {
+            return receivedData.toByteArray();
+        } finally {
+            receivedData.release();
+        }
+    }
+
+    @Override
+    public PooledBuffer receiveBuffer() throws IOException {
+        markReceived();
+        if (stream == null) {
+            PooledBuffer receivedData = data;
+            data = null;
+            return receivedData;
+        }
+        try (ChunkInputStream chunkStream = stream;
+             PooledBufferOutputStream assembledStream = new PooledBufferOutputStream(2 * FrameEncoder.CHUNK_SIZE)) {
+            stream = null;
+            byte[] bytes = new byte[8192];
+            int length;
+            while ((length = chunkStream.read(bytes)) >= 0) {
+                assembledStream.write(bytes, 0, length);
+            }
+            return assembledStream.toPooledBuffer();
+        }
+    }
+
+    /**
+     * Receives the request as a stream, the requests received in chunks are read while the chunks arrive.
+     *
+     * @return the stream of the request bytes
+     */
+    @Override
+    public InputStream receiveStream() {
+        markReceived();
+        InputStream receivedStream = stream != null ? stream : new PooledBufferInputStream(data, true);
+        stream = null;
+        data = null;
+        return receivedStream;
+    }
+
+    @Override
+    public void send(byte[] data) throws IOException {
+        sendBuffer(BufferArena.getInstance().copyOf(data));
+    }
+
+    @Override
+    public void sendBuffer(PooledBuffer data) throws IOException {
+        Objects.requireNonNull(data, "The data to send can not be null.");
+        if (!connected) {
+            data.release();
+            throw new IllegalStateException("This ServerRequestHandler is disconnected.");
+        } else if (!received) {
+            data.release();
+            throw new IllegalStateException("This ServerRequestHandler was not received data yet.");
+        }
+        connected = false;
+        connection.reply(correlationId, requestSize, data);
+    }
+
+    /**
+     * Returns a stream to send the reply in chunks of {@link FrameEncoder#CHUNK_SIZE} bytes, each chunk is written when
+     * full and the last one when the stream is closed. If a chunk fails, the request is finished without reply.
+     *
+     * @return the stream of the reply
+     */
+    @Override
+    public OutputStream sendStream() {
+        if (!connected) {
+            throw new IllegalStateException("This ServerRequestHandler is disconnected.");
+        } else if (!received) {
+            throw new IllegalStateException("This ServerRequestHandler was not received data yet.");
+        }
+        connected = false;
+        return new ChunkOutputStream(FrameEncoder.CHUNK_SIZE, (chunk, last) -> {
+            if (last) {
+                connection.reply(correlationId, requestSize, chunk);
+                return;
+            }
+            try {
+                connection.replyChunk(correlationId, chunk);
+            } catch (IOException e) {
+                // The last chunk will not be written, the request is finished without reply
+                connection.finish(correlationId, requestSize);
+                throw e;
+            }
+        });
+    }
+
+    @Override
+    public void disconnect() {
+        if (!connected) {
+            throw new IllegalStateException("The ServerRequestHandler is already disconnected.");
+        }
+        connected = false;
+        if (data != null) {
+            data.release();
+            data = null;
+        }
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
+        connection.finish(correlationId, requestSize);
+    }
+
+    /**
+     * Checks if the request can be received and marks it as received.
+     */
+    private void markReceived() {
+        if (!connected) {
+            throw new IllegalStateException("This ServerRequestHandler is disconnected.");
+        } else if (received) {
+            throw new IllegalStateException("This ServerRequestHandler already was received data.");
+        }
+        received = true;
+    }
+
+    /**
+     * The multiplexed connection that receives the exchange replies.
+     */
+    interface Connection {
+
+        /**
+         * Writes the reply frame of a request, can be called by any thread. The data buffer ownership is transferred
+         * to the connection, even if an exception is thrown. The request credit returns to the client with the reply.
+         *
+         * @param correlationId the request correlation identifier
+         * @param requestSize   the request data size
+         * @param data          the reply data
+         * @throws IOException if an I/O exception of some sort has occurred
+         */
+        void reply(long correlationId, int requestSize, PooledBuffer data) throws IOException;
+
+        /**
+         * Writes a reply chunk followed by other chunks of the same reply, can be called by any thread, the last chunk
+         * is written with {@link #reply(long, int, PooledBuffer)}. The data buffer ownership is transferred to the
+         * connection, even if an exception is thrown.
+         *
+         * @param correlationId the request correlation identifier
+         * @param data          the chunk data
+         * @throws IOException if an I/O exception of some sort has occurred
+         */
+        void replyChunk(long correlationId, PooledBuffer data) throws IOException;
+
+        /**
+         * Finishes a request without reply, can be called by any thread. The request credit is granted to the client
+         * by the connection.
+         *
+         * @param correlationId the request correlation identifier
+         * @param requestSize   the request data size
+         */
+        void finish(long correlationId, int requestSize);
+    }
+}
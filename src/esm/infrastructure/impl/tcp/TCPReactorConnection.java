@@ -0,0 +1,475 @@
+package esm.infrastructure.impl.tcp;
+
+import esm.infrastructure.ServerRequestHandler;
+import esm.infrastructure.nio.ChannelHandler;
+import esm.infrastructure.nio.CreditWindow;
+import esm.infrastructure.nio.EventLoop;
+import esm.infrastructure.nio.FrameDecoder;
+import esm.infrastructure.nio.FrameEncoder;
+import esm.util.buffer.ChunkInputStream;
+import esm.util.buffer.PooledBuffer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * A TCP connection handled by an {@link EventLoop}. The request frames are read without blocking and delivered as
+ * {@link TCPExchangeHandler}s, the replies are queued and written by the event loop. The requests multiplexed in the
+ * connection are delivered without waiting the previous replies, the replies are written in the order they are
+ * completed carrying the request correlation identifier. The frames are read by a {@link FrameDecoder} and the queued
+ * replies are written from {@link PooledBuffer}s with gathering writes.
+ * <p>
+ * The writes are coalesced, a single flush is scheduled in the event loop for all replies queued before it runs, so
+ * the replies completed together are written by one gathering write. With a flush delay, the flush waits the delay
+ * after the first queued reply, trading latency for fewer writes.
+ * <p>
+ * The requests are limited by a {@link CreditWindow}, while it is exhausted the connection stops reading and decoding
+ * the requests, resuming when the pending requests finish. The credits are granted to the clients that ask them. The
+ * window can share a {@link esm.infrastructure.nio.ByteBudget} with other connections, the connection also stops
+ * while it is exhausted, resuming when other connection returns bytes to it. The request messages larger than the max
+ * message size close the connection.
+ * <p>
+ * The requests sent in chunks are delivered when the first chunk arrives, the next chunks are offered to the exchange
+ * stream. While a stream being read is full, the connection stops reading, resuming when the stream is drained, so
+ * the memory of each request is bounded without blocking the event loop. The credits count the first chunk of the
+ * requests, and the window does not stop the chunks of the requests already delivered. The chunks of the replies are
+ * queued as separate frames.
+ *
+ * @author Pedro Henrique
+ */
+class TCPReactorConnection implements ChannelHandler, TCPExchangeHandler.Connection {
+
+    /**
+     * The max number of queued frames written by a single gathering write.
+     */
+    private static final int MAX_GATHERED_FRAMES = 64;
+
+    /**
+     * The connected channel.
+     */
+    private SocketChannel connectedChannel;
+
+    /**
+     * The consumer of the received requests.
+     */
+    private Consumer<ServerRequestHandler> requestConsumer;
+
+    /**
+     * The event loop of this connection.
+     */
+    private EventLoop eventLoop;
+
+    /**
+     * The selection key of the connected channel.
+     */
+    private SelectionKey selectionKey;
+
+    /**
+     * The decoder of the request frames.
+     */
+    private FrameDecoder frameDecoder;
+
+    /**
+     * The frames waiting to be written.
+     */
+    private Queue<PooledBuffer> pendingWrites;
+
+    /**
+     * The frames of the current gathering write.
+     */
+    private ByteBuffer[] gatheredFrames;
+
+    /**
+     * The time in nanoseconds that the flush waits after the first queued reply.
+     */
+    private long flushDelay;
+
+    /**
+     * Indicates if a flush was scheduled in the event loop and did not run yet.
+     */
+    private AtomicBoolean flushScheduled;
+
+    /**
+     * The credits of the requests.
+     */
+    private CreditWindow creditWindow;
+
+    /**
+     * Indicates if the client asked the credits, so the credits of the requests finished without reply are granted.
+     */
+    private volatile boolean creditGranted;
+
+    /**
+     * Indicates if the reading was paused because the credit window is exhausted.
+     */
+    private volatile boolean readPaused;
+
+    /**
+     * The streams of the requests whose last chunk was not received yet, mapped by the correlation identifier, used by
+     * the event loop thread only.
+     */
+    private Map<Long, ChunkInputStream> receivingStreams;
+
+    /**
+     * The stream that paused the reading because it is full, null if none, used by the event loop thread only.
+     */
+    private ChunkInputStream fullStream;
+
+    /**
+     * Indicates if this connection was closed.
+     */
+    private boolean closed;
+
+    /**
+     * The max size of the request messages.
+     */
+    private int maxMessageSize;
+
+    /**
+     * Creates the connection with the connected non-blocking channel.
+     *
+     * @param connectedChannel the connected channel
+     * @param requestConsumer  the consumer of the received requests
+     * @param creditWindow     the credits of the requests
+     * @param flushDelay       the time in nanoseconds that the flush waits after the first queued reply
+     * @param maxMessageSize   the max size of the request messages, the larger messages close the connection
+     */
+    TCPReactorConnection(SocketChannel connectedChannel, Consumer<ServerRequestHandler> requestConsumer,
+                         CreditWindow creditWindow, long flushDelay, int maxMessageSize) {
+        this.connectedChannel = connectedChannel;
+        this.requestConsumer = requestConsumer;
+        this.creditWindow = creditWindow;
+        this.maxMessageSize = maxMessageSize;
+        creditWindow.setBudgetListener(() -> eventLoop.execute(this::resumeRead));
+        creditGranted = false;
+        readPaused = false;
+        receivingStreams = new HashMap<>();
+        fullStream = null;
+        frameDecoder = new FrameDecoder(maxMessageSize);
+        pendingWrites = new ConcurrentLinkedQueue<>();
+        gatheredFrames = new ByteBuffer[MAX_GATHERED_FRAMES];
+        this.flushDelay = flushDelay;
+        flushScheduled = new AtomicBoolean(false);
+        closed = false;
+    }
+
+    @Override
+    public void registered(EventLoop eventLoop, SelectionKey selectionKey) {
+        this.eventLoop = eventLoop;
+        this.selectionKey = selectionKey;
+    }
+
+    @Override
+    public void handle(SelectionKey selectionKey) throws IOException {
+        if (selectionKey.isWritable()) {
+            flush();
+        }
+        if (selectionKey.isValid() && selectionKey.isReadable()) {
+            read();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        creditWindow.close();
+        if (selectionKey != null) {
+            selectionKey.cancel();
+        }
+        try {
+            connectedChannel.close();
+        } catch (IOException e) {
+            // The connection is being closed
+        }
+        frameDecoder.close();
+        IOException failure = new EOFException("The connection was closed.");
+        for (ChunkInputStream receivingStream : receivingStreams.values()) {
+            receivingStream.fail(failure);
+        }
+        receivingStreams.clear();
+        PooledBuffer pendingWrite;
+        while ((pendingWrite = pendingWrites.poll()) != null) {
+            pendingWrite.release();
+        }
+    }
+
+    /**
+     * Reads the available bytes and delivers the complete frames.
+     *
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private void read() throws IOException {
+        if (frameDecoder.readFrom(connectedChannel) < 0) {
+            throw new EOFException();
+        }
+        decode();
+    }
+
+    /**
+     * Delivers each complete frame to the consumer as a request while the credit window has credits, the credit
+     * requests are replied with the window. The request chunks are offered to their streams, they are received even if
+     * the window is exhausted, because their requests already have credit. If the window is exhausted before a new
+     * request, or a stream is full, the reading is paused.
+     *
+     * @throws IOException if the frame header is corrupted
+     */
+    private void decode() throws IOException {
+        while (!isReadBlocked() && frameDecoder.decode()) {
+            long correlationId = frameDecoder.getFrameCorrelationId();
+            ChunkInputStream receivingStream = receivingStreams.get(correlationId);
+            if (receivingStream != null) {
+                PooledBuffer chunk = frameDecoder.getFrameData();
+                long messageSize = receivingStream.getReceivedBytes() + chunk.buffer().remaining();
+                if (messageSize > maxMessageSize) {
+                    chunk.release();
+                    throw new StreamCorruptedException("The message size " + messageSize + " exceeds the max of "
+                            + maxMessageSize + ".");
+                }
+                if (frameDecoder.isFrameLast()) {
+                    receivingStream.offer(chunk);
+                    receivingStreams.remove(correlationId).finish();
+                } else if (!receivingStream.offer(chunk)) {
+                    fullStream = receivingStream;
+                }
+                continue;
+            }
+            if (correlationId == CreditWindow.CREDIT_CORRELATION_ID) {
+                creditGranted = true;
+                PooledBuffer window = creditWindow.grantWindow();
+                try {
+                    queue(CreditWindow.CREDIT_CORRELATION_ID, window);
+                } finally {
+                    window.release();
+                }
+                continue;
+            }
+            TCPExchangeHandler exchangeHandler;
+            if (frameDecoder.isFrameLast()) {
+                exchangeHandler = new TCPExchangeHandler(this, correlationId, frameDecoder.getFrameData());
+            } else {
+                PooledBuffer chunk = frameDecoder.getFrameData();
+                int requestSize = chunk.buffer().remaining();
+                ChunkInputStream exchangeStream = new ChunkInputStream(TCPExchangeHandler.STREAM_CAPACITY);
+                exchangeStream.setDrainListener(() -> eventLoop.execute(this::resumeRead));
+                exchangeStream.offer(chunk);
+                receivingStreams.put(correlationId, exchangeStream);
+                exchangeHandler = new TCPExchangeHandler(this, correlationId, exchangeStream, requestSize);
+            }
+            creditWindow.add(exchangeHandler.getRequestSize());
+            requestConsumer.accept(exchangeHandler);
+        }
+        if (isReadBlocked()) {
+            readPaused = true;
+            selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+            creditWindow.awaitBudget();
+            if (!isReadBlocked()) {
+                // A request finished or a stream was drained before the reading was paused
+                eventLoop.execute(this::resumeRead);
+            }
+        }
+    }
+
+    /**
+     * Returns if the reading should be paused, because a stream being read is full or because the credit window is
+     * exhausted and the next frame starts a new request, the chunks of the streams being received and the credit
+     * requests do not need credit. While the header of the next frame is not read, the reading is only paused if no
+     * stream waits other chunks.
+     *
+     * @return if the connection should not read
+     * @throws IOException if the header of the next frame is corrupted
+     */
+    private boolean isReadBlocked() throws IOException {
+        if (fullStream != null) {
+            if (fullStream.isFull()) {
+                return true;
+            }
+            fullStream = null;
+        }
+        if (!creditWindow.isExhausted()) {
+            return false;
+        } else if (!frameDecoder.decodeHeader()) {
+            return receivingStreams.isEmpty();
+        }
+        long nextCorrelationId = frameDecoder.getNextCorrelationId();
+        return nextCorrelationId != CreditWindow.CREDIT_CORRELATION_ID
+                && !receivingStreams.containsKey(nextCorrelationId);
+    }
+
+    /**
+     * Resumes the reading paused by the exhausted credit window or by a full stream, if the reading is not blocked
+     * anymore. The frames already read are decoded before the channel is read again.
+     */
+    private void resumeRead() {
+        if (closed || !readPaused || !selectionKey.isValid()) {
+            return;
+        }
+        try {
+            if (isReadBlocked()) {
+                return;
+            }
+            readPaused = false;
+            decode();
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (!readPaused) {
+            selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Writes the pending frames with gathering writes until the channel can not receive more bytes, if frames remain,
+     * waits the channel to be writable again. The written frames buffers are released.
+     *
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private void flush() throws IOException {
+        while (!pendingWrites.isEmpty()) {
+            int gatheredFrameCount = 0;
+            Iterator<PooledBuffer> pendingWriteIterator = pendingWrites.iterator();
+            while (gatheredFrameCount < MAX_GATHERED_FRAMES && pendingWriteIterator.hasNext()) {
+                gatheredFrames[gatheredFrameCount++] = pendingWriteIterator.next().buffer();
+            }
+            connectedChannel.write(gatheredFrames, 0, gatheredFrameCount);
+            for (int i = 0; i < gatheredFrameCount; i++) {
+                if (gatheredFrames[i].hasRemaining()) {
+                    break;
+                }
+                pendingWrites.poll().release();
+            }
+            boolean writtenAll = !gatheredFrames[gatheredFrameCount - 1].hasRemaining();
+            for (int i = 0; i < gatheredFrameCount; i++) {
+                gatheredFrames[i] = null;
+            }
+            if (!writtenAll) {
+                selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Queues the reply frame to be written by the event loop, can be called by any thread. The request credit is
+     * released, returning to the client with the reply.
+     *
+     * @param correlationId the request correlation identifier
+     * @param requestSize   the request data size
+     * @param data          the reply data, released after encoded
+     */
+    @Override
+    public void reply(long correlationId, int requestSize, PooledBuffer data) {
+        try {
+            queue(correlationId, data);
+        } finally {
+            data.release();
+            creditWindow.release(requestSize);
+            resumeReadIfPaused();
+        }
+    }
+
+    /**
+     * Queues a reply chunk followed by other chunks to be written by the event loop, can be called by any thread.
+     *
+     * @param correlationId the request correlation identifier
+     * @param data          the chunk data, released after encoded
+     */
+    @Override
+    public void replyChunk(long correlationId, PooledBuffer data) {
+        try {
+            queue(FrameEncoder.encodeChunk(correlationId, data, false));
+        } finally {
+            data.release();
+        }
+    }
+
+    /**
+     * Queues a frame to be written by the event loop, can be called by any thread. If a flush is not scheduled yet,
+     * schedules it, the frames queued until it runs are written together. The data buffer is not released.
+     *
+     * @param correlationId the frame correlation identifier
+     * @param data          the frame data
+     */
+    private void queue(long correlationId, PooledBuffer data) {
+        queue(FrameEncoder.encode(correlationId, data));
+    }
+
+    /**
+     * Queues an encoded frame to be written by the event loop, can be called by any thread.
+     *
+     * @param frame the encoded frame, released after written
+     */
+    private void queue(PooledBuffer frame) {
+        pendingWrites.add(frame);
+        if (flushScheduled.compareAndSet(false, true)) {
+            eventLoop.schedule(this::scheduledFlush, flushDelay);
+        }
+    }
+
+    /**
+     * Schedules the reading to be resumed in the event loop if it was paused by the exhausted credit window or by the
+     * exhausted budget shared with other connections.
+     */
+    private void resumeReadIfPaused() {
+        if (readPaused) {
+            eventLoop.execute(this::resumeRead);
+        }
+    }
+
+    /**
+     * Runs the scheduled flush, the replies queued after the flush started schedule the next one. If the channel is
+     * waiting to be writable, the pending frames are written when it is. If the connection was closed, the frames
+     * queued after it are released.
+     */
+    private void scheduledFlush() {
+        flushScheduled.set(false);
+        if (closed || !selectionKey.isValid()) {
+            PooledBuffer pendingWrite;
+            while ((pendingWrite = pendingWrites.poll()) != null) {
+                pendingWrite.release();
+            }
+        } else if ((selectionKey.interestOps() & SelectionKey.OP_WRITE) == 0) {
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Finishes a request without reply, the request credit is granted to the client if it asked the credits.
+     *
+     * @param correlationId the request correlation identifier
+     * @param requestSize   the request data size
+     */
+    @Override
+    public void finish(long correlationId, int requestSize) {
+        PooledBuffer credit = creditWindow.grant(requestSize);
+        if (credit != null) {
+            try {
+                if (creditGranted) {
+                    queue(CreditWindow.CREDIT_CORRELATION_ID, credit);
+                }
+            } finally {
+                credit.release();
+            }
+        }
+        resumeReadIfPaused();
+    }
+}
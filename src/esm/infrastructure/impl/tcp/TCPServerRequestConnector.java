@@ -1,19 +1,66 @@
 package esm.infrastructure.impl.tcp;
 
+import esm.infrastructure.PortProfile;
+import esm.infrastructure.ReactiveServerRequestConnector;
 import esm.infrastructure.ServerRequestConnector;
 import esm.infrastructure.ServerRequestHandler;
+import esm.infrastructure.nio.ByteBudget;
+import esm.infrastructure.nio.ChannelHandler;
+import esm.infrastructure.nio.CreditWindow;
+import esm.infrastructure.nio.EventLoop;
+import esm.infrastructure.nio.Reactor;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
- * TCP implementation of the {@link ServerRequestConnector} interface.
+ * TCP implementation of the {@link ServerRequestConnector} interface. The connections can be accepted in blocking mode
+ * with {@link #accept()} or by the event loops of a {@link Reactor}. Subclasses can accept the same frames from other
+ * stream channels, providing the bound welcome channel.
+ * <p>
+ * The port is listened and the accepted connections are configured as set in the {@link PortProfile}. With more than
+ * one acceptor, the connector binds other welcome channels to the same port with the {@code SO_REUSEPORT} option, each
+ * one in a shard connector returned by {@link #getShards()}, so the system balances the connections between them. If
+ * the option is not supported, the port has a single welcome channel.
  *
  * @author Pedro Henrique
  */
-public class TCPServerRequestConnector implements ServerRequestConnector {
+public class TCPServerRequestConnector implements ReactiveServerRequestConnector {
+
+    /**
+     * The {@code SO_REUSEPORT} option, added in Java 9, null if not available.
+     */
+    private static final SocketOption<Boolean> SO_REUSEPORT = reusePortOption();
+
+    /**
+     * Returns the {@code SO_REUSEPORT} option if available in this Java version.
+     *
+     * @return the option or null
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePortOption() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    //
 
     /**
      * The server local address.
@@ -26,21 +73,96 @@ public class TCPServerRequestConnector implements ServerRequestConnector {
     private int localPort;
 
     /**
-     * The server socket.
+     * The server socket channel.
+     */
+    private ServerSocketChannel welcomeChannel;
+
+    /**
+     * The profile of the port.
      */
-    private ServerSocket welcomeSocket;
+    private PortProfile portProfile;
 
     /**
-     * Creates the TCPServerRequestConnector with the received port.
+     * The connectors of the port, this connector first.
+     */
+    private List<ServerRequestConnector> shards;
+
+    /**
+     * The budget shared by the connections, null if not shared.
+     */
+    private volatile ByteBudget byteBudget;
+
+    /**
+     * Creates the TCPServerRequestConnector with the received port and the default {@link PortProfile}.
      *
      * @param localAddress the server local address
      * @param localPort    the server local port
      * @throws IOException if an I/O exception of some sort has occurred
      */
     public TCPServerRequestConnector(InetAddress localAddress, int localPort) throws IOException {
+        this(localAddress, localPort, new PortProfile());
+    }
+
+    /**
+     * Creates the TCPServerRequestConnector with the received port, listened as set in the {@link PortProfile}.
+     *
+     * @param localAddress the server local address
+     * @param localPort    the server local port
+     * @param portProfile  the port profile, can not be null
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    public TCPServerRequestConnector(InetAddress localAddress, int localPort, PortProfile portProfile)
+            throws IOException {
+        this.localAddress = localAddress;
+        this.localPort = localPort;
+        this.portProfile = Objects.requireNonNull(portProfile, "The port profile can not be null.");
+        boolean reusePort = portProfile.getAcceptors() > 1;
+        welcomeChannel = bind(localAddress, localPort, portProfile, reusePort);
+        List<ServerRequestConnector> shards = new ArrayList<>(portProfile.getAcceptors());
+        shards.add(this);
+        try {
+            if (reusePort && welcomeChannel.supportedOptions().contains(SO_REUSEPORT)) {
+                for (int i = 1; i < portProfile.getAcceptors(); i++) {
+                    shards.add(new TCPServerRequestConnector(
+                            localAddress, localPort, bind(localAddress, localPort, portProfile, true), portProfile
+                    ));
+                }
+            }
+        } catch (IOException e) {
+            for (ServerRequestConnector shard : shards) {
+                shard.close();
+            }
+            throw e;
+        }
+        this.shards = Collections.unmodifiableList(shards);
+    }
+
+    /**
+     * Creates the connector with a welcome channel already bound and the default {@link PortProfile}.
+     *
+     * @param localAddress   the server local address
+     * @param localPort      the server local port
+     * @param welcomeChannel the bound welcome channel
+     */
+    protected TCPServerRequestConnector(InetAddress localAddress, int localPort, ServerSocketChannel welcomeChannel) {
+        this(localAddress, localPort, welcomeChannel, new PortProfile());
+    }
+
+    /**
+     * Creates the connector with a welcome channel already bound.
+     *
+     * @param localAddress   the server local address
+     * @param localPort      the server local port
+     * @param welcomeChannel the bound welcome channel
+     * @param portProfile    the port profile
+     */
+    private TCPServerRequestConnector(InetAddress localAddress, int localPort, ServerSocketChannel welcomeChannel,
+                                      PortProfile portProfile) {
         this.localAddress = localAddress;
         this.localPort = localPort;
-        welcomeSocket = new ServerSocket(localPort, 50, localAddress);
+        this.welcomeChannel = welcomeChannel;
+        this.portProfile = portProfile;
+        shards = Collections.singletonList(this);
     }
 
     @Override
@@ -55,17 +177,172 @@ public class TCPServerRequestConnector implements ServerRequestConnector {
 
     @Override
     public ServerRequestHandler accept() throws IOException {
-        return new TCPServerRequestHandler(welcomeSocket.accept());
+        SocketChannel connectedChannel = acceptChannel();
+        configure(connectedChannel);
+        return new TCPServerRequestHandler(connectedChannel, newCreditWindow(), portProfile.getMaxMessageSize());
+    }
+
+    @Override
+    public List<ServerRequestConnector> getShards() {
+        return shards;
+    }
+
+    /**
+     * Returns the welcome channel of this connector.
+     *
+     * @return the welcome channel
+     */
+    protected ServerSocketChannel getWelcomeChannel() {
+        return welcomeChannel;
+    }
+
+    /**
+     * Waits the next connection in the welcome channel, until the accept timeout.
+     *
+     * @return the connected blocking channel
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    protected SocketChannel acceptChannel() throws IOException {
+        synchronized (welcomeChannel.blockingLock()) {
+            if (!welcomeChannel.isBlocking()) {
+                welcomeChannel.configureBlocking(true);
+            }
+        }
+        return welcomeChannel.socket().accept().getChannel();
+    }
+
+    @Override
+    public void register(Reactor reactor, Consumer<ServerRequestHandler> requestConsumer) throws IOException {
+        welcomeChannel.configureBlocking(false);
+        reactor.register(welcomeChannel, SelectionKey.OP_ACCEPT, new AcceptHandler(reactor, requestConsumer));
     }
 
     @Override
     public void setTimeout(int timeout) throws SocketException {
-        welcomeSocket.setSoTimeout(timeout);
+        welcomeChannel.socket().setSoTimeout(timeout);
     }
 
     @Override
     public void close() throws IOException {
-        welcomeSocket.close();
+        welcomeChannel.close();
+        for (ServerRequestConnector shard : shards) {
+            if (shard != this) {
+                shard.close();
+            }
+        }
+    }
+
+    /**
+     * Sets the options of the {@link PortProfile} in the accepted channel, if the channel supports them.
+     *
+     * @param connectedChannel the accepted channel
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private void configure(SocketChannel connectedChannel) throws IOException {
+        if (connectedChannel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+            connectedChannel.setOption(StandardSocketOptions.TCP_NODELAY, portProfile.isTcpNoDelay());
+        }
+        setBufferSize(connectedChannel, StandardSocketOptions.SO_SNDBUF, portProfile.getSendBufferSize());
+    }
+
+    @Override
+    public void setByteBudget(ByteBudget byteBudget) {
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * Creates the {@link CreditWindow} of an accepted connection, as set in the {@link PortProfile}, sharing the
+     * {@link ByteBudget} if set.
+     *
+     * @return the credit window
+     */
+    private CreditWindow newCreditWindow() {
+        return new CreditWindow(portProfile.getMaxPendingRequests(), portProfile.getMaxPendingBytes(), byteBudget);
+    }
+
+    /**
+     * Opens a welcome channel bound to the port as set in the {@link PortProfile}. The receive buffer size is set
+     * before the bind, so the accepted connections inherit it.
+     *
+     * @param localAddress the server local address
+     * @param localPort    the server local port
+     * @param portProfile  the port profile
+     * @param reusePort    if the {@code SO_REUSEPORT} option is set, if supported
+     * @return the bound welcome channel
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private static ServerSocketChannel bind(InetAddress localAddress, int localPort, PortProfile portProfile,
+                                            boolean reusePort) throws IOException {
+        ServerSocketChannel welcomeChannel = ServerSocketChannel.open();
+        try {
+            if (reusePort && welcomeChannel.supportedOptions().contains(SO_REUSEPORT)) {
+                welcomeChannel.setOption(SO_REUSEPORT, true);
+            }
+            setBufferSize(welcomeChannel, StandardSocketOptions.SO_RCVBUF, portProfile.getReceiveBufferSize());
+            welcomeChannel.bind(new InetSocketAddress(localAddress, localPort), portProfile.getBacklog());
+        } catch (IOException e) {
+            welcomeChannel.close();
+            throw e;
+        }
+        return welcomeChannel;
+    }
+
+    /**
+     * Sets the buffer size option of the channel, if the size is not zero and the channel supports the option.
+     *
+     * @param channel    the channel
+     * @param option     the buffer size option
+     * @param bufferSize the buffer size, zero to keep the system default
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private static void setBufferSize(NetworkChannel channel, SocketOption<Integer> option, int bufferSize)
+            throws IOException {
+        if (bufferSize > 0 && channel.supportedOptions().contains(option)) {
+            channel.setOption(option, bufferSize);
+        }
+    }
+
+    /**
+     * The {@link AcceptHandler} accepts the connections in an event loop and registers them in the {@link Reactor}.
+     */
+    private class AcceptHandler implements ChannelHandler {
+        private Reactor reactor;
+        private Consumer<ServerRequestHandler> requestConsumer;
+        private SelectionKey selectionKey;
+
+        AcceptHandler(Reactor reactor, Consumer<ServerRequestHandler> requestConsumer) {
+            this.reactor = reactor;
+            this.requestConsumer = requestConsumer;
+        }
+
+        @Override
+        public void registered(EventLoop eventLoop, SelectionKey selectionKey) {
+            this.selectionKey = selectionKey;
+        }
+
+        @Override
+        public void handle(SelectionKey selectionKey) throws IOException {
+            SocketChannel connectedChannel;
+            while ((connectedChannel = welcomeChannel.accept()) != null) {
+                connectedChannel.configureBlocking(false);
+                configure(connectedChannel);
+                reactor.register(
+                        connectedChannel, SelectionKey.OP_READ,
+                        new TCPReactorConnection(
+                                connectedChannel, requestConsumer, newCreditWindow(),
+                                TimeUnit.MICROSECONDS.toNanos(portProfile.getFlushDelay()),
+                                portProfile.getMaxMessageSize()
+                        )
+                );
+            }
+        }
 
+        @Override
+        public void close() {
+            // The welcome channel stays open to be registered again
+            if (selectionKey != null) {
+                selectionKey.cancel();
+            }
+        }
     }
 }
@@ -1,94 +1,376 @@
 package esm.infrastructure.impl.tcp;
 
+import esm.infrastructure.MultiplexedServerRequestHandler;
 import esm.infrastructure.ServerRequestHandler;
+import esm.infrastructure.nio.CreditWindow;
+import esm.infrastructure.nio.FrameDecoder;
+import esm.infrastructure.nio.FrameEncoder;
+import esm.util.buffer.BufferArena;
+import esm.util.buffer.ChunkInputStream;
+import esm.util.buffer.PooledBuffer;
+import esm.util.buffer.PooledBufferOutputStream;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.net.Socket;
+import java.io.StreamCorruptedException;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
 /**
- * TCP implementation of the {@link ServerRequestHandler} interface.
+ * TCP implementation of the {@link ServerRequestHandler} interface. This handler is persistent, after each reply it
+ * can receive the next request of the same {@link esm.infrastructure.ClientRequestHandler}. The requests can also be
+ * received as exchanges with {@link #receiveExchange()}, so the requests multiplexed in the connection are replied
+ * concurrently. When disconnected with exchanges in execution, the connection stops receiving requests and is closed
+ * after the last exchange finishes. The frames are read and written by a {@link FrameDecoder} and a
+ * {@link FrameEncoder} in a blocking {@link SocketChannel}, the request and reply data are kept in
+ * {@link PooledBuffer}s. The exchanges are limited by a {@link CreditWindow}, while it is exhausted the next request is
+ * not read, and its credits are granted to the clients that ask them. The request messages larger than the max message
+ * size fail the connection, the frames are rejected before their data is allocated.
+ * <p>
+ * The requests sent in chunks are received as exchanges when the first chunk arrives, the next chunks are added to the
+ * exchange stream by the thread that receives the exchanges, waiting while the stream is full, so the memory of each
+ * request is bounded. The credits count the first chunk of the requests, and the window does not stop the chunks of
+ * the requests already received. The requests received with {@link #receiveBuffer()} are assembled from the chunks.
  *
  * @author Pedro Henrique
  */
-public class TCPServerRequestHandler implements ServerRequestHandler {
+public class TCPServerRequestHandler implements MultiplexedServerRequestHandler, TCPExchangeHandler.Connection {
 
     /**
-     * The connected socket.
+     * The connected channel.
      */
-    private Socket connectedSocket;
+    private SocketChannel connectedChannel;
 
     /**
-     * The socket input stream.
+     * The decoder of the request frames.
      */
-    private DataInputStream dataInputStream;
+    private FrameDecoder frameDecoder;
 
     /**
-     * The socket output stream.
+     * The encoder of the reply frames.
      */
-    private DataOutputStream dataOutputStream;
+    private FrameEncoder frameEncoder;
 
     /**
      * The connection state of this ServerRequestHandler.
      */
-    private boolean connected;
+    private volatile boolean connected;
 
     /**
-     * Indicates if this ServerRequestHandler already was received bytes.
+     * Indicates if this ServerRequestHandler received a request that was not replied yet.
      */
     private boolean received;
 
     /**
-     * Creates a new TCPServerRequestHandler with the connected socket.
+     * The correlation identifier of the last request received with {@link #receive()}.
+     */
+    private long correlationId;
+
+    /**
+     * The number of exchanges received and not finished yet.
+     */
+    private int pendingExchanges;
+
+    /**
+     * The credits of the exchanges.
+     */
+    private CreditWindow creditWindow;
+
+    /**
+     * Indicates if the client asked the credits, so the credits of the exchanges finished without reply are granted.
+     */
+    private volatile boolean creditGranted;
+
+    /**
+     * The streams of the exchanges whose last chunk was not received yet, mapped by the correlation identifier.
+     */
+    private Map<Long, ChunkInputStream> receivingStreams;
+
+    /**
+     * The max size of the request messages.
+     */
+    private int maxMessageSize;
+
+    /**
+     * Creates a new TCPServerRequestHandler with the connected blocking channel.
      *
-     * @param connectedSocket the connected socket.
+     * @param connectedChannel the connected channel.
+     * @param creditWindow     the credits of the exchanges
+     * @param maxMessageSize   the max size of the request messages, the larger messages fail the connection
      * @throws IOException if an I/O exception of some sort has occurred
      */
-    TCPServerRequestHandler(Socket connectedSocket) throws IOException {
-        this.connectedSocket = Objects.requireNonNull(connectedSocket, "The connected socket can not be null.");
-        dataInputStream = new DataInputStream(connectedSocket.getInputStream());
-        dataOutputStream = new DataOutputStream(connectedSocket.getOutputStream());
+    TCPServerRequestHandler(SocketChannel connectedChannel, CreditWindow creditWindow, int maxMessageSize)
+            throws IOException {
+        this.connectedChannel = Objects.requireNonNull(connectedChannel, "The connected channel can not be null.");
+        this.creditWindow = Objects.requireNonNull(creditWindow, "The credit window can not be null.");
+        this.maxMessageSize = maxMessageSize;
+        frameDecoder = new FrameDecoder(maxMessageSize);
+        frameEncoder = new FrameEncoder();
         connected = true;
         received = false;
+        pendingExchanges = 0;
+        creditGranted = false;
+        receivingStreams = new HashMap<>();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
     }
 
     @Override
     public byte[] receive() throws IOException {
+        PooledBuffer requestData = receiveBuffer();
+        try {
+            return requestData.toByteArray();
+        } finally {
+            requestData.release();
+        }
+    }
+
+    @Override
+    public PooledBuffer receiveBuffer() throws IOException {
         if (!connected) {
             throw new IllegalStateException("This ServerRequestHandler is disconnected.");
-        } else if (received) {
-            throw new IllegalStateException("This ServerRequestHandler already was received data.");
         }
-        received = true;
-        byte[] data = new byte[dataInputStream.readInt()];
-        dataInputStream.read(data, 0, data.length);
-        return data;
+        received = false;
+        readFrame(false);
+        correlationId = frameDecoder.getFrameCorrelationId();
+        if (frameDecoder.isFrameLast()) {
+            received = true;
+            return frameDecoder.getFrameData();
+        }
+        try (PooledBufferOutputStream assembledStream = new PooledBufferOutputStream(2 * FrameEncoder.CHUNK_SIZE)) {
+            long assembledSize = 0;
+            while (true) {
+                PooledBuffer chunk = frameDecoder.getFrameData();
+                try {
+                    assembledSize += chunk.buffer().remaining();
+                    checkMessageSize(assembledSize);
+                    assembledStream.write(chunk);
+                } finally {
+                    chunk.release();
+                }
+                if (frameDecoder.isFrameLast()) {
+                    break;
+                }
+                readFrame(false);
+                if (frameDecoder.getFrameCorrelationId() != correlationId) {
+                    throw new StreamCorruptedException("Interleaved chunks of " + correlationId + " and "
+                            + frameDecoder.getFrameCorrelationId() + ".");
+                }
+            }
+            received = true;
+            return assembledStream.toPooledBuffer();
+        }
     }
 
     @Override
-    public void send(byte[] data) throws IOException {
+    public ServerRequestHandler receiveExchange() throws IOException {
         if (!connected) {
             throw new IllegalStateException("This ServerRequestHandler is disconnected.");
-        } else if (!received) {
-            throw new IllegalStateException("This ServerRequestHandler was not received data yet.");
         }
+        try {
+            while (true) {
+                readFrame(true);
+                long frameCorrelationId = frameDecoder.getFrameCorrelationId();
+                ChunkInputStream receivingStream = receivingStreams.get(frameCorrelationId);
+                if (receivingStream != null) {
+                    PooledBuffer chunk = frameDecoder.getFrameData();
+                    try {
+                        checkMessageSize(receivingStream.getReceivedBytes() + chunk.buffer().remaining());
+                    } catch (IOException e) {
+                        chunk.release();
+                        throw e;
+                    }
+                    receivingStream.put(chunk);
+                    if (frameDecoder.isFrameLast()) {
+                        receivingStreams.remove(frameCorrelationId).finish();
+                    }
+                    continue;
+                }
+                synchronized (this) {
+                    pendingExchanges++;
+                }
+                TCPExchangeHandler exchangeHandler;
+                if (frameDecoder.isFrameLast()) {
+                    exchangeHandler = new TCPExchangeHandler(this, frameCorrelationId, frameDecoder.getFrameData());
+                } else {
+                    PooledBuffer chunk = frameDecoder.getFrameData();
+                    int requestSize = chunk.buffer().remaining();
+                    ChunkInputStream exchangeStream = new ChunkInputStream(TCPExchangeHandler.STREAM_CAPACITY);
+                    exchangeStream.put(chunk);
+                    receivingStreams.put(frameCorrelationId, exchangeStream);
+                    exchangeHandler = new TCPExchangeHandler(this, frameCorrelationId, exchangeStream, requestSize);
+                }
+                creditWindow.add(exchangeHandler.getRequestSize());
+                return exchangeHandler;
+            }
+        } catch (IOException e) {
+            for (ChunkInputStream receivingStream : receivingStreams.values()) {
+                receivingStream.fail(e);
+            }
+            receivingStreams.clear();
+            throw e;
+        }
+    }
+
+    @Override
+    public void send(byte[] data) throws IOException {
+        sendBuffer(BufferArena.getInstance().copyOf(data));
+    }
+
+    @Override
+    public void sendBuffer(PooledBuffer data) throws IOException {
         Objects.requireNonNull(data, "The data to send can not be null.");
-        dataOutputStream.writeInt(data.length);
-        dataOutputStream.write(data, 0, data.length);
-        dataOutputStream.flush();
-        disconnect();
+        try {
+            if (!connected) {
+                throw new IllegalStateException("This ServerRequestHandler is disconnected.");
+            } else if (!received) {
+                throw new IllegalStateException("This ServerRequestHandler was not received data yet.");
+            }
+            received = false;
+            frameEncoder.write(connectedChannel, correlationId, data);
+        } finally {
+            data.release();
+        }
+    }
+
+    @Override
+    public void reply(long correlationId, int requestSize, PooledBuffer data) throws IOException {
+        try {
+            frameEncoder.write(connectedChannel, correlationId, data);
+        } finally {
+            data.release();
+            creditWindow.release(requestSize);
+            finishExchange();
+        }
+    }
+
+    @Override
+    public void replyChunk(long correlationId, PooledBuffer data) throws IOException {
+        try {
+            frameEncoder.writeChunk(connectedChannel, correlationId, data, false);
+        } finally {
+            data.release();
+        }
     }
 
     @Override
-    public void disconnect() throws IOException {
+    public void finish(long correlationId, int requestSize) {
+        PooledBuffer credit = creditWindow.grant(requestSize);
+        try {
+            if (credit != null && creditGranted && connected) {
+                frameEncoder.write(connectedChannel, CreditWindow.CREDIT_CORRELATION_ID, credit);
+            }
+        } catch (IOException e) {
+            // The connection was closed, the reader fails with the next read
+        } finally {
+            if (credit != null) {
+                credit.release();
+            }
+            finishExchange();
+        }
+    }
+
+    @Override
+    public synchronized void disconnect() throws IOException {
         if (!connected) {
             throw new IllegalStateException("The ServerRequestHandler is already disconnected.");
         }
         connected = false;
-        dataOutputStream.close();
-        dataInputStream.close();
-        connectedSocket.close();
+        creditWindow.close();
+        if (pendingExchanges == 0) {
+            connectedChannel.close();
+        } else {
+            connectedChannel.shutdownInput();
+        }
+    }
+
+    /**
+     * Counts a finished exchange, if the handler was disconnected and it was the last exchange, closes the channel.
+     */
+    private synchronized void finishExchange() {
+        pendingExchanges--;
+        if (!connected && pendingExchanges == 0) {
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Reads the next request frame, the credit requests are replied with the window and skipped. If the connection
+     * fails, the decoder buffers are returned to the arena. The exchange frames that start a new request wait until the
+     * credit window has credit, only the chunks of the streams being received are read while it is exhausted, because
+     * their requests already have credit.
+     *
+     * @param exchange if the frame is read by {@link #receiveExchange()}
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private void readFrame(boolean exchange) throws IOException {
+        try {
+            while (true) {
+                if (exchange && creditWindow.isExhausted()) {
+                    while (!frameDecoder.decodeHeader()) {
+                        if (frameDecoder.readFrom(connectedChannel) < 0) {
+                            throw new EOFException();
+                        }
+                    }
+                    long nextCorrelationId = frameDecoder.getNextCorrelationId();
+                    if (nextCorrelationId != CreditWindow.CREDIT_CORRELATION_ID
+                            && !receivingStreams.containsKey(nextCorrelationId)) {
+                        creditWindow.awaitCredit();
+                    }
+                }
+                while (!frameDecoder.decode()) {
+                    if (frameDecoder.readFrom(connectedChannel) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                if (frameDecoder.getFrameCorrelationId() != CreditWindow.CREDIT_CORRELATION_ID) {
+                    return;
+                }
+                creditGranted = true;
+                PooledBuffer window = creditWindow.grantWindow();
+                try {
+                    frameEncoder.write(connectedChannel, CreditWindow.CREDIT_CORRELATION_ID, window);
+                } finally {
+                    window.release();
+                }
+            }
+        } catch (IOException e) {
+            frameDecoder.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks the size of a request message received in chunks.
+     *
+     * @param messageSize the size of the received chunks of the message
+     * @throws StreamCorruptedException if the message exceeds the max message size
+     */
+    private void checkMessageSize(long messageSize) throws StreamCorruptedException {
+        if (messageSize > maxMessageSize) {
+            throw new StreamCorruptedException("The message size " + messageSize + " exceeds the max of "
+                    + maxMessageSize + ".");
+        }
+    }
+
+    /**
+     * Closes the channel ignoring the connection errors.
+     */
+    private void closeQuietly() {
+        try {
+            connectedChannel.close();
+        } catch (IOException e) {
+            // The connection is being closed
+        }
     }
 }
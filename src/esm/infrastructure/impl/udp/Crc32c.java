@@ -0,0 +1,52 @@
+package esm.infrastructure.impl.udp;
+
+/**
+ * Computes the CRC32C (Castagnoli) checksum of the datagrams. The Java 8 runtime has no CRC32C implementation, the
+ * checksum is computed with a lookup table of the reflected polynomial.
+ *
+ * @author Pedro Henrique
+ */
+final class Crc32c {
+
+    /**
+     * The reflected Castagnoli polynomial.
+     */
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    /**
+     * The checksum of each byte value.
+     */
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < TABLE.length; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLE[i] = crc;
+        }
+    }
+
+    /**
+     * Prevents instantiation.
+     */
+    private Crc32c() {
+    }
+
+    /**
+     * Computes the checksum of the bytes of the array.
+     *
+     * @param data   the array
+     * @param offset the offset of the first byte
+     * @param length the number of bytes
+     * @return the checksum
+     */
+    static int checksum(byte[] data, int offset, int length) {
+        int crc = ~0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ data[i]) & 0xFF];
+        }
+        return ~crc;
+    }
+}
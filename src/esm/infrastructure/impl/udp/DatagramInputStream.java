@@ -1,114 +1,94 @@
 package esm.infrastructure.impl.udp;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
 import java.util.Objects;
 
 /**
- * Extends the {@link InputStream} using a {@link DatagramSocket} and {@link DatagramPacket}s to receive info from the
- * sender DatagramSocket.
+ * Extends the {@link InputStream} using a {@link ReliableDatagramEndpoint} to receive info from the sender
+ * DatagramSocket, the datagrams are received in order, without losses. The data is read straight from the reassembly
+ * buffer of the endpoint, without intermediate copies.
  *
  * @author Pedro Henrique
  */
 class DatagramInputStream extends InputStream {
 
     /**
-     * The connected udp socket.
+     * The size of the array of the skipped bytes.
      */
-    private DatagramSocket connectedSocket;
+    private static final int SKIP_BUFFER_SIZE = 1024;
 
-    /**
-     * The expected connected socket address.
-     */
-    private InetAddress expectedConnectedAddress;
+    //
 
     /**
-     * The expected connected socket port.
+     * The endpoint of the connection.
      */
-    private int expectedConnectedPort;
+    private ReliableDatagramEndpoint endpoint;
 
     /**
-     * The datagram byte stream.
+     * The array of the single byte reads.
      */
-    private ByteArrayOutputStream byteArrayOutputStream;
+    private byte[] singleByte;
 
     /**
-     * The max packet size.
+     * The array of the skipped bytes, null until the first skip.
      */
-    private static final int MAX_DATAGRAM_SIZE = 2048;
+    private byte[] skipBuffer;
 
     /**
-     * Creates the DatagramInputStream with the received udp socket. This constructor limits the receives only of the
-     * socket of the received address and port.
+     * Creates the DatagramInputStream with the endpoint of the connection.
      *
-     * @param connectedSocket          the connected udp socket
-     * @param expectedConnectedAddress the expected connected address of the data sender socket, if null received from
-     *                                 any address
-     * @param expectedConnectedPort    the expected connected port of the data sender socket, if <= 0 receives from any
-     *                                 port
+     * @param endpoint the endpoint of the connection
      */
-    public DatagramInputStream(DatagramSocket connectedSocket, InetAddress expectedConnectedAddress, int expectedConnectedPort) {
-        this.connectedSocket = connectedSocket;
-        this.expectedConnectedAddress
-                = Objects.requireNonNull(expectedConnectedAddress, "The expected address can not be null.");
-        this.expectedConnectedPort = expectedConnectedPort;
-        byteArrayOutputStream = new ByteArrayOutputStream(1024);
+    public DatagramInputStream(ReliableDatagramEndpoint endpoint) {
+        this.endpoint = Objects.requireNonNull(endpoint, "The endpoint can not be null.");
+        singleByte = new byte[1];
+        skipBuffer = null;
     }
 
     @Override
     public int read() throws IOException {
-        readToEnsureSize(1);
-        byte[] readByte = new byte[1];
-        extractFromBuffer(readByte, 0, 1);
-        return readByte[0];
+        readFully(singleByte, 0, 1);
+        return singleByte[0] & 0xFF;
     }
 
     @Override
     public int read(byte[] b) throws IOException {
-        readToEnsureSize(b.length);
-        extractFromBuffer(b, 0, b.length);
+        readFully(b, 0, b.length);
         return b.length;
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        readToEnsureSize(len);
-        extractFromBuffer(b, off, len);
+        readFully(b, off, len);
         return len;
     }
 
     @Override
     public long skip(long n) throws IOException {
-        readToEnsureSize((int) n);
-        read(new byte[(int) n]);
-        return n;
-    }
-
-    private void readToEnsureSize(int size) throws IOException {
-        while (byteArrayOutputStream.size() < size) {
-            DatagramPacket receivedPacket = new DatagramPacket(new byte[MAX_DATAGRAM_SIZE], MAX_DATAGRAM_SIZE);
-            connectedSocket.receive(receivedPacket);
-            if ((expectedConnectedAddress == null || expectedConnectedAddress.equals(receivedPacket.getAddress()))
-                    && expectedConnectedPort <= 0 || expectedConnectedPort == receivedPacket.getPort()) {
-                byteArrayOutputStream.write(receivedPacket.getData(), 0, receivedPacket.getLength());
-            }
+        if (skipBuffer == null) {
+            skipBuffer = new byte[SKIP_BUFFER_SIZE];
         }
+        for (long skipped = 0; skipped < n; ) {
+            skipped += endpoint.receive(skipBuffer, 0, (int) Math.min(SKIP_BUFFER_SIZE, n - skipped));
+        }
+        return Math.max(0, n);
     }
 
-    private void extractFromBuffer(byte[] buffer, int offset, int length) throws IOException {
-        if (buffer.length < offset + length) {
+    /**
+     * Reads the bytes to the array, waiting until all of them are received.
+     *
+     * @param buffer the array that receives the bytes
+     * @param offset the offset of the bytes in the array
+     * @param length the number of bytes
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private void readFully(byte[] buffer, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || buffer.length < offset + length) {
             throw new IllegalArgumentException("Illegal buffer size.");
         }
-        byte[] bytesOfStream = byteArrayOutputStream.toByteArray();
-        byteArrayOutputStream.reset();
-        System.arraycopy(bytesOfStream, 0, buffer, offset, length);
-        int overlapedLength = bytesOfStream.length - length;
-        if (overlapedLength > 0) {
-            byteArrayOutputStream.write(bytesOfStream, length, overlapedLength);
+        for (int read = 0; read < length; ) {
+            read += endpoint.receive(buffer, offset + read, length - read);
         }
     }
 }
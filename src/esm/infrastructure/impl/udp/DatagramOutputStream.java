@@ -1,86 +1,88 @@
 package esm.infrastructure.impl.udp;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
- * Extends the {@link OutputStream} using a {@link DatagramSocket} and {@link DatagramPacket}s to send info to the
- * receiver DatagramSocket.
+ * Extends the {@link OutputStream} using a {@link ReliableDatagramEndpoint} to send info to the receiver
+ * DatagramSocket, each flush waits the receiver to acknowledge the datagrams. The written bytes are kept in an array
+ * reused by each flush, the array doubles its capacity when a write does not fit.
  *
  * @author Pedro Henrique
  */
 class DatagramOutputStream extends OutputStream {
 
     /**
-     * The udp socket.
+     * The initial capacity of the array of the written bytes.
      */
-    private DatagramSocket connectedSocket;
+    private static final int INITIAL_CAPACITY = 1024;
 
-    /**
-     * The connected address.
-     */
-    private InetAddress connectedAddress;
+    //
 
     /**
-     * The connected port.
+     * The endpoint of the connection.
      */
-    private int connectedPort;
+    private ReliableDatagramEndpoint endpoint;
 
     /**
-     * The datagram byte stream.
+     * The array of the written bytes.
      */
-    private ByteArrayOutputStream byteArrayOutputStream;
+    private byte[] buffer;
 
     /**
-     * The max packet size.
+     * The number of written bytes.
      */
-    private static final int MAX_DATAGRAM_SIZE = 2048;
+    private int count;
 
     /**
-     * Creates the OutputStream with the received socket, address and port.
+     * Creates the OutputStream with the endpoint of the connection.
      *
-     * @param connectedSocket  the connected udp socket
-     * @param connectedAddress the connected address
-     * @param connectedPort    the connected port
+     * @param endpoint the endpoint of the connection
      */
-    public DatagramOutputStream(DatagramSocket connectedSocket, InetAddress connectedAddress, int connectedPort) {
-        this.connectedSocket = connectedSocket;
-        this.connectedAddress = Objects.requireNonNull(connectedAddress, "The connected address can not be null.");
-        this.connectedPort = connectedPort;
-        byteArrayOutputStream = new ByteArrayOutputStream(1024);
+    public DatagramOutputStream(ReliableDatagramEndpoint endpoint) {
+        this.endpoint = Objects.requireNonNull(endpoint, "The endpoint can not be null.");
+        buffer = new byte[INITIAL_CAPACITY];
+        count = 0;
     }
 
     @Override
     public void write(int b) throws IOException {
-        byteArrayOutputStream.write(b);
+        ensureCapacity(count + 1);
+        buffer[count++] = (byte) b;
     }
 
     @Override
     public void write(byte[] b) throws IOException {
-        byteArrayOutputStream.write(b);
+        write(b, 0, b.length);
     }
 
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
-        byteArrayOutputStream.write(b, off, len);
+        if (off < 0 || len < 0 || b.length < off + len) {
+            throw new IndexOutOfBoundsException("Illegal buffer size.");
+        }
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
     }
 
     @Override
     public void flush() throws IOException {
-        byte[] bufferedData = byteArrayOutputStream.toByteArray();
-        byteArrayOutputStream.reset();
-        for (int i = 0; i < bufferedData.length; i += MAX_DATAGRAM_SIZE) {
-            int packetDataLength = Math.min(MAX_DATAGRAM_SIZE, bufferedData.length - i);
-            byte[] packetData = new byte[packetDataLength];
-            System.arraycopy(bufferedData, 0, packetData, 0, packetDataLength);
-            DatagramPacket sendPacket
-                    = new DatagramPacket(packetData, packetDataLength, connectedAddress, connectedPort);
-            connectedSocket.send(sendPacket);
+        int length = count;
+        count = 0;
+        endpoint.send(buffer, 0, length);
+    }
+
+    /**
+     * Ensures the array of the written bytes has the capacity, doubling it until the capacity fits.
+     *
+     * @param capacity the min capacity
+     */
+    private void ensureCapacity(int capacity) {
+        if (buffer.length < capacity) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length << 1));
         }
     }
 }
@@ -0,0 +1,246 @@
+package esm.infrastructure.impl.udp;
+
+import java.util.Arrays;
+
+/**
+ * Reassembles the data of the datagrams received by a {@link ReliableDatagramEndpoint} into an ordered byte stream,
+ * without allocating per datagram. The data received in order is copied to a ring of bytes, read by the
+ * {@link DatagramInputStream}, the ring doubles its capacity when a write does not fit, so the capacity follows the
+ * largest data not read. The datagrams received after a lost one are copied to a ring of slots, one for each sequence
+ * number of the receive window, and are moved to the ring of bytes when the lost datagram arrives. The slot arrays are
+ * allocated when first used and reused by the next sequence numbers of the slot.
+ * <p>
+ * The slots received are kept in a bitmap, the bit i is set if the datagram of sequence number next + 1 + i was
+ * received, that is also the selective acknowledgement sent to the peer.
+ *
+ * @author Pedro Henrique
+ */
+final class ReassemblyBuffer {
+
+    /**
+     * The initial capacity of the ring of bytes.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    //
+
+    /**
+     * The number of slots, a power of two not larger than {@link Long#SIZE}.
+     */
+    private int windowSize;
+
+    /**
+     * The max length of the data of each slot.
+     */
+    private int slotCapacity;
+
+    /**
+     * The ring of bytes with the data received in order and not read yet, null if not allocated yet.
+     */
+    private byte[] ring;
+
+    /**
+     * The position of the next byte read in the ring.
+     */
+    private int readPosition;
+
+    /**
+     * The number of bytes in the ring.
+     */
+    private int size;
+
+    /**
+     * The slot arrays of the data received after the next expected datagram, indexed by the sequence number modulo
+     * the window size, the arrays are null until first used.
+     */
+    private byte[][] slots;
+
+    /**
+     * The length of the data of each slot.
+     */
+    private int[] slotLengths;
+
+    /**
+     * The slots received, the bit i is set if the datagram of sequence number next + 1 + i was received.
+     */
+    private long receivedSlots;
+
+    /**
+     * The sequence number of the next datagram expected.
+     */
+    private int nextSequence;
+
+    /**
+     * Creates the empty buffer that expects the sequence number zero.
+     *
+     * @param windowSize   the number of datagrams kept after the next expected one, a power of two not larger than
+     *                     {@link Long#SIZE}
+     * @param slotCapacity the max length of the data of each datagram
+     */
+    ReassemblyBuffer(int windowSize, int slotCapacity) {
+        if (windowSize <= 0 || windowSize > Long.SIZE || Integer.bitCount(windowSize) != 1) {
+            throw new IllegalArgumentException("The window size should be a power of two up to " + Long.SIZE + ".");
+        } else if (slotCapacity <= 0) {
+            throw new IllegalArgumentException("The slot capacity should be positive.");
+        }
+        this.windowSize = windowSize;
+        this.slotCapacity = slotCapacity;
+        ring = null;
+        readPosition = 0;
+        size = 0;
+        slots = new byte[windowSize][];
+        slotLengths = new int[windowSize];
+        receivedSlots = 0;
+        nextSequence = 0;
+    }
+
+    /**
+     * Returns the sequence number of the next datagram expected.
+     *
+     * @return the next sequence number
+     */
+    int getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Returns the bitmap of the datagrams received after the next expected one.
+     *
+     * @return the selective acknowledgement
+     */
+    long getSelectiveAcknowledgement() {
+        return receivedSlots;
+    }
+
+    /**
+     * Returns the number of bytes received in order and not read yet.
+     *
+     * @return the available bytes
+     */
+    int available() {
+        return size;
+    }
+
+    /**
+     * Appends the data of the next expected datagram, followed by the data of the datagrams received after it that
+     * became in order.
+     *
+     * @param data   the array with the data
+     * @param offset the offset of the data
+     * @param length the data length
+     * @return true if datagrams received after the next expected one became in order
+     */
+    boolean append(byte[] data, int offset, int length) {
+        write(data, offset, length);
+        nextSequence++;
+        boolean filled = (receivedSlots & 1) != 0;
+        while ((receivedSlots & 1) != 0) {
+            int slot = nextSequence & (windowSize - 1);
+            write(slots[slot], 0, slotLengths[slot]);
+            nextSequence++;
+            receivedSlots >>>= 1;
+        }
+        receivedSlots >>>= 1;
+        return filled;
+    }
+
+    /**
+     * Keeps the data of a datagram received after the next expected one, the data of a datagram already kept is
+     * ignored.
+     *
+     * @param sequence the datagram sequence number, between next + 1 and next + window size
+     * @param data     the array with the data
+     * @param offset   the offset of the data
+     * @param length   the data length, not larger than the slot capacity
+     */
+    void store(int sequence, byte[] data, int offset, int length) {
+        int distance = sequence - nextSequence;
+        if (distance <= 0 || distance > windowSize) {
+            throw new IllegalArgumentException("The sequence number is out of the window.");
+        } else if (length > slotCapacity) {
+            throw new IllegalArgumentException("The data is larger than the slot capacity.");
+        }
+        long bit = 1L << (distance - 1);
+        if ((receivedSlots & bit) != 0) {
+            return;
+        }
+        int slot = sequence & (windowSize - 1);
+        if (slots[slot] == null) {
+            slots[slot] = new byte[slotCapacity];
+        }
+        System.arraycopy(data, offset, slots[slot], 0, length);
+        slotLengths[slot] = length;
+        receivedSlots |= bit;
+    }
+
+    /**
+     * Reads the data received in order to the array.
+     *
+     * @param buffer the array that receives the data
+     * @param offset the offset of the data in the array
+     * @param length the max number of bytes read
+     * @return the number of bytes read, zero if no data is available
+     */
+    int read(byte[] buffer, int offset, int length) {
+        int readLength = Math.min(length, size);
+        if (readLength <= 0) {
+            return 0;
+        }
+        int firstLength = Math.min(readLength, ring.length - readPosition);
+        System.arraycopy(ring, readPosition, buffer, offset, firstLength);
+        System.arraycopy(ring, 0, buffer, offset + firstLength, readLength - firstLength);
+        readPosition = (readPosition + readLength) & (ring.length - 1);
+        size -= readLength;
+        return readLength;
+    }
+
+    /**
+     * Discards the data received and frees the arrays, the next sequence number is kept, so the datagrams received
+     * after it are still acknowledged.
+     */
+    void clear() {
+        ring = null;
+        readPosition = 0;
+        size = 0;
+        Arrays.fill(slots, null);
+        receivedSlots = 0;
+    }
+
+    /**
+     * Writes the data at the end of the ring of bytes, doubling the ring capacity if the data does not fit.
+     *
+     * @param data   the array with the data
+     * @param offset the offset of the data
+     * @param length the data length
+     */
+    private void write(byte[] data, int offset, int length) {
+        ensureCapacity(size + length);
+        int writePosition = (readPosition + size) & (ring.length - 1);
+        int firstLength = Math.min(length, ring.length - writePosition);
+        System.arraycopy(data, offset, ring, writePosition, firstLength);
+        System.arraycopy(data, offset + firstLength, ring, 0, length - firstLength);
+        size += length;
+    }
+
+    /**
+     * Ensures the ring of bytes has the capacity, moving the bytes not read to the start of a larger ring, the
+     * capacity is a power of two.
+     *
+     * @param capacity the min capacity
+     */
+    private void ensureCapacity(int capacity) {
+        if (ring != null && ring.length >= capacity) {
+            return;
+        }
+        int newCapacity = ring != null ? ring.length : INITIAL_CAPACITY;
+        while (newCapacity < capacity) {
+            newCapacity <<= 1;
+        }
+        byte[] newRing = new byte[newCapacity];
+        int ringSize = size;
+        read(newRing, 0, ringSize);
+        ring = newRing;
+        readPosition = 0;
+        size = ringSize;
+    }
+}
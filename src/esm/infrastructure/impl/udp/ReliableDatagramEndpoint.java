@@ -0,0 +1,1558 @@
+package esm.infrastructure.impl.udp;
+
+import esm.infrastructure.nio.EventLoop;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exchanges data with a peer {@link DatagramSocket} reliably and in order, used by the {@link DatagramInputStream} and
+ * the {@link DatagramOutputStream} of a UDP connection or request. The data is split into datagrams numbered by
+ * sequence numbers and checked by a CRC32C checksum, the corrupted datagrams are dropped as the lost ones. The
+ * receiver delivers the data in order, keeping the datagrams received after a lost one, and acknowledges the received
+ * datagrams with the next expected sequence number and a selective acknowledgement of the datagrams received after it.
+ * The sender keeps a window of unacknowledged datagrams, retransmitting them when the retransmission timeout expires,
+ * or when the acknowledgements of later datagrams show that they were lost. The timeout follows the measured round
+ * trip time.
+ * <p>
+ * The datagrams in flight are limited by a congestion window, with additive increase and multiplicative decrease. The
+ * window starts with {@link #INITIAL_CONGESTION_WINDOW} datagrams, so the small data is sent in a single burst, grows
+ * with each acknowledged datagram, and is halved when a loss is detected. The datagrams of the window are paced over
+ * the smoothed round trip time, so the large data arrives close to the link speed without overrunning the receive
+ * buffer of the peer.
+ * <p>
+ * The datagrams have the header below, in network byte order, the checksum covers the datagram after it:
+ * <pre>
+ * checksum (int) | type (byte) | flags (byte) | request id (int) | sequence (int) | acknowledgement (int)
+ * </pre>
+ * The request id identifies the connectionless requests and the connections sent to the port of the server, the
+ * datagrams of other requests are ignored, it is zero in the connections with their own server socket.
+ * The acknowledgement is the sequence number of the next data datagram expected by the sender, so the data datagrams
+ * also acknowledge the data of the peer, as the reply acknowledges the request. The data datagrams carry the data after
+ * the header, the last datagram of each send is pushed, so it is acknowledged immediately. The acknowledgement
+ * datagrams carry the selective acknowledgement (long) after the header, the bit i is set if the datagram of sequence
+ * number acknowledgement + 1 + i was received. The
+ * connection datagrams, without data, open the connections, see {@link #connect(DatagramSocket, InetAddress, int)}.
+ * The close datagrams, without data, end the exchange, see {@link #closeGracefully()}.
+ * The connectionless requests are sent straight to the port of the server, the server demultiplexes the datagrams of
+ * its port, delivering them to the endpoint of each request, see {@link #deliver(byte[], int)}. The server that
+ * receives its port in an {@link EventLoop} processes the datagrams of each request in the event loop instead, see
+ * {@link #assemble(byte[], int)}, so only the complete requests are handed to the threads that process them, and the
+ * replies are sent and retransmitted by the event loop without blocking those threads.
+ * <p>
+ * The datagrams are not allocated per send or receive. The sent datagrams are written in a ring of slots, one for each
+ * sequence number of the window, and the received data is reassembled by a {@link ReassemblyBuffer}, the
+ * acknowledgements and the packets of the socket are reused.
+ * <p>
+ * The endpoint is used by one thread at a time, the data received while sending is kept for the next receive. The
+ * endpoints processed by an event loop are used by it, except the complete request read by the thread that processes
+ * it.
+ * <p>
+ * The acknowledgement of the last data exchanged is confirmed by a close handshake. The endpoint that closes with its
+ * own socket sends close datagrams, that also acknowledge all the data received, until the peer answers with a close
+ * acknowledgement or also closes, acknowledging again the data the peer retransmits meanwhile. So the peer that sent
+ * the last data stops retransmitting it when the acknowledgement is lost. The endpoints closed in the port of the
+ * server answer the close datagrams while the server remembers them. If the peer is silent for
+ * {@link #MAX_CLOSE_ATTEMPTS} close datagrams, the endpoint closes anyway, its data was already acknowledged.
+ *
+ * @author Pedro Henrique
+ */
+final class ReliableDatagramEndpoint {
+
+    /**
+     * The max size of the datagrams.
+     */
+    static final int MAX_DATAGRAM_SIZE = 2048;
+
+    /**
+     * The size of the datagram header.
+     */
+    static final int HEADER_SIZE = Integer.BYTES + 2 + 3 * Integer.BYTES;
+
+    /**
+     * The max size of the data carried by each datagram.
+     */
+    static final int MAX_PAYLOAD_SIZE = MAX_DATAGRAM_SIZE - HEADER_SIZE;
+
+    /**
+     * The type of the data datagrams.
+     */
+    static final byte TYPE_DATA = 0;
+
+    /**
+     * The type of the acknowledgement datagrams.
+     */
+    static final byte TYPE_ACK = 1;
+
+    /**
+     * The type of the connection datagrams.
+     */
+    static final byte TYPE_CONNECT = 2;
+
+    /**
+     * The type of the close datagrams.
+     */
+    static final byte TYPE_CLOSE = 3;
+
+    /**
+     * The type of the close acknowledgement datagrams.
+     */
+    static final byte TYPE_CLOSE_ACK = 4;
+
+    /**
+     * The flag of the last data datagram of a send, acknowledged immediately.
+     */
+    private static final byte FLAG_PUSH = 0x01;
+
+    /**
+     * The max number of unacknowledged datagrams, also the number of datagrams kept by the receiver after a lost one.
+     */
+    private static final int WINDOW_SIZE = Long.SIZE;
+
+    /**
+     * The number of datagrams received in order that are acknowledged together, smaller than the min congestion
+     * window, so the sender does not wait the retransmission timeout for the acknowledgements.
+     */
+    private static final int ACK_INTERVAL = 2;
+
+    /**
+     * The number of datagrams acknowledged after an unacknowledged one that makes it retransmitted before its timeout.
+     */
+    private static final int FAST_RETRANSMIT_THRESHOLD = 3;
+
+    /**
+     * The congestion window in datagrams of the new endpoints, the small data is sent in a single burst.
+     */
+    private static final int INITIAL_CONGESTION_WINDOW = 10;
+
+    /**
+     * The min congestion window in datagrams, large enough for the losses to be detected by the acknowledgements of
+     * the later datagrams instead of the retransmission timeout.
+     */
+    private static final int MIN_CONGESTION_WINDOW = FAST_RETRANSMIT_THRESHOLD + 1;
+
+    /**
+     * The factor of the pacing rate over the congestion window per round trip while the window is in slow start, so
+     * the pacing does not limit the growth of the window.
+     */
+    private static final double SLOW_START_PACING_GAIN = 2;
+
+    /**
+     * The factor of the pacing rate over the congestion window per round trip after the slow start.
+     */
+    private static final double PACING_GAIN = 1.25;
+
+    /**
+     * The max time in nanoseconds that the pacing catches up after a late wakeup, the timeouts of the socket and of the
+     * event loop have a granularity of one millisecond.
+     */
+    private static final long MAX_PACING_LAG = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The max number of retransmissions of a datagram, after them the peer is considered unreachable.
+     */
+    private static final int MAX_RETRANSMISSIONS = 10;
+
+    /**
+     * The max number of close datagrams sent by the endpoint that closes, without receiving datagrams of the peer,
+     * before it closes without the answer of the peer.
+     */
+    private static final int MAX_CLOSE_ATTEMPTS = 5;
+
+    /**
+     * The retransmission timeout in nanoseconds before the round trip time is measured.
+     */
+    private static final long INITIAL_RETRANSMISSION_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * The min retransmission timeout in nanoseconds.
+     */
+    private static final long MIN_RETRANSMISSION_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * The max retransmission timeout in nanoseconds.
+     */
+    private static final long MAX_RETRANSMISSION_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(2000);
+
+    /**
+     * The position of the type in the datagrams.
+     */
+    private static final int TYPE_OFFSET = Integer.BYTES;
+
+    /**
+     * The position of the request id in the datagrams.
+     */
+    private static final int REQUEST_ID_OFFSET = TYPE_OFFSET + 2;
+
+    /**
+     * The position of the flags in the datagrams.
+     */
+    private static final int FLAGS_OFFSET = TYPE_OFFSET + 1;
+
+    /**
+     * The position of the sequence number in the datagrams.
+     */
+    private static final int SEQUENCE_OFFSET = REQUEST_ID_OFFSET + Integer.BYTES;
+
+    /**
+     * The position of the acknowledgement in the datagrams.
+     */
+    private static final int ACKNOWLEDGEMENT_OFFSET = SEQUENCE_OFFSET + Integer.BYTES;
+
+    /**
+     * The size of the acknowledgement datagrams.
+     */
+    private static final int ACKNOWLEDGEMENT_SIZE = HEADER_SIZE + Long.BYTES;
+
+    /**
+     * The max number of delivered datagrams not processed yet, the datagrams delivered after it are dropped as lost.
+     */
+    private static final int MAX_DELIVERED_DATAGRAMS = 2 * WINDOW_SIZE;
+
+    //
+
+    /**
+     * The connected socket, null if the datagrams are exchanged by the channel of the server port.
+     */
+    private DatagramSocket connectedSocket;
+
+    /**
+     * The channel of the server port, null if the datagrams are exchanged by the connected socket.
+     */
+    private DatagramChannel portChannel;
+
+    /**
+     * The peer address.
+     */
+    private InetAddress peerAddress;
+
+    /**
+     * The peer port.
+     */
+    private int peerPort;
+
+    /**
+     * The peer socket address, the destination of the datagrams sent by the channel of the server port.
+     */
+    private InetSocketAddress peerSocketAddress;
+
+    /**
+     * The request id of the datagrams.
+     */
+    private int requestId;
+
+    /**
+     * The datagrams delivered by the server that demultiplexes the datagrams of its port, null if the datagrams are
+     * received from the socket. The checksum of the delivered datagrams was checked by the server, its place keeps the
+     * datagram length.
+     */
+    private BlockingQueue<byte[]> deliveredDatagrams;
+
+    /**
+     * The arrays of the delivered datagrams already processed, reused by the next delivered datagrams, null if the
+     * datagrams are received from the socket.
+     */
+    private BlockingQueue<byte[]> freeDatagrams;
+
+    /**
+     * The event loop that processes the datagrams of the request, null if they are processed by the thread that uses
+     * the endpoint.
+     */
+    private EventLoop eventLoop;
+
+    /**
+     * The time in nanoseconds when the endpoint was closed, zero while open.
+     */
+    private volatile long closeTime;
+
+    /**
+     * The time in milliseconds that the receive waits the datagrams of the peer, zero to wait indefinitely.
+     */
+    private int idleTimeout;
+
+    /**
+     * The sequence number of the next data datagram sent.
+     */
+    private int nextSendSequence;
+
+    /**
+     * The array with the data being sent, null if all data was sent.
+     */
+    private byte[] sendData;
+
+    /**
+     * The position of the next data sent.
+     */
+    private int sendPosition;
+
+    /**
+     * The end of the data being sent.
+     */
+    private int sendEnd;
+
+    /**
+     * The data sent by the event loop after the data being sent.
+     */
+    private Queue<byte[]> queuedData;
+
+    /**
+     * The ring of the sent datagrams, indexed by the sequence number modulo the window size. The datagrams from the
+     * first unacknowledged one to the next sent one are in flight, the slots are created when first used and reused by
+     * the next sequence numbers of the slot.
+     */
+    private SentDatagram[] sentDatagrams;
+
+    /**
+     * The sequence number of the first data datagram sent and not acknowledged, equal to the next sent one if all
+     * datagrams were acknowledged.
+     */
+    private int firstUnacknowledgedSequence;
+
+    /**
+     * The congestion window in datagrams, the max number of datagrams in flight, not larger than the window size.
+     */
+    private double congestionWindow;
+
+    /**
+     * The congestion window in datagrams where the slow start ends.
+     */
+    private double slowStartThreshold;
+
+    /**
+     * The sequence number of the next data datagram sent when the congestion window was decreased, the losses of the
+     * datagrams sent before it do not decrease the window again.
+     */
+    private int recoverySequence;
+
+    /**
+     * The time in nanoseconds when the next data datagram can be sent by the pacing.
+     */
+    private long nextTransmissionTime;
+
+    /**
+     * The smoothed round trip time in nanoseconds, zero if not measured yet.
+     */
+    private long smoothedRoundTripTime;
+
+    /**
+     * The round trip time variation in nanoseconds.
+     */
+    private long roundTripTimeVariation;
+
+    /**
+     * The retransmission timeout in nanoseconds.
+     */
+    private long retransmissionTimeout;
+
+    /**
+     * The data received, in order and after the next expected datagram.
+     */
+    private ReassemblyBuffer reassemblyBuffer;
+
+    /**
+     * The number of datagrams received in order and not acknowledged yet.
+     */
+    private int unacknowledgedReceives;
+
+    /**
+     * The sequence number of the last pushed data datagram received, -1 if none was received.
+     */
+    private int pushedSequence;
+
+    /**
+     * The time in nanoseconds of the last datagram assembled by the event loop, zero if the request is not assembled by
+     * it.
+     */
+    private long assemblyTime;
+
+    /**
+     * Indicates if the request assembled by the event loop is complete.
+     */
+    private boolean assembled;
+
+    /**
+     * Indicates if the retransmission of the datagrams is scheduled in the event loop.
+     */
+    private boolean retransmissionScheduled;
+
+    /**
+     * Indicates if the transmission of the datagrams delayed by the pacing is scheduled in the event loop.
+     */
+    private boolean transmissionScheduled;
+
+    /**
+     * Indicates if the endpoint processed by the event loop is closed after the data being sent is acknowledged.
+     */
+    private boolean closing;
+
+    /**
+     * Indicates if the peer closed or acknowledged the close of the endpoint, the peer does not receive data anymore.
+     */
+    private boolean peerClosed;
+
+    /**
+     * Indicates if the last data of the peer is acknowledged by the close that follows its receive, instead of an
+     * acknowledgement datagram.
+     */
+    private boolean acknowledgedByClose;
+
+    /**
+     * The acknowledgement datagram, reused by each acknowledgement.
+     */
+    private byte[] acknowledgementDatagram;
+
+    /**
+     * The buffer of the acknowledgement datagram, sent by the channel of the server port.
+     */
+    private ByteBuffer acknowledgementBuffer;
+
+    /**
+     * The packet of the received datagrams, null if the datagrams are exchanged by the channel of the server port.
+     */
+    private DatagramPacket receivePacket;
+
+    /**
+     * The packet of the sent datagrams, null if the datagrams are exchanged by the channel of the server port.
+     */
+    private DatagramPacket sendPacket;
+
+    /**
+     * Creates the endpoint of a connection or request exchanged with the peer, the datagrams are exchanged by the
+     * connected socket or by the channel of the server port.
+     *
+     * @param connectedSocket    the connected socket, null to use the channel of the server port
+     * @param portChannel        the channel of the server port, null to use the connected socket
+     * @param peerAddress        the peer address
+     * @param peerPort           the peer port
+     * @param requestId          the request id of the datagrams
+     * @param deliveredDatagrams the queue of the datagrams delivered by the server, null to receive from the socket or
+     *                           to be processed by the event loop
+     * @param eventLoop          the event loop that processes the datagrams, null to process them in the thread that
+     *                           uses the endpoint
+     * @param idleTimeout        the time in milliseconds that the receive waits the datagrams of the peer, zero to
+     *                           wait indefinitely
+     */
+    private ReliableDatagramEndpoint(DatagramSocket connectedSocket, DatagramChannel portChannel,
+                                     InetAddress peerAddress, int peerPort, int requestId,
+                                     BlockingQueue<byte[]> deliveredDatagrams, EventLoop eventLoop, int idleTimeout) {
+        if ((connectedSocket == null) == (portChannel == null)) {
+            throw new IllegalArgumentException("Either the connected socket or the port channel should be used.");
+        }
+        this.connectedSocket = connectedSocket;
+        this.portChannel = portChannel;
+        this.peerAddress = Objects.requireNonNull(peerAddress, "The peer address can not be null.");
+        this.peerPort = peerPort;
+        peerSocketAddress = new InetSocketAddress(peerAddress, peerPort);
+        this.requestId = requestId;
+        this.deliveredDatagrams = deliveredDatagrams;
+        freeDatagrams = deliveredDatagrams != null ? new ArrayBlockingQueue<>(MAX_DELIVERED_DATAGRAMS) : null;
+        this.eventLoop = eventLoop;
+        closeTime = 0;
+        this.idleTimeout = idleTimeout;
+        nextSendSequence = 0;
+        sendData = null;
+        sendPosition = 0;
+        sendEnd = 0;
+        queuedData = new ArrayDeque<>();
+        sentDatagrams = new SentDatagram[WINDOW_SIZE];
+        firstUnacknowledgedSequence = 0;
+        congestionWindow = INITIAL_CONGESTION_WINDOW;
+        slowStartThreshold = WINDOW_SIZE;
+        recoverySequence = 0;
+        nextTransmissionTime = System.nanoTime();
+        smoothedRoundTripTime = 0;
+        roundTripTimeVariation = 0;
+        retransmissionTimeout = INITIAL_RETRANSMISSION_TIMEOUT;
+        reassemblyBuffer = new ReassemblyBuffer(WINDOW_SIZE, MAX_PAYLOAD_SIZE);
+        unacknowledgedReceives = 0;
+        pushedSequence = -1;
+        assemblyTime = 0;
+        assembled = false;
+        retransmissionScheduled = false;
+        transmissionScheduled = false;
+        closing = false;
+        peerClosed = false;
+        acknowledgedByClose = false;
+        acknowledgementDatagram = new byte[ACKNOWLEDGEMENT_SIZE];
+        acknowledgementBuffer = ByteBuffer.wrap(acknowledgementDatagram);
+        receivePacket = connectedSocket != null
+                ? new DatagramPacket(new byte[MAX_DATAGRAM_SIZE], MAX_DATAGRAM_SIZE)
+                : null;
+        sendPacket = connectedSocket != null
+                ? new DatagramPacket(acknowledgementDatagram, ACKNOWLEDGEMENT_SIZE, peerAddress, peerPort)
+                : null;
+    }
+
+    /**
+     * Opens a connection with the server, sending connection datagrams until the server replies, the server replies
+     * from the socket of the connection, or from its port with the request id of the connection.
+     *
+     * @param socket        the client socket
+     * @param serverAddress the server address
+     * @param serverPort    the server port
+     * @return the endpoint of the connection, that receives indefinitely
+     * @throws IOException if the server did not reply or an I/O exception of some sort has occurred
+     */
+    static ReliableDatagramEndpoint connect(DatagramSocket socket, InetAddress serverAddress, int serverPort)
+            throws IOException {
+        byte[] connection = newConnectionDatagram(0);
+        DatagramPacket replyPacket = new DatagramPacket(new byte[MAX_DATAGRAM_SIZE], MAX_DATAGRAM_SIZE);
+        long timeout = INITIAL_RETRANSMISSION_TIMEOUT;
+        for (int attempt = 0; attempt <= MAX_RETRANSMISSIONS; attempt++) {
+            socket.send(new DatagramPacket(connection, connection.length, serverAddress, serverPort));
+            long deadline = System.nanoTime() + timeout;
+            try {
+                do {
+                    socket.setSoTimeout(toMillis(deadline - System.nanoTime()));
+                    replyPacket.setLength(MAX_DATAGRAM_SIZE);
+                    socket.receive(replyPacket);
+                    if (isValid(replyPacket.getData(), 0, replyPacket.getLength())
+                            && typeOf(replyPacket.getData()) == TYPE_CONNECT) {
+                        // The closed socket of the connection is reported, see closeGracefully
+                        socket.connect(replyPacket.getAddress(), replyPacket.getPort());
+                        return new ReliableDatagramEndpoint(
+                                socket, null, replyPacket.getAddress(), replyPacket.getPort(),
+                                requestIdOf(replyPacket.getData()), null, null, 0
+                        );
+                    }
+                } while (deadline - System.nanoTime() > 0);
+            } catch (SocketTimeoutException e) {
+                // The connection datagram or the reply was lost
+            }
+            timeout = Math.min(2 * timeout, MAX_RETRANSMISSION_TIMEOUT);
+        }
+        throw new SocketTimeoutException("The server did not reply the connection.");
+    }
+
+    /**
+     * Accepts the connection of the client, replying from the socket of the connection. If the reply is lost, the
+     * client sends the connection datagram again and the connection is accepted again, the unused endpoint stops
+     * receiving after the idle timeout.
+     *
+     * @param socket        the socket of the connection
+     * @param clientAddress the client address
+     * @param clientPort    the client port
+     * @param idleTimeout   the time in milliseconds that the receive waits the datagrams of the client, zero to wait
+     *                      indefinitely
+     * @return the endpoint of the connection
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    static ReliableDatagramEndpoint accept(DatagramSocket socket, InetAddress clientAddress, int clientPort,
+                                           int idleTimeout) throws IOException {
+        byte[] connection = newConnectionDatagram(0);
+        socket.send(new DatagramPacket(connection, connection.length, clientAddress, clientPort));
+        return new ReliableDatagramEndpoint(socket, null, clientAddress, clientPort, 0, null, null, idleTimeout);
+    }
+
+    /**
+     * Accepts the connection of the client in the port of the server, replying from the port with the connection id.
+     * The datagrams of the connection are sent to the port with the connection id, and are demultiplexed as a
+     * connectionless request. If the reply is lost, the client sends the connection datagram again and receives
+     * another id, the unused ids have no endpoint.
+     *
+     * @param portChannel   the channel of the server port
+     * @param clientAddress the client socket address
+     * @param connectionId  the connection id, used as the request id by the client
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    static void acceptInPort(DatagramChannel portChannel, InetSocketAddress clientAddress, int connectionId)
+            throws IOException {
+        byte[] connection = newConnectionDatagram(connectionId);
+        portChannel.send(ByteBuffer.wrap(connection), clientAddress);
+    }
+
+    /**
+     * Opens a connectionless request, sent straight to the port of the server, without exchanging datagrams. The
+     * server replies from its port.
+     *
+     * @param socket        the client socket
+     * @param serverAddress the server address
+     * @param serverPort    the server port
+     * @param requestId     the request id, should not be reused by the client while the server remembers the request
+     * @return the endpoint of the request, that receives indefinitely
+     */
+    static ReliableDatagramEndpoint open(DatagramSocket socket, InetAddress serverAddress, int serverPort,
+                                         int requestId) {
+        return new ReliableDatagramEndpoint(socket, null, serverAddress, serverPort, requestId, null, null, 0);
+    }
+
+    /**
+     * Creates the server endpoint of a connectionless request, the endpoint replies from the port. Without event loop,
+     * the server delivers the datagrams of the request received in its port with {@link #deliver(byte[], int)}, else
+     * the event loop processes them with {@link #assemble(byte[], int)}. If the channel is not blocking, the datagrams
+     * not sent because the send buffer of the channel is full are lost, and retransmitted as the others.
+     *
+     * @param portChannel   the channel of the server port
+     * @param clientAddress the client address
+     * @param clientPort    the client port
+     * @param requestId     the request id
+     * @param idleTimeout   the time in milliseconds that the receive waits the datagrams of the client, zero to wait
+     *                      indefinitely
+     * @param eventLoop     the event loop that receives the port, or null if the port is received by a blocking thread
+     * @return the endpoint of the request
+     */
+    static ReliableDatagramEndpoint demultiplexed(DatagramChannel portChannel, InetAddress clientAddress,
+                                                  int clientPort, int requestId, int idleTimeout,
+                                                  EventLoop eventLoop) {
+        Objects.requireNonNull(portChannel, "The port channel can not be null.");
+        return new ReliableDatagramEndpoint(
+                null, portChannel, clientAddress, clientPort, requestId,
+                eventLoop == null ? new ArrayBlockingQueue<>(MAX_DELIVERED_DATAGRAMS) : null, eventLoop, idleTimeout
+        );
+    }
+
+    /**
+     * Processes a valid datagram of the request received in the port of the server, in the event loop. The data is
+     * kept for {@link #receive(byte[], int, int)} and acknowledged until the request is complete, so the request does
+     * not need a thread while it arrives. After the request is complete, the data datagrams are only acknowledged, and
+     * the acknowledgements of the reply are processed. The endpoint is closed when the client closes.
+     *
+     * @param datagram the array with the datagram, at the start, it is not kept
+     * @param length   the datagram length
+     * @return true if the datagram completed the request
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    boolean assemble(byte[] datagram, int length) throws IOException {
+        if (assembled) {
+            process(datagram, length);
+            if (peerClosed) {
+                // The peer acknowledged the reply or abandoned it
+                closeNow();
+                return false;
+            }
+            transmitWindow();
+            scheduleRetransmission();
+            scheduleTransmission();
+            closeIfSent();
+            return false;
+        }
+        assemblyTime = System.nanoTime();
+        process(datagram, length);
+        if (peerClosed) {
+            // The client abandoned the request
+            closeNow();
+            return false;
+        }
+        assembled = pushedSequence >= 0 && reassemblyBuffer.getNextSequence() > pushedSequence;
+        return assembled;
+    }
+
+    /**
+     * Closes the endpoint if the request being assembled by the event loop did not receive datagrams for the idle
+     * timeout, the client abandoned the request.
+     *
+     * @param now the current time in nanoseconds
+     */
+    void expireAssembly(long now) {
+        if (assemblyTime != 0 && !assembled && closeTime == 0 && idleTimeout != 0
+                && now - assemblyTime >= TimeUnit.MILLISECONDS.toNanos(idleTimeout)) {
+            closeNow();
+        }
+    }
+
+    /**
+     * Delivers a valid datagram of the request received in the port of the server, the datagram is copied to an array
+     * of the processed datagrams and processed by the thread that uses the endpoint. If the thread does not keep up,
+     * the datagram is dropped as lost.
+     *
+     * @param datagram the array with the datagram, at the start, it is not kept
+     * @param length   the datagram length
+     */
+    void deliver(byte[] datagram, int length) {
+        byte[] deliveredDatagram = freeDatagrams.poll();
+        if (deliveredDatagram == null) {
+            deliveredDatagram = new byte[MAX_DATAGRAM_SIZE];
+        }
+        System.arraycopy(datagram, 0, deliveredDatagram, 0, length);
+        // The checksum was checked, its place keeps the length
+        writeInt(deliveredDatagram, 0, length);
+        deliveredDatagrams.offer(deliveredDatagram);
+    }
+
+    /**
+     * Acknowledges again the data received by the closed endpoint, when the acknowledgement was lost and the peer
+     * retransmits the data.
+     *
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    void acknowledgeClosed() throws IOException {
+        sendAcknowledgement();
+    }
+
+    /**
+     * Answers the close datagram of the peer received by the closed endpoint.
+     *
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    void acknowledgeClose() throws IOException {
+        sendControl(TYPE_CLOSE_ACK);
+    }
+
+    /**
+     * Makes the close acknowledge the last data of the peer, the data pushed by the peer is not acknowledged when it
+     * completes, so the exchange saves a datagram. Used when the endpoint is closed right after the last data of the
+     * peer is received, the retransmissions of the data are still acknowledged.
+     */
+    void acknowledgeByClose() {
+        acknowledgedByClose = true;
+    }
+
+    /**
+     * Closes the endpoint after the close handshake with the peer, if data was exchanged. The close datagrams are sent
+     * until the peer answers or closes too, with the retransmission backoff, the data retransmitted by the peer
+     * meanwhile is acknowledged again. If the peer is silent for {@link #MAX_CLOSE_ATTEMPTS} close datagrams, or the
+     * socket of the connection reports that the peer socket is closed, the endpoint closes without its answer. The
+     * endpoints processed by the event loop are closed by {@link #close()}, the closed endpoints of the port answer the
+     * close datagrams.
+     *
+     * @throws IOException if an I/O exception of some sort has occurred, the endpoint is closed anyway
+     */
+    void closeGracefully() throws IOException {
+        if (eventLoop != null || closeTime != 0) {
+            close();
+            return;
+        }
+        try {
+            if (nextSendSequence == 0 && reassemblyBuffer.getNextSequence() == 0) {
+                // Nothing was exchanged, the peer has nothing to confirm
+                return;
+            }
+            // The backoff of the data retransmissions is not applied to the close
+            long timeout = smoothedRoundTripTime == 0
+                    ? retransmissionTimeout
+                    : Math.max(MIN_RETRANSMISSION_TIMEOUT, Math.min(MAX_RETRANSMISSION_TIMEOUT,
+                    smoothedRoundTripTime + 4 * roundTripTimeVariation));
+            int attempts = 0;
+            while (!peerClosed && attempts < MAX_CLOSE_ATTEMPTS) {
+                sendControl(TYPE_CLOSE);
+                attempts++;
+                long deadline = System.nanoTime() + timeout;
+                long remaining = timeout;
+                while (!peerClosed && remaining > 0) {
+                    try {
+                        if (receiveDatagram(toMillis(remaining))) {
+                            // The peer still retransmits, the closes were lost
+                            attempts = 0;
+                        }
+                    } catch (PortUnreachableException e) {
+                        // The socket of the peer was closed after it answered, the answer was lost
+                        return;
+                    }
+                    remaining = deadline - System.nanoTime();
+                }
+                timeout = Math.min(2 * timeout, MAX_RETRANSMISSION_TIMEOUT);
+            }
+        } finally {
+            closeNow();
+        }
+    }
+
+    /**
+     * Closes the endpoint, discarding the data not read. The socket is not closed. The endpoint processed by the event
+     * loop is closed by the event loop, after the data being sent is acknowledged.
+     */
+    void close() {
+        if (eventLoop == null) {
+            closeNow();
+            return;
+        }
+        eventLoop.execute(() -> {
+            closing = true;
+            closeIfSent();
+        });
+    }
+
+    /**
+     * Closes the endpoint being closed by the event loop if the data being sent was acknowledged.
+     */
+    private void closeIfSent() {
+        if (closing && !isSending()) {
+            closeNow();
+        }
+    }
+
+    /**
+     * Closes the endpoint now, discarding the data not read and not sent.
+     */
+    private void closeNow() {
+        if (closeTime != 0) {
+            return;
+        }
+        sendData = null;
+        queuedData.clear();
+        firstUnacknowledgedSequence = nextSendSequence;
+        Arrays.fill(sentDatagrams, null);
+        reassemblyBuffer.clear();
+        if (deliveredDatagrams != null) {
+            answerDeliveredClose();
+            freeDatagrams.clear();
+        }
+        closeTime = System.nanoTime();
+    }
+
+    /**
+     * Discards the delivered datagrams not processed, answering the close of the peer delivered after the last
+     * receive, that usually arrives with the last acknowledgement.
+     */
+    private void answerDeliveredClose() {
+        byte[] datagram;
+        while ((datagram = deliveredDatagrams.poll()) != null) {
+            if (typeOf(datagram) == TYPE_CLOSE) {
+                try {
+                    sendControl(TYPE_CLOSE_ACK);
+                } catch (IOException e) {
+                    // The peer sends the close again
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the time in nanoseconds when the endpoint was closed.
+     *
+     * @return the close time, zero while the endpoint is open
+     */
+    long getCloseTime() {
+        return closeTime;
+    }
+
+    /**
+     * Returns if the datagram has a complete header and a valid checksum.
+     *
+     * @param datagram the array with the datagram
+     * @param offset   the offset of the datagram
+     * @param length   the datagram length
+     * @return if the datagram is valid
+     */
+    static boolean isValid(byte[] datagram, int offset, int length) {
+        return length >= HEADER_SIZE && readInt(datagram, offset)
+                == Crc32c.checksum(datagram, offset + Integer.BYTES, length - Integer.BYTES);
+    }
+
+    /**
+     * Returns the type of the datagram.
+     *
+     * @param datagram the array with the datagram, at the start
+     * @return the datagram type
+     */
+    static byte typeOf(byte[] datagram) {
+        return datagram[TYPE_OFFSET];
+    }
+
+    /**
+     * Returns the request id of the datagram.
+     *
+     * @param datagram the array with the datagram, at the start
+     * @return the request id
+     */
+    static int requestIdOf(byte[] datagram) {
+        return readInt(datagram, REQUEST_ID_OFFSET);
+    }
+
+    /**
+     * Returns the sequence number of the datagram.
+     *
+     * @param datagram the array with the datagram, at the start
+     * @return the sequence number
+     */
+    static int sequenceOf(byte[] datagram) {
+        return readInt(datagram, SEQUENCE_OFFSET);
+    }
+
+    /**
+     * Sends the data to the peer, waiting all the datagrams to be acknowledged. The datagrams are paced and limited by
+     * the congestion window. The data of the peer received meanwhile is kept for the next receive. The data of the
+     * endpoints processed by the event loop is copied and sent by the event loop, without waiting, after the data being
+     * sent, if the peer does not acknowledge it the endpoint is closed.
+     *
+     * @param data   the array with the data
+     * @param offset the offset of the data
+     * @param length the data length
+     * @throws IOException if the peer did not acknowledge the data or an I/O exception of some sort has occurred
+     */
+    void send(byte[] data, int offset, int length) throws IOException {
+        if (length == 0) {
+            return;
+        } else if (eventLoop != null) {
+            byte[] copiedData = Arrays.copyOfRange(data, offset, offset + length);
+            eventLoop.execute(() -> {
+                if (closeTime != 0) {
+                    return;
+                } else if (isSending()) {
+                    queuedData.add(copiedData);
+                    return;
+                }
+                startSending(copiedData, 0, copiedData.length);
+                transmitInEventLoop();
+            });
+            return;
+        }
+        startSending(data, offset, length);
+        while (isSending()) {
+            if (peerClosed) {
+                throw new EOFException("The peer closed before receiving all the data.");
+            }
+            transmitWindow();
+            long now = System.nanoTime();
+            long retransmissionDelay = retransmissionDelay(now);
+            if (retransmissionDelay <= 0) {
+                retransmitExpired(now);
+                continue;
+            }
+            long delay = Math.min(retransmissionDelay, transmissionDelay(now));
+            if (delay > 0) {
+                receiveDatagram(toMillis(delay));
+            }
+        }
+    }
+
+    /**
+     * Receives the next data of the peer, in order, waiting until some data is available. The endpoints processed by
+     * the event loop only receive the complete request.
+     *
+     * @param buffer the array that receives the data
+     * @param offset the offset of the data in the array
+     * @param length the max number of bytes received
+     * @return the number of bytes received, at least one if the length is positive
+     * @throws IOException if the idle timeout expired or an I/O exception of some sort has occurred
+     */
+    int receive(byte[] buffer, int offset, int length) throws IOException {
+        if (length <= 0) {
+            return 0;
+        } else if (eventLoop != null && reassemblyBuffer.available() == 0) {
+            throw new EOFException("The request has no more data.");
+        }
+        while (reassemblyBuffer.available() == 0) {
+            if (peerClosed) {
+                throw new EOFException("The peer closed without sending more data.");
+            } else if (!receiveDatagram(idleTimeout)) {
+                throw new SocketTimeoutException("The peer did not send data in " + idleTimeout + " milliseconds.");
+            }
+        }
+        return reassemblyBuffer.read(buffer, offset, length);
+    }
+
+    /**
+     * Receives a datagram of the peer and processes it, the datagrams of other sockets or requests and the corrupted
+     * ones are ignored. The delivered datagrams were already checked by the server, their arrays are reused by the next
+     * delivered datagrams.
+     *
+     * @param timeout the time in milliseconds to wait the datagram, zero to wait indefinitely
+     * @return true if a datagram was received, false if the timeout expired
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private boolean receiveDatagram(int timeout) throws IOException {
+        if (deliveredDatagrams != null) {
+            byte[] datagram;
+            try {
+                datagram = timeout == 0
+                        ? deliveredDatagrams.take()
+                        : deliveredDatagrams.poll(timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting the datagrams of the peer.");
+            }
+            if (datagram == null) {
+                return false;
+            }
+            process(datagram, readInt(datagram, 0));
+            freeDatagrams.offer(datagram);
+            return true;
+        }
+        connectedSocket.setSoTimeout(timeout);
+        receivePacket.setLength(MAX_DATAGRAM_SIZE);
+        try {
+            connectedSocket.receive(receivePacket);
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+        byte[] datagram = receivePacket.getData();
+        int length = receivePacket.getLength();
+        if (receivePacket.getPort() == peerPort && peerAddress.equals(receivePacket.getAddress())
+                && isValid(datagram, 0, length) && requestIdOf(datagram) == requestId) {
+            process(datagram, length);
+        }
+        return true;
+    }
+
+    /**
+     * Processes a valid datagram of the peer, keeping its data and removing the acknowledged datagrams.
+     *
+     * @param datagram the array with the datagram, at the start, it is not kept
+     * @param length   the datagram length
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private void process(byte[] datagram, int length) throws IOException {
+        byte type = datagram[TYPE_OFFSET];
+        int sequence = readInt(datagram, SEQUENCE_OFFSET);
+        int acknowledgement = readInt(datagram, ACKNOWLEDGEMENT_OFFSET);
+        if (type == TYPE_DATA) {
+            receiveAcknowledgement(acknowledgement, 0, false);
+            if (assembled) {
+                // The request was read by other thread, only the retransmissions are acknowledged
+                if (sequence - reassemblyBuffer.getNextSequence() < 0) {
+                    sendAcknowledgement();
+                }
+                return;
+            }
+            receiveData(sequence, datagram[FLAGS_OFFSET], datagram, length);
+        } else if (type == TYPE_ACK && length == ACKNOWLEDGEMENT_SIZE) {
+            receiveAcknowledgement(acknowledgement, readLong(datagram, HEADER_SIZE), true);
+        } else if (type == TYPE_CLOSE) {
+            // The close acknowledges all the data received by the peer
+            receiveAcknowledgement(acknowledgement, 0, false);
+            peerClosed = true;
+            sendControl(TYPE_CLOSE_ACK);
+        } else if (type == TYPE_CLOSE_ACK) {
+            peerClosed = true;
+        }
+    }
+
+    /**
+     * Keeps the data of a datagram and acknowledges it. The datagrams received in order are acknowledged together,
+     * except the pushed ones, the others are acknowledged immediately, so the sender learns the lost datagrams.
+     *
+     * @param sequence the datagram sequence number
+     * @param flags    the datagram flags
+     * @param datagram the array with the datagram, at the start, it is not kept
+     * @param length   the datagram length
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private void receiveData(int sequence, byte flags, byte[] datagram, int length) throws IOException {
+        int distance = sequence - reassemblyBuffer.getNextSequence();
+        if ((flags & FLAG_PUSH) != 0 && distance >= 0 && distance <= WINDOW_SIZE) {
+            pushedSequence = sequence;
+        }
+        if (distance < 0) {
+            // The acknowledgement was lost
+            sendAcknowledgement();
+        } else if (distance == 0) {
+            boolean filled = reassemblyBuffer.append(datagram, HEADER_SIZE, length - HEADER_SIZE);
+            if (acknowledgedByClose && pushedSequence >= 0 && reassemblyBuffer.getNextSequence() > pushedSequence) {
+                // The close that follows acknowledges the last data
+                unacknowledgedReceives = 0;
+            } else if (filled || (flags & FLAG_PUSH) != 0 || ++unacknowledgedReceives >= ACK_INTERVAL) {
+                sendAcknowledgement();
+            }
+        } else if (distance <= WINDOW_SIZE) {
+            reassemblyBuffer.store(sequence, datagram, HEADER_SIZE, length - HEADER_SIZE);
+            sendAcknowledgement();
+        }
+    }
+
+    /**
+     * Sends the acknowledgement of the received datagrams, reusing the acknowledgement datagram.
+     *
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private void sendAcknowledgement() throws IOException {
+        writeHeader(acknowledgementDatagram, TYPE_ACK, 0, requestId, nextSendSequence,
+                reassemblyBuffer.getNextSequence());
+        writeLong(acknowledgementDatagram, HEADER_SIZE, reassemblyBuffer.getSelectiveAcknowledgement());
+        seal(acknowledgementDatagram, ACKNOWLEDGEMENT_SIZE);
+        sendDatagram(acknowledgementDatagram, acknowledgementBuffer, ACKNOWLEDGEMENT_SIZE);
+        unacknowledgedReceives = 0;
+    }
+
+    /**
+     * Sends a close or close acknowledgement datagram, without data, reusing the acknowledgement datagram.
+     *
+     * @param type the datagram type
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private void sendControl(byte type) throws IOException {
+        writeHeader(acknowledgementDatagram, type, 0, requestId, nextSendSequence, reassemblyBuffer.getNextSequence());
+        seal(acknowledgementDatagram, HEADER_SIZE);
+        sendDatagram(acknowledgementDatagram, acknowledgementBuffer, HEADER_SIZE);
+    }
+
+    /**
+     * Removes the acknowledged datagrams from the window, measuring the round trip time with the ones never
+     * retransmitted if the acknowledgement was not delayed by the data of the peer. Each acknowledged datagram
+     * increases the congestion window. The unacknowledged datagrams followed by {@link #FAST_RETRANSMIT_THRESHOLD}
+     * acknowledged ones are retransmitted, at most once per round trip, and decrease the congestion window.
+     *
+     * @param nextSequence             the sequence number of the next datagram expected by the peer
+     * @param selectiveAcknowledgement the datagrams received after the next expected one
+     * @param measure                  if the round trip time is measured
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private void receiveAcknowledgement(int nextSequence, long selectiveAcknowledgement, boolean measure)
+            throws IOException {
+        long now = System.nanoTime();
+        for (int sequence = firstUnacknowledgedSequence; sequence != nextSendSequence; sequence++) {
+            SentDatagram sentDatagram = sentDatagramOf(sequence);
+            int distance = sequence - nextSequence;
+            if (!sentDatagram.acknowledged && (distance < 0 || distance > 0 && distance <= WINDOW_SIZE
+                    && (selectiveAcknowledgement & 1L << (distance - 1)) != 0)) {
+                if (measure && sentDatagram.retransmissions == 0) {
+                    measureRoundTripTime(now - sentDatagram.sendTime);
+                }
+                sentDatagram.acknowledged = true;
+                increaseCongestionWindow();
+            }
+        }
+        while (firstUnacknowledgedSequence != nextSendSequence
+                && sentDatagramOf(firstUnacknowledgedSequence).acknowledged) {
+            firstUnacknowledgedSequence++;
+        }
+        if (selectiveAcknowledgement == 0) {
+            return;
+        }
+        int lastSequence = nextSequence + Long.SIZE - Long.numberOfLeadingZeros(selectiveAcknowledgement);
+        for (int sequence = firstUnacknowledgedSequence; sequence != nextSendSequence; sequence++) {
+            SentDatagram sentDatagram = sentDatagramOf(sequence);
+            if (!sentDatagram.acknowledged && lastSequence - sequence >= FAST_RETRANSMIT_THRESHOLD
+                    && now - sentDatagram.sendTime >= smoothedRoundTripTime
+                    && sentDatagram.retransmissions < MAX_RETRANSMISSIONS) {
+                decreaseCongestionWindow(sequence);
+                sentDatagram.retransmissions++;
+                transmit(sentDatagram);
+            }
+        }
+    }
+
+    /**
+     * Retransmits the datagrams whose retransmission timeout expired, doubling the timeout. The expired datagrams
+     * decrease the congestion window.
+     *
+     * @param now the current time in nanoseconds
+     * @throws IOException if a datagram reached the max retransmissions or an I/O exception of some sort has occurred
+     */
+    private void retransmitExpired(long now) throws IOException {
+        for (int sequence = firstUnacknowledgedSequence; sequence != nextSendSequence; sequence++) {
+            SentDatagram sentDatagram = sentDatagramOf(sequence);
+            if (!sentDatagram.acknowledged && now - sentDatagram.sendTime >= retransmissionTimeout) {
+                if (sentDatagram.retransmissions >= MAX_RETRANSMISSIONS) {
+                    throw new SocketTimeoutException("The datagram " + sequence
+                            + " was not acknowledged after " + MAX_RETRANSMISSIONS + " retransmissions.");
+                }
+                decreaseCongestionWindow(sequence);
+                sentDatagram.retransmissions++;
+                transmit(sentDatagram);
+            }
+        }
+        retransmissionTimeout = Math.min(2 * retransmissionTimeout, MAX_RETRANSMISSION_TIMEOUT);
+    }
+
+    /**
+     * Increases the congestion window for an acknowledged datagram, by one datagram in the slow start, doubling the
+     * window per round trip, and by one datagram per window after it.
+     */
+    private void increaseCongestionWindow() {
+        congestionWindow += congestionWindow < slowStartThreshold ? 1 : 1 / congestionWindow;
+        congestionWindow = Math.min(congestionWindow, WINDOW_SIZE);
+    }
+
+    /**
+     * Decreases the congestion window for a lost datagram, halving it, the slow start ends. The window is decreased
+     * once for the datagrams in flight when the loss was detected.
+     *
+     * @param sequence the sequence number of the lost datagram
+     */
+    private void decreaseCongestionWindow(int sequence) {
+        if (sequence - recoverySequence < 0) {
+            return;
+        }
+        slowStartThreshold = Math.max(congestionWindow / 2, MIN_CONGESTION_WINDOW);
+        congestionWindow = slowStartThreshold;
+        recoverySequence = nextSendSequence;
+    }
+
+    /**
+     * Starts sending the data, the datagrams are transmitted by {@link #transmitWindow()}.
+     *
+     * @param data   the array with the data
+     * @param offset the offset of the data
+     * @param length the data length
+     */
+    private void startSending(byte[] data, int offset, int length) {
+        sendData = length > 0 ? data : null;
+        sendPosition = offset;
+        sendEnd = offset + length;
+    }
+
+    /**
+     * Returns if there is data not sent or not acknowledged.
+     *
+     * @return if the endpoint is sending
+     */
+    private boolean isSending() {
+        return sendData != null || firstUnacknowledgedSequence != nextSendSequence;
+    }
+
+    /**
+     * Transmits the next datagrams of the data being sent while the congestion window has room and the pacing allows,
+     * followed by the queued data. The datagrams are written in the slots of the ring of the sent datagrams.
+     *
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private void transmitWindow() throws IOException {
+        while (transmissionDelay(System.nanoTime()) <= 0) {
+            int payloadLength = Math.min(MAX_PAYLOAD_SIZE, sendEnd - sendPosition);
+            int flags = sendPosition + payloadLength == sendEnd ? FLAG_PUSH : 0;
+            int slot = nextSendSequence & (WINDOW_SIZE - 1);
+            if (sentDatagrams[slot] == null) {
+                sentDatagrams[slot] = new SentDatagram();
+            }
+            SentDatagram sentDatagram = sentDatagrams[slot];
+            writeHeader(sentDatagram.datagram, TYPE_DATA, flags, requestId, nextSendSequence,
+                    reassemblyBuffer.getNextSequence());
+            System.arraycopy(sendData, sendPosition, sentDatagram.datagram, HEADER_SIZE, payloadLength);
+            sentDatagram.length = HEADER_SIZE + payloadLength;
+            seal(sentDatagram.datagram, sentDatagram.length);
+            sentDatagram.retransmissions = 0;
+            sentDatagram.acknowledged = false;
+            nextSendSequence++;
+            sendPosition += payloadLength;
+            if (sendPosition == sendEnd) {
+                sendData = null;
+                byte[] nextData = queuedData.poll();
+                if (nextData != null) {
+                    startSending(nextData, 0, nextData.length);
+                }
+            }
+            transmit(sentDatagram);
+            pace(sentDatagram.sendTime);
+        }
+    }
+
+    /**
+     * Returns the time until the next data datagram can be sent.
+     *
+     * @param now the current time in nanoseconds
+     * @return the time in nanoseconds delayed by the pacing, not positive if a datagram can be sent, or
+     * {@link Long#MAX_VALUE} if there is no data to send or the congestion window is full
+     */
+    private long transmissionDelay(long now) {
+        if (sendData == null || nextSendSequence - firstUnacknowledgedSequence >= (int) congestionWindow) {
+            return Long.MAX_VALUE;
+        }
+        return nextTransmissionTime - now;
+    }
+
+    /**
+     * Delays the next data datagram by the pacing interval, the congestion window is spread over the smoothed round
+     * trip time, instead of sent in a burst that overruns the receive buffer of the peer. The datagrams are not paced
+     * before the round trip time is measured.
+     *
+     * @param now the time in nanoseconds when the datagram was sent
+     */
+    private void pace(long now) {
+        if (smoothedRoundTripTime == 0) {
+            return;
+        }
+        double gain = congestionWindow < slowStartThreshold ? SLOW_START_PACING_GAIN : PACING_GAIN;
+        long interval = (long) (smoothedRoundTripTime / (congestionWindow * gain));
+        nextTransmissionTime = Math.max(nextTransmissionTime, now - MAX_PACING_LAG) + interval;
+    }
+
+    /**
+     * Returns the time until the first retransmission timeout of the unacknowledged datagrams expires.
+     *
+     * @param now the current time in nanoseconds
+     * @return the time in nanoseconds, not positive if a timeout expired
+     */
+    private long retransmissionDelay(long now) {
+        long delay = Long.MAX_VALUE;
+        for (int sequence = firstUnacknowledgedSequence; sequence != nextSendSequence; sequence++) {
+            SentDatagram sentDatagram = sentDatagramOf(sequence);
+            if (!sentDatagram.acknowledged) {
+                delay = Math.min(delay, sentDatagram.sendTime + retransmissionTimeout - now);
+            }
+        }
+        return delay;
+    }
+
+    /**
+     * Schedules the retransmission of the unacknowledged datagrams in the event loop, if not scheduled yet.
+     */
+    private void scheduleRetransmission() {
+        if (!retransmissionScheduled && firstUnacknowledgedSequence != nextSendSequence) {
+            retransmissionScheduled = true;
+            eventLoop.schedule(this::retransmitScheduled, Math.max(1, retransmissionDelay(System.nanoTime())));
+        }
+    }
+
+    /**
+     * Transmits the datagrams allowed by the congestion window and the pacing in the event loop, scheduling the
+     * retransmission and the transmission delayed by the pacing. If the datagrams can not be sent, the endpoint is
+     * closed.
+     */
+    private void transmitInEventLoop() {
+        try {
+            transmitWindow();
+        } catch (IOException e) {
+            closeNow();
+            return;
+        }
+        scheduleRetransmission();
+        scheduleTransmission();
+    }
+
+    /**
+     * Schedules the transmission of the datagrams delayed by the pacing in the event loop, if not scheduled yet.
+     */
+    private void scheduleTransmission() {
+        long delay = transmissionDelay(System.nanoTime());
+        if (!transmissionScheduled && delay != Long.MAX_VALUE) {
+            transmissionScheduled = true;
+            eventLoop.schedule(this::transmitScheduled, Math.max(1, delay));
+        }
+    }
+
+    /**
+     * Transmits the datagrams delayed by the pacing in the event loop.
+     */
+    private void transmitScheduled() {
+        transmissionScheduled = false;
+        if (closeTime != 0) {
+            return;
+        }
+        transmitInEventLoop();
+    }
+
+    /**
+     * Retransmits the expired datagrams in the event loop and schedules the next retransmission. If the peer does not
+     * acknowledge the datagrams, the endpoint is closed.
+     */
+    private void retransmitScheduled() {
+        retransmissionScheduled = false;
+        if (closeTime != 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        try {
+            if (retransmissionDelay(now) <= 0) {
+                retransmitExpired(now);
+            }
+        } catch (IOException e) {
+            // The peer is unreachable, the reply is dropped
+            closeNow();
+            return;
+        }
+        scheduleRetransmission();
+    }
+
+    /**
+     * Updates the retransmission timeout with a round trip time sample, as in the RFC 6298.
+     *
+     * @param roundTripTime the round trip time in nanoseconds
+     */
+    private void measureRoundTripTime(long roundTripTime) {
+        if (smoothedRoundTripTime == 0) {
+            smoothedRoundTripTime = Math.max(1, roundTripTime);
+            roundTripTimeVariation = roundTripTime / 2;
+        } else {
+            roundTripTimeVariation
+                    = (3 * roundTripTimeVariation + Math.abs(smoothedRoundTripTime - roundTripTime)) / 4;
+            smoothedRoundTripTime = Math.max(1, (7 * smoothedRoundTripTime + roundTripTime) / 8);
+        }
+        retransmissionTimeout = Math.max(MIN_RETRANSMISSION_TIMEOUT,
+                Math.min(MAX_RETRANSMISSION_TIMEOUT, smoothedRoundTripTime + 4 * roundTripTimeVariation));
+    }
+
+    /**
+     * Returns the sent datagram of the sequence number, in flight.
+     *
+     * @param sequence the sequence number
+     * @return the sent datagram
+     */
+    private SentDatagram sentDatagramOf(int sequence) {
+        return sentDatagrams[sequence & (WINDOW_SIZE - 1)];
+    }
+
+    /**
+     * Sends the datagram to the peer.
+     *
+     * @param sentDatagram the datagram
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private void transmit(SentDatagram sentDatagram) throws IOException {
+        sendDatagram(sentDatagram.datagram, sentDatagram.buffer, sentDatagram.length);
+        sentDatagram.sendTime = System.nanoTime();
+    }
+
+    /**
+     * Sends the datagram to the peer by the connected socket or by the channel of the server port.
+     *
+     * @param datagram the array with the datagram, at the start
+     * @param buffer   the buffer that wraps the array, used by the channel of the server port
+     * @param length   the datagram length
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private void sendDatagram(byte[] datagram, ByteBuffer buffer, int length) throws IOException {
+        if (portChannel != null) {
+            buffer.clear().limit(length);
+            portChannel.send(buffer, peerSocketAddress);
+        } else {
+            sendPacket.setData(datagram, 0, length);
+            connectedSocket.send(sendPacket);
+        }
+    }
+
+    /**
+     * Creates a sealed connection datagram.
+     *
+     * @param connectionId the connection id, zero if the connection has its own server socket
+     * @return the datagram
+     */
+    private static byte[] newConnectionDatagram(int connectionId) {
+        byte[] datagram = new byte[HEADER_SIZE];
+        writeHeader(datagram, TYPE_CONNECT, 0, connectionId, 0, 0);
+        seal(datagram, HEADER_SIZE);
+        return datagram;
+    }
+
+    /**
+     * Writes the datagram header, the checksum is written by {@link #seal(byte[], int)}.
+     *
+     * @param datagram        the array with the datagram, at the start
+     * @param type            the datagram type
+     * @param flags           the datagram flags
+     * @param requestId       the request id
+     * @param sequence        the sequence number
+     * @param acknowledgement the sequence number of the next data datagram expected
+     */
+    private static void writeHeader(byte[] datagram, byte type, int flags, int requestId, int sequence,
+                                    int acknowledgement) {
+        datagram[TYPE_OFFSET] = type;
+        datagram[FLAGS_OFFSET] = (byte) flags;
+        writeInt(datagram, REQUEST_ID_OFFSET, requestId);
+        writeInt(datagram, SEQUENCE_OFFSET, sequence);
+        writeInt(datagram, ACKNOWLEDGEMENT_OFFSET, acknowledgement);
+    }
+
+    /**
+     * Writes the checksum of the datagram.
+     *
+     * @param datagram the array with the datagram, at the start
+     * @param length   the datagram length
+     */
+    private static void seal(byte[] datagram, int length) {
+        writeInt(datagram, 0, Crc32c.checksum(datagram, Integer.BYTES, length - Integer.BYTES));
+    }
+
+    /**
+     * Reads an int of the array, in network byte order.
+     *
+     * @param array  the array
+     * @param offset the offset of the int
+     * @return the int
+     */
+    private static int readInt(byte[] array, int offset) {
+        return (array[offset] & 0xFF) << 24 | (array[offset + 1] & 0xFF) << 16
+                | (array[offset + 2] & 0xFF) << 8 | array[offset + 3] & 0xFF;
+    }
+
+    /**
+     * Writes an int in the array, in network byte order.
+     *
+     * @param array  the array
+     * @param offset the offset of the int
+     * @param value  the int
+     */
+    private static void writeInt(byte[] array, int offset, int value) {
+        array[offset] = (byte) (value >>> 24);
+        array[offset + 1] = (byte) (value >>> 16);
+        array[offset + 2] = (byte) (value >>> 8);
+        array[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Reads a long of the array, in network byte order.
+     *
+     * @param array  the array
+     * @param offset the offset of the long
+     * @return the long
+     */
+    private static long readLong(byte[] array, int offset) {
+        return (long) readInt(array, offset) << 32 | readInt(array, offset + Integer.BYTES) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Writes a long in the array, in network byte order.
+     *
+     * @param array  the array
+     * @param offset the offset of the long
+     * @param value  the long
+     */
+    private static void writeLong(byte[] array, int offset, long value) {
+        writeInt(array, offset, (int) (value >>> 32));
+        writeInt(array, offset + Integer.BYTES, (int) value);
+    }
+
+    /**
+     * Converts the nanoseconds to a socket timeout in milliseconds, rounded up, at least one millisecond.
+     *
+     * @param nanoseconds the time in nanoseconds
+     * @return the timeout in milliseconds
+     */
+    private static int toMillis(long nanoseconds) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (nanoseconds + 999_999) / 1_000_000));
+    }
+
+    /**
+     * The slot of a data datagram in the ring of the sent datagrams, reused by the datagrams of the slot.
+     */
+    private static final class SentDatagram {
+
+        /**
+         * The array with the datagram, at the start.
+         */
+        private final byte[] datagram;
+
+        /**
+         * The buffer that wraps the array of the datagram.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * The datagram length.
+         */
+        private int length;
+
+        /**
+         * The time in nanoseconds of the last transmission.
+         */
+        private long sendTime;
+
+        /**
+         * The number of retransmissions.
+         */
+        private int retransmissions;
+
+        /**
+         * Indicates if the datagram was acknowledged.
+         */
+        private boolean acknowledged;
+
+        /**
+         * Creates the empty slot.
+         */
+        private SentDatagram() {
+            datagram = new byte[MAX_DATAGRAM_SIZE];
+            buffer = ByteBuffer.wrap(datagram);
+            length = 0;
+            sendTime = 0;
+            retransmissions = 0;
+            acknowledged = true;
+        }
+    }
+}
@@ -5,13 +5,19 @@ import esm.infrastructure.ClientRequestHandler;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
- * UDP implementation of the {@link ClientRequestHandler} interface.
+ * UDP implementation of the {@link ClientRequestHandler} interface. The data is exchanged by a
+ * {@link ReliableDatagramEndpoint}, so the request and the reply are received in order and without losses. By default,
+ * the request is connectionless, it is sent straight to the port of the server with a random request id, and the
+ * server replies from its port, so the invocation takes a single round trip. Otherwise, a connection is opened by a
+ * connection datagram sent until the server replies from the socket of the connection. The disconnect closes the
+ * endpoint with a close handshake, so the server learns that its reply was received even if the last acknowledgement
+ * was lost.
  *
  * @author Pedro Henrique
  */
@@ -32,6 +38,11 @@ public class UDPClientRequestHandler implements ClientRequestHandler {
      */
     private DatagramSocket connectedDatagramSocket;
 
+    /**
+     * The endpoint of the connection or request, null if not connected yet.
+     */
+    private ReliableDatagramEndpoint endpoint;
+
     /**
      * The socket input stream.
      */
@@ -58,13 +69,32 @@ public class UDPClientRequestHandler implements ClientRequestHandler {
     private boolean connectedBefore;
 
     /**
-     * Creates a new TCPClientRequestHandler.
+     * Indicates if the request is sent without opening a connection.
+     */
+    private boolean connectionless;
+
+    /**
+     * Creates a new connectionless UDPClientRequestHandler.
      *
      * @param serverAddress the server address
      * @param serverPort    the server port
      * @throws IOException if an I/O exception of some sort has occurred
      */
     public UDPClientRequestHandler(InetAddress serverAddress, int serverPort) throws IOException {
+        this(serverAddress, serverPort, true);
+    }
+
+    /**
+     * Creates a new UDPClientRequestHandler.
+     *
+     * @param serverAddress  the server address
+     * @param serverPort     the server port
+     * @param connectionless if the request is sent straight to the port of the server, otherwise a connection is
+     *                       opened first
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    public UDPClientRequestHandler(InetAddress serverAddress, int serverPort, boolean connectionless)
+            throws IOException {
         this.serverAddress = Objects.requireNonNull(serverAddress, "The server address can not be null.");
         if (serverPort < 0 || serverPort > 65535) {
             throw new IllegalArgumentException("The server port should be between 0 and 65535.");
@@ -74,6 +104,8 @@ public class UDPClientRequestHandler implements ClientRequestHandler {
         connected = false;
         sent = false;
         connectedBefore = false;
+        endpoint = null;
+        this.connectionless = connectionless;
     }
 
     @Override
@@ -86,6 +118,11 @@ public class UDPClientRequestHandler implements ClientRequestHandler {
         return serverPort;
     }
 
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
     @Override
     public void connect() throws IOException {
         if (connected) {
@@ -94,19 +131,14 @@ public class UDPClientRequestHandler implements ClientRequestHandler {
             throw new IllegalStateException("This ClientRequestHandler was connected before.");
         }
         connected = true;
-        connectedDatagramSocket.send(new DatagramPacket(new byte[0], 0, serverAddress, serverPort));
-        DatagramPacket serverRequestHandlerConnectionInfoPacket = new DatagramPacket(new byte[0], 0);
-        connectedDatagramSocket.receive(serverRequestHandlerConnectionInfoPacket);
-        dataInputStream = new DataInputStream(new DatagramInputStream(
-                connectedDatagramSocket,
-                serverRequestHandlerConnectionInfoPacket.getAddress(),
-                serverRequestHandlerConnectionInfoPacket.getPort())
-        );
-        dataOutputStream = new DataOutputStream(new DatagramOutputStream(
-                connectedDatagramSocket,
-                serverRequestHandlerConnectionInfoPacket.getAddress(),
-                serverRequestHandlerConnectionInfoPacket.getPort())
-        );
+        if (connectionless) {
+            int requestId = ThreadLocalRandom.current().nextInt();
+            endpoint = ReliableDatagramEndpoint.open(connectedDatagramSocket, serverAddress, serverPort, requestId);
+        } else {
+            endpoint = ReliableDatagramEndpoint.connect(connectedDatagramSocket, serverAddress, serverPort);
+        }
+        dataInputStream = new DataInputStream(new DatagramInputStream(endpoint));
+        dataOutputStream = new DataOutputStream(new DatagramOutputStream(endpoint));
     }
 
     @Override
@@ -121,6 +153,8 @@ public class UDPClientRequestHandler implements ClientRequestHandler {
         dataOutputStream.writeInt(data.length);
         dataOutputStream.write(data, 0, data.length);
         dataOutputStream.flush();
+        // The receive disconnects right after the reply is read
+        endpoint.acknowledgeByClose();
     }
 
     @Override
@@ -143,8 +177,14 @@ public class UDPClientRequestHandler implements ClientRequestHandler {
         }
         connected = false;
         connectedBefore = true;
-        dataOutputStream.close();
-        dataInputStream.close();
-        connectedDatagramSocket.close();
+        try {
+            if (endpoint != null) {
+                dataOutputStream.close();
+                dataInputStream.close();
+                endpoint.closeGracefully();
+            }
+        } finally {
+            connectedDatagramSocket.close();
+        }
     }
 }
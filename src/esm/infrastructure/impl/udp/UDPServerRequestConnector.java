@@ -1,20 +1,96 @@
 package esm.infrastructure.impl.udp;
 
+import esm.infrastructure.ReactiveServerRequestConnector;
 import esm.infrastructure.ServerRequestConnector;
 import esm.infrastructure.ServerRequestHandler;
+import esm.infrastructure.nio.ChannelHandler;
+import esm.infrastructure.nio.EventLoop;
+import esm.infrastructure.nio.Reactor;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
- * UDP implementation of the {@link ServerRequestConnector} interface.
+ * UDP implementation of the {@link ServerRequestConnector} interface. The port receives connectionless requests and
+ * connections. The datagrams of the connectionless requests are demultiplexed by the client socket and the request id,
+ * each new request is accepted when its first datagram arrives, and is replied from the port, so a request takes a
+ * single round trip. The requests are kept in a {@link UDPSessionTable}, whose sessions expire. When accepted, each
+ * connection datagram opens a connection in a new socket, that replies the client. The number of sessions, requests
+ * and connection sockets is limited, the datagrams that would exceed the limits are dropped before anything is
+ * allocated or replied, so a flood of first datagrams from unknown addresses can not exhaust the server.
+ * <p>
+ * The port is a {@link DatagramChannel}. When accepted, the datagrams of the port are received by a daemon thread
+ * started by the first accept, that delivers them to the accepted requests and queues the new ones for the threads
+ * that accept, so the acknowledgements of the replies arrive while no thread accepts. When registered in
+ * a {@link Reactor}, the channel does not block and the event loop receives many datagrams of the port in each
+ * wakeup, the requests are assembled and acknowledged by the event loop and handed to the request consumer only when
+ * complete, so the requests do not hold threads while they arrive. The replies are sent and retransmitted by the event
+ * loop, so the threads that process the requests do not wait the acknowledgements of the clients. The connections are
+ * accepted in the port with a random id, their datagrams are demultiplexed as requests of that id, so they do not need
+ * sockets and threads either.
  *
  * @author Pedro Henrique
  */
-public class UDPServerRequestConnector implements ServerRequestConnector {
+public class UDPServerRequestConnector implements ReactiveServerRequestConnector {
+
+    /**
+     * The time in milliseconds that the accepted connections wait the datagrams of the client, the connections
+     * accepted again because the reply of the connection was lost are closed after it.
+     */
+    private static final int CONNECTION_IDLE_TIMEOUT = 10000;
+
+    /**
+     * The time in milliseconds that the finished requests are remembered, acknowledging their late datagrams.
+     */
+    private static final long REQUEST_LINGER = 5000;
+
+    /**
+     * The time in milliseconds that the sessions of the clients without requests are kept.
+     */
+    private static final long SESSION_TIMEOUT = 30000;
+
+    /**
+     * The max number of datagrams received by the event loop in each wakeup, so the other channels of the event loop
+     * are not delayed.
+     */
+    private static final int MAX_DATAGRAMS_PER_WAKEUP = 1024;
+
+    /**
+     * The max time in nanoseconds that the accept waits the queued requests before checking if the port is still
+     * received.
+     */
+    private static final long ACCEPT_POLL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * The default max number of client sessions of the connectionless requests.
+     */
+    public static final int DEFAULT_MAX_SESSIONS = 16384;
+
+    /**
+     * The default max number of connectionless requests kept by the port, open or closed.
+     */
+    public static final int DEFAULT_MAX_REQUESTS = 65536;
+
+    /**
+     * The default max number of connections accepted in new sockets and not closed yet.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 1024;
 
     /**
      * The server local address.
@@ -27,21 +103,108 @@ public class UDPServerRequestConnector implements ServerRequestConnector {
     private int localPort;
 
     /**
-     * The server socket.
+     * The channel of the server port.
+     */
+    private DatagramChannel welcomeChannel;
+
+    /**
+     * The buffer of the datagrams received in the port.
+     */
+    private ByteBuffer receiveBuffer;
+
+    /**
+     * The packet of the datagrams received in the port by the receive thread, shares the array of the receive buffer.
+     */
+    private DatagramPacket receivePacket;
+
+    /**
+     * The sessions of the clients of the connectionless requests.
+     */
+    private UDPSessionTable sessionTable;
+
+    /**
+     * The max number of connections accepted in new sockets and not closed yet.
+     */
+    private int maxConnections;
+
+    /**
+     * The sockets of the connections accepted in new sockets, the closed ones are removed when the max number of
+     * connections is reached.
+     */
+    private List<DatagramSocket> connectionSockets;
+
+    /**
+     * The requests and connections accepted by the receive thread and not taken by the accept yet.
+     */
+    private BlockingQueue<ServerRequestHandler> acceptedHandlers;
+
+    /**
+     * The thread that receives the port when accepted, null if not started yet.
+     */
+    private Thread receiveThread;
+
+    /**
+     * The exception that stopped the receive thread, null while it receives.
      */
-    private DatagramSocket welcomeDatagramSocket;
+    private volatile IOException receiveFailure;
 
     /**
-     * Creates the UDPServerRequestConnector with the received port.
+     * The time in milliseconds that the accept waits a request, zero to wait indefinitely.
+     */
+    private int timeout;
+
+    /**
+     * Creates the UDPServerRequestConnector with the received port, limited to {@link #DEFAULT_MAX_SESSIONS} sessions,
+     * {@link #DEFAULT_MAX_REQUESTS} requests and {@link #DEFAULT_MAX_CONNECTIONS} connections.
      *
      * @param localAddress the server local address
      * @param localPort    the server local port
      * @throws IOException if an I/O exception of some sort has occurred
      */
     public UDPServerRequestConnector(InetAddress localAddress, int localPort) throws IOException {
+        this(localAddress, localPort, DEFAULT_MAX_SESSIONS, DEFAULT_MAX_REQUESTS, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Creates the UDPServerRequestConnector with the received port and limits. The datagrams of new requests and
+     * connections are dropped while the limits are reached, the clients retransmit them.
+     *
+     * @param localAddress   the server local address
+     * @param localPort      the server local port
+     * @param maxSessions    the max number of client sessions of the connectionless requests, greater than zero
+     * @param maxRequests    the max number of connectionless requests kept by the port, the closed requests are kept
+     *                       while their late datagrams are acknowledged, greater than zero
+     * @param maxConnections the max number of connections accepted in new sockets and not closed yet, the connections
+     *                       accepted in the port by an event loop are connectionless requests, greater than zero
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    public UDPServerRequestConnector(InetAddress localAddress, int localPort, int maxSessions, int maxRequests,
+                                     int maxConnections) throws IOException {
+        if (maxSessions < 1) {
+            throw new IllegalArgumentException("The max number of sessions can not be less than 1.");
+        } else if (maxRequests < 1) {
+            throw new IllegalArgumentException("The max number of requests can not be less than 1.");
+        } else if (maxConnections < 1) {
+            throw new IllegalArgumentException("The max number of connections can not be less than 1.");
+        }
         this.localAddress = localAddress;
         this.localPort = localPort;
-        welcomeDatagramSocket = new DatagramSocket(localPort, localAddress);
+        welcomeChannel = DatagramChannel.open();
+        try {
+            welcomeChannel.bind(new InetSocketAddress(localAddress, localPort));
+        } catch (IOException e) {
+            welcomeChannel.close();
+            throw e;
+        }
+        receiveBuffer = ByteBuffer.allocate(ReliableDatagramEndpoint.MAX_DATAGRAM_SIZE);
+        receivePacket = new DatagramPacket(receiveBuffer.array(), ReliableDatagramEndpoint.MAX_DATAGRAM_SIZE);
+        sessionTable = new UDPSessionTable(REQUEST_LINGER, SESSION_TIMEOUT, maxSessions, maxRequests);
+        this.maxConnections = maxConnections;
+        connectionSockets = new ArrayList<>();
+        acceptedHandlers = new LinkedBlockingQueue<>();
+        receiveThread = null;
+        receiveFailure = null;
+        timeout = 0;
     }
 
     @Override
@@ -56,27 +219,227 @@ public class UDPServerRequestConnector implements ServerRequestConnector {
 
     @Override
     public ServerRequestHandler accept() throws IOException {
-        DatagramPacket clientRequestHandlerConnectionInfoPacket = new DatagramPacket(new byte[0], 0);
-        welcomeDatagramSocket.receive(clientRequestHandlerConnectionInfoPacket);
-        DatagramSocket connectedDatagramSocket = new DatagramSocket();
-        connectedDatagramSocket.send(new DatagramPacket(new byte[0], 0,
-                clientRequestHandlerConnectionInfoPacket.getAddress(),
-                clientRequestHandlerConnectionInfoPacket.getPort())
-        );
-        ServerRequestHandler serverRequestHandler = new UDPServerRequestHandler(
-                connectedDatagramSocket, clientRequestHandlerConnectionInfoPacket.getAddress(),
-                clientRequestHandlerConnectionInfoPacket.getPort()
-        );
-        return serverRequestHandler;
+        startReceiveThread();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (true) {
+            long wait = timeout == 0
+                    ? ACCEPT_POLL_INTERVAL
+                    : Math.min(ACCEPT_POLL_INTERVAL, deadline - System.nanoTime());
+            if (wait <= 0) {
+                throw new SocketTimeoutException("Accept timed out");
+            }
+            ServerRequestHandler serverRequestHandler;
+            try {
+                serverRequestHandler = acceptedHandlers.poll(wait, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while accepting a request.");
+            }
+            if (serverRequestHandler != null) {
+                return serverRequestHandler;
+            } else if (receiveFailure != null) {
+                throw new IOException("The port is not received anymore.", receiveFailure);
+            }
+        }
+    }
+
+    /**
+     * Starts the thread that receives the port, if not started yet. The thread demultiplexes the datagrams of the port
+     * until the port is closed, delivering the datagrams of the accepted requests and queueing the new requests and
+     * connections for the accept.
+     *
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private synchronized void startReceiveThread() throws IOException {
+        if (receiveThread != null) {
+            return;
+        }
+        synchronized (welcomeChannel.blockingLock()) {
+            if (!welcomeChannel.isBlocking()) {
+                welcomeChannel.configureBlocking(true);
+            }
+        }
+        receiveThread = new Thread(() -> {
+            try {
+                while (true) {
+                    receivePacket.setLength(ReliableDatagramEndpoint.MAX_DATAGRAM_SIZE);
+                    welcomeChannel.socket().receive(receivePacket);
+                    sessionTable.expire();
+                    try {
+                        ServerRequestHandler serverRequestHandler = demultiplex(
+                                receivePacket.getData(), receivePacket.getLength(),
+                                (InetSocketAddress) receivePacket.getSocketAddress(), null
+                        );
+                        if (serverRequestHandler != null) {
+                            acceptedHandlers.add(serverRequestHandler);
+                        }
+                    } catch (IOException e) {
+                        // A reply of the port failed, the other datagrams are still received
+                        if (!welcomeChannel.isOpen()) {
+                            throw e;
+                        }
+                        e.printStackTrace();
+                    }
+                }
+            } catch (IOException e) {
+                receiveFailure = e;
+            }
+        }, "UDPServerRequestConnector-" + localPort);
+        receiveThread.setDaemon(true);
+        receiveThread.start();
+    }
+
+    @Override
+    public void register(Reactor reactor, Consumer<ServerRequestHandler> requestConsumer) throws IOException {
+        welcomeChannel.configureBlocking(false);
+        reactor.register(welcomeChannel, SelectionKey.OP_READ, new ReceiveHandler(requestConsumer));
     }
 
     @Override
     public void setTimeout(int timeout) throws SocketException {
-        welcomeDatagramSocket.setSoTimeout(timeout);
+        if (timeout < 0) {
+            throw new IllegalArgumentException("The timeout can not be negative.");
+        }
+        this.timeout = timeout;
     }
 
     @Override
     public void close() throws IOException {
-        welcomeDatagramSocket.close();
+        welcomeChannel.close();
+    }
+
+    /**
+     * Demultiplexes a datagram received in the port. The invalid datagrams and the late datagrams of the forgotten
+     * requests are dropped, the data and close datagrams of the closed requests are acknowledged again. The datagrams
+     * of new requests and connections are dropped while the limits of the connector are reached. If the port is
+     * received by an event loop, the datagrams of the requests are processed by it and the connections are accepted in
+     * the port, otherwise the datagrams are delivered to the thread that receives the request and the connections are
+     * accepted in new sockets.
+     *
+     * @param datagram      the array with the datagram, at the start, it is not kept
+     * @param length        the datagram length
+     * @param clientAddress the client socket address
+     * @param eventLoop     the event loop that receives the port, null if the port is received by a blocking thread
+     * @return the handler of the accepted connection or request, or null if the datagram did not complete one
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private ServerRequestHandler demultiplex(byte[] datagram, int length, InetSocketAddress clientAddress,
+                                             EventLoop eventLoop) throws IOException {
+        if (!ReliableDatagramEndpoint.isValid(datagram, 0, length)) {
+            return null;
+        }
+        byte type = ReliableDatagramEndpoint.typeOf(datagram);
+        if (type == ReliableDatagramEndpoint.TYPE_CONNECT) {
+            if (eventLoop == null) {
+                if (connectionSockets.size() >= maxConnections) {
+                    connectionSockets.removeIf(DatagramSocket::isClosed);
+                    if (connectionSockets.size() >= maxConnections) {
+                        return null;
+                    }
+                }
+                return acceptConnection(clientAddress.getAddress(), clientAddress.getPort());
+            }
+            ReliableDatagramEndpoint.acceptInPort(welcomeChannel, clientAddress, ThreadLocalRandom.current().nextInt());
+            return null;
+        }
+        int requestId = ReliableDatagramEndpoint.requestIdOf(datagram);
+        ReliableDatagramEndpoint endpoint = sessionTable.find(clientAddress, requestId);
+        if (endpoint == null) {
+            if (type != ReliableDatagramEndpoint.TYPE_DATA || ReliableDatagramEndpoint.sequenceOf(datagram) != 0) {
+                // A late datagram of a forgotten request
+                return null;
+            } else if (!sessionTable.canAdd(clientAddress)) {
+                // Too many sessions or requests, the client retransmits the datagram
+                return null;
+            }
+            endpoint = ReliableDatagramEndpoint.demultiplexed(
+                    welcomeChannel, clientAddress.getAddress(), clientAddress.getPort(), requestId,
+                    CONNECTION_IDLE_TIMEOUT, eventLoop
+            );
+            sessionTable.add(clientAddress, requestId, endpoint);
+            if (eventLoop == null) {
+                endpoint.deliver(datagram, length);
+                return new UDPServerRequestHandler(null, endpoint);
+            }
+        } else if (endpoint.getCloseTime() != 0) {
+            if (type == ReliableDatagramEndpoint.TYPE_DATA) {
+                endpoint.acknowledgeClosed();
+            } else if (type == ReliableDatagramEndpoint.TYPE_CLOSE) {
+                endpoint.acknowledgeClose();
+            }
+            return null;
+        } else if (eventLoop == null) {
+            endpoint.deliver(datagram, length);
+            return null;
+        }
+        return endpoint.assemble(datagram, length) ? new UDPServerRequestHandler(null, endpoint) : null;
+    }
+
+    /**
+     * Accepts a connection of the client in a new socket.
+     *
+     * @param clientAddress the client address
+     * @param clientPort    the client port
+     * @return the handler of the connection
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private ServerRequestHandler acceptConnection(InetAddress clientAddress, int clientPort) throws IOException {
+        DatagramSocket connectedDatagramSocket = new DatagramSocket();
+        try {
+            ReliableDatagramEndpoint endpoint = ReliableDatagramEndpoint.accept(
+                    connectedDatagramSocket, clientAddress, clientPort, CONNECTION_IDLE_TIMEOUT
+            );
+            connectionSockets.add(connectedDatagramSocket);
+            return new UDPServerRequestHandler(connectedDatagramSocket, endpoint);
+        } catch (IOException e) {
+            connectedDatagramSocket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The {@link ReceiveHandler} receives the datagrams of the port in an event loop, handing the complete requests to
+     * the request consumer.
+     */
+    private class ReceiveHandler implements ChannelHandler {
+        private Consumer<ServerRequestHandler> requestConsumer;
+        private EventLoop eventLoop;
+        private SelectionKey selectionKey;
+
+        ReceiveHandler(Consumer<ServerRequestHandler> requestConsumer) {
+            this.requestConsumer = requestConsumer;
+        }
+
+        @Override
+        public void registered(EventLoop eventLoop, SelectionKey selectionKey) {
+            this.eventLoop = eventLoop;
+            this.selectionKey = selectionKey;
+        }
+
+        @Override
+        public void handle(SelectionKey selectionKey) throws IOException {
+            sessionTable.expire();
+            for (int i = 0; i < MAX_DATAGRAMS_PER_WAKEUP; i++) {
+                receiveBuffer.clear();
+                InetSocketAddress clientAddress = (InetSocketAddress) welcomeChannel.receive(receiveBuffer);
+                if (clientAddress == null) {
+                    return;
+                }
+                ServerRequestHandler serverRequestHandler = demultiplex(
+                        receiveBuffer.array(), receiveBuffer.position(), clientAddress, eventLoop
+                );
+                if (serverRequestHandler != null) {
+                    requestConsumer.accept(serverRequestHandler);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            // The welcome channel stays open to be registered again
+            if (selectionKey != null) {
+                selectionKey.cancel();
+            }
+        }
     }
 }
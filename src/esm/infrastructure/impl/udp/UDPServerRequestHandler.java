@@ -6,21 +6,28 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.DatagramSocket;
-import java.net.InetAddress;
 import java.util.Objects;
 
 /**
- * UDP implementation of the {@link ServerRequestHandler} interface.
+ * UDP implementation of the {@link ServerRequestHandler} interface. The data is exchanged by a
+ * {@link ReliableDatagramEndpoint}, so the request and the reply are received in order and without losses. The
+ * handler of a connection accepted by a blocking thread has its own socket, the other handlers reply from the port of
+ * the {@link UDPServerRequestConnector}.
  *
  * @author Pedro Henrique
  */
 public class UDPServerRequestHandler implements ServerRequestHandler {
 
     /**
-     * The connected socket.
+     * The connected socket, null if the socket of the port is shared.
      */
     private DatagramSocket connectedDatagramSocket;
 
+    /**
+     * The endpoint of the connection or request.
+     */
+    private ReliableDatagramEndpoint endpoint;
+
     /**
      * The socket input stream.
      */
@@ -44,25 +51,28 @@ public class UDPServerRequestHandler implements ServerRequestHandler {
     /**
      * Creates a new UDPServerRequestHandler with the connected socket.
      *
-     * @param connectedDatagramSocket the connected socket
-     * @param connectedAddress        the client address
-     * @param connectedPort           the client port
-     * @throws IOException if an I/O exception of some sort has occurred
+     * @param connectedDatagramSocket the connected socket, or null if the request shares the socket of the port
+     * @param endpoint                the endpoint of the connection or request
      */
-    UDPServerRequestHandler(DatagramSocket connectedDatagramSocket, InetAddress connectedAddress, int connectedPort)
-            throws IOException {
-        this.connectedDatagramSocket
-                = Objects.requireNonNull(connectedDatagramSocket, "The connected socket can not be null.");
-        dataInputStream = new DataInputStream(
-                new DatagramInputStream(connectedDatagramSocket, connectedAddress, connectedPort)
-        );
-        dataOutputStream = new DataOutputStream(
-                new DatagramOutputStream(connectedDatagramSocket, connectedAddress, connectedPort)
-        );
+    UDPServerRequestHandler(DatagramSocket connectedDatagramSocket, ReliableDatagramEndpoint endpoint) {
+        this.connectedDatagramSocket = connectedDatagramSocket;
+        this.endpoint = Objects.requireNonNull(endpoint, "The endpoint can not be null.");
+        dataInputStream = new DataInputStream(new DatagramInputStream(endpoint));
+        dataOutputStream = new DataOutputStream(new DatagramOutputStream(endpoint));
         connected = true;
         received = false;
     }
 
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return false;
+    }
+
     @Override
     public byte[] receive() throws IOException {
         if (!connected) {
@@ -98,6 +108,15 @@ public class UDPServerRequestHandler implements ServerRequestHandler {
         connected = false;
         dataOutputStream.close();
         dataInputStream.close();
-        connectedDatagramSocket.close();
+        if (connectedDatagramSocket == null) {
+            // The port answers the close of the client while it remembers the request
+            endpoint.close();
+            return;
+        }
+        try {
+            endpoint.closeGracefully();
+        } finally {
+            connectedDatagramSocket.close();
+        }
     }
 }
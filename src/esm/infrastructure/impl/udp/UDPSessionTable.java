@@ -0,0 +1,201 @@
+package esm.infrastructure.impl.udp;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The sessions of the clients that send connectionless requests to a UDP port, each session keeps the endpoints of the
+ * requests of a client socket, mapped by the request id. The closed endpoints are kept for a while, so the late
+ * datagrams of the finished requests are acknowledged again instead of starting new requests. The sessions without
+ * requests are removed after the session timeout. The number of sessions and of requests kept is limited, so the
+ * datagrams of unknown clients can not exhaust the memory of the server. The table is used by the thread that receives
+ * the datagrams of the port.
+ *
+ * @author Pedro Henrique
+ */
+final class UDPSessionTable {
+
+    /**
+     * The time in nanoseconds between the expirations of the closed requests and sessions.
+     */
+    private static final long EXPIRATION_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The min time in nanoseconds between the removals of the sessions without requests forced by the max number of
+     * sessions, so a flood of new clients does not scan the table in every datagram.
+     */
+    private static final long RECLAIM_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * The time in nanoseconds that the closed requests are kept.
+     */
+    private long requestLinger;
+
+    /**
+     * The time in nanoseconds that the sessions without requests are kept.
+     */
+    private long sessionTimeout;
+
+    /**
+     * The max number of sessions.
+     */
+    private int maxSessions;
+
+    /**
+     * The max number of requests of all sessions, open or closed.
+     */
+    private int maxRequests;
+
+    /**
+     * The number of requests of all sessions, open or closed.
+     */
+    private int requestCount;
+
+    /**
+     * The sessions mapped by the client socket address.
+     */
+    private Map<InetSocketAddress, Session> sessions;
+
+    /**
+     * The time in nanoseconds of the last expiration.
+     */
+    private long lastExpiration;
+
+    /**
+     * The time in nanoseconds of the last removal of the sessions without requests forced by the max number of
+     * sessions.
+     */
+    private long lastReclaim;
+
+    /**
+     * Creates the table without sessions.
+     *
+     * @param requestLinger  the time in milliseconds that the closed requests are kept
+     * @param sessionTimeout the time in milliseconds that the sessions without requests are kept
+     * @param maxSessions    the max number of sessions
+     * @param maxRequests    the max number of requests of all sessions, open or closed
+     */
+    UDPSessionTable(long requestLinger, long sessionTimeout, int maxSessions, int maxRequests) {
+        this.requestLinger = TimeUnit.MILLISECONDS.toNanos(requestLinger);
+        this.sessionTimeout = TimeUnit.MILLISECONDS.toNanos(sessionTimeout);
+        this.maxSessions = maxSessions;
+        this.maxRequests = maxRequests;
+        requestCount = 0;
+        sessions = new HashMap<>();
+        lastExpiration = System.nanoTime();
+        lastReclaim = lastExpiration - RECLAIM_INTERVAL;
+    }
+
+    /**
+     * Returns the endpoint of the request of the client, marking the session of the client as active.
+     *
+     * @param clientAddress the client socket address
+     * @param requestId     the request id
+     * @return the endpoint of the request, open or closed, or null if the request is unknown
+     */
+    ReliableDatagramEndpoint find(InetSocketAddress clientAddress, int requestId) {
+        Session session = sessions.get(clientAddress);
+        if (session == null) {
+            return null;
+        }
+        session.lastActivity = System.nanoTime();
+        return session.requests.get(requestId);
+    }
+
+    /**
+     * Returns if a new request of the client can be added, that is, if the max number of requests was not reached and
+     * the client has a session or the max number of sessions was not reached. When the max number of sessions is
+     * reached, the sessions without requests are removed before their timeout, they keep no state of the requests.
+     *
+     * @param clientAddress the client socket address
+     * @return if a new request of the client can be added
+     */
+    boolean canAdd(InetSocketAddress clientAddress) {
+        if (requestCount >= maxRequests) {
+            return false;
+        } else if (sessions.size() < maxSessions || sessions.containsKey(clientAddress)) {
+            return true;
+        }
+        long now = System.nanoTime();
+        if (now - lastReclaim < RECLAIM_INTERVAL) {
+            return false;
+        }
+        lastReclaim = now;
+        sessions.values().removeIf(session -> session.requests.isEmpty());
+        return sessions.size() < maxSessions;
+    }
+
+    /**
+     * Adds the endpoint of a new request of the client, creating the session of the client if needed. The caller
+     * checks {@link #canAdd(InetSocketAddress)} first.
+     *
+     * @param clientAddress the client socket address
+     * @param requestId     the request id
+     * @param endpoint      the endpoint of the request
+     */
+    void add(InetSocketAddress clientAddress, int requestId, ReliableDatagramEndpoint endpoint) {
+        Session session = sessions.computeIfAbsent(clientAddress, address -> new Session());
+        session.lastActivity = System.nanoTime();
+        if (session.requests.put(requestId, endpoint) == null) {
+            requestCount++;
+        }
+    }
+
+    /**
+     * Removes the requests closed for longer than the request linger and the sessions without requests inactive for
+     * longer than the session timeout, at most once per second. The requests abandoned while assembled are closed
+     * first.
+     */
+    void expire() {
+        long now = System.nanoTime();
+        if (now - lastExpiration < EXPIRATION_INTERVAL) {
+            return;
+        }
+        lastExpiration = now;
+        Iterator<Session> sessionIterator = sessions.values().iterator();
+        while (sessionIterator.hasNext()) {
+            Session session = sessionIterator.next();
+            Iterator<ReliableDatagramEndpoint> requestIterator = session.requests.values().iterator();
+            while (requestIterator.hasNext()) {
+                ReliableDatagramEndpoint endpoint = requestIterator.next();
+                endpoint.expireAssembly(now);
+                long closeTime = endpoint.getCloseTime();
+                if (closeTime != 0 && now - closeTime >= requestLinger) {
+                    requestIterator.remove();
+                    requestCount--;
+                }
+            }
+            if (session.requests.isEmpty() && now - session.lastActivity >= sessionTimeout) {
+                sessionIterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of sessions.
+     *
+     * @return the number of sessions
+     */
+    int size() {
+        return sessions.size();
+    }
+
+    /**
+     * The session of a client socket.
+     */
+    private static final class Session {
+
+        /**
+         * The endpoints of the requests, mapped by the request id.
+         */
+        private final Map<Integer, ReliableDatagramEndpoint> requests = new HashMap<>();
+
+        /**
+         * The time in nanoseconds of the last datagram of the client.
+         */
+        private long lastActivity;
+    }
+}
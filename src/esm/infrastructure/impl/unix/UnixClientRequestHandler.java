@@ -0,0 +1,41 @@
+package esm.infrastructure.impl.unix;
+
+import esm.infrastructure.ClientRequestHandler;
+import esm.infrastructure.impl.tcp.TCPClientRequestHandler;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Unix domain socket implementation of the {@link ClientRequestHandler} interface, for servers in the same host. The
+ * handler sends the same multiplexed frames of the {@link TCPClientRequestHandler} through the socket of the server
+ * port, without the loopback TCP stack. The server address is not used to connect, the server should be local.
+ *
+ * @author Pedro Henrique
+ * @see UnixServerRequestConnector
+ */
+public class UnixClientRequestHandler extends TCPClientRequestHandler {
+
+    /**
+     * Creates a new UnixClientRequestHandler.
+     *
+     * @param serverAddress the server address
+     * @param serverPort    the server port
+     */
+    public UnixClientRequestHandler(InetAddress serverAddress, int serverPort) {
+        super(serverAddress, serverPort);
+    }
+
+    @Override
+    protected SocketChannel openChannel() throws IOException {
+        SocketChannel socketChannel = UnixDomainSockets.openSocketChannel();
+        try {
+            socketChannel.connect(UnixDomainSockets.socketAddress(getServerPort()));
+        } catch (IOException e) {
+            socketChannel.close();
+            throw e;
+        }
+        return socketChannel;
+    }
+}
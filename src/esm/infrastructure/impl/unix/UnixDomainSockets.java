@@ -0,0 +1,110 @@
+package esm.infrastructure.impl.unix;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Opens the Unix domain socket channels and resolves the socket addresses of the ports. The Unix domain socket channels
+ * are available since Java 16, they are obtained by reflection, so the middleware still runs in older versions
+ * without this transport. The socket of each port is the file {@code esm-<port>.sock} in the temporary directory.
+ *
+ * @author Pedro Henrique
+ */
+final class UnixDomainSockets {
+
+    /**
+     * The name of the Unix domain socket address class.
+     */
+    private static final String UNIX_DOMAIN_SOCKET_ADDRESS_CLASS = "java.net.UnixDomainSocketAddress";
+
+    /**
+     * Prevents instantiation.
+     */
+    private UnixDomainSockets() {
+    }
+
+    /**
+     * Returns the path of the socket file of the port.
+     *
+     * @param port the port
+     * @return the socket file path
+     */
+    static Path socketPath(int port) {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "esm-" + port + ".sock");
+    }
+
+    /**
+     * Returns the Unix domain socket address of the port.
+     *
+     * @param port the port
+     * @return the socket address
+     * @throws IOException if the Unix domain sockets are not supported
+     */
+    static SocketAddress socketAddress(int port) throws IOException {
+        try {
+            Method of = Class.forName(UNIX_DOMAIN_SOCKET_ADDRESS_CLASS).getMethod("of", Path.class);
+            return (SocketAddress) of.invoke(null, socketPath(port));
+        } catch (ReflectiveOperationException e) {
+            throw unsupported(e);
+        }
+    }
+
+    /**
+     * Opens a blocking Unix domain socket channel, not connected.
+     *
+     * @return the socket channel
+     * @throws IOException if an I/O exception of some sort has occurred or the Unix domain sockets are not supported
+     */
+    static SocketChannel openSocketChannel() throws IOException {
+        return (SocketChannel) open(SocketChannel.class);
+    }
+
+    /**
+     * Opens a Unix domain server socket channel, not bound.
+     *
+     * @return the server socket channel
+     * @throws IOException if an I/O exception of some sort has occurred or the Unix domain sockets are not supported
+     */
+    static ServerSocketChannel openServerSocketChannel() throws IOException {
+        return (ServerSocketChannel) open(ServerSocketChannel.class);
+    }
+
+    /**
+     * Calls the static {@code open(ProtocolFamily)} method of the channel class with the Unix protocol family.
+     *
+     * @param channelClass the channel class
+     * @return the opened channel
+     * @throws IOException if an I/O exception of some sort has occurred or the Unix domain sockets are not supported
+     */
+    private static Object open(Class<?> channelClass) throws IOException {
+        try {
+            ProtocolFamily unixProtocolFamily = StandardProtocolFamily.valueOf("UNIX");
+            return channelClass.getMethod("open", ProtocolFamily.class).invoke(null, unixProtocolFamily);
+        } catch (IllegalArgumentException | NoSuchMethodException | IllegalAccessException e) {
+            throw unsupported(e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw unsupported(e.getCause());
+        }
+    }
+
+    /**
+     * Creates the exception thrown when the Unix domain sockets are not supported.
+     *
+     * @param cause the cause
+     * @return the exception
+     */
+    private static IOException unsupported(Throwable cause) {
+        return new IOException("The Unix domain sockets are not supported by this Java version.", cause);
+    }
+}
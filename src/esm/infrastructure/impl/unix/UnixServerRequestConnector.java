@@ -0,0 +1,116 @@
+package esm.infrastructure.impl.unix;
+
+import esm.infrastructure.ServerRequestConnector;
+import esm.infrastructure.impl.tcp.TCPServerRequestConnector;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+/**
+ * Unix domain socket implementation of the {@link ServerRequestConnector} interface, for clients in the same host. The
+ * connector listens in the socket file of the local port and receives the same frames of the
+ * {@link TCPServerRequestConnector}, in blocking mode or in a reactor. The socket file is replaced when the connector
+ * is created and deleted when it is closed or when the virtual machine exits.
+ *
+ * @author Pedro Henrique
+ * @see UnixClientRequestHandler
+ */
+public class UnixServerRequestConnector extends TCPServerRequestConnector {
+
+    /**
+     * The selector that waits the connections with the accept timeout.
+     */
+    private Selector acceptSelector;
+
+    /**
+     * The accept timeout in milliseconds, zero to wait forever.
+     */
+    private volatile int timeout;
+
+    /**
+     * Creates the UnixServerRequestConnector with the received port.
+     *
+     * @param localAddress the server local address
+     * @param localPort    the server local port
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    public UnixServerRequestConnector(InetAddress localAddress, int localPort) throws IOException {
+        super(localAddress, localPort, bind(localPort));
+        acceptSelector = Selector.open();
+        timeout = 0;
+    }
+
+    @Override
+    protected SocketChannel acceptChannel() throws IOException {
+        ServerSocketChannel welcomeChannel = getWelcomeChannel();
+        synchronized (acceptSelector) {
+            synchronized (welcomeChannel.blockingLock()) {
+                if (welcomeChannel.isBlocking()) {
+                    welcomeChannel.configureBlocking(false);
+                }
+                if (welcomeChannel.keyFor(acceptSelector) == null) {
+                    welcomeChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+                }
+            }
+            SocketChannel connectedChannel;
+            try {
+                while ((connectedChannel = welcomeChannel.accept()) == null) {
+                    if (acceptSelector.select(timeout) == 0 && timeout > 0) {
+                        throw new SocketTimeoutException("Accept timed out.");
+                    }
+                    acceptSelector.selectedKeys().clear();
+                }
+            } catch (ClosedSelectorException e) {
+                throw new AsynchronousCloseException();
+            }
+            connectedChannel.configureBlocking(true);
+            return connectedChannel;
+        }
+    }
+
+    @Override
+    public void setTimeout(int timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("The timeout can not be negative.");
+        }
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+            acceptSelector.close();
+        } finally {
+            Files.deleteIfExists(UnixDomainSockets.socketPath(getLocalPort()));
+        }
+    }
+
+    /**
+     * Opens the welcome channel bound to the socket file of the port, the stale socket file is replaced.
+     *
+     * @param localPort the server local port
+     * @return the bound welcome channel
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private static ServerSocketChannel bind(int localPort) throws IOException {
+        Files.deleteIfExists(UnixDomainSockets.socketPath(localPort));
+        ServerSocketChannel welcomeChannel = UnixDomainSockets.openServerSocketChannel();
+        try {
+            welcomeChannel.bind(UnixDomainSockets.socketAddress(localPort), 50);
+        } catch (IOException e) {
+            welcomeChannel.close();
+            throw e;
+        }
+        UnixDomainSockets.socketPath(localPort).toFile().deleteOnExit();
+        return welcomeChannel;
+    }
+}
@@ -0,0 +1,156 @@
+package esm.infrastructure.nio;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The budget of request bytes received and not finished yet, shared by the connections of a server. The connections
+ * count the requests in their {@link CreditWindow}s, that also count them in the budget, and stop reading new requests
+ * while the budget is exhausted, so the memory held by the pending requests of all connections is bounded. A
+ * connection stopped by the budget registers a listener, called once when the finished requests return bytes to the
+ * budget.
+ * <p>
+ * The budget reports the bytes in use, the peak of bytes in use and the number of times a connection stopped reading
+ * because the budget was exhausted.
+ *
+ * @author Pedro Henrique
+ * @see CreditWindow
+ */
+public final class ByteBudget {
+
+    /**
+     * The max number of pending request bytes.
+     */
+    private long maxBytes;
+
+    /**
+     * The number of pending request bytes.
+     */
+    private long bytes;
+
+    /**
+     * The max number of pending request bytes reached.
+     */
+    private long peakBytes;
+
+    /**
+     * The number of times a connection stopped reading because the budget was exhausted.
+     */
+    private long pausedReadCount;
+
+    /**
+     * The listeners of the connections waiting the budget to have room.
+     */
+    private Set<Runnable> listeners;
+
+    /**
+     * Creates the budget with the received size.
+     *
+     * @param maxBytes the max number of pending request bytes, greater than zero
+     */
+    public ByteBudget(long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("The max number of pending bytes can not be less than 1.");
+        }
+        this.maxBytes = maxBytes;
+        bytes = 0;
+        peakBytes = 0;
+        pausedReadCount = 0;
+        listeners = new LinkedHashSet<>();
+    }
+
+    /**
+     * Counts a received request. The request is counted even if the budget is exhausted, the connections should stop
+     * reading while {@link #isExhausted()} is true.
+     *
+     * @param size the request data size
+     */
+    public synchronized void add(long size) {
+        bytes += size;
+        peakBytes = Math.max(peakBytes, bytes);
+    }
+
+    /**
+     * Returns the bytes of a finished request. If the budget has room, the waiting listeners are called by the caller
+     * thread.
+     *
+     * @param size the request data size
+     */
+    public void release(long size) {
+        List<Runnable> calledListeners;
+        synchronized (this) {
+            bytes -= size;
+            if (bytes >= maxBytes || listeners.isEmpty()) {
+                return;
+            }
+            calledListeners = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        for (Runnable listener : calledListeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Returns if the budget is exhausted, the connections should not read other requests.
+     *
+     * @return if no other request is accepted
+     */
+    public synchronized boolean isExhausted() {
+        return bytes >= maxBytes;
+    }
+
+    /**
+     * Registers the listener to be called once when the budget has room, if it is exhausted.
+     *
+     * @param listener the listener, should not block
+     * @return true if the listener was registered, false if the budget has room
+     */
+    public synchronized boolean await(Runnable listener) {
+        if (bytes < maxBytes) {
+            return false;
+        }
+        if (listeners.add(listener)) {
+            pausedReadCount++;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the max number of pending request bytes.
+     *
+     * @return the budget size
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the number of pending request bytes.
+     *
+     * @return the bytes in use
+     */
+    public synchronized long getUsedBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the max number of pending request bytes reached.
+     *
+     * @return the peak of bytes in use
+     */
+    public synchronized long getPeakBytes() {
+        return peakBytes;
+    }
+
+    /**
+     * Returns the number of times a connection stopped reading because the budget was exhausted.
+     *
+     * @return the paused read count
+     */
+    public synchronized long getPausedReadCount() {
+        return pausedReadCount;
+    }
+}
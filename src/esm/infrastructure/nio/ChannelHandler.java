@@ -0,0 +1,37 @@
+package esm.infrastructure.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+
+/**
+ * Handles the readiness events of a channel registered in an {@link EventLoop}. All methods of this interface are
+ * called by the event loop thread.
+ *
+ * @author Pedro Henrique
+ * @see EventLoop
+ * @see Reactor
+ */
+public interface ChannelHandler {
+
+    /**
+     * Called when the channel is registered in the {@link EventLoop}.
+     *
+     * @param eventLoop    the event loop where the channel was registered
+     * @param selectionKey the selection key of the registered channel
+     */
+    void registered(EventLoop eventLoop, SelectionKey selectionKey);
+
+    /**
+     * Handles the ready operations of the channel, should not block.
+     *
+     * @param selectionKey the selection key with the ready operations
+     * @throws IOException if an I/O exception of some sort has occurred, the handler is closed after it
+     */
+    void handle(SelectionKey selectionKey) throws IOException;
+
+    /**
+     * Closes this handler, called when the handling fails or when the {@link EventLoop} stops. The handler decides if
+     * the channel should be closed or only deregistered.
+     */
+    void close();
+}
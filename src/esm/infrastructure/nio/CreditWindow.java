@@ -0,0 +1,361 @@
+package esm.infrastructure.nio;
+
+import esm.util.buffer.BufferArena;
+import esm.util.buffer.PooledBuffer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/**
+ * The credit based flow control of a multiplexed connection. The server limits the requests received and not finished
+ * yet, counting the requests and their data bytes, and grants the credits of this window to the client. The client
+ * sends a request only if it has credit for it, so a fast client does not fill the server memory with queued requests.
+ * A request larger than the bytes window is accepted when no other request is pending.
+ * <p>
+ * The credit frames are {@link FrameEncoder} frames with the {@link #CREDIT_CORRELATION_ID}. The client asks the
+ * credits sending a credit frame without data as its first frame, the server replies a credit frame with the window
+ * size. The credits of the replied requests return to the client with the replies, the credits of the requests
+ * finished without reply are accumulated by the server and returned with credit frames. The connections that do not
+ * ask the credits are limited by the server without grants, it stops reading the connection while the window is
+ * exhausted. The windows of a server can also share a {@link ByteBudget}, the server stops reading the connections
+ * while the budget is exhausted.
+ *
+ * @author Pedro Henrique
+ */
+public final class CreditWindow {
+
+    /**
+     * The correlation identifier of the credit frames.
+     */
+    public static final long CREDIT_CORRELATION_ID = -1;
+
+    /**
+     * The size of the credit frames data, the number of requests (int) and the number of bytes (long).
+     */
+    private static final int CREDIT_SIZE = Integer.BYTES + Long.BYTES;
+
+    //
+
+    /**
+     * The max number of pending requests, zero while the client did not receive the window.
+     */
+    private int maxRequests;
+
+    /**
+     * The max number of pending request bytes.
+     */
+    private long maxBytes;
+
+    /**
+     * The number of pending requests.
+     */
+    private int requests;
+
+    /**
+     * The number of pending request bytes.
+     */
+    private long bytes;
+
+    /**
+     * The number of finished requests whose credits were not granted yet.
+     */
+    private int ungrantedRequests;
+
+    /**
+     * The number of finished request bytes whose credits were not granted yet.
+     */
+    private long ungrantedBytes;
+
+    /**
+     * Indicates if the connection was closed.
+     */
+    private boolean closed;
+
+    /**
+     * The budget shared with the windows of other connections, null if not shared.
+     */
+    private ByteBudget byteBudget;
+
+    /**
+     * The listener called when the shared budget has room after it stopped this window.
+     */
+    private Runnable budgetListener;
+
+    /**
+     * Creates the window of a client, without credits until the server grants the window.
+     */
+    public CreditWindow() {
+        this(0, 0);
+    }
+
+    /**
+     * Creates the window of a server with the received size.
+     *
+     * @param maxRequests the max number of pending requests
+     * @param maxBytes    the max number of pending request bytes
+     */
+    public CreditWindow(int maxRequests, long maxBytes) {
+        this(maxRequests, maxBytes, null);
+    }
+
+    /**
+     * Creates the window of a server with the received size, that also counts the requests in the budget shared with
+     * other connections. The window is exhausted while the budget is exhausted.
+     *
+     * @param maxRequests the max number of pending requests
+     * @param maxBytes    the max number of pending request bytes
+     * @param byteBudget  the shared budget, or null
+     */
+    public CreditWindow(int maxRequests, long maxBytes, ByteBudget byteBudget) {
+        if (maxRequests < 0) {
+            throw new IllegalArgumentException("The max number of pending requests can not be negative.");
+        } else if (maxBytes < 0) {
+            throw new IllegalArgumentException("The max number of pending bytes can not be negative.");
+        }
+        this.maxRequests = maxRequests;
+        this.maxBytes = maxBytes;
+        requests = 0;
+        bytes = 0;
+        ungrantedRequests = 0;
+        ungrantedBytes = 0;
+        closed = false;
+        this.byteBudget = byteBudget;
+        budgetListener = this::wakeUp;
+    }
+
+    /**
+     * Sets the listener called once when the shared budget has room after it stopped this window, see
+     * {@link #awaitBudget()}. By default, the threads waiting in {@link #awaitCredit()} are woken up.
+     *
+     * @param budgetListener the budget listener, should not block
+     */
+    public void setBudgetListener(Runnable budgetListener) {
+        this.budgetListener = budgetListener;
+    }
+
+    /**
+     * Returns the data of the credit frame sent by the client to ask the credits.
+     *
+     * @return the buffer with the credit request
+     */
+    public static PooledBuffer creditRequest() {
+        return BufferArena.getInstance().allocate(0);
+    }
+
+    /**
+     * Acquires the credit of a request if available, used by the clients.
+     *
+     * @param size the request data size
+     * @return true if the credit was acquired, false if the request should wait
+     */
+    public synchronized boolean tryAcquire(int size) {
+        if (closed) {
+            return true;
+        } else if (requests < maxRequests && (requests == 0 || bytes + size <= maxBytes)) {
+            requests++;
+            bytes += size;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Acquires the credit of a request, waiting the credits returned by the server, used by the clients.
+     *
+     * @param size the request data size
+     * @throws IOException if the connection was closed while waiting or the thread was interrupted
+     */
+    public synchronized void acquire(int size) throws IOException {
+        while (!tryAcquire(size)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting the request credit.");
+            }
+        }
+        if (closed) {
+            throw new IOException("The connection was closed.");
+        }
+    }
+
+    /**
+     * Counts a received request, used by the servers. The request is counted even if the window is exhausted, the
+     * server should stop reading while {@link #isExhausted()} is true.
+     *
+     * @param size the request data size
+     */
+    public void add(int size) {
+        synchronized (this) {
+            requests++;
+            bytes += size;
+        }
+        if (byteBudget != null) {
+            byteBudget.add(size);
+        }
+    }
+
+    /**
+     * Returns the credit of a pending request, used by the clients when the reply is received and by the servers when
+     * the reply is sent.
+     *
+     * @param size the request data size
+     */
+    public void release(int size) {
+        releaseCredit(size);
+        if (byteBudget != null) {
+            byteBudget.release(size);
+        }
+    }
+
+    /**
+     * Returns the credit of a request finished without reply and returns the data of the credit frame if the
+     * accumulated credits should be granted to the client, used by the servers. The credits are granted when a quarter
+     * of the window is accumulated or when no other request is pending.
+     *
+     * @param size the request data size
+     * @return the buffer with the credit grant, or null if the credits are still accumulated
+     */
+    public PooledBuffer grant(int size) {
+        PooledBuffer credit = grantCredit(size);
+        if (byteBudget != null) {
+            byteBudget.release(size);
+        }
+        return credit;
+    }
+
+    /**
+     * Returns the credit of a request finished without reply, without returning its bytes to the shared budget.
+     *
+     * @param size the request data size
+     * @return the buffer with the credit grant, or null if the credits are still accumulated
+     */
+    private synchronized PooledBuffer grantCredit(int size) {
+        releaseCredit(size);
+        ungrantedRequests++;
+        ungrantedBytes += size;
+        if (requests > 0 && ungrantedRequests < Math.max(1, maxRequests / 4) && ungrantedBytes < maxBytes / 4) {
+            return null;
+        }
+        PooledBuffer credit = encode(ungrantedRequests, ungrantedBytes);
+        ungrantedRequests = 0;
+        ungrantedBytes = 0;
+        return credit;
+    }
+
+    /**
+     * Returns the data of the credit frame with the window size, replied by the server to the credit request.
+     *
+     * @return the buffer with the window
+     */
+    public synchronized PooledBuffer grantWindow() {
+        return encode(maxRequests, maxBytes);
+    }
+
+    /**
+     * Receives a credit frame of the server, used by the clients. The first frame sets the window size, the next ones
+     * return the credits of the requests finished without reply. The data buffer is not released.
+     *
+     * @param data the credit frame data
+     * @throws IOException if the credit frame is corrupted
+     */
+    public synchronized void receive(PooledBuffer data) throws IOException {
+        ByteBuffer buffer = data.buffer().duplicate();
+        if (buffer.remaining() != CREDIT_SIZE) {
+            throw new StreamCorruptedException("Invalid credit frame length: " + buffer.remaining() + ".");
+        }
+        int grantedRequests = buffer.getInt();
+        long grantedBytes = buffer.getLong();
+        if (grantedRequests < 0 || grantedBytes < 0) {
+            throw new StreamCorruptedException("Invalid credit frame: " + grantedRequests + ", " + grantedBytes + ".");
+        }
+        if (maxRequests == 0) {
+            maxRequests = grantedRequests;
+            maxBytes = grantedBytes;
+        } else {
+            requests -= grantedRequests;
+            bytes -= grantedBytes;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns if the window or the shared budget is exhausted, the server should not read other requests.
+     *
+     * @return if no other request is accepted
+     */
+    public synchronized boolean isExhausted() {
+        return requests >= maxRequests || bytes >= maxBytes || byteBudget != null && byteBudget.isExhausted();
+    }
+
+    /**
+     * Registers the budget listener in the shared budget if it is exhausted, used by the non-blocking servers when
+     * they stop reading.
+     *
+     * @return true if the listener was registered, false if the budget has room or is not shared
+     */
+    public boolean awaitBudget() {
+        return byteBudget != null && byteBudget.await(budgetListener);
+    }
+
+    /**
+     * Waits the window and the shared budget to have credits, used by the blocking servers before reading the next
+     * request.
+     *
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    public synchronized void awaitCredit() throws InterruptedIOException {
+        while (!closed && isExhausted()) {
+            if (!awaitBudget() && requests < maxRequests && bytes < maxBytes) {
+                continue;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting the request credit.");
+            }
+        }
+    }
+
+    /**
+     * Closes the window, the threads waiting credits are released.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Returns the credit of a pending request to this window.
+     *
+     * @param size the request data size
+     */
+    private synchronized void releaseCredit(int size) {
+        requests--;
+        bytes -= size;
+        notifyAll();
+    }
+
+    /**
+     * Wakes up the threads waiting credits, called when the shared budget has room.
+     */
+    private synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    /**
+     * Encodes a credit frame data.
+     *
+     * @param grantedRequests the number of granted requests
+     * @param grantedBytes    the number of granted bytes
+     * @return the buffer with the credit frame data
+     */
+    private static PooledBuffer encode(int grantedRequests, long grantedBytes) {
+        PooledBuffer credit = BufferArena.getInstance().allocate(CREDIT_SIZE);
+        credit.buffer().putInt(grantedRequests).putLong(grantedBytes).flip();
+        return credit;
+    }
+}
@@ -0,0 +1,239 @@
+package esm.infrastructure.nio;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single thread that waits for readiness events of the registered channels with a {@link Selector} and dispatches
+ * them to the {@link ChannelHandler}s. Other threads can interact with the channels submitting tasks with
+ * {@link #execute(Runnable)}, the tasks are executed by the event loop thread after the ready channels are handled.
+ * The tasks submitted with {@link #schedule(Runnable, long)} are executed in the first turn after their delay.
+ *
+ * @author Pedro Henrique
+ * @see Reactor
+ * @see ChannelHandler
+ */
+public final class EventLoop implements Runnable {
+
+    /**
+     * The selector of the registered channels.
+     */
+    private Selector selector;
+
+    /**
+     * The event loop thread.
+     */
+    private Thread eventLoopThread;
+
+    /**
+     * The tasks to execute in the event loop thread.
+     */
+    private Queue<Runnable> tasks;
+
+    /**
+     * The delayed tasks ordered by deadline, accessed only by the event loop thread.
+     */
+    private Queue<ScheduledTask> scheduledTasks;
+
+    /**
+     * The sequence number of the next delayed task, keeps the submission order of tasks with the same deadline.
+     */
+    private long nextScheduledTaskSequence;
+
+    /**
+     * Indicates if the selector was already woken up for the submitted tasks.
+     */
+    private AtomicBoolean wakeUpPending;
+
+    /**
+     * Indicates if this event loop is running.
+     */
+    private volatile boolean running;
+
+    /**
+     * Creates the event loop and opens its {@link Selector}.
+     *
+     * @param name the name of the event loop thread
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    EventLoop(String name) throws IOException {
+        selector = Selector.open();
+        eventLoopThread = new Thread(this, name);
+        tasks = new ConcurrentLinkedQueue<>();
+        scheduledTasks = new PriorityQueue<>(
+                Comparator.comparingLong((ScheduledTask task) -> task.deadline).thenComparingLong(task -> task.sequence)
+        );
+        nextScheduledTaskSequence = 0;
+        wakeUpPending = new AtomicBoolean(false);
+        running = false;
+    }
+
+    /**
+     * Starts the event loop thread.
+     */
+    void start() {
+        running = true;
+        eventLoopThread.start();
+    }
+
+    /**
+     * Stops the event loop thread and waits it finish, all registered {@link ChannelHandler}s are closed.
+     */
+    void stop() {
+        running = false;
+        selector.wakeup();
+        if (!inEventLoop()) {
+            try {
+                eventLoopThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns if the current thread is the event loop thread.
+     *
+     * @return if the caller is the event loop thread
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == eventLoopThread;
+    }
+
+    /**
+     * Submits a task to be executed by the event loop thread.
+     *
+     * @param task the task to execute, can not be null
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop() && wakeUpPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Submits a task to be executed by the event loop thread after the delay. The delay is measured from the moment the
+     * event loop thread receives the task, the selector wakes up in milliseconds, so sub-millisecond delays are rounded
+     * up to one millisecond when no other event wakes the event loop before.
+     *
+     * @param task       the task to execute, can not be null
+     * @param delayNanos the delay in nanoseconds, zero executes the task as {@link #execute(Runnable)}
+     */
+    public void schedule(Runnable task, long delayNanos) {
+        if (delayNanos < 0) {
+            throw new IllegalArgumentException("The delay can not be negative.");
+        } else if (delayNanos == 0) {
+            execute(task);
+            return;
+        }
+        execute(() -> scheduledTasks.add(
+                new ScheduledTask(task, System.nanoTime() + delayNanos, nextScheduledTaskSequence++)
+        ));
+    }
+
+    /**
+     * Registers the channel in this event loop with the received interest operations. The channel should be in
+     * non-blocking mode. The registration is done by the event loop thread, when done, the
+     * {@link ChannelHandler#registered(EventLoop, SelectionKey)} method is called.
+     *
+     * @param channel        the channel to register
+     * @param interestOps    the interest operations
+     * @param channelHandler the handler of the channel events
+     */
+    public void register(SelectableChannel channel, int interestOps, ChannelHandler channelHandler) {
+        execute(() -> {
+            try {
+                channelHandler.registered(this, channel.register(selector, interestOps, channelHandler));
+            } catch (ClosedChannelException e) {
+                channelHandler.close();
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                ScheduledTask nextScheduledTask = scheduledTasks.peek();
+                if (!tasks.isEmpty()) {
+                    // A scheduled task submitted other tasks, they run without waiting
+                    selector.selectNow();
+                } else if (nextScheduledTask == null) {
+                    selector.select();
+                } else {
+                    long delayNanos = nextScheduledTask.deadline - System.nanoTime();
+                    if (delayNanos > 0) {
+                        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(delayNanos)));
+                    } else {
+                        selector.selectNow();
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new Error();
+                // IOException can not be treated in the EventLoop
+            }
+            wakeUpPending.set(false);
+            Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+            while (selectedKeys.hasNext()) {
+                SelectionKey selectionKey = selectedKeys.next();
+                selectedKeys.remove();
+                ChannelHandler channelHandler = (ChannelHandler) selectionKey.attachment();
+                try {
+                    if (selectionKey.isValid()) {
+                        channelHandler.handle(selectionKey);
+                    }
+                } catch (IOException | CancelledKeyException e) {
+                    // The channel was closed or reset by the remote side
+                    channelHandler.close();
+                }
+            }
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+            long now = System.nanoTime();
+            while (!scheduledTasks.isEmpty() && scheduledTasks.peek().deadline - now <= 0) {
+                scheduledTasks.poll().task.run();
+            }
+        }
+        scheduledTasks.clear();
+        for (SelectionKey selectionKey : selector.keys()) {
+            ((ChannelHandler) selectionKey.attachment()).close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // The event loop is finishing
+        }
+    }
+
+    //
+
+    /**
+     * A task delayed until its deadline.
+     */
+    private static final class ScheduledTask {
+        private final Runnable task;
+        private final long deadline;
+        private final long sequence;
+
+        ScheduledTask(Runnable task, long deadline, long sequence) {
+            this.task = task;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package esm.infrastructure.nio;
+
+import esm.util.buffer.BufferArena;
+import esm.util.buffer.PooledBuffer;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Decodes the length prefixed frames read from a channel. Each frame has a header with the data length (int) and the
+ * correlation identifier (long), followed by the data. The bytes are read into a buffer of the {@link BufferArena} and
+ * the frames are assembled across partial reads in {@link PooledBuffer}s, so a single read can deliver many frames or
+ * a part of one frame. When no other bytes are buffered, the data of large frames is read directly into the frame
+ * buffer.
+ * <p>
+ * In blocking channels, the frames are read calling {@link #decode()} and, while it returns false,
+ * {@link #readFrom(ReadableByteChannel)}. In non-blocking channels, each readiness event calls
+ * {@link #readFrom(ReadableByteChannel)} once and then {@link #decode()} until it returns false. The decoder is not
+ * thread-safe.
+ * <p>
+ * The chunk frames are decoded as plain frames, {@link #isFrameLast()} indicates if other chunks of the same message
+ * follow the decoded frame, see {@link FrameEncoder#CHUNK_FLAG}. The decoder can limit the frame length, so a corrupted
+ * or malicious header does not allocate more memory than expected.
+ *
+ * @author Pedro Henrique
+ * @see FrameEncoder
+ */
+public final class FrameDecoder {
+
+    /**
+     * The capacity of the read buffer.
+     */
+    private static final int READ_BUFFER_CAPACITY = 64 * 1024;
+
+    /**
+     * The buffer of the read bytes not decoded yet, kept ready to be read.
+     */
+    private PooledBuffer readBuffer;
+
+    /**
+     * The buffer of the frame being assembled, null while the header is not read.
+     */
+    private PooledBuffer frame;
+
+    /**
+     * The correlation identifier of the frame being assembled.
+     */
+    private long correlationId;
+
+    /**
+     * Indicates if the frame being assembled is the last chunk of its message.
+     */
+    private boolean last;
+
+    /**
+     * The data of the last decoded frame, null if not decoded or already obtained.
+     */
+    private PooledBuffer frameData;
+
+    /**
+     * The correlation identifier of the last decoded frame.
+     */
+    private long frameCorrelationId;
+
+    /**
+     * Indicates if the last decoded frame is the last chunk of its message.
+     */
+    private boolean frameLast;
+
+    /**
+     * The max data length of the frames.
+     */
+    private int maxFrameLength;
+
+    /**
+     * Creates the decoder with a buffer of the {@link BufferArena}, without limit of frame length.
+     */
+    public FrameDecoder() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates the decoder with a buffer of the {@link BufferArena}. The frames longer than the max length are rejected
+     * before their data is allocated.
+     *
+     * @param maxFrameLength the max data length of the frames, greater than zero
+     */
+    public FrameDecoder(int maxFrameLength) {
+        if (maxFrameLength < 1) {
+            throw new IllegalArgumentException("The max frame length can not be less than 1.");
+        }
+        this.maxFrameLength = maxFrameLength;
+        readBuffer = BufferArena.getInstance().allocate(READ_BUFFER_CAPACITY);
+        readBuffer.buffer().flip();
+    }
+
+    /**
+     * Reads the bytes available in the channel, in blocking channels, waits at least one byte.
+     *
+     * @param channel the channel to read
+     * @return the number of read bytes, or -1 if the channel reached the end of stream
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        if (readBuffer == null) {
+            throw new IllegalStateException("The FrameDecoder is closed.");
+        }
+        ByteBuffer buffer = readBuffer.buffer();
+        if (frame != null && !buffer.hasRemaining()) {
+            return channel.read(frame.buffer());
+        }
+        buffer.compact();
+        try {
+            return channel.read(buffer);
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    /**
+     * Decodes the next frame from the read bytes, the frame can be obtained with {@link #getFrameData()} and
+     * {@link #getFrameCorrelationId()}. The data of the previous frame is released if it was not obtained.
+     *
+     * @return true if a frame was decoded, false if more bytes should be read
+     * @throws IOException if the frame header is corrupted
+     */
+    public boolean decode() throws IOException {
+        if (readBuffer == null) {
+            throw new IllegalStateException("The FrameDecoder is closed.");
+        }
+        if (frameData != null) {
+            frameData.release();
+            frameData = null;
+        }
+        if (!decodeHeader()) {
+            return false;
+        }
+        ByteBuffer buffer = readBuffer.buffer();
+        ByteBuffer frameBuffer = frame.buffer();
+        int length = Math.min(buffer.remaining(), frameBuffer.remaining());
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + length);
+        frameBuffer.put(buffer);
+        buffer.limit(limit);
+        if (frameBuffer.hasRemaining()) {
+            return false;
+        }
+        frameBuffer.flip();
+        frameData = frame;
+        frameCorrelationId = correlationId;
+        frameLast = last;
+        frame = null;
+        return true;
+    }
+
+    /**
+     * Decodes the header of the next frame if it was not decoded yet, so the correlation identifier of the next frame
+     * can be obtained with {@link #getNextCorrelationId()} before the frame is complete.
+     *
+     * @return true if the header of the next frame was decoded, false if more bytes should be read
+     * @throws IOException if the frame header is corrupted
+     */
+    public boolean decodeHeader() throws IOException {
+        if (readBuffer == null) {
+            throw new IllegalStateException("The FrameDecoder is closed.");
+        } else if (frame != null) {
+            return true;
+        }
+        ByteBuffer buffer = readBuffer.buffer();
+        if (buffer.remaining() < FrameEncoder.HEADER_SIZE) {
+            return false;
+        }
+        int length = buffer.getInt();
+        last = (length & FrameEncoder.CHUNK_FLAG) == 0;
+        length &= ~FrameEncoder.CHUNK_FLAG;
+        if (!last && length > FrameEncoder.CHUNK_SIZE) {
+            throw new StreamCorruptedException("Invalid frame length: " + length + ".");
+        } else if (length > maxFrameLength) {
+            throw new StreamCorruptedException("The frame length " + length + " exceeds the max of "
+                    + maxFrameLength + ".");
+        }
+        correlationId = buffer.getLong();
+        frame = BufferArena.getInstance().allocate(length);
+        return true;
+    }
+
+    /**
+     * Returns the correlation identifier of the next frame, the header of the frame should be decoded by
+     * {@link #decodeHeader()}.
+     *
+     * @return the correlation identifier of the next frame
+     */
+    public long getNextCorrelationId() {
+        if (frame == null) {
+            throw new IllegalStateException("The header of the next frame was not decoded.");
+        }
+        return correlationId;
+    }
+
+    /**
+     * Returns the data of the last decoded frame, the buffer ownership is transferred to the caller.
+     *
+     * @return the frame data
+     */
+    public PooledBuffer getFrameData() {
+        if (frameData == null) {
+            throw new IllegalStateException("No frame was decoded or the frame data was already obtained.");
+        }
+        PooledBuffer decodedFrameData = frameData;
+        frameData = null;
+        return decodedFrameData;
+    }
+
+    /**
+     * Returns the correlation identifier of the last decoded frame.
+     *
+     * @return the frame correlation identifier
+     */
+    public long getFrameCorrelationId() {
+        return frameCorrelationId;
+    }
+
+    /**
+     * Returns if the last decoded frame is the last chunk of its message, true for the plain frames.
+     *
+     * @return if no other chunk of the message follows the frame
+     */
+    public boolean isFrameLast() {
+        return frameLast;
+    }
+
+    /**
+     * Returns the buffers to the {@link BufferArena}, should be called by the thread that reads the channel, after the
+     * last read.
+     */
+    public void close() {
+        if (readBuffer == null) {
+            return;
+        }
+        readBuffer.release();
+        readBuffer = null;
+        if (frame != null) {
+            frame.release();
+            frame = null;
+        }
+        if (frameData != null) {
+            frameData.release();
+            frameData = null;
+        }
+    }
+}
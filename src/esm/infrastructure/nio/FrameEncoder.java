@@ -0,0 +1,120 @@
+package esm.infrastructure.nio;
+
+import esm.util.buffer.BufferArena;
+import esm.util.buffer.PooledBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * Encodes the length prefixed frames written to a channel. Each frame has a header with the data length (int) and the
+ * correlation identifier (long), followed by the data. In blocking channels, the header and the {@link PooledBuffer}
+ * of the data are written with gathering writes, without copying the data, multiple threads can write frames using the
+ * same encoder. In non-blocking channels, the frames are encoded with {@link #encode(long, PooledBuffer)} and written
+ * by the event loop.
+ * <p>
+ * Large messages can be written as a sequence of chunk frames with the same correlation identifier, each one with at
+ * most {@link #CHUNK_SIZE} bytes. The chunks followed by other chunks have the {@link #CHUNK_FLAG} set in the length,
+ * the last chunk is a plain frame, so a message of a single chunk is a plain frame.
+ *
+ * @author Pedro Henrique
+ * @see FrameDecoder
+ */
+public final class FrameEncoder {
+
+    /**
+     * The size of the frame header.
+     */
+    public static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+
+    /**
+     * The flag set in the length of the chunk frames followed by other chunks of the same message.
+     */
+    public static final int CHUNK_FLAG = 0x80000000;
+
+    /**
+     * The max data size of the chunk frames.
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The buffers written in each gathering write, the header and the data.
+     */
+    private ByteBuffer[] frameBuffers;
+
+    /**
+     * Creates the encoder with a direct header buffer.
+     */
+    public FrameEncoder() {
+        frameBuffers = new ByteBuffer[]{ByteBuffer.allocateDirect(HEADER_SIZE), null};
+    }
+
+    /**
+     * Writes a frame in the blocking channel, the frames written by concurrent threads are not interleaved. The data
+     * buffer is not released and its position is not changed.
+     *
+     * @param channel       the blocking channel
+     * @param correlationId the frame correlation identifier
+     * @param data          the frame data
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    public void write(GatheringByteChannel channel, long correlationId, PooledBuffer data) throws IOException {
+        writeChunk(channel, correlationId, data, true);
+    }
+
+    /**
+     * Writes a chunk frame in the blocking channel, with the same rules of
+     * {@link #write(GatheringByteChannel, long, PooledBuffer)}. The chunks of a message should be written in order.
+     *
+     * @param channel       the blocking channel
+     * @param correlationId the frame correlation identifier
+     * @param data          the chunk data, with at most {@link #CHUNK_SIZE} bytes if not the last chunk
+     * @param last          if the chunk is the last of the message
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    public synchronized void writeChunk(GatheringByteChannel channel, long correlationId, PooledBuffer data,
+                                        boolean last) throws IOException {
+        ByteBuffer headerBuffer = frameBuffers[0];
+        ByteBuffer dataBuffer = data.buffer().duplicate();
+        headerBuffer.clear();
+        headerBuffer.putInt(dataBuffer.remaining() | (last ? 0 : CHUNK_FLAG)).putLong(correlationId).flip();
+        frameBuffers[1] = dataBuffer;
+        try {
+            while (headerBuffer.hasRemaining() || dataBuffer.hasRemaining()) {
+                channel.write(frameBuffers);
+            }
+        } finally {
+            frameBuffers[1] = null;
+        }
+    }
+
+    /**
+     * Encodes a frame in a buffer of the {@link BufferArena}, ready to be written. The data buffer is not released and
+     * its position is not changed.
+     *
+     * @param correlationId the frame correlation identifier
+     * @param data          the frame data
+     * @return the buffer with the frame
+     */
+    public static PooledBuffer encode(long correlationId, PooledBuffer data) {
+        return encodeChunk(correlationId, data, true);
+    }
+
+    /**
+     * Encodes a chunk frame in a buffer of the {@link BufferArena}, with the same rules of
+     * {@link #encode(long, PooledBuffer)}.
+     *
+     * @param correlationId the frame correlation identifier
+     * @param data          the chunk data, with at most {@link #CHUNK_SIZE} bytes if not the last chunk
+     * @param last          if the chunk is the last of the message
+     * @return the buffer with the frame
+     */
+    public static PooledBuffer encodeChunk(long correlationId, PooledBuffer data, boolean last) {
+        ByteBuffer dataBuffer = data.buffer().duplicate();
+        PooledBuffer frame = BufferArena.getInstance().allocate(HEADER_SIZE + dataBuffer.remaining());
+        frame.buffer().putInt(dataBuffer.remaining() | (last ? 0 : CHUNK_FLAG)).putLong(correlationId).put(dataBuffer)
+                .flip();
+        return frame;
+    }
+}
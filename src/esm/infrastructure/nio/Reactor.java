@@ -0,0 +1,98 @@
+package esm.infrastructure.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The Reactor is a group of {@link EventLoop}s that handle non-blocking channels. The registered channels are spread
+ * over the event loops in a round-robin order, after registered, all events of a channel are handled by the same
+ * event loop thread.
+ *
+ * @author Pedro Henrique
+ * @see EventLoop
+ * @see ChannelHandler
+ */
+public class Reactor {
+
+    /**
+     * The event loops of this reactor.
+     */
+    private EventLoop[] eventLoops;
+
+    /**
+     * The index of the next event loop to receive a channel.
+     */
+    private AtomicInteger nextEventLoopIndex;
+
+    /**
+     * Indicates if this reactor is running.
+     */
+    private boolean running;
+
+    /**
+     * Creates the reactor with the received number of {@link EventLoop}s.
+     *
+     * @param eventLoopCount the number of event loops (threads), should be greater than 0
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    public Reactor(int eventLoopCount) throws IOException {
+        if (eventLoopCount < 1) {
+            throw new IllegalArgumentException("The number of event loops should be greater than 0.");
+        }
+        eventLoops = new EventLoop[eventLoopCount];
+        for (int i = 0; i < eventLoopCount; i++) {
+            eventLoops[i] = new EventLoop("esm-reactor-" + i);
+        }
+        nextEventLoopIndex = new AtomicInteger();
+        running = false;
+    }
+
+    /**
+     * Starts the {@link EventLoop} threads.
+     */
+    public synchronized void start() {
+        if (running) {
+            throw new IllegalStateException("The reactor is already running.");
+        }
+        running = true;
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.start();
+        }
+    }
+
+    /**
+     * Stops the {@link EventLoop} threads, the registered {@link ChannelHandler}s are closed. A stopped reactor can not
+     * be started again.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            throw new IllegalStateException("The reactor is already stopped.");
+        }
+        running = false;
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.stop();
+        }
+    }
+
+    /**
+     * Returns the next {@link EventLoop} in the round-robin order.
+     *
+     * @return an event loop
+     */
+    public EventLoop next() {
+        return eventLoops[Math.floorMod(nextEventLoopIndex.getAndIncrement(), eventLoops.length)];
+    }
+
+    /**
+     * Registers the channel in the next {@link EventLoop}.
+     *
+     * @param channel        the non-blocking channel to register
+     * @param interestOps    the interest operations
+     * @param channelHandler the handler of the channel events
+     * @see EventLoop#register(SelectableChannel, int, ChannelHandler)
+     */
+    public void register(SelectableChannel channel, int interestOps, ChannelHandler channelHandler) {
+        next().register(channel, interestOps, channelHandler);
+    }
+}
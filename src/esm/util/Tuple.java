@@ -11,6 +11,25 @@ import java.io.Serializable;
  */
 public class Tuple<T, U> implements Serializable {
 
+    /**
+     * The empty array of tuples, shared by all element types because it has no elements.
+     */
+    private static final Tuple<?, ?>[] EMPTY_ARRAY = new Tuple<?, ?>[0];
+
+    /**
+     * Returns the empty array of tuples of the inferred element types.
+     *
+     * @param <T> the type of the first element
+     * @param <U> the type of the second element
+     * @return the empty array
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, U> Tuple<T, U>[] emptyArray() {
+        return (Tuple<T, U>[]) EMPTY_ARRAY;
+    }
+
+    //
+
     /**
      * The first element.
      */
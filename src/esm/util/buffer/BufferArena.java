@@ -0,0 +1,424 @@
+package esm.util.buffer;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An arena of off-heap memory that allocates the reference counted {@link PooledBuffer}s used by the transport,
+ * cryptography and marshalling layers, so a message can be kept in the same memory from the socket to the skeleton.
+ * The memory is reserved in direct slabs of {@link #SLAB_SIZE} bytes, each slab is divided in chunks of a single size
+ * class, the chunks of released buffers are reused by the next allocations. The buffers larger than
+ * {@link #MAX_POOLED_CAPACITY} bytes, or allocated when the arena reached its max capacity, are not pooled.
+ * <p>
+ * The arena can detect buffers collected by the garbage collector without being released, the memory of leaked buffers
+ * is recovered and the leak is reported. By default only one of each {@link #LEAK_SAMPLING_INTERVAL} buffers is
+ * tracked, so the detection costs little in the allocation path and the leaks repeated in a code path are still
+ * found. This class is a singleton, the instance can be obtained using the method
+ * {@link #getInstance()}.
+ *
+ * @author Pedro Henrique
+ * @see PooledBuffer
+ */
+public final class BufferArena {
+
+    /**
+     * The instance of this class.
+     */
+    private static BufferArena instance;
+
+    /**
+     * Gets the instance of this class.
+     *
+     * @return the instance
+     */
+    public static synchronized BufferArena getInstance() {
+        return instance != null ? instance : (instance = new BufferArena());
+    }
+
+    //
+
+    /**
+     * The size in bytes of the slabs reserved by the arena.
+     */
+    public static final int SLAB_SIZE = 1024 * 1024;
+
+    /**
+     * The capacity of the largest pooled buffers.
+     */
+    public static final int MAX_POOLED_CAPACITY = 256 * 1024;
+
+    /**
+     * The chunk sizes of the size classes.
+     */
+    private static final int[] SIZE_CLASSES = {1024, 4 * 1024, 16 * 1024, 64 * 1024, MAX_POOLED_CAPACITY};
+
+    /**
+     * The default max number of bytes reserved in slabs.
+     */
+    private static final long DEFAULT_MAX_CAPACITY = 64L * 1024 * 1024;
+
+    /**
+     * The average number of allocations for each buffer tracked by the {@link LeakDetection#SAMPLED} level.
+     */
+    public static final int LEAK_SAMPLING_INTERVAL = 128;
+
+    /**
+     * The free chunks of each size class.
+     */
+    private List<Queue<ByteBuffer>> freeChunks;
+
+    /**
+     * The max number of bytes reserved in slabs.
+     */
+    private volatile long maxCapacity;
+
+    /**
+     * The leak detection level.
+     */
+    private volatile LeakDetection leakDetection;
+
+    /**
+     * The number of bytes reserved in slabs.
+     */
+    private AtomicLong capacity;
+
+    /**
+     * The number of reserved slabs.
+     */
+    private AtomicInteger slabCount;
+
+    /**
+     * The number of bytes of the chunks used by not released buffers.
+     */
+    private AtomicLong usedBytes;
+
+    /**
+     * The number of not released buffers, pooled or not.
+     */
+    private AtomicInteger acquiredBufferCount;
+
+    /**
+     * The number of buffers allocated out of the slabs.
+     */
+    private AtomicLong unpooledAllocationCount;
+
+    /**
+     * The number of buffers collected without being released.
+     */
+    private AtomicLong leakCount;
+
+    /**
+     * The queue of the trackers of the collected buffers.
+     */
+    private ReferenceQueue<PooledBuffer> leakQueue;
+
+    /**
+     * The trackers of the not released buffers.
+     */
+    private Set<LeakTracker> leakTrackers;
+
+    /**
+     * Creates the arena without slabs.
+     */
+    private BufferArena() {
+        freeChunks = new ArrayList<>(SIZE_CLASSES.length);
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            freeChunks.add(new ConcurrentLinkedQueue<>());
+        }
+        maxCapacity = DEFAULT_MAX_CAPACITY;
+        leakDetection = LeakDetection.SAMPLED;
+        capacity = new AtomicLong();
+        slabCount = new AtomicInteger();
+        usedBytes = new AtomicLong();
+        acquiredBufferCount = new AtomicInteger();
+        unpooledAllocationCount = new AtomicLong();
+        leakCount = new AtomicLong();
+        leakQueue = new ReferenceQueue<>();
+        leakTrackers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Sets the max number of bytes reserved in slabs, the slabs already reserved are kept.
+     *
+     * @param maxCapacity the max capacity, can not be negative
+     */
+    public void setMaxCapacity(long maxCapacity) {
+        if (maxCapacity < 0) {
+            throw new IllegalArgumentException("The max capacity can not be negative.");
+        }
+        this.maxCapacity = maxCapacity;
+    }
+
+    /**
+     * Sets the leak detection level, the buffers already allocated keep the previous level.
+     *
+     * @param leakDetection the leak detection level, can not be null
+     */
+    public void setLeakDetection(LeakDetection leakDetection) {
+        this.leakDetection = Objects.requireNonNull(leakDetection, "The leak detection can not be null.");
+    }
+
+    /**
+     * Allocates a buffer with the received capacity, the buffer position is zero and the limit is the capacity.
+     *
+     * @param capacity the buffer capacity, can not be negative
+     * @return the allocated buffer with one reference
+     */
+    public PooledBuffer allocate(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The capacity can not be negative.");
+        }
+        recoverLeaks();
+        int sizeClass = sizeClassOf(capacity);
+        ByteBuffer memory = null;
+        if (sizeClass >= 0) {
+            memory = freeChunks.get(sizeClass).poll();
+            if (memory == null) {
+                memory = reserveChunk(sizeClass);
+            }
+        }
+        if (memory == null) {
+            sizeClass = -1;
+            memory = ByteBuffer.allocateDirect(capacity);
+            unpooledAllocationCount.incrementAndGet();
+        } else {
+            memory.clear().limit(capacity);
+            usedBytes.addAndGet(SIZE_CLASSES[sizeClass]);
+        }
+        acquiredBufferCount.incrementAndGet();
+        PooledBuffer pooledBuffer = new PooledBuffer(this, memory, sizeClass);
+        LeakDetection currentLeakDetection = leakDetection;
+        if (currentLeakDetection != LeakDetection.DISABLED && (currentLeakDetection != LeakDetection.SAMPLED
+                || ThreadLocalRandom.current().nextInt(LEAK_SAMPLING_INTERVAL) == 0)) {
+            LeakTracker leakTracker = new LeakTracker(
+                    pooledBuffer, leakQueue, memory, sizeClass,
+                    currentLeakDetection == LeakDetection.PARANOID ? new Throwable("Buffer allocation") : null
+            );
+            leakTrackers.add(leakTracker);
+            pooledBuffer.setLeakTracker(leakTracker);
+        }
+        return pooledBuffer;
+    }
+
+    /**
+     * Allocates a buffer with a copy of the received bytes, ready to be read.
+     *
+     * @param data the bytes to copy, can not be null
+     * @return the allocated buffer with one reference
+     */
+    public PooledBuffer copyOf(byte[] data) {
+        Objects.requireNonNull(data, "The data can not be null.");
+        PooledBuffer pooledBuffer = allocate(data.length);
+        pooledBuffer.buffer().put(data).flip();
+        return pooledBuffer;
+    }
+
+    /**
+     * Returns the number of bytes reserved in slabs.
+     *
+     * @return the arena capacity
+     */
+    public long getCapacity() {
+        return capacity.get();
+    }
+
+    /**
+     * Returns the number of reserved slabs.
+     *
+     * @return the slab count
+     */
+    public int getSlabCount() {
+        return slabCount.get();
+    }
+
+    /**
+     * Returns the number of bytes of the slabs used by not released buffers.
+     *
+     * @return the used bytes
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * Returns the fraction of the reserved bytes used by not released buffers, between 0 and 1.
+     *
+     * @return the arena occupancy
+     */
+    public double getOccupancy() {
+        long currentCapacity = capacity.get();
+        return currentCapacity == 0 ? 0 : (double) usedBytes.get() / currentCapacity;
+    }
+
+    /**
+     * Returns the number of not released buffers, pooled or not.
+     *
+     * @return the acquired buffer count
+     */
+    public int getAcquiredBufferCount() {
+        return acquiredBufferCount.get();
+    }
+
+    /**
+     * Returns the number of buffers allocated out of the slabs, because they were too large or the arena was full.
+     *
+     * @return the unpooled allocation count
+     */
+    public long getUnpooledAllocationCount() {
+        return unpooledAllocationCount.get();
+    }
+
+    /**
+     * Returns the number of buffers collected by the garbage collector without being released.
+     *
+     * @return the leak count
+     */
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    /**
+     * Returns the memory of a released buffer to the arena.
+     *
+     * @param pooledBuffer the released buffer
+     */
+    void free(PooledBuffer pooledBuffer) {
+        LeakTracker leakTracker = pooledBuffer.getLeakTracker();
+        if (leakTracker != null) {
+            leakTrackers.remove(leakTracker);
+            leakTracker.clear();
+        }
+        freeMemory(pooledBuffer.getMemory(), pooledBuffer.getSizeClass());
+    }
+
+    /**
+     * Returns the memory to the free chunks of its size class.
+     *
+     * @param memory    the memory
+     * @param sizeClass the memory size class, or -1 if the memory is not pooled
+     */
+    private void freeMemory(ByteBuffer memory, int sizeClass) {
+        acquiredBufferCount.decrementAndGet();
+        if (sizeClass >= 0) {
+            usedBytes.addAndGet(-SIZE_CLASSES[sizeClass]);
+            freeChunks.get(sizeClass).add(memory);
+        }
+    }
+
+    /**
+     * Reserves a new slab for the size class, divides it in chunks and returns one of them.
+     *
+     * @param sizeClass the size class
+     * @return a free chunk, or null if the arena reached the max capacity
+     */
+    private synchronized ByteBuffer reserveChunk(int sizeClass) {
+        ByteBuffer memory = freeChunks.get(sizeClass).poll();
+        if (memory != null) {
+            return memory;
+        } else if (capacity.get() + SLAB_SIZE > maxCapacity) {
+            return null;
+        }
+        ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+        capacity.addAndGet(SLAB_SIZE);
+        slabCount.incrementAndGet();
+        int chunkSize = SIZE_CLASSES[sizeClass];
+        for (int offset = 0; offset < SLAB_SIZE; offset += chunkSize) {
+            slab.limit(offset + chunkSize).position(offset);
+            ByteBuffer chunk = slab.slice();
+            if (memory == null) {
+                memory = chunk;
+            } else {
+                freeChunks.get(sizeClass).add(chunk);
+            }
+        }
+        return memory;
+    }
+
+    /**
+     * Returns the smallest size class that fits the capacity.
+     *
+     * @param capacity the capacity
+     * @return the size class, or -1 if the capacity is larger than {@link #MAX_POOLED_CAPACITY}
+     */
+    private static int sizeClassOf(int capacity) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (capacity <= SIZE_CLASSES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Recovers the memory of the buffers collected without being released and reports the leaks.
+     */
+    private void recoverLeaks() {
+        LeakTracker leakTracker;
+        while ((leakTracker = (LeakTracker) leakQueue.poll()) != null) {
+            if (leakTrackers.remove(leakTracker)) {
+                leakCount.incrementAndGet();
+                freeMemory(leakTracker.memory, leakTracker.sizeClass);
+                new IllegalStateException("A PooledBuffer was collected without being released.",
+                        leakTracker.allocationTrace).printStackTrace();
+            }
+        }
+    }
+
+    //
+
+    /**
+     * The levels of leak detection.
+     */
+    public enum LeakDetection {
+
+        /**
+         * The leaks are not detected and the memory of the leaked buffers is lost.
+         */
+        DISABLED,
+
+        /**
+         * The leaks of one of each {@link BufferArena#LEAK_SAMPLING_INTERVAL} buffers, chosen at random, are detected
+         * and reported.
+         */
+        SAMPLED,
+
+        /**
+         * The leaks are detected and reported.
+         */
+        SIMPLE,
+
+        /**
+         * The leaks are detected and reported with the stack trace of the buffer allocation.
+         */
+        PARANOID
+    }
+
+    /**
+     * Tracks a buffer to detect if it is collected without being released, holds the buffer memory to recover it.
+     */
+    static class LeakTracker extends PhantomReference<PooledBuffer> {
+        private ByteBuffer memory;
+        private int sizeClass;
+        private Throwable allocationTrace;
+
+        LeakTracker(PooledBuffer pooledBuffer, ReferenceQueue<PooledBuffer> leakQueue, ByteBuffer memory,
+                    int sizeClass, Throwable allocationTrace) {
+            super(pooledBuffer, leakQueue);
+            this.memory = memory;
+            this.sizeClass = sizeClass;
+            this.allocationTrace = allocationTrace;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package esm.util.buffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * An {@link InputStream} that reads the chunks of a message while they are received. The receiver adds the chunks
+ * with {@link #put(PooledBuffer)}, {@link #offer(PooledBuffer)} or {@link #spill(PooledBuffer)} and ends the message
+ * with {@link #finish()} or {@link #fail(IOException)}, the reader blocks until the next chunk is added. The chunks are
+ * kept in a bounded queue, so the memory of the message is limited by the queue capacity instead of the message size,
+ * except for the spilled chunks. The read chunks are released to the {@link BufferArena}, the chunks not read are
+ * released when the stream is closed. The capacity is enforced before the reader starts reading too, so a stream
+ * whose reader does not read can not hold more memory than the capacity.
+ *
+ * @author Pedro Henrique
+ * @see ChunkOutputStream
+ */
+public class ChunkInputStream extends InputStream {
+
+    /**
+     * The max number of queued bytes before the receiver should wait.
+     */
+    private int capacity;
+
+    /**
+     * The chunks not read yet.
+     */
+    private Queue<PooledBuffer> chunks;
+
+    /**
+     * The number of queued bytes.
+     */
+    private int queuedBytes;
+
+    /**
+     * The number of bytes added to the stream.
+     */
+    private long receivedBytes;
+
+    /**
+     * Indicates if the last chunk was added.
+     */
+    private boolean finished;
+
+    /**
+     * The failure of the message, null if not failed.
+     */
+    private IOException failure;
+
+    /**
+     * Indicates if the stream was closed by the reader.
+     */
+    private boolean closed;
+
+    /**
+     * Indicates if an offered chunk filled the queue, so the drain listener is called when the queue has room again.
+     */
+    private boolean overflowed;
+
+    /**
+     * The listener called when the queue has room after an offered chunk filled it, null if not set.
+     */
+    private Runnable drainListener;
+
+    /**
+     * Creates the stream with the received queue capacity.
+     *
+     * @param capacity the max number of queued bytes before the receiver should wait, greater than zero
+     */
+    public ChunkInputStream(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity can not be less than 1.");
+        }
+        this.capacity = capacity;
+        chunks = new ArrayDeque<>();
+        queuedBytes = 0;
+        receivedBytes = 0;
+        finished = false;
+        failure = null;
+        closed = false;
+        overflowed = false;
+        drainListener = null;
+    }
+
+    /**
+     * Sets the listener called, by the reader thread, when the queue has room after an offered chunk filled it.
+     *
+     * @param drainListener the drain listener
+     */
+    public synchronized void setDrainListener(Runnable drainListener) {
+        this.drainListener = drainListener;
+    }
+
+    /**
+     * Adds a chunk, waiting while the queue is full. The chunk ownership is transferred to the stream.
+     *
+     * @param chunk the chunk, ready to be read
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    public synchronized void put(PooledBuffer chunk) throws InterruptedIOException {
+        while (!closed && queuedBytes >= capacity) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                chunk.release();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting the chunk to be read.");
+            }
+        }
+        add(chunk);
+    }
+
+    /**
+     * Adds a chunk without waiting, used by receivers that can not block. The chunk ownership is transferred to the
+     * stream.
+     *
+     * @param chunk the chunk, ready to be read
+     * @return true if the queue has room for other chunks, false if the receiver should stop until the drain listener
+     * is called
+     */
+    public synchronized boolean offer(PooledBuffer chunk) {
+        add(chunk);
+        if (!closed && queuedBytes >= capacity) {
+            overflowed = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds a chunk beyond the capacity, used by receivers shared with other streams that can neither wait nor pause
+     * this stream alone, so the memory of the message is limited by the message size instead of the capacity. The
+     * chunk ownership is transferred to the stream.
+     *
+     * @param chunk the chunk, ready to be read
+     */
+    public synchronized void spill(PooledBuffer chunk) {
+        add(chunk);
+    }
+
+    /**
+     * Returns if the queue is full.
+     *
+     * @return if the receiver should wait
+     */
+    public synchronized boolean isFull() {
+        return !closed && queuedBytes >= capacity;
+    }
+
+    /**
+     * Returns the number of bytes added to the stream, including the bytes already read and the released ones.
+     *
+     * @return the received bytes
+     */
+    public synchronized long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    /**
+     * Ends the message, the reader reaches the end of stream after the queued chunks.
+     */
+    public synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Fails the message, the reader receives the failure after the queued chunks.
+     *
+     * @param failure the failure
+     */
+    public synchronized void fail(IOException failure) {
+        if (!finished) {
+            this.failure = failure;
+            finished = true;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Runnable drainedListener;
+        int length;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("The stream is closed.");
+            } else if (len == 0) {
+                return 0;
+            }
+            PooledBuffer chunk = awaitChunk();
+            if (chunk == null) {
+                return -1;
+            }
+            length = Math.min(len, chunk.buffer().remaining());
+            chunk.buffer().get(b, off, length);
+            queuedBytes -= length;
+            if (!chunk.buffer().hasRemaining()) {
+                chunks.poll().release();
+            }
+            drainedListener = drained();
+        }
+        if (drainedListener != null) {
+            drainedListener.run();
+        }
+        return length;
+    }
+
+    @Override
+    public synchronized int available() {
+        return closed ? 0 : queuedBytes;
+    }
+
+    /**
+     * Closes the stream, the queued chunks and the chunks added after it are released.
+     */
+    @Override
+    public void close() {
+        Runnable drainedListener;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            releaseChunks();
+            notifyAll();
+            drainedListener = drained();
+        }
+        if (drainedListener != null) {
+            drainedListener.run();
+        }
+    }
+
+    /**
+     * Adds a chunk to the queue, or releases it if the stream was closed.
+     *
+     * @param chunk the chunk
+     */
+    private void add(PooledBuffer chunk) {
+        receivedBytes += chunk.buffer().remaining();
+        if (closed || finished) {
+            chunk.release();
+            return;
+        }
+        if (!chunk.buffer().hasRemaining()) {
+            chunk.release();
+            return;
+        }
+        chunks.add(chunk);
+        queuedBytes += chunk.buffer().remaining();
+        notifyAll();
+    }
+
+    /**
+     * Waits the next chunk with readable bytes.
+     *
+     * @return the chunk, or null if the message ended
+     * @throws IOException if the message failed or the thread was interrupted
+     */
+    private PooledBuffer awaitChunk() throws IOException {
+        while (chunks.isEmpty()) {
+            if (failure != null) {
+                throw failure;
+            } else if (finished) {
+                return null;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting the next chunk.");
+            }
+        }
+        return chunks.peek();
+    }
+
+    /**
+     * Wakes up the waiting receivers if the queue has room and returns the drain listener to be called if an offered
+     * chunk had filled the queue.
+     *
+     * @return the drain listener to call, or null
+     */
+    private Runnable drained() {
+        if (queuedBytes >= capacity && !closed) {
+            return null;
+        }
+        notifyAll();
+        if (!overflowed) {
+            return null;
+        }
+        overflowed = false;
+        return drainListener;
+    }
+
+    /**
+     * Releases the queued chunks.
+     */
+    private void releaseChunks() {
+        PooledBuffer chunk;
+        while ((chunk = chunks.poll()) != null) {
+            chunk.release();
+        }
+        queuedBytes = 0;
+    }
+}
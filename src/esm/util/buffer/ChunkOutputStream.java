@@ -0,0 +1,143 @@
+package esm.util.buffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * An {@link OutputStream} that writes a message in chunks of bounded size. The bytes are written into a
+ * {@link PooledBuffer} of the {@link BufferArena}, growing from a small capacity, when the buffer reaches the chunk
+ * size, it is delivered to the {@link ChunkSink} and a new chunk is started. Closing the stream delivers the last
+ * chunk, possibly empty. With a chunk size of {@link Integer#MAX_VALUE}, the whole message is delivered as the last
+ * chunk.
+ *
+ * @author Pedro Henrique
+ * @see ChunkInputStream
+ */
+public class ChunkOutputStream extends OutputStream {
+
+    /**
+     * The initial capacity of the chunk buffers.
+     */
+    private static final int INITIAL_CHUNK_CAPACITY = 1024;
+
+    //
+
+    /**
+     * The max chunk size.
+     */
+    private int chunkSize;
+
+    /**
+     * The receiver of the chunks.
+     */
+    private ChunkSink chunkSink;
+
+    /**
+     * The chunk being written, null after the stream was closed.
+     */
+    private PooledBuffer chunk;
+
+    /**
+     * Creates the stream with the received chunk size.
+     *
+     * @param chunkSize the max chunk size, greater than zero
+     * @param chunkSink the receiver of the chunks, can not be null
+     */
+    public ChunkOutputStream(int chunkSize, ChunkSink chunkSink) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size can not be less than 1.");
+        }
+        this.chunkSize = chunkSize;
+        this.chunkSink = Objects.requireNonNull(chunkSink, "The chunk sink can not be null.");
+        chunk = BufferArena.getInstance().allocate(Math.min(chunkSize, INITIAL_CHUNK_CAPACITY));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (chunk == null) {
+            throw new IOException("The stream is closed.");
+        }
+        while (len > 0) {
+            ensureRemaining(len);
+            ByteBuffer buffer = chunk.buffer();
+            int length = Math.min(len, buffer.remaining());
+            buffer.put(b, off, length);
+            off += length;
+            len -= length;
+            if (buffer.position() == chunkSize) {
+                deliver(false);
+            }
+        }
+    }
+
+    /**
+     * Delivers the last chunk, the stream can not be written anymore.
+     *
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    @Override
+    public void close() throws IOException {
+        if (chunk != null) {
+            deliver(true);
+        }
+    }
+
+    /**
+     * Delivers the current chunk to the sink, if not the last, starts a new chunk.
+     *
+     * @param last if the chunk is the last of the message
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private void deliver(boolean last) throws IOException {
+        PooledBuffer deliveredChunk = chunk;
+        chunk = null;
+        deliveredChunk.buffer().flip();
+        chunkSink.write(deliveredChunk, last);
+        if (!last) {
+            chunk = BufferArena.getInstance().allocate(Math.min(chunkSize, INITIAL_CHUNK_CAPACITY));
+        }
+    }
+
+    /**
+     * Moves the written bytes to a larger buffer if the chunk buffer has less remaining bytes than required and it is
+     * smaller than the chunk size.
+     *
+     * @param required the required remaining bytes
+     */
+    private void ensureRemaining(int required) {
+        ByteBuffer buffer = chunk.buffer();
+        if (buffer.remaining() >= required || buffer.limit() >= chunkSize) {
+            return;
+        }
+        int capacity = (int) Math.min(chunkSize, Math.max(buffer.limit() * 2L, (long) buffer.position() + required));
+        PooledBuffer largerChunk = BufferArena.getInstance().allocate(capacity);
+        buffer.flip();
+        largerChunk.buffer().put(buffer);
+        chunk.release();
+        chunk = largerChunk;
+    }
+
+    /**
+     * Receives the chunks of a {@link ChunkOutputStream}.
+     */
+    @FunctionalInterface
+    public interface ChunkSink {
+
+        /**
+         * Receives a chunk of the message, the chunk ownership is transferred to the sink, even if an exception is
+         * thrown.
+         *
+         * @param chunk the chunk, ready to be read
+         * @param last  if the chunk is the last of the message
+         * @throws IOException if an I/O exception of some sort has occurred
+         */
+        void write(PooledBuffer chunk, boolean last) throws IOException;
+    }
+}
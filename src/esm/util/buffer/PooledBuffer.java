@@ -0,0 +1,170 @@
+package esm.util.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted off-heap buffer allocated by the {@link BufferArena}. The buffer is created with one reference,
+ * each holder that keeps the buffer should call {@link #retain()}, and each holder should call {@link #release()} when
+ * the buffer is not used anymore. When the last reference is released, the memory returns to the arena and the buffer
+ * can not be used anymore.
+ * <p>
+ * The methods that receive a buffer do not release it, unless documented that the buffer ownership is transferred,
+ * the methods that return a buffer transfer its ownership to the caller.
+ *
+ * @author Pedro Henrique
+ * @see BufferArena
+ */
+public final class PooledBuffer {
+
+    /**
+     * The arena that allocated this buffer.
+     */
+    private BufferArena bufferArena;
+
+    /**
+     * The NIO buffer with the memory of this buffer.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * The size class of the memory in the arena, or -1 if the memory is not pooled.
+     */
+    private int sizeClass;
+
+    /**
+     * The number of references of this buffer.
+     */
+    private AtomicInteger referenceCount;
+
+    /**
+     * The leak tracker of this buffer, null if the leak detection is disabled.
+     */
+    private BufferArena.LeakTracker leakTracker;
+
+    /**
+     * Creates the buffer with one reference.
+     *
+     * @param bufferArena the arena that allocated the buffer
+     * @param buffer      the NIO buffer with the memory
+     * @param sizeClass   the size class of the memory, or -1 if not pooled
+     */
+    PooledBuffer(BufferArena bufferArena, ByteBuffer buffer, int sizeClass) {
+        this.bufferArena = bufferArena;
+        this.buffer = buffer;
+        this.sizeClass = sizeClass;
+        referenceCount = new AtomicInteger(1);
+    }
+
+    /**
+     * Returns the NIO buffer with the memory of this buffer, the position and limit of the NIO buffer are shared by all
+     * holders.
+     *
+     * @return the NIO buffer
+     */
+    public ByteBuffer buffer() {
+        if (referenceCount.get() <= 0) {
+            throw new IllegalStateException("The buffer was already released.");
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the number of bytes between the position and the limit of the buffer.
+     *
+     * @return the readable bytes
+     */
+    public int remaining() {
+        return buffer().remaining();
+    }
+
+    /**
+     * Returns the current number of references.
+     *
+     * @return the reference count
+     */
+    public int referenceCount() {
+        return referenceCount.get();
+    }
+
+    /**
+     * Adds a reference to this buffer.
+     *
+     * @return this buffer
+     */
+    public PooledBuffer retain() {
+        while (true) {
+            int currentReferenceCount = referenceCount.get();
+            if (currentReferenceCount <= 0) {
+                throw new IllegalStateException("The buffer was already released.");
+            } else if (referenceCount.compareAndSet(currentReferenceCount, currentReferenceCount + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Removes a reference of this buffer, when the last reference is removed, the memory returns to the arena.
+     *
+     * @return true if the memory returned to the arena
+     */
+    public boolean release() {
+        int currentReferenceCount = referenceCount.decrementAndGet();
+        if (currentReferenceCount < 0) {
+            referenceCount.incrementAndGet();
+            throw new IllegalStateException("The buffer was already released.");
+        } else if (currentReferenceCount > 0) {
+            return false;
+        }
+        bufferArena.free(this);
+        return true;
+    }
+
+    /**
+     * Copies the readable bytes of this buffer to a new array, the position is not changed.
+     *
+     * @return the readable bytes
+     */
+    public byte[] toByteArray() {
+        ByteBuffer readableBuffer = buffer().duplicate();
+        byte[] data = new byte[readableBuffer.remaining()];
+        readableBuffer.get(data);
+        return data;
+    }
+
+    /**
+     * Returns the memory of this buffer, used by the arena.
+     *
+     * @return the NIO buffer with the memory
+     */
+    ByteBuffer getMemory() {
+        return buffer;
+    }
+
+    /**
+     * Returns the size class of the memory, used by the arena.
+     *
+     * @return the size class, or -1 if the memory is not pooled
+     */
+    int getSizeClass() {
+        return sizeClass;
+    }
+
+    /**
+     * Returns the leak tracker of this buffer, used by the arena.
+     *
+     * @return the leak tracker, or null if the leak detection is disabled
+     */
+    BufferArena.LeakTracker getLeakTracker() {
+        return leakTracker;
+    }
+
+    /**
+     * Sets the leak tracker of this buffer, used by the arena.
+     *
+     * @param leakTracker the leak tracker
+     */
+    void setLeakTracker(BufferArena.LeakTracker leakTracker) {
+        this.leakTracker = leakTracker;
+    }
+}
@@ -0,0 +1,78 @@
+package esm.util.buffer;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link InputStream} that reads the readable bytes of a {@link PooledBuffer}. The stream reads a view of the
+ * buffer, the buffer position is not changed and the buffer is not released by the stream, unless the buffer ownership
+ * is transferred to the stream when created, so the buffer is released when the stream is closed.
+ *
+ * @author Pedro Henrique
+ * @see PooledBufferOutputStream
+ */
+public class PooledBufferInputStream extends InputStream {
+
+    /**
+     * The view of the buffer being read.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * The buffer released when the stream is closed, null if not owned or already released.
+     */
+    private PooledBuffer ownedBuffer;
+
+    /**
+     * Creates the stream reading the readable bytes of the buffer, the buffer is not released by the stream.
+     *
+     * @param pooledBuffer the buffer to read
+     */
+    public PooledBufferInputStream(PooledBuffer pooledBuffer) {
+        this(pooledBuffer, false);
+    }
+
+    /**
+     * Creates the stream reading the readable bytes of the buffer.
+     *
+     * @param pooledBuffer the buffer to read
+     * @param owned        if the buffer ownership is transferred to the stream, released when the stream is closed
+     */
+    public PooledBufferInputStream(PooledBuffer pooledBuffer, boolean owned) {
+        buffer = pooledBuffer.buffer().duplicate();
+        ownedBuffer = owned ? pooledBuffer : null;
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        } else if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int length = Math.min(len, buffer.remaining());
+        buffer.get(b, off, length);
+        return length;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    /**
+     * Releases the buffer if its ownership was transferred to the stream.
+     */
+    @Override
+    public void close() {
+        if (ownedBuffer != null) {
+            ownedBuffer.release();
+            ownedBuffer = null;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package esm.util.buffer;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link OutputStream} that writes into a {@link PooledBuffer} of the {@link BufferArena}. When the buffer is full,
+ * the written bytes are moved to a buffer with the double of the capacity. The written bytes are obtained with
+ * {@link #toPooledBuffer()}.
+ *
+ * @author Pedro Henrique
+ * @see PooledBufferInputStream
+ */
+public class PooledBufferOutputStream extends OutputStream {
+
+    /**
+     * The buffer with the written bytes, null after the bytes were obtained.
+     */
+    private PooledBuffer pooledBuffer;
+
+    /**
+     * Creates the stream with a buffer with the received initial capacity.
+     *
+     * @param initialCapacity the initial capacity of the buffer
+     */
+    public PooledBufferOutputStream(int initialCapacity) {
+        pooledBuffer = BufferArena.getInstance().allocate(initialCapacity);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureRemaining(1);
+        pooledBuffer.buffer().put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureRemaining(len);
+        pooledBuffer.buffer().put(b, off, len);
+    }
+
+    /**
+     * Writes the readable bytes of the received buffer, the buffer position is not changed.
+     *
+     * @param data the buffer to write
+     */
+    public void write(PooledBuffer data) {
+        ByteBuffer dataBuffer = data.buffer().duplicate();
+        ensureRemaining(dataBuffer.remaining());
+        pooledBuffer.buffer().put(dataBuffer);
+    }
+
+    /**
+     * Returns the buffer with the written bytes, ready to be read, the buffer ownership is transferred to the caller
+     * and the stream can not be written anymore.
+     *
+     * @return the buffer with the written bytes
+     */
+    public PooledBuffer toPooledBuffer() {
+        if (pooledBuffer == null) {
+            throw new IllegalStateException("The written bytes were already obtained.");
+        }
+        PooledBuffer writtenBuffer = pooledBuffer;
+        pooledBuffer = null;
+        writtenBuffer.buffer().flip();
+        return writtenBuffer;
+    }
+
+    /**
+     * Releases the buffer if the written bytes were not obtained.
+     */
+    @Override
+    public void close() {
+        if (pooledBuffer != null) {
+            pooledBuffer.release();
+            pooledBuffer = null;
+        }
+    }
+
+    /**
+     * Moves the written bytes to a larger buffer if the current buffer has not the required remaining bytes.
+     *
+     * @param required the required remaining bytes
+     */
+    private void ensureRemaining(int required) {
+        if (pooledBuffer == null) {
+            throw new IllegalStateException("The written bytes were already obtained.");
+        }
+        ByteBuffer buffer = pooledBuffer.buffer();
+        if (buffer.remaining() >= required) {
+            return;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + required);
+        PooledBuffer largerBuffer = BufferArena.getInstance().allocate(capacity);
+        buffer.flip();
+        largerBuffer.buffer().put(buffer);
+        pooledBuffer.release();
+        pooledBuffer = largerBuffer;
+    }
+}
@@ -0,0 +1,150 @@
+package test.infrastructure;
+
+import esm.infrastructure.ClientRequestHandler;
+import esm.infrastructure.ServerRequestConnector;
+import esm.infrastructure.ServerRequestHandler;
+import esm.infrastructure.TransportFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Compares the round trip latency of the transports available in the {@link TransportFactory}, the built-in protocols
+ * and the discovered providers. Each transport echoes the requests of a single client in the same process, for some
+ * payload sizes. The transports that can not be used in this environment are skipped.
+ *
+ * @author Pedro Henrique
+ */
+public class TransportBenchmark {
+
+    /**
+     * The port of the first transport, the next transports use the next ports.
+     */
+    static final int FIRST_SERVER_PORT = 50100;
+
+    /**
+     * The payload sizes in bytes.
+     */
+    static final int[] PAYLOAD_SIZES = {64, 4096, 65536};
+
+    /**
+     * The number of round trips before the measure of each payload size.
+     */
+    static final int WARM_UP_ROUND_TRIPS = 20000;
+
+    /**
+     * The number of measured round trips of each payload size.
+     */
+    static final int MEASURED_ROUND_TRIPS = 10000;
+
+    /**
+     * Runs the benchmark of the transports named in the arguments, or of all available transports.
+     *
+     * @param args the transport names, optional
+     */
+    public static void main(String[] args) throws IOException {
+        Collection<String> transports = args != null && args.length > 0
+                ? Arrays.asList(args)
+                : TransportFactory.getTransportNames();
+        System.out.printf("%-16s %8s %10s %10s %10s %12s%n", "transport", "bytes", "avg us", "p50 us", "p99 us",
+                "trips/s");
+        int serverPort = FIRST_SERVER_PORT;
+        for (String transport : transports) {
+            try {
+                benchmark(transport, InetAddress.getLocalHost(), serverPort++);
+            } catch (IOException | RuntimeException e) {
+                System.out.printf("%-16s skipped: %s%n", transport, e);
+            }
+        }
+    }
+
+    /**
+     * Measures the round trips of the transport for all payload sizes.
+     *
+     * @param transport     the transport name
+     * @param serverAddress the server address
+     * @param serverPort    the server port
+     * @throws IOException if an I/O exception of some sort has occurred
+     */
+    private static void benchmark(String transport, InetAddress serverAddress, int serverPort) throws IOException {
+        ServerRequestConnector serverRequestConnector
+                = TransportFactory.newServerRequestConnector(transport, serverAddress, serverPort);
+        Thread acceptorThread = new Thread(() -> accept(serverRequestConnector));
+        acceptorThread.setDaemon(true);
+        acceptorThread.start();
+        try {
+            for (int payloadSize : PAYLOAD_SIZES) {
+                byte[] payload = new byte[payloadSize];
+                long[] latencies = new long[MEASURED_ROUND_TRIPS];
+                ClientRequestHandler clientRequestHandler = null;
+                try {
+                    for (int i = -WARM_UP_ROUND_TRIPS; i < MEASURED_ROUND_TRIPS; i++) {
+                        if (clientRequestHandler == null || !clientRequestHandler.isConnected()) {
+                            clientRequestHandler
+                                    = TransportFactory.newClientRequestHandler(transport, serverAddress, serverPort);
+                            clientRequestHandler.connect();
+                        }
+                        long startTime = System.nanoTime();
+                        clientRequestHandler.send(payload);
+                        clientRequestHandler.receive();
+                        if (i >= 0) {
+                            latencies[i] = System.nanoTime() - startTime;
+                        }
+                    }
+                } finally {
+                    if (clientRequestHandler != null && clientRequestHandler.isConnected()) {
+                        clientRequestHandler.disconnect();
+                    }
+                }
+                Arrays.sort(latencies);
+                long totalLatency = 0;
+                for (long latency : latencies) {
+                    totalLatency += latency;
+                }
+                System.out.printf("%-16s %8d %10.1f %10.1f %10.1f %12.0f%n", transport, payloadSize,
+                        totalLatency / 1e3 / MEASURED_ROUND_TRIPS,
+                        latencies[MEASURED_ROUND_TRIPS / 2] / 1e3,
+                        latencies[MEASURED_ROUND_TRIPS * 99 / 100] / 1e3,
+                        MEASURED_ROUND_TRIPS / (totalLatency / 1e9));
+            }
+        } finally {
+            serverRequestConnector.close();
+        }
+    }
+
+    /**
+     * Accepts the connections until the connector is closed, each connection echoes its requests in its own thread.
+     *
+     * @param serverRequestConnector the server connector
+     */
+    private static void accept(ServerRequestConnector serverRequestConnector) {
+        while (true) {
+            ServerRequestHandler serverRequestHandler;
+            try {
+                serverRequestHandler = serverRequestConnector.accept();
+            } catch (IOException e) {
+                return;
+            }
+            Thread echoThread = new Thread(() -> echo(serverRequestHandler));
+            echoThread.setDaemon(true);
+            echoThread.start();
+        }
+    }
+
+    /**
+     * Echoes the requests of the connection until it is closed.
+     *
+     * @param serverRequestHandler the connected server handler
+     */
+    private static void echo(ServerRequestHandler serverRequestHandler) {
+        try {
+            do {
+                serverRequestHandler.send(serverRequestHandler.receive());
+            } while (serverRequestHandler.isPersistent() && serverRequestHandler.isConnected());
+        } catch (IOException e) {
+            // The client disconnected
+        }
+    }
+}